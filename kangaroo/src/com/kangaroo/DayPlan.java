@@ -16,6 +16,7 @@ import com.kangaroo.calendar.conflicts.CalendarEventUnroutable;
 import com.kangaroo.task.Task;
 import com.mobiletsm.routing.NoRouteFoundException;
 import com.mobiletsm.routing.Place;
+import com.mobiletsm.routing.RouteMatrix;
 import com.mobiletsm.routing.RouteParameter;
 import com.mobiletsm.routing.RoutingEngine;
 import com.mobiletsm.routing.Vehicle;
@@ -269,7 +270,14 @@ public class DayPlan {
 	 * @throws NoRouteFoundException if no route could be found
 	 */
 	public int checkComplianceWith(Date now, Place here, Vehicle vehicle) throws NoRouteFoundException {
-		return checkComplianceWith(now, here, getNextEvent(now), vehicle);
+		CalendarEvent nextEvent = getNextEvent(now);
+		
+		/* compliance is checked from changing places against the same next event */
+		if (routingEngine != null && routingEngine.initialized()) {
+			routingEngine.setActiveDestination(nextEvent != null ? nextEvent.getPlace() : null, vehicle);
+		}
+		
+		return checkComplianceWith(now, here, nextEvent, vehicle);
 	}
 	
 	
@@ -319,27 +327,7 @@ public class DayPlan {
 			
 			RouteParameter route = routingEngine.routeFromTo(here, destinationEvent.getPlace(), vehicle);
 		
-				System.out.println("DayPlan.checkComplianceWith(): " + route.toString());
-				
-			/* not finding any route should be an exotic case */
-			if (route.getNoRouteFound()) {
-				throw new NoRouteFoundException("DayPlan.checkComplianceWith(): No route found");
-			}
-			
-			/* Date.getTime() returns time in milliseconds, so 
-			 * we have to divide by 1000*60 to get minutes */
-			int timeLeft = (int)Math.floor((destinationEvent.getStartDate().getTime() - now.getTime()) / (1000 * 60));
-			
-				System.out.println("DayPlan.checkComplianceWith(): timeLeft (w/o route) = " + timeLeft);
-						
-			/* be pessimistic and round up the duration of travel and 
-			 * round down the gap between subsequent events */
-			/* TODO: Math.rint() does not always round up */
-			timeLeft = timeLeft - (int)Math.ceil(route.getDurationOfTravel());
-			
-				System.out.println("DayPlan.checkComplianceWith(): timeLeft (with route) = " + timeLeft);
-			
-			return (int)timeLeft;
+			return getTimeLeft(now, destinationEvent, route);
 			
 		} else {
 			/* if there is no event to be compliant with */
@@ -348,6 +336,92 @@ public class DayPlan {
 	}
 	
 		
+	/**
+	 * return the number of minutes left to start moving towards the given 
+	 * event along the given route
+	 * @param now
+	 * @param destinationEvent
+	 * @param route
+	 * @return
+	 * @throws NoRouteFoundException if no route was found
+	 */
+	private int getTimeLeft(Date now, CalendarEvent destinationEvent, 
+			RouteParameter route) throws NoRouteFoundException {
+		
+			System.out.println("DayPlan.checkComplianceWith(): " + route.toString());
+			
+		/* not finding any route should be an exotic case */
+		if (route.getNoRouteFound()) {
+			throw new NoRouteFoundException("DayPlan.checkComplianceWith(): No route found");
+		}
+		
+		/* Date.getTime() returns time in milliseconds, so 
+		 * we have to divide by 1000*60 to get minutes */
+		int timeLeft = (int)Math.floor((destinationEvent.getStartDate().getTime() - now.getTime()) / (1000 * 60));
+		
+			System.out.println("DayPlan.checkComplianceWith(): timeLeft (w/o route) = " + timeLeft);
+					
+		/* be pessimistic and round up the duration of travel and 
+		 * round down the gap between subsequent events */
+		/* TODO: Math.rint() does not always round up */
+		timeLeft = timeLeft - (int)Math.ceil(route.getDurationOfTravel());
+		
+			System.out.println("DayPlan.checkComplianceWith(): timeLeft (with route) = " + timeLeft);
+		
+		return (int)timeLeft;
+	}
+	
+	
+	/**
+	 * find the routes of the given legs (from the start place to the destination
+	 * place with the same position). Legs with equal start places are routed by
+	 * a single request to the routing engine.
+	 * @param starts
+	 * @param destinations
+	 * @param vehicle
+	 * @return
+	 */
+	private RouteParameter[] getRoutes(List<Place> starts, List<Place> destinations, Object vehicle) {
+		int numberOfLegs = starts.size();
+		
+		/* group the legs by start place (places updated to the same 
+		 * street node are equal, so their legs are grouped, too) */
+		int[] groups = new int[numberOfLegs];
+		int[] targetIndices = new int[numberOfLegs];
+		List<List<Place>> groupTargets = new ArrayList<List<Place>>();
+		List<Place> groupStarts = new ArrayList<Place>();
+		for (int i = 0; i < numberOfLegs; i++) {
+			int group = groupStarts.indexOf(starts.get(i));
+			if (group == -1) {
+				group = groupStarts.size();
+				groupStarts.add(starts.get(i));
+				groupTargets.add(new ArrayList<Place>());
+			}
+			List<Place> targets = groupTargets.get(group);
+			int target = targets.indexOf(destinations.get(i));
+			if (target == -1) {
+				target = targets.size();
+				targets.add(destinations.get(i));
+			}
+			groups[i] = group;
+			targetIndices[i] = target;
+		}
+		
+		RouteMatrix[] matrices = new RouteMatrix[groupStarts.size()];
+		for (int group = 0; group < matrices.length; group++) {
+			List<Place> sources = new ArrayList<Place>();
+			sources.add(groupStarts.get(group));
+			matrices[group] = routingEngine.routeMatrix(sources, groupTargets.get(group), vehicle);
+		}
+		
+		RouteParameter[] routes = new RouteParameter[numberOfLegs];
+		for (int i = 0; i < numberOfLegs; i++) {
+			routes[i] = matrices[groups[i]].getRouteParameter(0, targetIndices[i]);
+		}
+		return routes;
+	}
+	
+	
 	/**
 	 * @return the minimalTimeLeft
 	 */
@@ -376,6 +450,38 @@ public class DayPlan {
 		CalendarEvent event;
 		CalendarEvent predecessor = null;
 		
+		/* collect the legs between subsequent events that have to be
+		 * routed, so their routes can be calculated at once */
+		List<Place> legStarts = new ArrayList<Place>();
+		List<Place> legDestinations = new ArrayList<Place>();
+		while ((event = getNextEvent(pos)) != null) {
+			if (predecessor != null && predecessor.getEndDate() != null &&
+					event.getStartDate().compareTo(predecessor.getEndDate()) >= 0 &&
+					predecessor.hasLocation() && event.hasLocation()) {
+				legStarts.add(predecessor.getPlace());
+				legDestinations.add(event.getPlace());
+			}
+			predecessor = event;
+			pos = event.getStartDate();
+		}
+		
+		RouteParameter[] legRoutes = null;
+		if (legStarts.size() > 0) {
+			/* we need the routing engine to be ready */
+			if (routingEngine == null || !routingEngine.initialized()) {
+				throw new RuntimeException("DayPlan.checkConsistency(): Routing engine not ready");
+			}
+			/* find the nearest street nodes of all places at once */
+			List<Place> places = new ArrayList<Place>(legStarts);
+			places.addAll(legDestinations);
+			routingEngine.snapAll(places);
+			legRoutes = getRoutes(legStarts, legDestinations, vehicle);
+		}
+		int leg = 0;
+		
+		pos = now;
+		predecessor = null;
+		
 		/* iterate over all CalendarEvents in the calendar and check consistency  */
 		while ((event = getNextEvent(pos)) != null) {
 			
@@ -400,8 +506,7 @@ public class DayPlan {
 						try {
 							/* check compliance of the event with end date and place
 							 * of preceding calendar event (predecessor)  */
-							int timeLeft = checkComplianceWith(predecessor.getEndDate(), 
-									predecessor.getPlace(), event, vehicle);
+							int timeLeft = getTimeLeft(predecessor.getEndDate(), event, legRoutes[leg++]);
 	
 							/* add a collision, if time between two events is less
 							 * than it will probably take to move from one event to the other */
@@ -4,7 +4,6 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 
@@ -16,8 +15,11 @@ import com.kangaroo.task.SimpleTaskPriorityComparator;
 import com.mobiletsm.routing.GeoConstraints;
 import com.mobiletsm.routing.NoRouteFoundException;
 import com.mobiletsm.routing.Place;
+import com.mobiletsm.routing.ReachableSet;
+import com.mobiletsm.routing.RouteMatrix;
 import com.mobiletsm.routing.RouteParameter;
 import com.mobiletsm.routing.RoutingEngine;
+import com.mobiletsm.routing.Vehicle;
 
 public class GreedyTaskInsertionOptimizer implements DayPlanOptimizer {
 
@@ -105,135 +107,260 @@ public class GreedyTaskInsertionOptimizer implements DayPlanOptimizer {
 		}
 
 		
-		/* get, sort and iterate over all tasks in active day plan */
+		/* get and sort all tasks in active day plan */
 		List<Task> tasksToHandle = new ArrayList<Task>(originalDayPlan.getTasks());
 		Collections.sort(tasksToHandle, taskPriorityComparator);
 		
+		/* first pass: find the tasks that may be set now without any search. Fixed
+		 * execution locations are collected, so they can be snapped, checked against
+		 * the street nodes reachable before the next event and routed to and from 
+		 * all at once. The locations of tasks at POI nodes are searched in the second 
+		 * pass, and only for the tasks it gets to (tasks after the first one without 
+		 * location are never reached) */
+		int numberOfTasks = tasksToHandle.size();
+		boolean[] candidates = new boolean[numberOfTasks];
+		TaskConstraintHelper[] poiConstraintHelpers = new TaskConstraintHelper[numberOfTasks];
+		int[] taskDurations = new int[numberOfTasks];
+		Place[] taskExecutionPlaces = new Place[numberOfTasks];
+		int[] placeIndices = new int[numberOfTasks];
+		List<Place> places = new ArrayList<Place>();
+		boolean poiTasksFound = false;
+		
+		/* the street nodes that can be reached before the next event 
+		 * (searched when the first execution location is to be checked) */
+		ReachableSet reachableSet = null;
+		boolean reachableSetSearched = false;
+		int timeLeftUntilNextEvent = 0;
+		if (nextEvent != null) {
+			timeLeftUntilNextEvent = 
+				(int)Math.floor((nextEvent.getStartDate().getTime() - now.getTime()) / (1000 * 60));
+		}
+		
+		for (int i = 0; i < numberOfTasks; i++) {
+			
+			Task task = tasksToHandle.get(i);
+			TaskConstraintHelper constraintHelper = new TaskConstraintHelper(task);
+			constraintHelper.setRoutingEngine(routingEngine);				
+			
+				System.out.println("GreedyTaskInsertionOptimizer.optimize(): analyzing task " + task.toString());
+			
+			/* how long does the task take to be executed */ 
+			int taskDuration = constraintHelper.getDuration();
+			taskDurations[i] = taskDuration;
+			
+				System.out.println("GreedyTaskInsertionOptimizer.optimize(): INFO: " +
+						"timeLeftToWait = " + timeLeftToWait + ", duration = " + taskDuration);
+			
+			/* check if there is enough time to insert this task before
+			 * the next event (this is a heuristic approach)
+			 * TODO: this may reject tasks that can be executed between
+			 * now and the next event anyhow (think of tasks that can
+			 * be executed while moving towards the next event) */
+			if (nextEvent == null || taskDuration <= timeLeftToWait) {
+				
+				/* skip this task if its constraints forbid to execute it now
+				 * TODO: checking task constraint consistency with now is not
+				 * correct, because we have to check if the actual time and 
+				 * duration is consistent with the task's constraints. */
+				if (constraintHelper.isAllowed(now)) {
+					
+					if (constraintHelper.hasPOIConstraints()) {
+						/* the execution location of this task needs a search
+						 * for POI nodes, which is done in the second pass */
+						candidates[i] = true;
+						poiConstraintHelpers[i] = constraintHelper;
+						poiTasksFound = true;
+						continue;
+					}
+					
+					try {
+						/* the nearest of the fixed execution locations of this task */
+						Place taskExecutionPlace = constraintHelper.getLocation(here, null);
+						candidates[i] = true;
+						
+						if (taskExecutionPlace != null) {
+							
+								System.out.println("GreedyTaskInsertionOptimizer.optimize(): INFO: " +
+										"taskExecutionPlace = " + taskExecutionPlace);
+								
+							taskExecutionPlaces[i] = taskExecutionPlace;
+							places.add(taskExecutionPlace);
+						} else {
+							/* this task will be set, so there is no need to look any further */
+							break;
+						}
+						
+					} catch (NoLocationFoundException e) {
+						/* cannot find an execution location for this task */
+						
+						System.out.println("GreedyTaskInsertionOptimizer.optimize(): SKIP this task! " +
+							"cannot find an execution location for this task");
+					}							
+					
+				} else {
+					/* the task cannot be executed now, because date and/or
+					 * daytime constraints forbid its execution. */
+					
+					System.out.println("GreedyTaskInsertionOptimizer.optimize(): SKIP this task! " +
+							"constraints forbid to execute it now");
+				}
+			} else {
+				/* executing this task  */
+				
+				System.out.println("GreedyTaskInsertionOptimizer.optimize(): SKIP this task! " +
+						"timeLeftToWait = " +	timeLeftToWait + ", duration = " + taskDuration);
+			}
+		}
+		
+		if (places.size() > 0 || poiTasksFound) {
+			/* find the nearest street nodes of all places at once */
+			List<Place> allPlaces = new ArrayList<Place>(places);
+			allPlaces.add(here);
+			if (nextEvent != null) {
+				allPlaces.add(nextEvent.getPlace());
+			}
+			routingEngine.snapAll(allPlaces);
+		}
+		
+		/* skip the tasks whose execution locations cannot be reached 
+		 * early enough to execute them before the next event */
+		List<Place> reachablePlaces = new ArrayList<Place>();
+		for (int i = 0; i < numberOfTasks; i++) {
+			Place taskExecutionPlace = taskExecutionPlaces[i];
+			if (taskExecutionPlace == null) {
+				continue;
+			}
+			if (nextEvent != null) {
+				if (!reachableSetSearched) {
+					reachableSet = routingEngine.reachable(here, vehicle, timeLeftUntilNextEvent);
+					reachableSetSearched = true;
+				}
+				if (reachableSet != null && !isReachable(reachableSet, taskExecutionPlace, 
+						timeLeftUntilNextEvent - taskDurations[i])) {
+					
+					System.out.println("GreedyTaskInsertionOptimizer.optimize(): SKIP this task! " +
+						"its execution location cannot be reached before the next event");
+					candidates[i] = false;
+					continue;
+				}
+			}
+			placeIndices[i] = reachablePlaces.size();
+			reachablePlaces.add(taskExecutionPlace);
+		}
+		
+		/* routes from here to all execution locations left and from 
+		 * all execution locations left to the next event */
+		RouteMatrix fromHereToTasks = null;
+		RouteMatrix fromTasksToNextEvent = null;
+		if (reachablePlaces.size() > 0) {
+			List<Place> hereList = new ArrayList<Place>();
+			hereList.add(here);
+			fromHereToTasks = routingEngine.routeMatrix(hereList, reachablePlaces, vehicle);
+			if (nextEvent != null) {
+				List<Place> nextEventList = new ArrayList<Place>();
+				nextEventList.add(nextEvent.getPlace());
+				fromTasksToNextEvent = routingEngine.routeMatrix(reachablePlaces, nextEventList, vehicle);
+			}
+		}
+		
+		/* second pass: set the first task that fits */
 		boolean taskSet = false;
 		
-		Iterator<Task> task_itr = tasksToHandle.iterator();
-		while (task_itr.hasNext()) {
+		for (int i = 0; i < numberOfTasks; i++) {
 						
-			Task task = task_itr.next();
+			Task task = tasksToHandle.get(i);
 			CalendarEvent taskAsEvent = null;			
 			
-			if (!taskSet) {
-				TaskConstraintHelper constraintHelper = new TaskConstraintHelper(task);
-				constraintHelper.setRoutingEngine(routingEngine);				
-				
-					System.out.println("GreedyTaskInsertionOptimizer.optimize(): analyzing task " + task.toString());
-				
-				/* how long does the task take to be executed */ 
-				int taskDuration = constraintHelper.getDuration();
+			if (!taskSet && candidates[i]) {
 				
-					System.out.println("GreedyTaskInsertionOptimizer.optimize(): INFO: " +
-							"timeLeftToWait = " + timeLeftToWait + ", duration = " + taskDuration);
+				Place taskExecutionPlace = taskExecutionPlaces[i];
+				int taskDuration = taskDurations[i];
+				RouteParameter fromHereToTask = null;
+				RouteParameter fromTaskToNextEvent = null;
 				
-				/* check if there is enough time to insert this task before
-				 * the next event (this is a heuristic approach)
-				 * TODO: this may reject tasks that can be executed between
-				 * now and the next event anyhow (think of tasks that can
-				 * be executed while moving towards the next event) */
-				if (nextEvent == null || taskDuration <= timeLeftToWait) {
+				if (poiConstraintHelpers[i] != null) {
 					
-					/* skip this task if its constraints forbid to execute it now
-					 * TODO: checking task constraint consistency with now is not
-					 * correct, because we have to check if the actual time and 
-					 * duration is consistent with the task's constraints. */
-					if (constraintHelper.isAllowed(now)) {
-						
-						/* find a location to execute the current task */
-						GeoConstraints geoConstraints = null;
+					/* find a location to execute the task (the one with the smallest 
+					 * detour by route on the way to the next event) and the routes 
+					 * to and from it, unless it cannot be reached early enough */
+					taskExecutionPlace = getPOILocation(poiConstraintHelpers[i], here, nextEvent, vehicle);
+					if (taskExecutionPlace != null && nextEvent != null) {
+						if (!reachableSetSearched) {
+							reachableSet = routingEngine.reachable(here, vehicle, timeLeftUntilNextEvent);
+							reachableSetSearched = true;
+						}
+						if (reachableSet != null && !isReachable(reachableSet, taskExecutionPlace, 
+								timeLeftUntilNextEvent - taskDuration)) {
+							
+							System.out.println("GreedyTaskInsertionOptimizer.optimize(): SKIP this task! " +
+								"its execution location cannot be reached before the next event");
+							taskExecutionPlace = null;
+						}
+					}
+					if (taskExecutionPlace != null) {
+						fromHereToTask = routingEngine.routeFromTo(here, taskExecutionPlace, vehicle);
 						if (nextEvent != null) {
-							geoConstraints = new GeoConstraints(nextEvent.getPlace());
+							fromTaskToNextEvent = 
+								routingEngine.routeFromTo(taskExecutionPlace, nextEvent.getPlace(), vehicle);
 						}
-						Place taskExecutionPlace;
-						try {
-							taskExecutionPlace = constraintHelper.getLocation(here, geoConstraints);
+					}
+					
+				} else if (taskExecutionPlace != null) {
+					fromHereToTask = fromHereToTasks.getRouteParameter(0, placeIndices[i]);
+					if (nextEvent != null) {
+						fromTaskToNextEvent = fromTasksToNextEvent.getRouteParameter(placeIndices[i], 0);
+					}
+				}
+				
+				/*  */
+				if (fromHereToTask != null) {
+					
+					if (nextEvent != null) {
+						
+						if (!fromHereToTask.getNoRouteFound() && !fromTaskToNextEvent.getNoRouteFound()) {
+							/* calculate the time left if current task is executed before the next event */
+							int newTimeLeft = timeLeftUntilNextEvent - (int)Math.ceil(fromHereToTask.getDurationOfTravel()) - 
+								(int)Math.ceil(fromTaskToNextEvent.getDurationOfTravel()) - taskDuration;
 							
-							/*  */
-							if (taskExecutionPlace != null) {
-								
-									System.out.println("GreedyTaskInsertionOptimizer.optimize(): INFO: " +
-											"taskExecutionPlace = " + taskExecutionPlace);
-
-								/*  */
-								RouteParameter fromHereToTask = routingEngine.routeFromTo(here, taskExecutionPlace, vehicle);
-								
-								if (nextEvent != null) {
-									
-									RouteParameter fromTaskToNextEvent = 
-										routingEngine.routeFromTo(taskExecutionPlace, nextEvent.getPlace(), vehicle);
-									
-									if (!fromHereToTask.getNoRouteFound() && !fromTaskToNextEvent.getNoRouteFound()) {
-										/* calculate the time left until next event */
-										int timeLeftUntilNextEvent = 
-											(int)Math.floor((nextEvent.getStartDate().getTime() - now.getTime()) / (1000 * 60));
-											
-										/* calculate the time left if current task is executed before the next event */
-										int newTimeLeft = timeLeftUntilNextEvent - (int)Math.ceil(fromHereToTask.getDurationOfTravel()) - 
-											(int)Math.ceil(fromTaskToNextEvent.getDurationOfTravel()) - taskDuration;
-										
-										/* check if there is enough time to execute the task
-										 * TODO: allow time buffer */
-										if (newTimeLeft >= 0) {										
-											/* set the start date/time of the event to the time of estimated 
-											 * arrival time at the tasks execution location
-											 * TODO: use a time buffer */
-											Date taskStartDate = new Date(now.getTime() + 
-													(int)Math.ceil(fromHereToTask.getDurationOfTravel()) * 1000 * 60);
-											taskAsEvent = new CalendarEvent(task, taskStartDate, taskExecutionPlace);
-										}
-									} else {
-										System.out.println("GreedyTaskInsertionOptimizer.optimize(): SKIP this task! " +
-											"unable to find routes from here to task and/or from task to next event");
-									}
-									
-								} else {								
-									/* there is no event chronologically succeeding the task */
-									
-									if (!fromHereToTask.getNoRouteFound()) {
-										/*  */
-										Date taskStartDate = new Date(now.getTime() + 
-												(int)Math.ceil(fromHereToTask.getDurationOfTravel()) * 1000 * 60);
-										taskAsEvent = new CalendarEvent(task, taskStartDate, taskExecutionPlace);
-									} else {
-										System.out.println("GreedyTaskInsertionOptimizer.optimize(): SKIP this task! " +
-											"unable to find a route from here to task");
-									}
-									
-								}
-									
-							} else {
-								/* task has no location constraints and can 
-								 * be executed everywhere, so do it here
-								 * TODO: this assumes the task will be executed
-								 * while 'standing' at the point 'here'. For a
-								 * task without any location constraints, this
-								 * may in principle be done while moving towards
-								 * the next event */
-								taskAsEvent = new CalendarEvent(task, now, here);
+							/* check if there is enough time to execute the task
+							 * TODO: allow time buffer */
+							if (newTimeLeft >= 0) {										
+								/* set the start date/time of the event to the time of estimated 
+								 * arrival time at the tasks execution location
+								 * TODO: use a time buffer */
+								Date taskStartDate = new Date(now.getTime() + 
+										(int)Math.ceil(fromHereToTask.getDurationOfTravel()) * 1000 * 60);
+								taskAsEvent = new CalendarEvent(task, taskStartDate, taskExecutionPlace);
 							}
-							
-						} catch (NoLocationFoundException e) {
-							/* cannot find an execution location for this task */
-							
+						} else {
 							System.out.println("GreedyTaskInsertionOptimizer.optimize(): SKIP this task! " +
-								"cannot find an execution location for this task");
-						}							
+								"unable to find routes from here to task and/or from task to next event");
+						}
 						
-					} else {
-						/* the task cannot be executed now, because date and/or
-						 * daytime constraints forbid its execution. */
+					} else {								
+						/* there is no event chronologically succeeding the task */
+						
+						if (!fromHereToTask.getNoRouteFound()) {
+							/*  */
+							Date taskStartDate = new Date(now.getTime() + 
+									(int)Math.ceil(fromHereToTask.getDurationOfTravel()) * 1000 * 60);
+							taskAsEvent = new CalendarEvent(task, taskStartDate, taskExecutionPlace);
+						} else {
+							System.out.println("GreedyTaskInsertionOptimizer.optimize(): SKIP this task! " +
+								"unable to find a route from here to task");
+						}
 						
-						System.out.println("GreedyTaskInsertionOptimizer.optimize(): SKIP this task! " +
-								"constraints forbid to execute it now");
 					}
-				} else {
-					/* executing this task  */
-					
-					System.out.println("GreedyTaskInsertionOptimizer.optimize(): SKIP this task! " +
-							"timeLeftToWait = " +	timeLeftToWait + ", duration = " + taskDuration);
+						
+				} else if (poiConstraintHelpers[i] == null) {
+					/* task has no location constraints and can 
+					 * be executed everywhere, so do it here
+					 * TODO: this assumes the task will be executed
+					 * while 'standing' at the point 'here'. For a
+					 * task without any location constraints, this
+					 * may in principle be done while moving towards
+					 * the next event */
+					taskAsEvent = new CalendarEvent(task, now, here);
 				}
 			}
 		
@@ -284,6 +411,50 @@ public class GreedyTaskInsertionOptimizer implements DayPlanOptimizer {
 	}
 	
 
+	/**
+	 * returns false if the given place certainly cannot be reached within
+	 * the given number of minutes according to the given reachable set
+	 */
+	private static boolean isReachable(ReachableSet reachableSet, Place place, int minutes) {
+		if (!reachableSet.isReachable(place)) {
+			return false;
+		}
+		double duration = reachableSet.getDurationOfTravel(place);
+		return duration == RouteParameter.PARAMETER_UNDEFINED || duration <= minutes;
+	}
+	
+
+	/**
+	 * returns the location to execute a task with POI constraints (the one with 
+	 * the smallest detour by route on the way to the next event), or null if none
+	 * can be found
+	 */
+	private Place getPOILocation(TaskConstraintHelper constraintHelper, Place here, 
+			CalendarEvent nextEvent, Object vehicle) {
+		GeoConstraints geoConstraints = null;
+		if (vehicle instanceof Vehicle) {
+			geoConstraints = new GeoConstraints(nextEvent != null ? nextEvent.getPlace() : null, 
+					(Vehicle)vehicle);
+		} else if (nextEvent != null) {
+			geoConstraints = new GeoConstraints(nextEvent.getPlace());
+		}
+		try {
+			Place taskExecutionPlace = constraintHelper.getLocation(here, geoConstraints);
+			
+				System.out.println("GreedyTaskInsertionOptimizer.optimize(): INFO: " +
+						"taskExecutionPlace = " + taskExecutionPlace);
+			
+			return taskExecutionPlace;
+		} catch (NoLocationFoundException e) {
+			/* cannot find an execution location for this task */
+			
+			System.out.println("GreedyTaskInsertionOptimizer.optimize(): SKIP this task! " +
+				"cannot find an execution location for this task");
+			return null;
+		}
+	}
+	
+
 	@Override
 	public Set<DayPlan> optimize(Date now, Place here, Object vehicle, int suggestions) {
 		throw new UnsupportedOperationException("GreedyTaskInsertionOptimizer.optimize(): Operation not yet supported");
@@ -293,6 +293,17 @@ public class TaskConstraintHelper {
 	
 	
 	
+	/**
+	 * returns true if finding a location for this task needs a search 
+	 * for POI nodes by the routing engine
+	 * @return true if the task has constraints of type TaskConstraintPOI
+	 */
+	public boolean hasPOIConstraints() {
+		return task.getConstraintsOfType(TaskConstraintInterface.TYPE_POI).size() > 0;
+	}
+	
+	
+	
 	/**
 	 * return the nearest location from Place here that is consistent with
 	 * constraints of type TaskConstraintLocation and TaskConstraintPOI
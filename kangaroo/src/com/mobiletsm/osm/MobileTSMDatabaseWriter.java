@@ -1,5 +1,6 @@
 package com.mobiletsm.osm;
 
+import java.io.File;
 import java.io.PrintStream;
 import java.sql.Connection;
 import java.sql.DriverManager;
@@ -7,8 +8,12 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
 import org.openstreetmap.osm.data.IDataSet;
 import org.openstreetmap.osm.data.Selector;
@@ -17,11 +22,20 @@ import org.openstreetmap.osm.data.coordinates.LatLon;
 import org.openstreetmap.osmosis.core.domain.v0_6.Node;
 import org.openstreetmap.osmosis.core.domain.v0_6.Tag;
 import org.openstreetmap.osmosis.core.domain.v0_6.Way;
+import org.openstreetmap.osmosis.core.domain.v0_6.WayNode;
 import org.openstreetmap.travelingsalesman.routing.IVehicle;
 
+import com.mobiletsm.osm.data.CellGrid;
+import com.mobiletsm.osm.data.ContractionHierarchy;
+import com.mobiletsm.osm.data.ContractionHierarchyBuilder;
+import com.mobiletsm.osm.data.LandmarkTable;
+import com.mobiletsm.osm.data.MapTile;
+import com.mobiletsm.osm.data.RoutingGraph;
+import com.mobiletsm.osm.data.RoutingGraphFile;
 import com.mobiletsm.osm.data.searching.CombinedSelector;
 import com.mobiletsm.osm.data.searching.POICode;
 import com.mobiletsm.osm.data.searching.POINodeSelector;
+import com.mobiletsm.osmosis.core.domain.v0_6.MobileWay;
 import com.mobiletsm.routing.AllStreetVehicle;
 
 public class MobileTSMDatabaseWriter {
@@ -33,9 +47,11 @@ public class MobileTSMDatabaseWriter {
 	 * 			id integer primary key
 	 * 			lat real not null			
 	 * 			lon real not null
-	 * 			tags text not null
-	 * 			ways text not null
+	 * 			tags blob not null (ids of table tags_0, text in older versions)
+	 * 			ways blob not null (see WayNodeEncoding, text in older versions)
 	 * 			type integer not null
+	 * 			cell integer not null (indexed, see CellGrid)
+	 * 			tile integer not null (indexed, see MapTile)
 	 * 
 	 * 
 	 * table: poi_nodes_0
@@ -43,8 +59,9 @@ public class MobileTSMDatabaseWriter {
 	 * 			lat real not null
 	 * 			lon real not null
 	 * 			poicode integer not null
-	 * 			tags text not null
+	 * 			tags blob not null (ids of table tags_0, text in older versions)
 	 * 			nst integer not null
+	 * 			cell integer not null (indexed, see CellGrid)
 	 * 
 	 * 
 	 * table: ways_0
@@ -52,10 +69,36 @@ public class MobileTSMDatabaseWriter {
 	 * 			name text not null
 	 * 			highway not null
 	 * 			maxspeed integer not null
-	 * 			tags text not null
+	 * 			tags blob not null (ids of table tags_0, text in older versions)
 	 * 			flags integer not null
-	 * 			waynodes text not null
-	 * 			waynodes_red text not null
+	 * 			waynodes blob not null (see WayNodeEncoding, text in older versions)
+	 * 			waynodes_red blob not null (see WayNodeEncoding, text in older versions)
+	 * 
+	 * 
+	 * table: tags_0 (missing in older versions)
+	 * 			id integer primary key
+	 * 			key text not null
+	 * 			value text not null
+	 * 
+	 * 
+	 * table: ch_nodes_0 (optional)
+	 * 			id integer primary key
+	 * 			level integer not null
+	 * 
+	 * 
+	 * table: ch_shortcuts_0 (optional)
+	 * 			source integer not null
+	 * 			target integer not null
+	 * 			via integer not null
+	 * 
+	 * 
+	 * table: alt_nodes_0 (optional)
+	 * 			id integer primary key
+	 * 			distances blob not null
+	 * 
+	 * 
+	 * table: routing_graph_0 (optional, with the routing graph file)
+	 * 			stamp integer not null (see RoutingGraphFile)
 	 * 
 	 */
 	
@@ -113,9 +156,54 @@ public class MobileTSMDatabaseWriter {
 	}
 	
 	
+	private static final String JDBC_PREFIX = "jdbc:sqlite:";
+	
+	
 	private String database;
 	
 	
+	private boolean writeContractionHierarchy = false;
+	
+	
+	/**
+	 * enable or disable writing a contraction hierarchy for the routing
+	 * graph (tables ch_nodes_0 and ch_shortcuts_0) in writeDatabaseV2()
+	 * @param writeContractionHierarchy
+	 */
+	public void setWriteContractionHierarchy(boolean writeContractionHierarchy) {
+		this.writeContractionHierarchy = writeContractionHierarchy;
+	}
+	
+	
+	private int landmarkCount = 0;
+	
+	
+	/**
+	 * set the number of landmarks to choose for the routing graph in 
+	 * writeDatabaseV2(). The distances from and to the landmarks are
+	 * written to table alt_nodes_0 (none if landmarkCount is 0).
+	 * @param landmarkCount
+	 */
+	public void setLandmarkCount(int landmarkCount) {
+		this.landmarkCount = landmarkCount;
+	}
+	
+	
+	private String graphFileName = null;
+	
+	
+	/**
+	 * set the file to write the routing graph to in writeDatabaseV2() (see
+	 * RoutingGraphFile), none if null (a graph file of the database written
+	 * before is deleted then). To be found by the RoutingDataAdapters, the
+	 * file has to be named RoutingGraphFile.getFileName(database file).
+	 * @param graphFileName
+	 */
+	public void setGraphFileName(String graphFileName) {
+		this.graphFileName = graphFileName;
+	}
+	
+	
 	private Connection connection = null;
 	
 	
@@ -124,6 +212,14 @@ public class MobileTSMDatabaseWriter {
 	}
 	
 	
+	/**
+	 * returns the name of the database file (the database without the JDBC prefix)
+	 */
+	private String getDatabaseFileName() {
+		return database.startsWith(JDBC_PREFIX) ? database.substring(JDBC_PREFIX.length()) : database;
+	}
+	
+	
 	/**
 	 * open a connection to the specified database
 	 * @return true if connected successfully, false otherwise
@@ -311,6 +407,20 @@ public class MobileTSMDatabaseWriter {
 	public static final int STREET_NODE_TYPE_INTERMEDIATE = 1;
 	
 	
+	/**
+	 * names of the indexes on the cells of street and POI nodes
+	 */
+	public static final String STREET_NODES_CELL_INDEX = "street_nodes_0_cell";
+	
+	public static final String POI_NODES_CELL_INDEX = "poi_nodes_0_cell";
+	
+	
+	/**
+	 * name of the index on the map tiles of street nodes
+	 */
+	public static final String STREET_NODES_TILE_INDEX = "street_nodes_0_tile";
+	
+	
 	private static final String createTable_poi_nodes_0 =
 		"CREATE TABLE IF NOT EXISTS poi_nodes_0 (" +
 		/* id of node */
@@ -321,10 +431,12 @@ public class MobileTSMDatabaseWriter {
 		"lon real not null," +
 		/* poi code of node */
 		"poicode integer not null," +
-		/* tag list of node */
-		"tags text not null," +
+		/* tag list of node (see TagDictionary) */
+		"tags blob not null," +
 		/* id of nearest street node to this node */
-		"nst integer not null" +
+		"nst integer not null," +
+		/* id of the cell of the CellGrid the node lies in */
+		"cell integer not null" +
 	");";
 		
 		
@@ -336,12 +448,16 @@ public class MobileTSMDatabaseWriter {
 		"lat real not null," +
 		/* longitude of street node */
 		"lon real not null," +
-		/* tag list of street node */
-		"tags text not null," +
-		/* way list of street node */
-		"ways text not null," +
+		/* tag list of street node (see TagDictionary) */
+		"tags blob not null," +
+		/* way list of street node (see WayNodeEncoding) */
+		"ways blob not null," +
 		/* type of street node */
-		"type integer not null" +
+		"type integer not null," +
+		/* id of the cell of the CellGrid the node lies in */
+		"cell integer not null," +
+		/* id of the MapTile the node lies in */
+		"tile integer not null" +
 	");";
 	
 	
@@ -356,28 +472,77 @@ public class MobileTSMDatabaseWriter {
 		"not null," +
 		/* maximum speed on way (from tags) */
 		"maxspeed integer not null," +
-		/* tag list */
-		"tags text not null," +
+		/* tag list (see TagDictionary) */
+		"tags blob not null," +
 		/* flags (from tags) */
 		"flags integer not null," +
-		/* unreduced list of way nodes */
-		"waynodes text not null," +
-		/* reduced list of way nodes */
-		"waynodes_red text not null" +
+		/* unreduced list of way nodes (see WayNodeEncoding) */
+		"waynodes blob not null," +
+		/* reduced list of way nodes with distances (see WayNodeEncoding) */
+		"waynodes_red blob not null" +
+	");";
+	
+	
+	private static final String createTable_ch_nodes_0 =
+		"CREATE TABLE IF NOT EXISTS ch_nodes_0 (" +
+		/* id of essential street node */
+		"id integer primary key," +
+		/* level of node in contraction hierarchy */
+		"level integer not null" +
 	");";
 	
 	
-	private static final String createTable_index =
-		"CREATE TABLE IF NOT EXISTS index (" +
-		/*  */
+	private static final String createTable_ch_shortcuts_0 =
+		"CREATE TABLE IF NOT EXISTS ch_shortcuts_0 (" +
+		/* id of street node the shortcut starts at */
+		"source integer not null," +
+		/* id of street node the shortcut ends at */
+		"target integer not null," +
+		/* id of street node the shortcut leads via (the length of the 
+		 * shortcut is told by its halves when the hierarchy is loaded) */
+		"via integer not null" +
+	");";
+	
+	
+	private static final String createTable_alt_nodes_0 =
+		"CREATE TABLE IF NOT EXISTS alt_nodes_0 (" +
+		/* id of essential street node */
 		"id integer primary key," +
-		/* keys */
+		/* distances from and to the landmarks (see LandmarkTable) */
+		"distances blob not null" +
+	");";
+	
+	
+	private static final String createIndex_street_nodes_0_cell =
+		"CREATE INDEX IF NOT EXISTS " + STREET_NODES_CELL_INDEX + " ON street_nodes_0 (cell);";
+	
+	
+	private static final String createIndex_street_nodes_0_tile =
+		"CREATE INDEX IF NOT EXISTS " + STREET_NODES_TILE_INDEX + " ON street_nodes_0 (tile);";
+	
+	
+	private static final String createIndex_poi_nodes_0_cell =
+		"CREATE INDEX IF NOT EXISTS " + POI_NODES_CELL_INDEX + " ON poi_nodes_0 (cell);";
+	
+	
+	private static final String createTable_tags_0 =
+		"CREATE TABLE IF NOT EXISTS tags_0 (" +
+		/* id of tag (see TagDictionary) */
+		"id integer primary key," +
+		/* key of tag */
 		"key text not null," + 
-		/* values */
+		/* value of tag */
 		"value text not null" + 
 	");";
 	
 	
+	private static final String createTable_routing_graph_0 =
+		"CREATE TABLE IF NOT EXISTS routing_graph_0 (" +
+		/* stamp of the routing graph file written with the database (see RoutingGraphFile) */
+		"stamp integer not null" +
+	");";
+	
+	
 	private static final String createTable_android_metadata = 
 		"CREATE TABLE \"android_metadata\" (\"locale\" TEXT DEFAULT 'en_US')";
 	
@@ -414,9 +579,18 @@ public class MobileTSMDatabaseWriter {
 			statement.executeUpdate("drop table if exists street_nodes_0;");
 			statement.executeUpdate("drop table if exists poi_nodes_0;");
 			statement.executeUpdate("drop table if exists ways_0;");
+			statement.executeUpdate("drop table if exists ch_nodes_0;");
+			statement.executeUpdate("drop table if exists ch_shortcuts_0;");
+			statement.executeUpdate("drop table if exists alt_nodes_0;");
+			statement.executeUpdate("drop table if exists tags_0;");
+			statement.executeUpdate("drop table if exists routing_graph_0;");
 			statement.executeUpdate(createTable_street_nodes_0);
 			statement.executeUpdate(createTable_poi_nodes_0);
 			statement.executeUpdate(createTable_ways_0);
+			statement.executeUpdate(createTable_tags_0);
+			
+			/* distinct tags of the nodes and ways written */
+			TagDictionary tagDictionary = new TagDictionary();
 			
 			Selector poiNodeSelector = new POINodeSelector();
 			
@@ -424,11 +598,16 @@ public class MobileTSMDatabaseWriter {
 			IDataSet routingMap = OsmHelper.applyFilter(map, routingVehicle);			
 			Collection<Long> intermediateWayNodes = OsmHelper.getIntermediateWayNodes(routingMap);
 			
+			/* essential street nodes and reduced ways to build the routing graph from */
+			boolean writeRoutingGraph = writeContractionHierarchy || landmarkCount > 0 || graphFileName != null;
+			Map<Long, Node> essentialStreetNodes = new HashMap<Long, Node>();
+			List<Way> reducedWays = new ArrayList<Way>();
+			
 			log("writeDatabaseV2: writing street nodes...");			
 			
 			/* write routing street nodes */
 			ps = connection.prepareStatement("INSERT INTO street_nodes_0 " +
-			"(id, lat, lon, tags, ways, type) VALUES (?, ?, ?, ?, ?, ?);");			
+			"(id, lat, lon, tags, ways, type, cell, tile) VALUES (?, ?, ?, ?, ?, ?, ?, ?);");			
 			int numStreetNodes = 0;
 			int numIntermediateStreetNodes = 0;
 			int numEssentialStreetNode = 0;
@@ -442,9 +621,9 @@ public class MobileTSMDatabaseWriter {
 				ps.setDouble(2, node.getLatitude());
 				ps.setDouble(3, node.getLongitude());
 				/* set tags */
-				ps.setString(4, OsmHelper.serializeTags(node.getTags()));
+				ps.setBytes(4, tagDictionary.encode(node.getTags()));
 				/* set ways */
-				ps.setString(5, OsmHelper.packLongsToString(OsmHelper.getWayIdsForNode(routingMap, node)));
+				ps.setBytes(5, WayNodeEncoding.encodeIds(OsmHelper.getWayIdsForNode(routingMap, node)));
 				/* set type of street node */
 				if (intermediateWayNodes.contains(node.getId())) {
 					ps.setInt(6, STREET_NODE_TYPE_INTERMEDIATE);
@@ -452,7 +631,14 @@ public class MobileTSMDatabaseWriter {
 				} else {
 					ps.setInt(6, STREET_NODE_TYPE_ESSENTIAL);
 					numEssentialStreetNode++;
+					if (writeRoutingGraph) {
+						essentialStreetNodes.put(node.getId(), node);
+					}
 				}				
+				/* set cell */
+				ps.setInt(7, CellGrid.getCell(node.getLatitude(), node.getLongitude()));
+				/* set tile */
+				ps.setInt(8, MapTile.getId(node.getLatitude(), node.getLongitude()));
 				
 				/* execute statement */
 				ps.execute();				
@@ -470,7 +656,7 @@ public class MobileTSMDatabaseWriter {
 			
 			/* write POI nodes */
 			ps = connection.prepareStatement("INSERT INTO poi_nodes_0 " +
-					"(id, lat, lon, poicode, tags, nst) VALUES (?, ?, ?, ?, ?, ?);");	
+					"(id, lat, lon, poicode, tags, nst, cell) VALUES (?, ?, ?, ?, ?, ?, ?);");	
 			int numPOINodes = 0;
 			Iterator<Node> poiNodes = map.getNodes(Bounds.WORLD);
 			while (poiNodes.hasNext()) {
@@ -494,9 +680,11 @@ public class MobileTSMDatabaseWriter {
 					/* set POI code */
 					ps.setInt(4, poiCode.getId());
 					/* set tags */
-					ps.setString(5, OsmHelper.serializeTags(node.getTags()));
+					ps.setBytes(5, tagDictionary.encode(node.getTags()));
 					/* set nearest street node id */
 					ps.setLong(6, nst.getId());
+					/* set cell */
+					ps.setInt(7, CellGrid.getCell(node.getLatitude(), node.getLongitude()));
 					
 					/* execute statement */
 					ps.execute();					
@@ -507,6 +695,11 @@ public class MobileTSMDatabaseWriter {
 			
 			log("writeDatabaseV2: output: # POI nodes = " + numPOINodes);
 			
+			/* index the nodes by cell and tile after they have been written */
+			statement.executeUpdate(createIndex_street_nodes_0_cell);
+			statement.executeUpdate(createIndex_street_nodes_0_tile);
+			statement.executeUpdate(createIndex_poi_nodes_0_cell);
+			
 			
 			log("writeDatabaseV2: writing ways...");			
 			
@@ -519,6 +712,13 @@ public class MobileTSMDatabaseWriter {
 				Way way = ways.next();
 				Collection<Tag> tags = way.getTags();
 				
+				/* keep the tags of the way for the routing graph before they are removed */
+				MobileWay reducedWay = null;
+				if (writeRoutingGraph) {
+					reducedWay = new MobileWay(way.getId());
+					reducedWay.getTags().addAll(tags);
+				}
+				
 				/* set way id */
 				ps.setLong(1, way.getId());				
 				/* set name if available */
@@ -542,21 +742,76 @@ public class MobileTSMDatabaseWriter {
 				int tagFlags = OsmHelper.getAndRemoveTagFlags(tags);
 				ps.setInt(5, tagFlags);
 				/* set tags */
-				String tagString = OsmHelper.serializeTags(tags);				
-				if (tagString == null) tagString = "";
-				ps.setString(6, tagString);									
+				ps.setBytes(6, tagDictionary.encode(tags));									
 				/* set way nodes */
-				String wayNodeString = OsmHelper.packLongsToString(OsmHelper.getWayNodeIds(way));
-				ps.setString(7, wayNodeString);				
+				List<WayNode> wayNodes = way.getWayNodes();
+				long[] wayNodeIds = new long[wayNodes.size()];
+				for (int i = 0; i < wayNodeIds.length; i++) {
+					wayNodeIds[i] = wayNodes.get(i).getNodeId();
+				}
+				ps.setBytes(7, WayNodeEncoding.encode(wayNodeIds, null));				
 				/* set reduced list of way nodes */
-				ps.setString(8, OsmHelper.serializeMobileWayNodes(OsmHelper.getReducedWay(routingMap, intermediateWayNodes, way)));					
+				byte[] reducedWayNodes = WayNodeEncoding.encode(OsmHelper.getReducedWay(routingMap, intermediateWayNodes, way));
+				ps.setBytes(8, reducedWayNodes);					
 				ps.execute();
 				
+				/* use the encoded way nodes, so the routing graph is built on the same 
+				 * distances as the routing graph built from the database later on */
+				if (reducedWay != null) {
+					reducedWay.getWayNodes().addAll(WayNodeEncoding.decodeWayNodes(reducedWayNodes));
+					reducedWays.add(reducedWay);
+				}
+				
 				numWays++;
 			}
 			
 			log("writeDatabaseV2: output: # ways = " + numWays);
 			
+			
+			log("writeDatabaseV2: writing tags...");
+			
+			/* write the tags referred to by the nodes and ways */
+			ps = connection.prepareStatement("INSERT INTO tags_0 (id, key, value) VALUES (?, ?, ?);");
+			for (int id = 0; id < tagDictionary.size(); id++) {
+				Tag tag = tagDictionary.getTag(id);
+				ps.setInt(1, id);
+				ps.setString(2, tag.getKey());
+				ps.setString(3, tag.getValue());
+				ps.execute();
+			}
+			
+			log("writeDatabaseV2: output: # tags = " + tagDictionary.size());
+			
+			
+			if (writeRoutingGraph) {
+				RoutingGraph graph = RoutingGraph.build(essentialStreetNodes, reducedWays);
+				byte[] access = graph.getWayAccess(routingMap, new AllStreetVehicle());
+				if (writeContractionHierarchy) {
+					writeContractionHierarchy(graph, access);
+				}
+				if (landmarkCount > 0) {
+					writeLandmarkTable(graph, access);
+				}
+				if (graphFileName != null) {
+					log("writeDatabaseV2: writing routing graph to " + graphFileName + "...");
+					int stamp = RoutingGraphFile.newStamp();
+					statement.executeUpdate(createTable_routing_graph_0);
+					ps = connection.prepareStatement("INSERT INTO routing_graph_0 (stamp) VALUES (?);");
+					ps.setInt(1, stamp);
+					ps.execute();
+					RoutingGraphFile.write(graph, new File(graphFileName), stamp);
+					log("writeDatabaseV2: output: # routing graph nodes = " + graph.getNodeCount());
+				}
+			}
+			
+			if (graphFileName == null) {
+				/* a graph file left from an earlier import would not match the database */
+				File oldGraphFile = new File(RoutingGraphFile.getFileName(getDatabaseFileName()));
+				if (oldGraphFile.exists() && !oldGraphFile.delete()) {
+					log("writeDatabaseV2: cannot delete " + oldGraphFile);
+				}
+			}
+			
 			connection.setAutoCommit(true);
 			
 			
@@ -577,6 +832,181 @@ public class MobileTSMDatabaseWriter {
 	}
 
 	
+	/**
+	 * add the cells of street and POI nodes and their indexes to a database
+	 * written by writeDatabaseV2() before the nodes have been stored with their
+	 * cells, so it can be searched by cell (see CellGrid)
+	 */
+	public void writeCellIndexV2() {
+		try {
+			if (connection == null || connection.isClosed()) {
+				throw new RuntimeException("MobileTSMDatabaseWriter.writeCellIndexV2(): No connection opened");
+			}
+		} catch (SQLException e1) {
+			throw new RuntimeException("MobileTSMDatabaseWriter.writeCellIndexV2():" + e1.getMessage());
+		}
+		
+		try {
+			Statement statement = connection.createStatement();
+			connection.setAutoCommit(false);
+			String[] tables = {"street_nodes_0", "poi_nodes_0"};
+			for (String table : tables) {
+				log("writeCellIndexV2: writing cells of " + table + "...");
+				
+				/* add the column unless present */
+				ResultSet rs = statement.executeQuery("PRAGMA table_info(" + table + ");");
+				boolean present = false;
+				while (rs.next()) {
+					present |= "cell".equals(rs.getString("name"));
+				}
+				rs.close();
+				if (!present) {
+					statement.executeUpdate("ALTER TABLE " + table + " ADD COLUMN cell integer not null default 0;");
+				}
+				
+				PreparedStatement ps = connection.prepareStatement("UPDATE " + table + " SET cell = ? WHERE id = ?;");
+				rs = statement.executeQuery("SELECT id,lat,lon FROM " + table + ";");
+				while (rs.next()) {
+					ps.setInt(1, CellGrid.getCell(rs.getDouble("lat"), rs.getDouble("lon")));
+					ps.setLong(2, rs.getLong("id"));
+					ps.addBatch();
+				}
+				rs.close();
+				ps.executeBatch();
+				ps.close();
+			}
+			statement.executeUpdate(createIndex_street_nodes_0_cell);
+			statement.executeUpdate(createIndex_poi_nodes_0_cell);
+			connection.commit();
+			connection.setAutoCommit(true);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+	
+	
+	/**
+	 * add the map tiles of the street nodes and their index to a database written
+	 * by writeDatabaseV2() before the street nodes have been stored with their
+	 * tiles, so the routing graph can be loaded tile by tile (see MapTile)
+	 */
+	public void writeTileIndexV2() {
+		try {
+			if (connection == null || connection.isClosed()) {
+				throw new RuntimeException("MobileTSMDatabaseWriter.writeTileIndexV2(): No connection opened");
+			}
+		} catch (SQLException e1) {
+			throw new RuntimeException("MobileTSMDatabaseWriter.writeTileIndexV2():" + e1.getMessage());
+		}
+		
+		try {
+			Statement statement = connection.createStatement();
+			connection.setAutoCommit(false);
+			log("writeTileIndexV2: writing tiles of street_nodes_0...");
+			
+			/* add the column unless present */
+			ResultSet rs = statement.executeQuery("PRAGMA table_info(street_nodes_0);");
+			boolean present = false;
+			while (rs.next()) {
+				present |= "tile".equals(rs.getString("name"));
+			}
+			rs.close();
+			if (!present) {
+				statement.executeUpdate("ALTER TABLE street_nodes_0 ADD COLUMN tile integer not null default 0;");
+			}
+			
+			PreparedStatement ps = connection.prepareStatement("UPDATE street_nodes_0 SET tile = ? WHERE id = ?;");
+			rs = statement.executeQuery("SELECT id,lat,lon FROM street_nodes_0;");
+			while (rs.next()) {
+				ps.setInt(1, MapTile.getId(rs.getDouble("lat"), rs.getDouble("lon")));
+				ps.setLong(2, rs.getLong("id"));
+				ps.addBatch();
+			}
+			rs.close();
+			ps.executeBatch();
+			ps.close();
+			statement.executeUpdate(createIndex_street_nodes_0_tile);
+			connection.commit();
+			connection.setAutoCommit(true);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+	
+	
+	/**
+	 * contract the given routing graph and write the node levels and 
+	 * shortcuts of the resulting contraction hierarchy
+	 * @param graph
+	 * @param access
+	 * @throws SQLException
+	 */
+	private void writeContractionHierarchy(RoutingGraph graph, byte[] access) throws SQLException {
+		
+		log("writeDatabaseV2: building contraction hierarchy...");
+		
+		Statement statement = connection.createStatement();
+		statement.executeUpdate(createTable_ch_nodes_0);
+		statement.executeUpdate(createTable_ch_shortcuts_0);
+		
+		ContractionHierarchy hierarchy = new ContractionHierarchyBuilder(graph, access).build();
+		
+		log("writeDatabaseV2: writing contraction hierarchy...");
+		
+		/* write node levels */
+		PreparedStatement ps = connection.prepareStatement("INSERT INTO ch_nodes_0 " +
+				"(id, level) VALUES (?, ?);");
+		for (int node = 0; node < graph.getNodeCount(); node++) {
+			ps.setLong(1, graph.getNodeId(node));
+			ps.setInt(2, hierarchy.getLevel(node));
+			ps.execute();
+		}
+		
+		/* write shortcuts */
+		ps = connection.prepareStatement("INSERT INTO ch_shortcuts_0 " +
+				"(source, target, via) VALUES (?, ?, ?);");
+		for (int arc = 0; arc < hierarchy.getArcCount(); arc++) {
+			if (hierarchy.isShortcut(arc)) {
+				ps.setLong(1, graph.getNodeId(hierarchy.getArcSource(arc)));
+				ps.setLong(2, graph.getNodeId(hierarchy.getArcTarget(arc)));
+				ps.setLong(3, graph.getNodeId(hierarchy.getArcVia(arc)));
+				ps.execute();
+			}
+		}
+		
+		log("writeDatabaseV2: output: # contraction hierarchy nodes = " + graph.getNodeCount());
+		log("writeDatabaseV2: output: # contraction hierarchy shortcuts = " + hierarchy.getShortcutCount());
+	}
+	
+	
+	/**
+	 * choose landmarks in the given routing graph and write the distances
+	 * of all nodes from and to them
+	 * @param graph
+	 * @param access
+	 * @throws SQLException
+	 */
+	private void writeLandmarkTable(RoutingGraph graph, byte[] access) throws SQLException {
+		
+		log("writeDatabaseV2: computing landmark distances...");
+		
+		Statement statement = connection.createStatement();
+		statement.executeUpdate(createTable_alt_nodes_0);
+		
+		LandmarkTable landmarks = LandmarkTable.build(graph, access, landmarkCount);
+		
+		PreparedStatement ps = connection.prepareStatement("INSERT INTO alt_nodes_0 " +
+				"(id, distances) VALUES (?, ?);");
+		for (int node = 0; node < graph.getNodeCount(); node++) {
+			ps.setLong(1, graph.getNodeId(node));
+			ps.setBytes(2, landmarks.getDistances(node));
+			ps.execute();
+		}
+		
+		log("writeDatabaseV2: output: # landmarks = " + landmarks.getLandmarkCount());
+	}
+	
+	
 	public void readDatabaseV2() {
 		try {
 			/* prepare statement */
@@ -883,10 +883,8 @@ public class OsmHelper {
 	
 	public static List<Long> unpackStringToLongs(String longs) {
 		List<Long> result = new LinkedList<Long>();
-		while (longs.length() >= 8) {
-			String str = longs.substring(0, 8);
-			result.add(Long.decode("0x" + str));
-			longs = longs.substring(8);
+		for (int i = 0; i + 8 <= longs.length(); i += 8) {
+			result.add(Long.parseLong(longs.substring(i, i + 8), 16));
 		}
 		return result;
 	}
@@ -916,20 +914,27 @@ public class OsmHelper {
 	}
 	
 	
+	/**
+	 * unpack a string of way nodes written by serializeMobileWayNodes() (as stored 
+	 * in older versions of the database, see WayNodeEncoding for the current ones)
+	 * @param wayNodes
+	 * @return
+	 */
 	public static List<WayNode> unpackStringToWayNodes(String wayNodes) {
 		List<WayNode> result = new LinkedList<WayNode>();		
 		double dist;
-		while (wayNodes.length() > 0) {
-			if (wayNodes.startsWith("(")) {
-				int index = wayNodes.indexOf(")");
-				dist = Double.valueOf(wayNodes.substring(1, index));
-				wayNodes = wayNodes.substring(index + 1);
+		int position = 0;
+		while (position < wayNodes.length()) {
+			if (wayNodes.charAt(position) == '(') {
+				int index = wayNodes.indexOf(')', position);
+				dist = Double.valueOf(wayNodes.substring(position + 1, index));
+				position = index + 1;
 			} else {
 				dist = 0;
 			}			
-			String long_str = wayNodes.substring(0, 8);
-			wayNodes = wayNodes.substring(8);
-    		result.add(new MobileWayNode(Long.decode("0x" + long_str), dist)); 
+			long nodeId = Long.parseLong(wayNodes.substring(position, position + 8), 16);
+			position += 8;
+    		result.add(new MobileWayNode(nodeId, dist)); 
 		}		
 		return result;
 	}
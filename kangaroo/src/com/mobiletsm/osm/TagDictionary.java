@@ -0,0 +1,169 @@
+package com.mobiletsm.osm;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openstreetmap.osmosis.core.domain.v0_6.Tag;
+
+
+/**
+ * A dictionary of the distinct tags (pairs of key and value) of the entities
+ * in the database, stored in table tags_0 (see MobileTSMDatabaseWriter). The
+ * tags of an entity are stored as the ids of its tags in the dictionary, each
+ * as varint following the number of tags. Only one Tag instance is held per
+ * distinct tag, and it is shared by all entities decoded with the dictionary.
+ */
+public class TagDictionary {
+
+
+	/* tags by id (null for ids not used) */
+	private final List<Tag> tags = new ArrayList<Tag>();
+
+
+	/* ids of the tags by key and value */
+	private final Map<String, Integer> ids = new HashMap<String, Integer>();
+
+
+	private static String getName(String key, String value) {
+		return key + '\u0000' + value;
+	}
+
+
+	/**
+	 * returns the number of ids used (the highest id plus one)
+	 * @return
+	 */
+	public synchronized int size() {
+		return tags.size();
+	}
+
+
+	/**
+	 * returns the tag with the given id or null if there is none
+	 * @param id
+	 * @return
+	 */
+	public synchronized Tag getTag(int id) {
+		return (id >= 0 && id < tags.size()) ? tags.get(id) : null;
+	}
+
+
+	/**
+	 * add the given tag with the given id (as loaded from the database)
+	 * @param id
+	 * @param key
+	 * @param value
+	 */
+	public synchronized void add(int id, String key, String value) {
+		if (id < 0) {
+			throw new RuntimeException("TagDictionary.add(): invalid id " + id);
+		}
+		while (tags.size() <= id) {
+			tags.add(null);
+		}
+		Tag tag = new Tag(key, value);
+		tags.set(id, tag);
+		ids.put(getName(key, value), id);
+	}
+
+
+	/**
+	 * returns the id of the given tag, adding it to the dictionary if not
+	 * contained yet
+	 * @param key
+	 * @param value
+	 * @return
+	 */
+	public synchronized int getId(String key, String value) {
+		String name = getName(key, value);
+		Integer id = ids.get(name);
+		if (id == null) {
+			id = tags.size();
+			tags.add(new Tag(key, value));
+			ids.put(name, id);
+		}
+		return id;
+	}
+
+
+	/**
+	 * returns the instance of the given tag held by the dictionary, adding it
+	 * if not contained yet
+	 * @param key
+	 * @param value
+	 * @return
+	 */
+	public synchronized Tag intern(String key, String value) {
+		return tags.get(getId(key, value));
+	}
+
+
+	public synchronized void clear() {
+		tags.clear();
+		ids.clear();
+	}
+
+
+	/**
+	 * encode the given tags as list of ids, adding the tags not contained yet
+	 * @param tagsToEncode
+	 * @return
+	 */
+	public synchronized byte[] encode(Collection<Tag> tagsToEncode) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 + 2 * tagsToEncode.size());
+		WayNodeEncoding.writeVarint(bytes, tagsToEncode.size());
+		for (Tag tag : tagsToEncode) {
+			WayNodeEncoding.writeVarint(bytes, getId(tag.getKey(), tag.getValue()));
+		}
+		return bytes.toByteArray();
+	}
+
+
+	/**
+	 * decode the given list of ids into the tags held by the dictionary
+	 * @param data
+	 * @return
+	 */
+	public synchronized List<Tag> decode(byte[] data) {
+		WayNodeEncoding.Decoder decoder = new WayNodeEncoding.Decoder(data);
+		int count = (int)decoder.readVarint();
+		List<Tag> result = new ArrayList<Tag>(count);
+		for (int i = 0; i < count; i++) {
+			long id = decoder.readVarint();
+			Tag tag = (id < tags.size()) ? tags.get((int)id) : null;
+			if (tag == null) {
+				throw new RuntimeException("TagDictionary.decode(): unknown tag id " + id);
+			}
+			result.add(tag);
+		}
+		return result;
+	}
+
+
+	/**
+	 * parse a string of tags written by OsmHelper.serializeTags() (as stored in
+	 * older versions of the database) into the tags held by the dictionary, adding
+	 * the tags not contained yet
+	 * @param tagString
+	 * @return
+	 */
+	public synchronized List<Tag> parse(String tagString) {
+		List<Tag> result = new ArrayList<Tag>();
+		int position = 0;
+		while (tagString.startsWith("|", position)) {
+			int end = tagString.indexOf('|', position + 1);
+			if (end == -1) {
+				end = tagString.length();
+			}
+			int index = tagString.indexOf("==", position);
+			result.add(intern(tagString.substring(position + 1, index), tagString.substring(index + 2, end)));
+			position = end;
+		}
+		return result;
+	}
+
+}
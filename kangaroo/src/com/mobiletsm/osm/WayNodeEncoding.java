@@ -0,0 +1,209 @@
+package com.mobiletsm.osm;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openstreetmap.osmosis.core.domain.v0_6.Way;
+import org.openstreetmap.osmosis.core.domain.v0_6.WayNode;
+
+import com.mobiletsm.osmosis.core.domain.v0_6.MobileWayNode;
+
+
+/**
+ * Binary encoding of the way nodes of a way as stored in the columns waynodes
+ * and waynodes_red of table ways_0 (see MobileTSMDatabaseWriter). The encoding
+ * starts with a varint holding the number of way nodes (shifted left by one bit,
+ * the lowest bit telling if distances are stored), followed by the way nodes,
+ * each given by the difference of its node id to the id of the previous way node
+ * as zig-zag varint (so ids of any size take a few bytes only) and, if distances
+ * are stored, the distance to its predecessor in centimeters as varint. The
+ * way ids in column ways of table street_nodes_0 are stored the same way,
+ * without distances (see encodeIds()).
+ */
+public class WayNodeEncoding {
+
+
+	/* distances are stored in units of 1 / DISTANCE_SCALE meters */
+	private static final double DISTANCE_SCALE = 100;
+
+
+	private WayNodeEncoding() {
+	}
+
+
+	/**
+	 * encode the way nodes of the given way, with their distances if all of
+	 * them are MobileWayNodes
+	 * @param way
+	 * @return
+	 */
+	public static byte[] encode(Way way) {
+		List<WayNode> wayNodes = way.getWayNodes();
+		long[] nodeIds = new long[wayNodes.size()];
+		double[] distances = new double[wayNodes.size()];
+		for (int i = 0; i < nodeIds.length; i++) {
+			WayNode wayNode = wayNodes.get(i);
+			nodeIds[i] = wayNode.getNodeId();
+			if (distances != null && wayNode instanceof MobileWayNode) {
+				distances[i] = ((MobileWayNode)wayNode).getDistanceToPredecessor();
+			} else {
+				distances = null;
+			}
+		}
+		return encode(nodeIds, distances);
+	}
+
+
+	/**
+	 * encode the given node ids and distances to the predecessors (if not null)
+	 * @param nodeIds
+	 * @param distances
+	 * @return
+	 */
+	public static byte[] encode(long[] nodeIds, double[] distances) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(2 + 3 * nodeIds.length);
+		writeVarint(bytes, ((long)nodeIds.length << 1) | (distances != null ? 1 : 0));
+		long last = 0;
+		for (int i = 0; i < nodeIds.length; i++) {
+			long delta = nodeIds[i] - last;
+			writeVarint(bytes, (delta << 1) ^ (delta >> 63));
+			last = nodeIds[i];
+			if (distances != null) {
+				writeVarint(bytes, Math.max(0, Math.round(distances[i] * DISTANCE_SCALE)));
+			}
+		}
+		return bytes.toByteArray();
+	}
+
+
+	/**
+	 * encode the given ids without distances
+	 * @param ids
+	 * @return
+	 */
+	public static byte[] encodeIds(List<Long> ids) {
+		long[] nodeIds = new long[ids.size()];
+		for (int i = 0; i < nodeIds.length; i++) {
+			nodeIds[i] = ids.get(i);
+		}
+		return encode(nodeIds, null);
+	}
+
+
+	/**
+	 * returns the number of way nodes in the given encoding
+	 * @param data
+	 * @return
+	 */
+	public static int getCount(byte[] data) {
+		return (int)(new Decoder(data).readVarint() >>> 1);
+	}
+
+
+	/**
+	 * decode the given encoding into the given arrays (of at least getCount()
+	 * elements). Distances are set to 0 if none are stored. Each of the arrays
+	 * may be null if not needed.
+	 * @param data
+	 * @param nodeIds
+	 * @param distances
+	 */
+	public static void decode(byte[] data, long[] nodeIds, double[] distances) {
+		Decoder decoder = new Decoder(data);
+		long header = decoder.readVarint();
+		int count = (int)(header >>> 1);
+		boolean hasDistances = (header & 1) != 0;
+		long last = 0;
+		for (int i = 0; i < count; i++) {
+			long value = decoder.readVarint();
+			last += (value >>> 1) ^ -(value & 1);
+			if (nodeIds != null) {
+				nodeIds[i] = last;
+			}
+			double distance = hasDistances ? decoder.readVarint() / DISTANCE_SCALE : 0;
+			if (distances != null) {
+				distances[i] = distance;
+			}
+		}
+	}
+
+
+	/**
+	 * decode the given encoding into a list of ids
+	 * @param data
+	 * @return
+	 */
+	public static List<Long> decodeIds(byte[] data) {
+		long[] nodeIds = new long[getCount(data)];
+		decode(data, nodeIds, null);
+		List<Long> ids = new ArrayList<Long>(nodeIds.length);
+		for (long id : nodeIds) {
+			ids.add(id);
+		}
+		return ids;
+	}
+
+
+	/**
+	 * decode the given encoding into a list of MobileWayNodes
+	 * @param data
+	 * @return
+	 */
+	public static List<WayNode> decodeWayNodes(byte[] data) {
+		int count = getCount(data);
+		long[] nodeIds = new long[count];
+		double[] distances = new double[count];
+		decode(data, nodeIds, distances);
+		List<WayNode> wayNodes = new ArrayList<WayNode>(count);
+		for (int i = 0; i < count; i++) {
+			wayNodes.add(new MobileWayNode(nodeIds[i], distances[i]));
+		}
+		return wayNodes;
+	}
+
+
+	/* varints are also used by TagDictionary */
+
+	static void writeVarint(ByteArrayOutputStream bytes, long value) {
+		while ((value & ~0x7fL) != 0) {
+			bytes.write((int)((value & 0x7f) | 0x80));
+			value >>>= 7;
+		}
+		bytes.write((int)value);
+	}
+
+
+	/**
+	 * reads varints one after another
+	 */
+	static final class Decoder {
+
+		private final byte[] data;
+
+		private int position = 0;
+
+
+		Decoder(byte[] data) {
+			this.data = data;
+		}
+
+
+		long readVarint() {
+			long value = 0;
+			int shift = 0;
+			byte b;
+			do {
+				if (position >= data.length) {
+					throw new RuntimeException("WayNodeEncoding.Decoder.readVarint(): unexpected end of data");
+				}
+				b = data[position++];
+				value |= (long)(b & 0x7f) << shift;
+				shift += 7;
+			} while ((b & 0x80) != 0);
+			return value;
+		}
+
+	}
+
+}
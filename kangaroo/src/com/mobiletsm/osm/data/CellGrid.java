@@ -0,0 +1,168 @@
+package com.mobiletsm.osm.data;
+
+
+/**
+ * A grid of cells of CELL_SIZE x CELL_SIZE degrees covering the world. Nodes are
+ * stored in the database with the id of the cell they lie in (an indexed column),
+ * so the nodes within a bounding box are found by looking up the few cells
+ * covering it instead of scanning all nodes.
+ */
+public class CellGrid {
+
+
+	/**
+	 * size of a cell in degrees of latitude and longitude (about 1.1km x 0.7km
+	 * in central Europe)
+	 */
+	public static final double CELL_SIZE = 0.01;
+
+
+	/**
+	 * number of cells along a circle of latitude
+	 */
+	private static final int COLUMNS = (int)Math.round(360 / CELL_SIZE);
+
+
+	/**
+	 * number of cells along a meridian
+	 */
+	private static final int ROWS = (int)Math.round(180 / CELL_SIZE);
+
+
+	/**
+	 * maximum number of cells returned by getCells(), so bounding boxes
+	 * covering more cells are not looked up by cell
+	 */
+	public static final int MAX_CELLS = 400;
+
+
+	private CellGrid() {
+	}
+
+
+	/**
+	 * returns the id of the cell containing the given coordinates
+	 * @param latitude
+	 * @param longitude
+	 * @return
+	 */
+	public static int getCell(double latitude, double longitude) {
+		return getRow(latitude) * COLUMNS + getColumn(longitude);
+	}
+
+
+	/**
+	 * returns the ids of the cells covering the given bounding box or null
+	 * if these are more than MAX_CELLS
+	 * @param minLatitude
+	 * @param minLongitude
+	 * @param maxLatitude
+	 * @param maxLongitude
+	 * @return
+	 */
+	public static int[] getCells(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude) {
+		int minRow = getRow(minLatitude);
+		int maxRow = getRow(maxLatitude);
+		int minColumn = getColumn(minLongitude);
+		int maxColumn = getColumn(maxLongitude);
+		int rows = maxRow - minRow + 1;
+		int columns = maxColumn - minColumn + 1;
+		if (rows <= 0 || columns <= 0 || rows * columns > MAX_CELLS) {
+			return null;
+		}
+		int[] cells = new int[rows * columns];
+		int i = 0;
+		for (int row = minRow; row <= maxRow; row++) {
+			for (int column = minColumn; column <= maxColumn; column++) {
+				cells[i++] = row * COLUMNS + column;
+			}
+		}
+		return cells;
+	}
+
+
+	/**
+	 * returns the southern boundary of the given cell
+	 * @param cell
+	 * @return
+	 */
+	public static double getMinLatitude(int cell) {
+		return getLatitude(cell / COLUMNS);
+	}
+
+
+	/**
+	 * returns the northern boundary of the given cell
+	 * @param cell
+	 * @return
+	 */
+	public static double getMaxLatitude(int cell) {
+		return getLatitude(cell / COLUMNS + 1);
+	}
+
+
+	/**
+	 * returns the western boundary of the given cell
+	 * @param cell
+	 * @return
+	 */
+	public static double getMinLongitude(int cell) {
+		return getLongitude(cell % COLUMNS);
+	}
+
+
+	/**
+	 * returns the eastern boundary of the given cell
+	 * @param cell
+	 * @return
+	 */
+	public static double getMaxLongitude(int cell) {
+		return getLongitude(cell % COLUMNS + 1);
+	}
+
+
+	/* rows and columns of the grid (used to walk through neighbouring cells) */
+
+	static int getRows() {
+		return ROWS;
+	}
+
+
+	static int getColumns() {
+		return COLUMNS;
+	}
+
+
+	static int getCell(int row, int column) {
+		return row * COLUMNS + column;
+	}
+
+
+	static int getRow(double latitude) {
+		int row = (int)Math.floor((latitude + 90) / CELL_SIZE);
+		return Math.max(0, Math.min(row, ROWS - 1));
+	}
+
+
+	static int getColumn(double longitude) {
+		int column = (int)Math.floor((longitude + 180) / CELL_SIZE);
+		return Math.max(0, Math.min(column, COLUMNS - 1));
+	}
+
+
+	/**
+	 * returns the southern boundary of the given row
+	 */
+	static double getLatitude(int row) {
+		return row * CELL_SIZE - 90;
+	}
+
+
+	/**
+	 * returns the western boundary of the given column
+	 */
+	static double getLongitude(int column) {
+		return column * CELL_SIZE - 180;
+	}
+
+}
@@ -0,0 +1,369 @@
+package com.mobiletsm.osm.data;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+
+/**
+ * A contraction hierarchy on top of a {@link RoutingGraph}. Every node of the
+ * graph has a level (its position in the contraction order) and the edges of
+ * the graph are complemented by shortcuts. A shortcut from node s to node t
+ * via node v stands for the shortest path s - v - t, where v has a lower level
+ * than s and t. Together, the edges and shortcuts form the arcs of the
+ * hierarchy. A search from the starting point only has to follow the arcs
+ * leading upwards ({@link #getFirstUpArc(int)}), a search from the destination
+ * only the arcs arriving from above ({@link #getFirstDownArc(int)}).
+ *
+ * The hierarchy is only valid for the access mask it has been built with
+ * (see {@link RoutingGraph#getWayAccess(org.openstreetmap.osm.data.IDataSet,
+ * org.openstreetmap.travelingsalesman.routing.IVehicle)}).
+ */
+public class ContractionHierarchy {
+
+
+	private final RoutingGraph graph;
+
+
+	private final byte[] access;
+
+
+	private final int[] levels;
+
+
+	/* arcs (edges of the graph followed by shortcuts) */
+
+	private final int edgeArcCount;
+
+	private final int[] arcSources;
+
+	private final int[] arcTargets;
+
+	private final double[] arcLengths;
+
+	/* graph edge of an edge arc, via node of a shortcut */
+	private final int[] arcEdges;
+
+	private final int[] arcVias;
+
+	/* the two arcs a shortcut consists of */
+	private final int[] arcFirstHalves;
+
+	private final int[] arcSecondHalves;
+
+
+	/* arcs leading upwards from a node and arcs arriving at a node from above */
+
+	private final int[] firstUpArc;
+
+	private final int[] upArcs;
+
+	private final int[] firstDownArc;
+
+	private final int[] downArcs;
+
+
+
+	ContractionHierarchy(RoutingGraph graph, byte[] access, int[] levels,
+			int[] shortcutSources, int[] shortcutTargets, int[] shortcutVias, int shortcutCount) {
+		this.graph = graph;
+		this.access = access;
+		this.levels = levels;
+
+		int nodeCount = graph.getNodeCount();
+
+		/* edges of the graph the hierarchy is valid for */
+		int count = 0;
+		for (int e = 0; e < graph.getEdgeCount(); e++) {
+			if (graph.isEdgeAllowed(e, access)) {
+				count++;
+			}
+		}
+		edgeArcCount = count;
+
+		int arcCount = edgeArcCount + shortcutCount;
+		arcSources = new int[arcCount];
+		arcTargets = new int[arcCount];
+		arcLengths = new double[arcCount];
+		arcEdges = new int[arcCount];
+		arcVias = new int[arcCount];
+		arcFirstHalves = new int[arcCount];
+		arcSecondHalves = new int[arcCount];
+
+		int a = 0;
+		for (int u = 0; u < nodeCount; u++) {
+			int lastEdge = graph.getFirstEdge(u + 1);
+			for (int e = graph.getFirstEdge(u); e < lastEdge; e++) {
+				if (graph.isEdgeAllowed(e, access)) {
+					arcSources[a] = u;
+					arcTargets[a] = graph.getEdgeTarget(e);
+					arcLengths[a] = graph.getEdgeLength(e);
+					arcEdges[a] = e;
+					arcVias[a] = -1;
+					arcFirstHalves[a] = -1;
+					arcSecondHalves[a] = -1;
+					a++;
+				}
+			}
+		}
+		for (int s = 0; s < shortcutCount; s++) {
+			arcSources[a] = shortcutSources[s];
+			arcTargets[a] = shortcutTargets[s];
+			arcLengths[a] = Double.POSITIVE_INFINITY;
+			arcEdges[a] = -1;
+			arcVias[a] = shortcutVias[s];
+			a++;
+		}
+
+		/* index all arcs by their source node */
+		int[] firstArc = new int[nodeCount + 1];
+		for (a = 0; a < arcCount; a++) {
+			firstArc[arcSources[a] + 1]++;
+		}
+		for (int u = 0; u < nodeCount; u++) {
+			firstArc[u + 1] += firstArc[u];
+		}
+		int[] arcsBySource = new int[arcCount];
+		int[] next = new int[nodeCount];
+		System.arraycopy(firstArc, 0, next, 0, nodeCount);
+		for (a = 0; a < arcCount; a++) {
+			arcsBySource[next[arcSources[a]]++] = a;
+		}
+
+		/* resolve the halves of the shortcuts in the order their via nodes have been
+		 * contracted, so the lengths of both halves are known when a shortcut is resolved */
+		Integer[] shortcuts = new Integer[shortcutCount];
+		for (int s = 0; s < shortcutCount; s++) {
+			shortcuts[s] = edgeArcCount + s;
+		}
+		Arrays.sort(shortcuts, new Comparator<Integer>() {
+			public int compare(Integer a1, Integer a2) {
+				return levels[arcVias[a1]] - levels[arcVias[a2]];
+			}
+		});
+		for (Integer shortcut : shortcuts) {
+			int via = arcVias[shortcut];
+			int first = findShortestArc(firstArc, arcsBySource, arcSources[shortcut], via);
+			int second = findShortestArc(firstArc, arcsBySource, via, arcTargets[shortcut]);
+			if (first == -1 || second == -1) {
+				throw new RuntimeException("ContractionHierarchy(): could not resolve shortcut from " +
+						graph.getNodeId(arcSources[shortcut]) + " to " + graph.getNodeId(arcTargets[shortcut]) +
+						" via " + graph.getNodeId(via));
+			}
+			arcFirstHalves[shortcut] = first;
+			arcSecondHalves[shortcut] = second;
+			arcLengths[shortcut] = arcLengths[first] + arcLengths[second];
+		}
+
+		/* build the upward and downward adjacency arrays */
+		firstUpArc = new int[nodeCount + 1];
+		firstDownArc = new int[nodeCount + 1];
+		for (a = 0; a < arcCount; a++) {
+			if (levels[arcTargets[a]] > levels[arcSources[a]]) {
+				firstUpArc[arcSources[a] + 1]++;
+			} else {
+				firstDownArc[arcTargets[a] + 1]++;
+			}
+		}
+		for (int u = 0; u < nodeCount; u++) {
+			firstUpArc[u + 1] += firstUpArc[u];
+			firstDownArc[u + 1] += firstDownArc[u];
+		}
+		upArcs = new int[firstUpArc[nodeCount]];
+		downArcs = new int[firstDownArc[nodeCount]];
+		int[] nextUp = new int[nodeCount];
+		int[] nextDown = new int[nodeCount];
+		System.arraycopy(firstUpArc, 0, nextUp, 0, nodeCount);
+		System.arraycopy(firstDownArc, 0, nextDown, 0, nodeCount);
+		for (a = 0; a < arcCount; a++) {
+			if (levels[arcTargets[a]] > levels[arcSources[a]]) {
+				upArcs[nextUp[arcSources[a]]++] = a;
+			} else {
+				downArcs[nextDown[arcTargets[a]]++] = a;
+			}
+		}
+	}
+
+
+	private int findShortestArc(int[] firstArc, int[] arcsBySource, int source, int target) {
+		int result = -1;
+		for (int i = firstArc[source]; i < firstArc[source + 1]; i++) {
+			int a = arcsBySource[i];
+			if (arcTargets[a] == target && (result == -1 || arcLengths[a] < arcLengths[result])) {
+				result = a;
+			}
+		}
+		return result;
+	}
+
+
+	/**
+	 * create a contraction hierarchy on top of the given graph from node levels
+	 * and shortcuts as stored in the database (nodes and via nodes given by their
+	 * OpenStreetMap ids). The lengths of the shortcuts are derived from the graph.
+	 * @param graph
+	 * @param access access mask the hierarchy has been built with
+	 * @param nodeIds
+	 * @param nodeLevels level of the node with the same position in nodeIds
+	 * @param shortcutSources
+	 * @param shortcutTargets
+	 * @param shortcutVias
+	 * @return
+	 */
+	public static ContractionHierarchy create(RoutingGraph graph, byte[] access, long[] nodeIds, int[] nodeLevels,
+			long[] shortcutSources, long[] shortcutTargets, long[] shortcutVias) {
+		int[] levels = new int[graph.getNodeCount()];
+		Arrays.fill(levels, -1);
+		for (int i = 0; i < nodeIds.length; i++) {
+			int node = graph.getNodeIndex(nodeIds[i]);
+			if (node != -1) {
+				levels[node] = nodeLevels[i];
+			}
+		}
+		for (int node = 0; node < levels.length; node++) {
+			if (levels[node] == -1) {
+				throw new RuntimeException("ContractionHierarchy.create(): no level for node " + graph.getNodeId(node));
+			}
+		}
+		int count = shortcutSources.length;
+		int[] sources = new int[count];
+		int[] targets = new int[count];
+		int[] vias = new int[count];
+		for (int s = 0; s < count; s++) {
+			sources[s] = getNodeIndex(graph, shortcutSources[s]);
+			targets[s] = getNodeIndex(graph, shortcutTargets[s]);
+			vias[s] = getNodeIndex(graph, shortcutVias[s]);
+		}
+		return new ContractionHierarchy(graph, access, levels, sources, targets, vias, count);
+	}
+
+
+	private static int getNodeIndex(RoutingGraph graph, long nodeId) {
+		int node = graph.getNodeIndex(nodeId);
+		if (node == -1) {
+			throw new RuntimeException("ContractionHierarchy.create(): unknown node " + nodeId);
+		}
+		return node;
+	}
+
+
+	public RoutingGraph getGraph() {
+		return graph;
+	}
+
+
+	/**
+	 * returns the access mask the hierarchy is valid for (must not be modified)
+	 * @return
+	 */
+	public byte[] getAccess() {
+		return access;
+	}
+
+
+	public int getLevel(int node) {
+		return levels[node];
+	}
+
+
+	public int getArcCount() {
+		return arcSources.length;
+	}
+
+
+	public int getShortcutCount() {
+		return arcSources.length - edgeArcCount;
+	}
+
+
+	public int getArcSource(int arc) {
+		return arcSources[arc];
+	}
+
+
+	public int getArcTarget(int arc) {
+		return arcTargets[arc];
+	}
+
+
+	public double getArcLength(int arc) {
+		return arcLengths[arc];
+	}
+
+
+	public boolean isShortcut(int arc) {
+		return arcEdges[arc] == -1;
+	}
+
+
+	/**
+	 * returns the graph edge of the given arc or -1 if it is a shortcut
+	 * @param arc
+	 * @return
+	 */
+	public int getArcEdge(int arc) {
+		return arcEdges[arc];
+	}
+
+
+	/**
+	 * returns the node the given shortcut leads via or -1 if it is no shortcut
+	 * @param arc
+	 * @return
+	 */
+	public int getArcVia(int arc) {
+		return arcVias[arc];
+	}
+
+
+	/**
+	 * returns the arc from the source to the via node of the given shortcut
+	 * @param arc
+	 * @return
+	 */
+	public int getFirstHalf(int arc) {
+		return arcFirstHalves[arc];
+	}
+
+
+	/**
+	 * returns the arc from the via node to the target of the given shortcut
+	 * @param arc
+	 * @return
+	 */
+	public int getSecondHalf(int arc) {
+		return arcSecondHalves[arc];
+	}
+
+
+	/**
+	 * returns the position of the first arc leaving the given node upwards
+	 * (positions up to getFirstUpArc(node + 1) - 1 belong to this node)
+	 * @param node
+	 * @return
+	 */
+	public int getFirstUpArc(int node) {
+		return firstUpArc[node];
+	}
+
+
+	public int getUpArc(int position) {
+		return upArcs[position];
+	}
+
+
+	/**
+	 * returns the position of the first arc arriving at the given node from above
+	 * (positions up to getFirstDownArc(node + 1) - 1 belong to this node)
+	 * @param node
+	 * @return
+	 */
+	public int getFirstDownArc(int node) {
+		return firstDownArc[node];
+	}
+
+
+	public int getDownArc(int position) {
+		return downArcs[position];
+	}
+
+}
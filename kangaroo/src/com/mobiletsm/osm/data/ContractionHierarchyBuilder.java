@@ -0,0 +1,329 @@
+package com.mobiletsm.osm.data;
+
+import com.mobiletsm.routing.routers.IndexedMinHeap;
+
+
+/**
+ * Builds a {@link ContractionHierarchy} by contracting the nodes of a
+ * {@link RoutingGraph} one after another. The node contracted next is the
+ * one with the smallest edge difference (number of shortcuts needed minus
+ * number of arcs removed) plus number of already contracted neighbours.
+ * Priorities are updated for the neighbours of a contracted node and lazily
+ * when a node is about to be contracted. A shortcut u - v - w is added unless
+ * a witness search from u (limited to MAX_SETTLED_NODES settled nodes)
+ * finds a path to w not longer than the shortcut that avoids v.
+ */
+public class ContractionHierarchyBuilder {
+
+
+	private static final int MAX_SETTLED_NODES = 100;
+
+
+	private static final int INITIAL_DEGREE = 4;
+
+
+	private final RoutingGraph graph;
+
+
+	private final byte[] access;
+
+
+	/* arcs between nodes not yet contracted (and arcs to contracted nodes, which are skipped) */
+
+	private int[][] outNodes;
+
+	private double[][] outLengths;
+
+	private int[] outDegrees;
+
+	private int[][] inNodes;
+
+	private double[][] inLengths;
+
+	private int[] inDegrees;
+
+
+	/* contraction state */
+
+	private boolean[] contracted;
+
+	private int[] contractedNeighbours;
+
+	private int[] levels;
+
+
+	/* shortcuts added so far */
+
+	private int shortcutCount = 0;
+
+	private int[] shortcutSources = new int[16];
+
+	private int[] shortcutTargets = new int[16];
+
+	private int[] shortcutVias = new int[16];
+
+
+	/* witness search */
+
+	private double[] witnessDistances;
+
+	private int[] touched;
+
+	private int touchedCount = 0;
+
+	private IndexedMinHeap witnessHeap;
+
+
+
+	/**
+	 * prepare the contraction of the given graph. Only the edges allowed by the
+	 * given access mask are part of the hierarchy.
+	 * @param graph
+	 * @param access
+	 */
+	public ContractionHierarchyBuilder(RoutingGraph graph, byte[] access) {
+		this.graph = graph;
+		this.access = access;
+	}
+
+
+	/**
+	 * contract all nodes of the graph and return the resulting hierarchy
+	 * @return
+	 */
+	public ContractionHierarchy build() {
+		int nodeCount = graph.getNodeCount();
+
+		outNodes = new int[nodeCount][];
+		outLengths = new double[nodeCount][];
+		outDegrees = new int[nodeCount];
+		inNodes = new int[nodeCount][];
+		inLengths = new double[nodeCount][];
+		inDegrees = new int[nodeCount];
+		for (int v = 0; v < nodeCount; v++) {
+			outNodes[v] = new int[INITIAL_DEGREE];
+			outLengths[v] = new double[INITIAL_DEGREE];
+			inNodes[v] = new int[INITIAL_DEGREE];
+			inLengths[v] = new double[INITIAL_DEGREE];
+		}
+		contracted = new boolean[nodeCount];
+		contractedNeighbours = new int[nodeCount];
+		levels = new int[nodeCount];
+
+		witnessDistances = new double[nodeCount];
+		for (int v = 0; v < nodeCount; v++) {
+			witnessDistances[v] = Double.POSITIVE_INFINITY;
+		}
+		touched = new int[nodeCount];
+		witnessHeap = new IndexedMinHeap(nodeCount);
+
+		for (int u = 0; u < nodeCount; u++) {
+			int lastEdge = graph.getFirstEdge(u + 1);
+			for (int e = graph.getFirstEdge(u); e < lastEdge; e++) {
+				if (graph.isEdgeAllowed(e, access)) {
+					addArc(u, graph.getEdgeTarget(e), graph.getEdgeLength(e));
+				}
+			}
+		}
+
+		IndexedMinHeap order = new IndexedMinHeap(nodeCount);
+		for (int v = 0; v < nodeCount; v++) {
+			order.insertOrDecrease(v, getPriority(v));
+		}
+
+		int level = 0;
+		while (!order.isEmpty()) {
+			int v = order.poll();
+
+			/* lazy update: postpone the node if its priority has grown meanwhile */
+			double priority = getPriority(v);
+			if (!order.isEmpty() && priority > order.peekKey()) {
+				order.insertOrDecrease(v, priority);
+				continue;
+			}
+
+			contract(v, false);
+			contracted[v] = true;
+			levels[v] = level++;
+
+			for (int i = 0; i < outDegrees[v]; i++) {
+				updateNeighbour(order, outNodes[v][i]);
+			}
+			for (int i = 0; i < inDegrees[v]; i++) {
+				updateNeighbour(order, inNodes[v][i]);
+			}
+		}
+
+		return new ContractionHierarchy(graph, access, levels,
+				shortcutSources, shortcutTargets, shortcutVias, shortcutCount);
+	}
+
+
+	private void updateNeighbour(IndexedMinHeap order, int u) {
+		if (!contracted[u]) {
+			contractedNeighbours[u]++;
+			order.insertOrDecrease(u, getPriority(u));
+		}
+	}
+
+
+	private double getPriority(int v) {
+		int removedArcs = 0;
+		for (int i = 0; i < outDegrees[v]; i++) {
+			if (!contracted[outNodes[v][i]]) {
+				removedArcs++;
+			}
+		}
+		for (int i = 0; i < inDegrees[v]; i++) {
+			if (!contracted[inNodes[v][i]]) {
+				removedArcs++;
+			}
+		}
+		return contract(v, true) - removedArcs + contractedNeighbours[v];
+	}
+
+
+	/**
+	 * add the shortcuts needed to contract node v and return their number
+	 * (if simulate is true, the shortcuts are only counted)
+	 */
+	private int contract(int v, boolean simulate) {
+		int shortcuts = 0;
+		for (int i = 0; i < inDegrees[v]; i++) {
+			int u = inNodes[v][i];
+			if (contracted[u]) {
+				continue;
+			}
+			double inLength = inLengths[v][i];
+
+			double maxLength = -1;
+			for (int j = 0; j < outDegrees[v]; j++) {
+				int w = outNodes[v][j];
+				if (w != u && !contracted[w]) {
+					maxLength = Math.max(maxLength, inLength + outLengths[v][j]);
+				}
+			}
+			if (maxLength < 0) {
+				continue;
+			}
+
+			witnessSearch(u, v, maxLength);
+
+			for (int j = 0; j < outDegrees[v]; j++) {
+				int w = outNodes[v][j];
+				if (w == u || contracted[w]) {
+					continue;
+				}
+				double length = inLength + outLengths[v][j];
+				if (witnessDistances[w] > length) {
+					shortcuts++;
+					if (!simulate) {
+						addShortcut(u, w, v, length);
+					}
+				}
+			}
+		}
+		return shortcuts;
+	}
+
+
+	/**
+	 * search the shortest paths from source to other nodes not longer than
+	 * maxLength that avoid the excluded node and all contracted nodes
+	 */
+	private void witnessSearch(int source, int excluded, double maxLength) {
+		for (int i = 0; i < touchedCount; i++) {
+			witnessDistances[touched[i]] = Double.POSITIVE_INFINITY;
+		}
+		touchedCount = 0;
+		witnessHeap.clear();
+
+		witnessDistances[source] = 0;
+		touched[touchedCount++] = source;
+		witnessHeap.insertOrDecrease(source, 0);
+
+		int settled = 0;
+		while (!witnessHeap.isEmpty() && settled < MAX_SETTLED_NODES && witnessHeap.peekKey() <= maxLength) {
+			int x = witnessHeap.poll();
+			settled++;
+			double distance = witnessDistances[x];
+			for (int i = 0; i < outDegrees[x]; i++) {
+				int y = outNodes[x][i];
+				if (y == excluded || contracted[y]) {
+					continue;
+				}
+				double newDistance = distance + outLengths[x][i];
+				if (newDistance < witnessDistances[y]) {
+					if (witnessDistances[y] == Double.POSITIVE_INFINITY) {
+						touched[touchedCount++] = y;
+					}
+					witnessDistances[y] = newDistance;
+					witnessHeap.insertOrDecrease(y, newDistance);
+				}
+			}
+		}
+	}
+
+
+	private void addShortcut(int u, int w, int v, double length) {
+		if (shortcutCount == shortcutSources.length) {
+			shortcutSources = grow(shortcutSources);
+			shortcutTargets = grow(shortcutTargets);
+			shortcutVias = grow(shortcutVias);
+		}
+		shortcutSources[shortcutCount] = u;
+		shortcutTargets[shortcutCount] = w;
+		shortcutVias[shortcutCount] = v;
+		shortcutCount++;
+		addArc(u, w, length);
+	}
+
+
+	/**
+	 * add an arc from u to w or shorten the existing one
+	 */
+	private void addArc(int u, int w, double length) {
+		for (int i = 0; i < outDegrees[u]; i++) {
+			if (outNodes[u][i] == w) {
+				if (length < outLengths[u][i]) {
+					outLengths[u][i] = length;
+					for (int j = 0; j < inDegrees[w]; j++) {
+						if (inNodes[w][j] == u) {
+							inLengths[w][j] = length;
+						}
+					}
+				}
+				return;
+			}
+		}
+		if (outDegrees[u] == outNodes[u].length) {
+			outNodes[u] = grow(outNodes[u]);
+			outLengths[u] = grow(outLengths[u]);
+		}
+		outNodes[u][outDegrees[u]] = w;
+		outLengths[u][outDegrees[u]] = length;
+		outDegrees[u]++;
+		if (inDegrees[w] == inNodes[w].length) {
+			inNodes[w] = grow(inNodes[w]);
+			inLengths[w] = grow(inLengths[w]);
+		}
+		inNodes[w][inDegrees[w]] = u;
+		inLengths[w][inDegrees[w]] = length;
+		inDegrees[w]++;
+	}
+
+
+	private static int[] grow(int[] array) {
+		int[] newArray = new int[2 * array.length];
+		System.arraycopy(array, 0, newArray, 0, array.length);
+		return newArray;
+	}
+
+
+	private static double[] grow(double[] array) {
+		double[] newArray = new double[2 * array.length];
+		System.arraycopy(array, 0, newArray, 0, array.length);
+		return newArray;
+	}
+
+}
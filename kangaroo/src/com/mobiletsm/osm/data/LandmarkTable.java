@@ -0,0 +1,261 @@
+package com.mobiletsm.osm.data;
+
+import java.util.Arrays;
+
+import com.mobiletsm.routing.routers.IndexedMinHeap;
+
+
+/**
+ * Distances between the nodes of a {@link RoutingGraph} and a small set of
+ * landmark nodes, used to compute lower bounds of the length of the shortest
+ * path between two nodes by the triangle inequality (ALT). For every node the
+ * distances from and to each landmark are kept in decimeters (-1 if there is
+ * no path). In the database, the distances of a node are stored as a blob of
+ * big-endian 32 bit integers, from- and to-distance for one landmark after
+ * another (see {@link #getDistances(int)}).
+ *
+ * The distances are computed for one access mask. The lower bounds are also
+ * valid for every access mask allowing only a subset of the edges (see
+ * {@link #isValidFor(byte[])}), since removing edges never shortens a path.
+ */
+public class LandmarkTable {
+
+
+	/**
+	 * default number of landmarks chosen by build()
+	 */
+	public static final int DEFAULT_LANDMARK_COUNT = 8;
+
+
+	private static final double DECIMETERS_PER_METER = 10;
+
+
+	private final RoutingGraph graph;
+
+
+	private final byte[] access;
+
+
+	private final int landmarkCount;
+
+
+	/* node -> 2 * landmarkCount distances (from landmark, to landmark) in decimeters */
+	private final int[] distances;
+
+
+
+	private LandmarkTable(RoutingGraph graph, byte[] access, int landmarkCount, int[] distances) {
+		this.graph = graph;
+		this.access = access;
+		this.landmarkCount = landmarkCount;
+		this.distances = distances;
+	}
+
+
+	/**
+	 * choose landmarks among the nodes of the given graph and compute the
+	 * distances of all nodes from and to them. The landmarks are chosen one
+	 * after another as the node farthest away from the landmarks chosen so far
+	 * (starting with the node farthest away from an arbitrary node).
+	 * @param graph
+	 * @param access
+	 * @param landmarkCount
+	 * @return
+	 */
+	public static LandmarkTable build(RoutingGraph graph, byte[] access, int landmarkCount) {
+		int nodeCount = graph.getNodeCount();
+		int[] distances = new int[nodeCount * 2 * landmarkCount];
+		if (nodeCount == 0) {
+			return new LandmarkTable(graph, access, landmarkCount, distances);
+		}
+
+		double[] nodeDistances = new double[nodeCount];
+		IndexedMinHeap heap = new IndexedMinHeap(nodeCount);
+
+		/* smallest distance of every node from the landmarks chosen so far */
+		double[] landmarkDistances = new double[nodeCount];
+		search(graph, access, 0, true, nodeDistances, heap);
+		System.arraycopy(nodeDistances, 0, landmarkDistances, 0, nodeCount);
+
+		for (int l = 0; l < landmarkCount; l++) {
+			int landmark = 0;
+			double maxDistance = -1;
+			for (int v = 0; v < nodeCount; v++) {
+				double distance = landmarkDistances[v];
+				if (distance != Double.POSITIVE_INFINITY && distance > maxDistance) {
+					maxDistance = distance;
+					landmark = v;
+				}
+			}
+
+			search(graph, access, landmark, true, nodeDistances, heap);
+			for (int v = 0; v < nodeCount; v++) {
+				distances[(v * landmarkCount + l) * 2] = toDecimeters(nodeDistances[v]);
+				if (l == 0) {
+					landmarkDistances[v] = nodeDistances[v];
+				} else {
+					landmarkDistances[v] = Math.min(landmarkDistances[v], nodeDistances[v]);
+				}
+			}
+			search(graph, access, landmark, false, nodeDistances, heap);
+			for (int v = 0; v < nodeCount; v++) {
+				distances[(v * landmarkCount + l) * 2 + 1] = toDecimeters(nodeDistances[v]);
+			}
+		}
+
+		return new LandmarkTable(graph, access, landmarkCount, distances);
+	}
+
+
+	/**
+	 * compute the distances from (forward = true) or to the given node
+	 */
+	private static void search(RoutingGraph graph, byte[] access, int source, boolean forward,
+			double[] nodeDistances, IndexedMinHeap heap) {
+		Arrays.fill(nodeDistances, Double.POSITIVE_INFINITY);
+		heap.clear();
+		nodeDistances[source] = 0;
+		heap.insertOrDecrease(source, 0);
+		while (!heap.isEmpty()) {
+			int u = heap.poll();
+			double distance = nodeDistances[u];
+			int lastEdge = graph.getFirstEdge(u + 1);
+			for (int e = graph.getFirstEdge(u); e < lastEdge; e++) {
+				boolean allowed = forward ? graph.isEdgeAllowed(e, access) : graph.isReverseEdgeAllowed(e, access);
+				if (!allowed) {
+					continue;
+				}
+				int w = graph.getEdgeTarget(e);
+				double newDistance = distance + graph.getEdgeLength(e);
+				if (newDistance < nodeDistances[w]) {
+					nodeDistances[w] = newDistance;
+					heap.insertOrDecrease(w, newDistance);
+				}
+			}
+		}
+	}
+
+
+	private static int toDecimeters(double distance) {
+		if (distance == Double.POSITIVE_INFINITY) {
+			return -1;
+		}
+		return (int)Math.round(distance * DECIMETERS_PER_METER);
+	}
+
+
+	/**
+	 * create a landmark table from distances as stored in the database
+	 * (nodes given by their OpenStreetMap ids). Nodes of the graph without
+	 * stored distances get no lower bounds.
+	 * @param graph
+	 * @param access access mask the distances have been computed for
+	 * @param nodeIds
+	 * @param nodeDistances encoded distances of the node with the same position in nodeIds
+	 * @return
+	 */
+	public static LandmarkTable create(RoutingGraph graph, byte[] access, long[] nodeIds, byte[][] nodeDistances) {
+		int landmarkCount = (nodeDistances.length > 0) ? nodeDistances[0].length / 8 : 0;
+		int[] distances = new int[graph.getNodeCount() * 2 * landmarkCount];
+		Arrays.fill(distances, -1);
+		for (int i = 0; i < nodeIds.length; i++) {
+			int node = graph.getNodeIndex(nodeIds[i]);
+			if (node == -1) {
+				continue;
+			}
+			byte[] bytes = nodeDistances[i];
+			if (bytes.length != landmarkCount * 8) {
+				throw new RuntimeException("LandmarkTable.create(): invalid distances for node " + nodeIds[i]);
+			}
+			int offset = node * 2 * landmarkCount;
+			for (int j = 0; j < 2 * landmarkCount; j++) {
+				distances[offset + j] = ((bytes[4 * j] & 0xff) << 24) | ((bytes[4 * j + 1] & 0xff) << 16)
+						| ((bytes[4 * j + 2] & 0xff) << 8) | (bytes[4 * j + 3] & 0xff);
+			}
+		}
+		return new LandmarkTable(graph, access, landmarkCount, distances);
+	}
+
+
+	/**
+	 * returns the encoded distances of the given node from and to the landmarks
+	 * @param node
+	 * @return
+	 */
+	public byte[] getDistances(int node) {
+		byte[] bytes = new byte[landmarkCount * 8];
+		int offset = node * 2 * landmarkCount;
+		for (int j = 0; j < 2 * landmarkCount; j++) {
+			int distance = distances[offset + j];
+			bytes[4 * j] = (byte)(distance >>> 24);
+			bytes[4 * j + 1] = (byte)(distance >>> 16);
+			bytes[4 * j + 2] = (byte)(distance >>> 8);
+			bytes[4 * j + 3] = (byte)distance;
+		}
+		return bytes;
+	}
+
+
+	public RoutingGraph getGraph() {
+		return graph;
+	}
+
+
+	public int getLandmarkCount() {
+		return landmarkCount;
+	}
+
+
+	/**
+	 * returns true if the lower bounds are valid for a vehicle with the given
+	 * access mask, i.e. the vehicle may not use any way in a direction not
+	 * allowed by the access mask the distances have been computed for
+	 * @param vehicleAccess
+	 * @return
+	 */
+	public boolean isValidFor(byte[] vehicleAccess) {
+		if (vehicleAccess == access) {
+			return true;
+		}
+		if (vehicleAccess.length != access.length) {
+			return false;
+		}
+		for (int w = 0; w < access.length; w++) {
+			if ((vehicleAccess[w] & ~access[w]) != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+	/**
+	 * returns a lower bound of the length (in meters) of the shortest path from node
+	 * u to node v. The bound may exceed the exact value by the rounding error of
+	 * the stored distances (0.1 meters).
+	 * @param u
+	 * @param v
+	 * @return
+	 */
+	public double getLowerBound(int u, int v) {
+		int bound = 0;
+		int uOffset = u * 2 * landmarkCount;
+		int vOffset = v * 2 * landmarkCount;
+		for (int l = 0; l < 2 * landmarkCount; l += 2) {
+			/* d(L, v) - d(L, u) */
+			int fromU = distances[uOffset + l];
+			int fromV = distances[vOffset + l];
+			if (fromU != -1 && fromV != -1 && fromV - fromU > bound) {
+				bound = fromV - fromU;
+			}
+			/* d(u, L) - d(v, L) */
+			int toU = distances[uOffset + l + 1];
+			int toV = distances[vOffset + l + 1];
+			if (toU != -1 && toV != -1 && toU - toV > bound) {
+				bound = toU - toV;
+			}
+		}
+		return bound / DECIMETERS_PER_METER;
+	}
+
+}
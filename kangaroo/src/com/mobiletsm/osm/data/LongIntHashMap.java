@@ -0,0 +1,196 @@
+package com.mobiletsm.osm.data;
+
+import java.util.Arrays;
+
+
+/**
+ * A hash map from primitive long keys to primitive int values using
+ * open addressing with linear probing. It is meant to map OpenStreetMap
+ * ids to dense array indices without boxing keys and values and without
+ * allocating an entry object per mapping. Removing a key shifts the
+ * following keys of its cluster back, so no deleted markers are needed.
+ */
+public class LongIntHashMap {
+
+
+	/**
+	 * value returned by get() if a key is not contained in the map
+	 */
+	public static final int NO_VALUE = -1;
+
+
+	private static final float LOAD_FACTOR = 0.5f;
+
+
+	private long[] keys;
+
+
+	private int[] values;
+
+
+	/* marks the slots that are in use (0 is a valid key) */
+	private boolean[] used;
+
+
+	private int size = 0;
+
+
+	private int mask;
+
+
+	private int threshold;
+
+
+	public LongIntHashMap() {
+		this(16);
+	}
+
+
+	public LongIntHashMap(int expectedSize) {
+		int capacity = 16;
+		while (capacity * LOAD_FACTOR < expectedSize) {
+			capacity <<= 1;
+		}
+		allocate(capacity);
+	}
+
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new int[capacity];
+		used = new boolean[capacity];
+		mask = capacity - 1;
+		threshold = (int)(capacity * LOAD_FACTOR);
+	}
+
+
+	private int slot(long key) {
+		/* spread the bits of the key (64 bit variant of the murmur3 finalizer) */
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		return (int)key & mask;
+	}
+
+
+	/**
+	 * returns the value mapped to the given key or NO_VALUE
+	 * @param key
+	 * @return
+	 */
+	public int get(long key) {
+		int slot = slot(key);
+		while (used[slot]) {
+			if (keys[slot] == key) {
+				return values[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+		return NO_VALUE;
+	}
+
+
+	public boolean containsKey(long key) {
+		int slot = slot(key);
+		while (used[slot]) {
+			if (keys[slot] == key) {
+				return true;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return false;
+	}
+
+
+	/**
+	 * maps the given key to the given value and returns the value
+	 * previously mapped to the key or NO_VALUE
+	 * @param key
+	 * @param value
+	 * @return
+	 */
+	public int put(long key, int value) {
+		int slot = slot(key);
+		while (used[slot]) {
+			if (keys[slot] == key) {
+				int previous = values[slot];
+				values[slot] = value;
+				return previous;
+			}
+			slot = (slot + 1) & mask;
+		}
+		used[slot] = true;
+		keys[slot] = key;
+		values[slot] = value;
+		if (++size > threshold) {
+			rehash();
+		}
+		return NO_VALUE;
+	}
+
+
+	/**
+	 * removes the given key and returns the value mapped to it or NO_VALUE
+	 * @param key
+	 * @return
+	 */
+	public int remove(long key) {
+		int slot = slot(key);
+		while (used[slot]) {
+			if (keys[slot] == key) {
+				int previous = values[slot];
+				/* move the keys following in the cluster into the gap unless 
+				 * the gap lies before their own slot */
+				int gap = slot;
+				int next = (gap + 1) & mask;
+				while (used[next]) {
+					int home = slot(keys[next]);
+					if (((next - home) & mask) >= ((next - gap) & mask)) {
+						keys[gap] = keys[next];
+						values[gap] = values[next];
+						gap = next;
+					}
+					next = (next + 1) & mask;
+				}
+				used[gap] = false;
+				size--;
+				return previous;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return NO_VALUE;
+	}
+
+
+	private void rehash() {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		boolean[] oldUsed = used;
+		allocate(oldKeys.length << 1);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldUsed[i]) {
+				int slot = slot(oldKeys[i]);
+				while (used[slot]) {
+					slot = (slot + 1) & mask;
+				}
+				used[slot] = true;
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+
+	public int size() {
+		return size;
+	}
+
+
+	public void clear() {
+		if (size > 0) {
+			Arrays.fill(used, false);
+			size = 0;
+		}
+	}
+
+}
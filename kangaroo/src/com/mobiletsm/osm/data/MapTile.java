@@ -1,37 +1,137 @@
 package com.mobiletsm.osm.data;
 
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * A tile of the map, either the whole map (WHOLE_MAP) or one of the tiles of
+ * TILE_SIZE x TILE_SIZE degrees the world is divided into. Street nodes are
+ * stored in the database with the id of the tile they lie in (an indexed
+ * column), so the routing graph of a region can be loaded tile by tile.
+ */
 public class MapTile {
 
-	
+
 	public static MapTile WHOLE_MAP = new MapTile(true);
-	
-	
-	private boolean coversWholeMap = false; 
-	
-	
+
+
+	/**
+	 * size of a tile in degrees of latitude and longitude (10 x 10 cells of
+	 * the CellGrid, about 11km x 7km in central Europe)
+	 */
+	public static final double TILE_SIZE = 0.1;
+
+
+	/**
+	 * number of tiles along a circle of latitude
+	 */
+	private static final int COLUMNS = (int)Math.round(360 / TILE_SIZE);
+
+
+	/**
+	 * number of tiles along a meridian
+	 */
+	private static final int ROWS = (int)Math.round(180 / TILE_SIZE);
+
+
+	private boolean coversWholeMap = false;
+
+
+	/* id of the tile (-1 if the tile covers the whole map) */
+	private int id = -1;
+
+
 	public MapTile() {
 		super();
 	}
-	
-	
+
+
 	public MapTile(boolean coversAll) {
 		this.coversWholeMap = coversAll;
 	}
-	
-	
+
+
+	public MapTile(int id) {
+		if (id < 0 || id >= ROWS * COLUMNS) {
+			throw new RuntimeException("MapTile.MapTile(): invalid id " + id);
+		}
+		this.id = id;
+	}
+
+
+	/**
+	 * returns the id of the tile containing the given coordinates
+	 * @param latitude
+	 * @param longitude
+	 * @return
+	 */
+	public static int getId(double latitude, double longitude) {
+		return getRow(latitude) * COLUMNS + getColumn(longitude);
+	}
+
+
+	/**
+	 * returns the tiles covering the given bounding box
+	 * @param minLatitude
+	 * @param minLongitude
+	 * @param maxLatitude
+	 * @param maxLongitude
+	 * @return
+	 */
+	public static List<MapTile> getTiles(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude) {
+		List<MapTile> tiles = new ArrayList<MapTile>();
+		for (int row = getRow(minLatitude); row <= getRow(maxLatitude); row++) {
+			for (int column = getColumn(minLongitude); column <= getColumn(maxLongitude); column++) {
+				tiles.add(new MapTile(row * COLUMNS + column));
+			}
+		}
+		return tiles;
+	}
+
+
+	private static int getRow(double latitude) {
+		int row = (int)Math.floor((latitude + 90) / TILE_SIZE);
+		return Math.max(0, Math.min(row, ROWS - 1));
+	}
+
+
+	private static int getColumn(double longitude) {
+		int column = (int)Math.floor((longitude + 180) / TILE_SIZE);
+		return Math.max(0, Math.min(column, COLUMNS - 1));
+	}
+
+
 	public boolean coversWholeMap() {
 		return this.coversWholeMap;
 	}
-	
-	
+
+
+	public int getId() {
+		return id;
+	}
+
+
 	@Override
 	public boolean equals(Object object) {
 		if (!(object instanceof MapTile)) {
 			return false;
 		} else {
 			MapTile mapTile = (MapTile)object;
-			return (this.coversWholeMap() == mapTile.coversWholeMap()); 
+			return (this.coversWholeMap() == mapTile.coversWholeMap() && this.id == mapTile.id);
 		}
 	}
-	
+
+
+	@Override
+	public int hashCode() {
+		return coversWholeMap ? -1 : id;
+	}
+
+
+	@Override
+	public String toString() {
+		return coversWholeMap ? "MapTile[whole map]" : "MapTile[" + id + "]";
+	}
+
 }
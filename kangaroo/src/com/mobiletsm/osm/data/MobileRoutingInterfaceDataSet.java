@@ -1,5 +1,7 @@
 package com.mobiletsm.osm.data;
 
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -14,16 +16,16 @@ import org.openstreetmap.osmosis.core.domain.v0_6.Node;
 import org.openstreetmap.osmosis.core.domain.v0_6.Way;
 import org.openstreetmap.travelingsalesman.routing.IVehicle;
 
+import com.mobiletsm.osmosis.core.domain.v0_6.MobileNode;
+
 public class MobileRoutingInterfaceDataSet extends MobileInterfaceDataSet {
 
 	private WayHelper wayHelper = new WayHelper(this); 
 	
 	
-	/*  */
-	
-	private long fromWayId;	
+	/* ways provided completely (the ways of start and destination nodes) */
 	
-	private long toWayId;	
+	private Set<Long> completeWayIds = new HashSet<Long>();
 	
 	private IVehicle vehicle;
 		
@@ -39,6 +41,15 @@ public class MobileRoutingInterfaceDataSet extends MobileInterfaceDataSet {
 	private Map<Long, Set<Long>> waysForNodes = null;
 	
 	
+	private RoutingGraph routingGraph = null;
+	
+	
+	private ContractionHierarchy contractionHierarchy = null;
+	
+	
+	private LandmarkTable landmarkTable = null;
+	
+	
 	/*  */
 	
 	public void setNodesMap(Map<Long, Node> map) {
@@ -69,14 +80,68 @@ public class MobileRoutingInterfaceDataSet extends MobileInterfaceDataSet {
 	}
 	
 	
+	public void setRoutingGraph(RoutingGraph graph) {
+		routingGraph = graph;
+	}
+	
+	
+	/**
+	 * returns the routing graph built from the reduced ways or null
+	 * @return
+	 */
+	public RoutingGraph getRoutingGraph() {
+		return routingGraph;
+	}
+	
+	
+	public void setContractionHierarchy(ContractionHierarchy hierarchy) {
+		contractionHierarchy = hierarchy;
+	}
+	
+	
+	/**
+	 * returns the contraction hierarchy on top of the routing graph or null
+	 * @return
+	 */
+	public ContractionHierarchy getContractionHierarchy() {
+		return contractionHierarchy;
+	}
+	
+	
+	public void setLandmarkTable(LandmarkTable landmarks) {
+		landmarkTable = landmarks;
+	}
+	
+	
+	/**
+	 * returns the landmark distances for the routing graph or null
+	 * @return
+	 */
+	public LandmarkTable getLandmarkTable() {
+		return landmarkTable;
+	}
+	
+	
 	public MobileRoutingInterfaceDataSet(long fromWayId, long toWayId, IVehicle vehicle) {
 		super();
-		this.fromWayId = fromWayId;
-		this.toWayId = toWayId;
+		this.completeWayIds.add(fromWayId);
+		this.completeWayIds.add(toWayId);
 		this.vehicle = vehicle;
 	}	
 	
 	
+	/**
+	 * create a data set providing the given ways completely and all other ways reduced
+	 * @param completeWayIds
+	 * @param vehicle
+	 */
+	public MobileRoutingInterfaceDataSet(Collection<Long> completeWayIds, IVehicle vehicle) {
+		super();
+		this.completeWayIds.addAll(completeWayIds);
+		this.vehicle = vehicle;
+	}
+	
+	
 	@Override
 	public boolean containsNode(Node node) {
 		return nodes.containsKey(node.getId());
@@ -91,7 +156,15 @@ public class MobileRoutingInterfaceDataSet extends MobileInterfaceDataSet {
 	
 	@Override
 	public Node getNodeByID(long nodeId) {
-		return nodes.get(nodeId);
+		Node node = nodes.get(nodeId);
+		if (node == null && routingGraph != null) {
+			/* nodes of the routing graph need not be loaded (see RoutingGraphFile) */
+			int index = routingGraph.getNodeIndex(nodeId);
+			if (index != -1 && !Double.isNaN(routingGraph.getLatitude(index))) {
+				node = new MobileNode(nodeId, routingGraph.getLatitude(index), routingGraph.getLongitude(index));
+			}
+		}
+		return node;
 	}
 
 	
@@ -109,7 +182,7 @@ public class MobileRoutingInterfaceDataSet extends MobileInterfaceDataSet {
 	
 	@Override
 	public Way getWaysByID(long wayId) {
-		if (wayId == fromWayId || wayId == toWayId)
+		if (completeWayIds.contains(wayId))
 			return completeWays.get(wayId);
 		else
 			return reducedWays.get(wayId);
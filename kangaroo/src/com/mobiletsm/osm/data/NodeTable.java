@@ -0,0 +1,251 @@
+package com.mobiletsm.osm.data;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.openstreetmap.osmosis.core.domain.v0_6.Node;
+
+import com.mobiletsm.osmosis.core.domain.v0_6.MobileNode;
+
+
+/**
+ * A map of nodes by id holding nothing but the id and coordinates (in units
+ * of 1E-7 degrees) of plain nodes, in primitive arrays indexed by a
+ * {@link LongIntHashMap}. A MobileNode is created from these whenever such a
+ * node is asked for, so the nodes returned carry the id and coordinates of the
+ * ones put into the map but are not the same instances. Nodes carrying more
+ * than id and coordinates (tags, a POI code, a nearest street node or another
+ * class than MobileNode) are held as they are in addition.
+ *
+ * Like HashMap, the map is not synchronized. Changing or removing nodes through
+ * its views is not supported.
+ */
+public class NodeTable extends AbstractMap<Long, Node> {
+
+
+	/* rows of the nodes by id */
+	private final LongIntHashMap rows = new LongIntHashMap();
+
+
+	/* ids and coordinates of the nodes by row (rows 0 to size - 1 are used) */
+
+	private long[] ids = new long[16];
+
+	private int[] latitudes = new int[16];
+
+	private int[] longitudes = new int[16];
+
+
+	/* nodes that cannot be recreated from id and coordinates by id */
+	private final Map<Long, Node> nodes = new HashMap<Long, Node>();
+
+
+	private Set<Map.Entry<Long, Node>> entrySet = null;
+
+
+	@Override
+	public int size() {
+		return rows.size();
+	}
+
+
+	@Override
+	public boolean containsKey(Object key) {
+		return (key instanceof Long) && rows.containsKey((Long)key);
+	}
+
+
+	@Override
+	public Node get(Object key) {
+		if (!(key instanceof Long)) {
+			return null;
+		}
+		int row = rows.get((Long)key);
+		return (row == LongIntHashMap.NO_VALUE) ? null : getNode(row);
+	}
+
+
+	private Node getNode(int row) {
+		if (!nodes.isEmpty()) {
+			Node node = nodes.get(ids[row]);
+			if (node != null) {
+				return node;
+			}
+		}
+		return new MobileNode(ids[row], RoutingGraph.fromE7(latitudes[row]), RoutingGraph.fromE7(longitudes[row]));
+	}
+
+
+	@Override
+	public Node put(Long key, Node node) {
+		if (node == null || key.longValue() != node.getId()) {
+			throw new RuntimeException("NodeTable.put(): node does not match id " + key);
+		}
+		Node previous = get(key);
+		int row = rows.get(key);
+		if (row == LongIntHashMap.NO_VALUE) {
+			row = rows.size();
+			if (row == ids.length) {
+				grow();
+			}
+			rows.put(key, row);
+		}
+		ids[row] = key;
+		latitudes[row] = RoutingGraph.toE7(node.getLatitude());
+		longitudes[row] = RoutingGraph.toE7(node.getLongitude());
+		if (isPlain(node)) {
+			nodes.remove(key);
+		} else {
+			nodes.put(key, node);
+		}
+		return previous;
+	}
+
+
+	/**
+	 * returns true if the given node is recreated completely from its id and coordinates
+	 */
+	private static boolean isPlain(Node node) {
+		if (node.getClass() != MobileNode.class) {
+			return false;
+		}
+		MobileNode mobileNode = (MobileNode)node;
+		return mobileNode.getTags().isEmpty() && mobileNode.getPOICode() == null
+				&& mobileNode.getNearestStreetNodeId() == MobileNode.ID_UNDEFINED
+				&& mobileNode.getVersion() == 0 && mobileNode.getTimestamp() == null;
+	}
+
+
+	private void grow() {
+		int capacity = 2 * ids.length;
+		long[] newIds = new long[capacity];
+		int[] newLatitudes = new int[capacity];
+		int[] newLongitudes = new int[capacity];
+		System.arraycopy(ids, 0, newIds, 0, ids.length);
+		System.arraycopy(latitudes, 0, newLatitudes, 0, latitudes.length);
+		System.arraycopy(longitudes, 0, newLongitudes, 0, longitudes.length);
+		ids = newIds;
+		latitudes = newLatitudes;
+		longitudes = newLongitudes;
+	}
+
+
+	@Override
+	public Node remove(Object key) {
+		if (!(key instanceof Long)) {
+			return null;
+		}
+		long id = (Long)key;
+		int row = rows.get(id);
+		if (row == LongIntHashMap.NO_VALUE) {
+			return null;
+		}
+		Node previous = getNode(row);
+		rows.remove(id);
+		nodes.remove(id);
+
+		/* move the last row into the row removed */
+		int last = rows.size();
+		if (row != last) {
+			ids[row] = ids[last];
+			latitudes[row] = latitudes[last];
+			longitudes[row] = longitudes[last];
+			rows.put(ids[row], row);
+		}
+		return previous;
+	}
+
+
+	@Override
+	public void clear() {
+		rows.clear();
+		nodes.clear();
+	}
+
+
+	@Override
+	public Set<Map.Entry<Long, Node>> entrySet() {
+		if (entrySet == null) {
+			entrySet = new AbstractSet<Map.Entry<Long, Node>>() {
+
+				@Override
+				public int size() {
+					return rows.size();
+				}
+
+				@Override
+				public Iterator<Map.Entry<Long, Node>> iterator() {
+					return new Iterator<Map.Entry<Long, Node>>() {
+
+						private int row = 0;
+
+						public boolean hasNext() {
+							return row < rows.size();
+						}
+
+						public Map.Entry<Long, Node> next() {
+							if (!hasNext()) {
+								throw new NoSuchElementException();
+							}
+							return new Entry(getNode(row++));
+						}
+
+						public void remove() {
+							throw new UnsupportedOperationException("NodeTable: removing through views is not supported");
+						}
+					};
+				}
+			};
+		}
+		return entrySet;
+	}
+
+
+	private static final class Entry implements Map.Entry<Long, Node> {
+
+		private final Node node;
+
+
+		private Entry(Node node) {
+			this.node = node;
+		}
+
+
+		public Long getKey() {
+			return node.getId();
+		}
+
+
+		public Node getValue() {
+			return node;
+		}
+
+
+		public Node setValue(Node value) {
+			throw new UnsupportedOperationException("NodeTable: changing nodes through views is not supported");
+		}
+
+
+		@Override
+		public boolean equals(Object object) {
+			if (!(object instanceof Map.Entry<?, ?>)) {
+				return false;
+			}
+			Map.Entry<?, ?> entry = (Map.Entry<?, ?>)object;
+			return getKey().equals(entry.getKey()) && node.equals(entry.getValue());
+		}
+
+
+		@Override
+		public int hashCode() {
+			return getKey().hashCode() ^ node.hashCode();
+		}
+
+	}
+
+}
@@ -0,0 +1,484 @@
+package com.mobiletsm.osm.data;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.openstreetmap.osm.data.IDataSet;
+import org.openstreetmap.osmosis.core.domain.v0_6.Node;
+import org.openstreetmap.osmosis.core.domain.v0_6.Way;
+import org.openstreetmap.osmosis.core.domain.v0_6.WayNode;
+import org.openstreetmap.travelingsalesman.routing.IVehicle;
+import org.openstreetmap.travelingsalesman.routing.Route.RoutingStep;
+import org.openstreetmap.travelingsalesman.routing.metrics.IRoutingMetric;
+
+import com.mobiletsm.osmosis.core.domain.v0_6.MobileWay;
+import com.mobiletsm.osmosis.core.domain.v0_6.MobileWayNode;
+
+
+/**
+ * An immutable routing graph in compressed sparse row (CSR) format built
+ * from the reduced ways of a map. Nodes are identified by dense int indices
+ * (ordered by OpenStreetMap id), the edges leaving node v are stored at
+ * positions getFirstEdge(v) to getFirstEdge(v + 1) - 1 of the edge arrays.
+ * Every segment of a reduced way results in two edges, one following the
+ * direction of the way and one against it, so the edges leaving a node are
+ * also the (reversed) edges arriving at it. Whether an edge may be used by
+ * a vehicle is decided per way and direction by an access mask (see
+ * {@link #getWayAccess(IDataSet, IVehicle)}).
+ *
+ * The arrays of the graph are held in buffers, which either wrap arrays on
+ * the heap (graphs built from ways) or are views of a graph file mapped into
+ * memory (see {@link RoutingGraphFile}). Coordinates are stored in units of
+ * 1E-7 degrees.
+ */
+public class RoutingGraph {
+
+
+	/**
+	 * access mask bit: the way may be used in its own direction
+	 */
+	public static final byte ACCESS_FORWARD = 1;
+
+
+	/**
+	 * access mask bit: the way may be used against its own direction
+	 */
+	public static final byte ACCESS_BACKWARD = 2;
+
+
+	/* coordinate stored for nodes without coordinates */
+	static final int NO_COORDINATE = Integer.MIN_VALUE;
+
+
+	/* nodes (ordered by id, so they are looked up by binary search) */
+
+	private final LongBuffer nodeIds;
+
+	private final IntBuffer latitudes;
+
+	private final IntBuffer longitudes;
+
+	private final IntBuffer firstEdge;
+
+
+	/* edges (edgeForward holds 1 for edges following their way, 0 otherwise) */
+
+	private final IntBuffer edgeTargets;
+
+	private final FloatBuffer edgeLengths;
+
+	private final IntBuffer edgeWays;
+
+	private final ByteBuffer edgeForward;
+
+
+	/* ways */
+
+	private final Way[] ways;
+
+
+	/* access mask of the vehicle last asked for */
+
+	private IVehicle accessVehicle = null;
+
+	private byte[] access = null;
+
+
+	/* edge costs of the metric asked for last */
+
+	private IRoutingMetric costMetric = null;
+
+	private double[] costs = null;
+
+	private double minimumCostPerLength = 0;
+
+
+
+	RoutingGraph(LongBuffer nodeIds, IntBuffer latitudes, IntBuffer longitudes, IntBuffer firstEdge,
+			IntBuffer edgeTargets, FloatBuffer edgeLengths, IntBuffer edgeWays, ByteBuffer edgeForward, Way[] ways) {
+		this.nodeIds = nodeIds;
+		this.latitudes = latitudes;
+		this.longitudes = longitudes;
+		this.firstEdge = firstEdge;
+		this.edgeTargets = edgeTargets;
+		this.edgeLengths = edgeLengths;
+		this.edgeWays = edgeWays;
+		this.edgeForward = edgeForward;
+		this.ways = ways;
+	}
+
+
+	/**
+	 * build a routing graph from the given reduced ways. The way nodes of the ways
+	 * have to be MobileWayNodes carrying the distance to their predecessor. Nodes
+	 * are looked up in the given map to get their coordinates.
+	 * @param nodes
+	 * @param reducedWays
+	 * @return
+	 */
+	public static RoutingGraph build(Map<Long, Node> nodes, Collection<Way> reducedWays) {
+
+		Way[] ways = reducedWays.toArray(new Way[reducedWays.size()]);
+
+		/* ids of the way nodes and their distances to their predecessors by way */
+		long[][] wayNodeIds = new long[ways.length][];
+		double[][] wayNodeDistances = new double[ways.length][];
+		for (int w = 0; w < ways.length; w++) {
+			wayNodeIds[w] = getWayNodeIds(ways[w]);
+			wayNodeDistances[w] = getWayNodeDistances(ways[w]);
+		}
+
+		/* collect and sort the ids of all nodes on the ways */
+		int count = 0;
+		for (long[] wayNodes : wayNodeIds) {
+			count += wayNodes.length;
+		}
+		long[] ids = new long[count];
+		count = 0;
+		for (long[] wayNodes : wayNodeIds) {
+			System.arraycopy(wayNodes, 0, ids, count, wayNodes.length);
+			count += wayNodes.length;
+		}
+		Arrays.sort(ids);
+		int nodeCount = 0;
+		for (int i = 0; i < count; i++) {
+			if (nodeCount == 0 || ids[nodeCount - 1] != ids[i]) {
+				ids[nodeCount++] = ids[i];
+			}
+		}
+		long[] nodeIds = new long[nodeCount];
+		System.arraycopy(ids, 0, nodeIds, 0, nodeCount);
+
+		int[] latitudes = new int[nodeCount];
+		int[] longitudes = new int[nodeCount];
+		for (int i = 0; i < nodeCount; i++) {
+			Node node = nodes.get(nodeIds[i]);
+			if (node != null) {
+				latitudes[i] = toE7(node.getLatitude());
+				longitudes[i] = toE7(node.getLongitude());
+			} else {
+				latitudes[i] = NO_COORDINATE;
+				longitudes[i] = NO_COORDINATE;
+			}
+		}
+
+		/* count the edges leaving each node */
+		int[] firstEdge = new int[nodeCount + 1];
+		for (long[] wayNodes : wayNodeIds) {
+			for (int i = 1; i < wayNodes.length; i++) {
+				long from = wayNodes[i - 1];
+				long to = wayNodes[i];
+				if (from != to) {
+					firstEdge[Arrays.binarySearch(nodeIds, from) + 1]++;
+					firstEdge[Arrays.binarySearch(nodeIds, to) + 1]++;
+				}
+			}
+		}
+		for (int i = 0; i < nodeCount; i++) {
+			firstEdge[i + 1] += firstEdge[i];
+		}
+
+		/* fill the edge arrays */
+		int edgeCount = firstEdge[nodeCount];
+		int[] edgeTargets = new int[edgeCount];
+		float[] edgeLengths = new float[edgeCount];
+		int[] edgeWays = new int[edgeCount];
+		byte[] edgeForward = new byte[edgeCount];
+		int[] next = new int[nodeCount];
+		System.arraycopy(firstEdge, 0, next, 0, nodeCount);
+
+		for (int w = 0; w < ways.length; w++) {
+			long[] wayNodes = wayNodeIds[w];
+			for (int i = 1; i < wayNodes.length; i++) {
+				int from = Arrays.binarySearch(nodeIds, wayNodes[i - 1]);
+				int to = Arrays.binarySearch(nodeIds, wayNodes[i]);
+				if (from != to) {
+					float length = (float)wayNodeDistances[w][i];
+					int e = next[from]++;
+					edgeTargets[e] = to;
+					edgeLengths[e] = length;
+					edgeWays[e] = w;
+					edgeForward[e] = 1;
+					e = next[to]++;
+					edgeTargets[e] = from;
+					edgeLengths[e] = length;
+					edgeWays[e] = w;
+					edgeForward[e] = 0;
+				}
+			}
+		}
+
+		return new RoutingGraph(LongBuffer.wrap(nodeIds), IntBuffer.wrap(latitudes), IntBuffer.wrap(longitudes), 
+				IntBuffer.wrap(firstEdge), IntBuffer.wrap(edgeTargets), FloatBuffer.wrap(edgeLengths), 
+				IntBuffer.wrap(edgeWays), ByteBuffer.wrap(edgeForward), ways);
+	}
+
+
+	static int toE7(double degrees) {
+		return (int)Math.round(degrees * 1E7);
+	}
+
+
+	static double fromE7(int coordinate) {
+		return (coordinate == NO_COORDINATE) ? Double.NaN : coordinate / 1E7;
+	}
+
+
+	/**
+	 * returns the ids of the way nodes of the given way (without decoding the
+	 * way nodes of a MobileWay into WayNode objects)
+	 */
+	private static long[] getWayNodeIds(Way way) {
+		if (way instanceof MobileWay) {
+			return ((MobileWay)way).getWayNodeIds();
+		}
+		List<WayNode> wayNodes = way.getWayNodes();
+		long[] ids = new long[wayNodes.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = wayNodes.get(i).getNodeId();
+		}
+		return ids;
+	}
+
+
+	/**
+	 * returns the distances of the way nodes of the given way to their
+	 * predecessors (0 if not known)
+	 */
+	private static double[] getWayNodeDistances(Way way) {
+		if (way instanceof MobileWay) {
+			return ((MobileWay)way).getWayNodeDistances();
+		}
+		List<WayNode> wayNodes = way.getWayNodes();
+		double[] distances = new double[wayNodes.size()];
+		for (int i = 0; i < distances.length; i++) {
+			if (wayNodes.get(i) instanceof MobileWayNode) {
+				distances[i] = ((MobileWayNode)wayNodes.get(i)).getDistanceToPredecessor();
+			}
+		}
+		return distances;
+	}
+
+
+	public int getNodeCount() {
+		return nodeIds.limit();
+	}
+
+
+	public int getEdgeCount() {
+		return edgeTargets.limit();
+	}
+
+
+	public int getWayCount() {
+		return ways.length;
+	}
+
+
+	/**
+	 * returns the index of the node with the given id or -1 if the node is not part of the graph
+	 * @param nodeId
+	 * @return
+	 */
+	public int getNodeIndex(long nodeId) {
+		int low = 0;
+		int high = nodeIds.limit() - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			long id = nodeIds.get(middle);
+			if (id < nodeId) {
+				low = middle + 1;
+			} else if (id > nodeId) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -1;
+	}
+
+
+	public long getNodeId(int node) {
+		return nodeIds.get(node);
+	}
+
+
+	/**
+	 * returns the latitude of the given node (NaN if not known)
+	 * @param node
+	 * @return
+	 */
+	public double getLatitude(int node) {
+		return fromE7(latitudes.get(node));
+	}
+
+
+	/**
+	 * returns the longitude of the given node (NaN if not known)
+	 * @param node
+	 * @return
+	 */
+	public double getLongitude(int node) {
+		return fromE7(longitudes.get(node));
+	}
+
+
+	/**
+	 * returns the index of the first edge leaving the given node
+	 * (edges up to getFirstEdge(node + 1) - 1 leave this node)
+	 * @param node
+	 * @return
+	 */
+	public int getFirstEdge(int node) {
+		return firstEdge.get(node);
+	}
+
+
+	public int getEdgeTarget(int edge) {
+		return edgeTargets.get(edge);
+	}
+
+
+	public float getEdgeLength(int edge) {
+		return edgeLengths.get(edge);
+	}
+
+
+	/**
+	 * returns the index of the way the given edge belongs to
+	 * @param edge
+	 * @return
+	 */
+	public int getEdgeWay(int edge) {
+		return edgeWays.get(edge);
+	}
+
+
+	/**
+	 * returns true if the given edge follows the direction of its way
+	 * @param edge
+	 * @return
+	 */
+	public boolean isEdgeForward(int edge) {
+		return edgeForward.get(edge) != 0;
+	}
+
+
+	public Way getWay(int way) {
+		return ways[way];
+	}
+
+
+	/**
+	 * returns true if the given edge may be travelled from its source to its target
+	 * @param edge
+	 * @param access the access mask as returned by getWayAccess()
+	 * @return
+	 */
+	public boolean isEdgeAllowed(int edge, byte[] access) {
+		return (access[edgeWays.get(edge)] & (edgeForward.get(edge) != 0 ? ACCESS_FORWARD : ACCESS_BACKWARD)) != 0;
+	}
+
+
+	/**
+	 * returns true if the given edge may be travelled from its target to its source
+	 * @param edge
+	 * @param access the access mask as returned by getWayAccess()
+	 * @return
+	 */
+	public boolean isReverseEdgeAllowed(int edge, byte[] access) {
+		return (access[edgeWays.get(edge)] & (edgeForward.get(edge) != 0 ? ACCESS_BACKWARD : ACCESS_FORWARD)) != 0;
+	}
+
+
+	/**
+	 * returns a mask telling for every way of the graph in which directions the
+	 * given vehicle may use it (combination of ACCESS_FORWARD and ACCESS_BACKWARD).
+	 * The mask of the vehicle asked for last is kept and must not be modified.
+	 * @param map
+	 * @param vehicle
+	 * @return
+	 */
+	public synchronized byte[] getWayAccess(IDataSet map, IVehicle vehicle) {
+		if (access != null && vehicle.equals(accessVehicle)) {
+			return access;
+		}
+		byte[] mask = new byte[ways.length];
+		for (int w = 0; w < ways.length; w++) {
+			Way way = ways[w];
+			if (vehicle.isAllowed(map, way)) {
+				if (!vehicle.isReverseOneway(map, way)) {
+					mask[w] |= ACCESS_FORWARD;
+				}
+				if (!vehicle.isOneway(map, way)) {
+					mask[w] |= ACCESS_BACKWARD;
+				}
+			}
+		}
+		accessVehicle = vehicle;
+		access = mask;
+		return mask;
+	}
+
+
+	/**
+	 * returns the costs of all edges according to the given metric, ignoring
+	 * turn costs. The cost of travelling edge e from its source to its target
+	 * is stored at position 2 * e, the cost of travelling it from its target to
+	 * its source at position 2 * e + 1. The costs of the metric asked for last
+	 * are kept and must not be modified.
+	 * @param map map containing the nodes of the graph
+	 * @param metric
+	 * @return
+	 */
+	public synchronized double[] getEdgeCosts(IDataSet map, IRoutingMetric metric) {
+		if (costs != null && metric == costMetric) {
+			return costs;
+		}
+		double[] edgeCosts = new double[2 * getEdgeCount()];
+		double minimum = Double.POSITIVE_INFINITY;
+		for (int u = 0; u < getNodeCount(); u++) {
+			Node from = map.getNodeByID(nodeIds.get(u));
+			for (int e = firstEdge.get(u); e < firstEdge.get(u + 1); e++) {
+				Node to = map.getNodeByID(nodeIds.get(edgeTargets.get(e)));
+				if (from != null && to != null) {
+					Way way = ways[edgeWays.get(e)];
+					edgeCosts[2 * e] = metric.getCost(new RoutingStep(map, from, to, way));
+					edgeCosts[2 * e + 1] = metric.getCost(new RoutingStep(map, to, from, way));
+				} else {
+					edgeCosts[2 * e] = Double.POSITIVE_INFINITY;
+					edgeCosts[2 * e + 1] = Double.POSITIVE_INFINITY;
+				}
+				float length = edgeLengths.get(e);
+				if (length > 0) {
+					minimum = Math.min(minimum, Math.min(edgeCosts[2 * e], edgeCosts[2 * e + 1]) / length);
+				}
+			}
+		}
+		costMetric = metric;
+		costs = edgeCosts;
+		minimumCostPerLength = (minimum == Double.POSITIVE_INFINITY || minimum < 0) ? 0 : minimum;
+		return edgeCosts;
+	}
+
+
+	/**
+	 * returns the smallest ratio between cost and length of an edge according
+	 * to the given metric, which turns a lower bound of the length of a path
+	 * into a lower bound of its cost
+	 * @param map
+	 * @param metric
+	 * @return
+	 */
+	public synchronized double getMinimumCostPerLength(IDataSet map, IRoutingMetric metric) {
+		getEdgeCosts(map, metric);
+		return minimumCostPerLength;
+	}
+
+}
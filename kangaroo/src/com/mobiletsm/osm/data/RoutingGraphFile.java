@@ -0,0 +1,260 @@
+package com.mobiletsm.osm.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.Random;
+
+import org.openstreetmap.osmosis.core.domain.v0_6.Way;
+
+
+/**
+ * A routing graph stored in a single file laid out like the arrays of the
+ * {@link RoutingGraph}, so the graph is used right from the file mapped into
+ * memory, without reading or parsing it, and the operating system decides which
+ * parts of it are held in memory. The file is written by MobileTSMDatabaseWriter
+ * next to the database (see getFileName()).
+ *
+ * All values are little endian. The file starts with a header of six ints (magic
+ * number, version, number of nodes, edges and ways, stamp), followed by the node
+ * ids (longs), latitudes and longitudes (ints, in 1E-7 degrees), the index of
+ * the first edge of each node plus one for the end of the edges (ints), the edge
+ * targets (ints), lengths (floats), way indices (ints) and directions (bytes) and
+ * the ids of the ways (longs). Longs start at offsets divisible by 8.
+ *
+ * The ways themselves (needed for their tags) are not stored in the file but
+ * looked up by id when the file is mapped.
+ *
+ * The stamp is a random number also stored in the database the file is written
+ * with (table routing_graph_0). A file is only mapped for a database with the
+ * same stamp, so a file left from an earlier import is not used with a newer
+ * database, while copies of both still belong together.
+ */
+public class RoutingGraphFile {
+
+
+	private static final int MAGIC = 0x4753544d;
+
+
+	private static final int VERSION = 1;
+
+
+	private static final int HEADER_SIZE = 24;
+
+
+	private RoutingGraphFile() {
+	}
+
+
+	/**
+	 * returns the name of the graph file belonging to the given database file
+	 * @param database
+	 * @return
+	 */
+	public static String getFileName(String database) {
+		return database + ".graph";
+	}
+
+
+	/**
+	 * returns a new stamp to tie a graph file to its database (never 0)
+	 * @return
+	 */
+	public static int newStamp() {
+		Random random = new Random();
+		int stamp;
+		do {
+			stamp = random.nextInt();
+		} while (stamp == 0);
+		return stamp;
+	}
+
+
+	/**
+	 * write the given routing graph to the given file with the given stamp
+	 * of its database
+	 * @param graph
+	 * @param file
+	 * @param stamp
+	 * @throws IOException
+	 */
+	public static void write(RoutingGraph graph, File file, int stamp) throws IOException {
+		int nodeCount = graph.getNodeCount();
+		int edgeCount = graph.getEdgeCount();
+		int wayCount = graph.getWayCount();
+		Layout layout = new Layout(nodeCount, edgeCount, wayCount);
+
+		if (file.exists() && !file.delete()) {
+			throw new IOException("RoutingGraphFile.write(): cannot replace " + file);
+		}
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+		try {
+			FileChannel channel = randomAccessFile.getChannel();
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, layout.size);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+			buffer.putInt(MAGIC);
+			buffer.putInt(VERSION);
+			buffer.putInt(nodeCount);
+			buffer.putInt(edgeCount);
+			buffer.putInt(wayCount);
+			buffer.putInt(stamp);
+
+			buffer.position(layout.nodeIds);
+			for (int node = 0; node < nodeCount; node++) {
+				buffer.putLong(graph.getNodeId(node));
+			}
+			for (int node = 0; node < nodeCount; node++) {
+				double latitude = graph.getLatitude(node);
+				buffer.putInt(Double.isNaN(latitude) ? RoutingGraph.NO_COORDINATE : RoutingGraph.toE7(latitude));
+			}
+			for (int node = 0; node < nodeCount; node++) {
+				double longitude = graph.getLongitude(node);
+				buffer.putInt(Double.isNaN(longitude) ? RoutingGraph.NO_COORDINATE : RoutingGraph.toE7(longitude));
+			}
+			for (int node = 0; node <= nodeCount; node++) {
+				buffer.putInt(graph.getFirstEdge(node));
+			}
+			for (int edge = 0; edge < edgeCount; edge++) {
+				buffer.putInt(graph.getEdgeTarget(edge));
+			}
+			for (int edge = 0; edge < edgeCount; edge++) {
+				buffer.putFloat(graph.getEdgeLength(edge));
+			}
+			for (int edge = 0; edge < edgeCount; edge++) {
+				buffer.putInt(graph.getEdgeWay(edge));
+			}
+			for (int edge = 0; edge < edgeCount; edge++) {
+				buffer.put(graph.isEdgeForward(edge) ? (byte)1 : (byte)0);
+			}
+			buffer.position(layout.wayIds);
+			for (int way = 0; way < wayCount; way++) {
+				buffer.putLong(graph.getWay(way).getId());
+			}
+			buffer.force();
+		} finally {
+			randomAccessFile.close();
+		}
+	}
+
+
+	/**
+	 * map the given graph file into memory. The ways of the graph are looked up
+	 * by id in the given map, which has to contain all of them. Throws a 
+	 * RuntimeException if the file has not been written with the given stamp
+	 * of the database (0 if the database has none).
+	 * @param file
+	 * @param ways
+	 * @param stamp
+	 * @return
+	 * @throws IOException
+	 */
+	public static RoutingGraph map(File file, Map<Long, Way> ways, int stamp) throws IOException {
+		MappedByteBuffer buffer;
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = randomAccessFile.getChannel();
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			/* the mapping stays valid after the file is closed */
+			randomAccessFile.close();
+		}
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+		if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+			throw new RuntimeException("RoutingGraphFile.map(): " + file + " is not a graph file");
+		}
+		if (buffer.getInt(4) != VERSION) {
+			throw new RuntimeException("RoutingGraphFile.map(): unsupported version " + buffer.getInt(4));
+		}
+		if (stamp == 0 || buffer.getInt(20) != stamp) {
+			throw new RuntimeException("RoutingGraphFile.map(): " + file + " does not belong to the database");
+		}
+		int nodeCount = buffer.getInt(8);
+		int edgeCount = buffer.getInt(12);
+		int wayCount = buffer.getInt(16);
+		Layout layout = new Layout(nodeCount, edgeCount, wayCount);
+		if (nodeCount < 0 || edgeCount < 0 || wayCount < 0 || layout.size != buffer.capacity()) {
+			throw new RuntimeException("RoutingGraphFile.map(): " + file + " is truncated");
+		}
+
+		Way[] graphWays = new Way[wayCount];
+		for (int way = 0; way < wayCount; way++) {
+			long id = buffer.getLong(layout.wayIds + 8 * way);
+			graphWays[way] = ways.get(id);
+			if (graphWays[way] == null) {
+				throw new RuntimeException("RoutingGraphFile.map(): way " + id + " of the graph not found");
+			}
+		}
+
+		return new RoutingGraph(
+				getSection(buffer, layout.nodeIds, 8 * nodeCount).asLongBuffer(),
+				getSection(buffer, layout.latitudes, 4 * nodeCount).asIntBuffer(),
+				getSection(buffer, layout.longitudes, 4 * nodeCount).asIntBuffer(),
+				getSection(buffer, layout.firstEdge, 4 * (nodeCount + 1)).asIntBuffer(),
+				getSection(buffer, layout.edgeTargets, 4 * edgeCount).asIntBuffer(),
+				getSection(buffer, layout.edgeLengths, 4 * edgeCount).asFloatBuffer(),
+				getSection(buffer, layout.edgeWays, 4 * edgeCount).asIntBuffer(),
+				getSection(buffer, layout.edgeForward, edgeCount),
+				graphWays);
+	}
+
+
+	/**
+	 * returns a view of the given part of the buffer (in the byte order of the file)
+	 */
+	private static ByteBuffer getSection(ByteBuffer buffer, int offset, int length) {
+		ByteBuffer duplicate = buffer.duplicate();
+		duplicate.position(offset);
+		duplicate.limit(offset + length);
+		return duplicate.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+
+	/**
+	 * offsets of the sections of a graph file
+	 */
+	private static final class Layout {
+
+		private final int nodeIds;
+
+		private final int latitudes;
+
+		private final int longitudes;
+
+		private final int firstEdge;
+
+		private final int edgeTargets;
+
+		private final int edgeLengths;
+
+		private final int edgeWays;
+
+		private final int edgeForward;
+
+		private final int wayIds;
+
+		private final int size;
+
+
+		private Layout(int nodeCount, int edgeCount, int wayCount) {
+			nodeIds = HEADER_SIZE;
+			latitudes = nodeIds + 8 * nodeCount;
+			longitudes = latitudes + 4 * nodeCount;
+			firstEdge = longitudes + 4 * nodeCount;
+			edgeTargets = firstEdge + 4 * (nodeCount + 1);
+			edgeLengths = edgeTargets + 4 * edgeCount;
+			edgeWays = edgeLengths + 4 * edgeCount;
+			edgeForward = edgeWays + 4 * edgeCount;
+			wayIds = (edgeForward + edgeCount + 7) & ~7;
+			size = wayIds + 8 * wayCount;
+		}
+
+	}
+
+}
@@ -0,0 +1,312 @@
+package com.mobiletsm.osm.data;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.mobiletsm.routing.Place;
+
+
+/**
+ * An in-memory index of the street nodes by the cells of the {@link CellGrid}
+ * they lie in. The ids and coordinates of the nodes of a cell are kept in
+ * primitive arrays. Cells are loaded as a whole (by loadCells(), implemented
+ * by the source of the nodes) when a query first reaches them, and the cells
+ * used least recently are dropped if more than the maximum number of cells
+ * are held.
+ *
+ * The nearest street nodes of a position are found by looking at the cells
+ * around it ring by ring until no node outside the rings looked at can be
+ * closer than the nodes found, so a query only touches the few cells around
+ * the position wherever it is.
+ */
+public abstract class StreetNodeIndex {
+
+
+	/**
+	 * decides which nodes may be returned by a query
+	 */
+	public interface Filter {
+
+		public boolean isAllowed(long nodeId);
+
+	}
+
+
+	public static final int DEFAULT_MAX_CELLS = 1000;
+
+
+	/* cells held, least recently used first */
+	private final Map<Integer, Cell> cells;
+
+
+	private final int maxCells;
+
+
+	public StreetNodeIndex() {
+		this(DEFAULT_MAX_CELLS);
+	}
+
+
+	public StreetNodeIndex(final int maxCells) {
+		this.maxCells = maxCells;
+		cells = new LinkedHashMap<Integer, Cell>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, Cell> eldest) {
+				return size() > maxCells;
+			}
+		};
+	}
+
+
+	/**
+	 * load the street nodes of the given cells and add them by calling
+	 * addCell() for each of the cells (also if there are no nodes in it)
+	 * @param cells
+	 */
+	protected abstract void loadCells(int[] cells);
+
+
+	/**
+	 * add the street nodes of the given cell, replacing the nodes held for it
+	 * @param cell
+	 * @param ids
+	 * @param latitudes
+	 * @param longitudes
+	 */
+	public synchronized void addCell(int cell, long[] ids, double[] latitudes, double[] longitudes) {
+		if (ids.length != latitudes.length || ids.length != longitudes.length) {
+			throw new RuntimeException("StreetNodeIndex.addCell(): arrays differ in length");
+		}
+		cells.put(cell, new Cell(ids, latitudes, longitudes));
+	}
+
+
+	/**
+	 * load those of the given cells that are not held yet (as many as may be held),
+	 * a few hundred cells at a time
+	 * @param cellsToLoad
+	 */
+	public synchronized void prepare(int[] cellsToLoad) {
+		int[] missing = new int[Math.min(cellsToLoad.length, maxCells)];
+		int count = 0;
+		for (int i = 0; i < cellsToLoad.length && count < missing.length; i++) {
+			if (!cells.containsKey(cellsToLoad[i])) {
+				missing[count++] = cellsToLoad[i];
+			}
+		}
+		for (int first = 0; first < count; first += CellGrid.MAX_CELLS) {
+			int[] chunk = new int[Math.min(CellGrid.MAX_CELLS, count - first)];
+			System.arraycopy(missing, first, chunk, 0, chunk.length);
+			loadCells(chunk);
+		}
+	}
+
+
+	public synchronized boolean containsCell(int cell) {
+		return cells.containsKey(cell);
+	}
+
+
+	/**
+	 * returns the number of cells held
+	 * @return
+	 */
+	public synchronized int size() {
+		return cells.size();
+	}
+
+
+	public synchronized void clear() {
+		cells.clear();
+	}
+
+
+	/**
+	 * returns the ids of the (at most) count street nodes nearest to the given
+	 * position that are not farther than maxDistance meters away and allowed by
+	 * the given filter (if not null), the nearest node first
+	 * @param latitude
+	 * @param longitude
+	 * @param count
+	 * @param maxDistance
+	 * @param filter
+	 * @return
+	 */
+	public synchronized long[] getNearest(double latitude, double longitude, int count,
+			double maxDistance, Filter filter) {
+
+		long[] bestIds = new long[count];
+		double[] bestDistances = new double[count];
+		int found = 0;
+
+		int row = CellGrid.getRow(latitude);
+		int column = CellGrid.getColumn(longitude);
+
+		for (int ring = 0; count > 0; ring++) {
+
+			/* distance to the nearest position outside the rings looked at so far */
+			if (ring > 0) {
+				double bound = getBound(latitude, longitude, row, column, ring);
+				if (bound == Double.POSITIVE_INFINITY || bound > maxDistance
+						|| (found == count && bound >= bestDistances[count - 1])) {
+					break;
+				}
+			}
+
+			int[] ringCells = getRing(row, column, ring);
+			int missing = 0;
+			for (int i = 0; i < ringCells.length; i++) {
+				if (!cells.containsKey(ringCells[i])) {
+					missing++;
+				}
+			}
+			if (missing > 0) {
+				int[] cellsToLoad = new int[missing];
+				missing = 0;
+				for (int i = 0; i < ringCells.length; i++) {
+					if (!cells.containsKey(ringCells[i])) {
+						cellsToLoad[missing++] = ringCells[i];
+					}
+				}
+				loadCells(cellsToLoad);
+			}
+
+			/* collect the nodes closer than the nodes found so far ... */
+			double threshold = (found < count) ? maxDistance : bestDistances[count - 1];
+			int candidateCount = 0;
+			long[] candidateIds = new long[16];
+			double[] distances = new double[16];
+			for (int i = 0; i < ringCells.length; i++) {
+				Cell cell = cells.get(ringCells[i]);
+				if (cell == null) {
+					continue;
+				}
+				for (int j = 0; j < cell.ids.length; j++) {
+					double distance = Place.distance(latitude, longitude, cell.latitudes[j], cell.longitudes[j]);
+					if (distance <= threshold) {
+						if (candidateCount == candidateIds.length) {
+							long[] newIds = new long[2 * candidateCount];
+							double[] newDistances = new double[2 * candidateCount];
+							System.arraycopy(candidateIds, 0, newIds, 0, candidateCount);
+							System.arraycopy(distances, 0, newDistances, 0, candidateCount);
+							candidateIds = newIds;
+							distances = newDistances;
+						}
+						candidateIds[candidateCount] = cell.ids[j];
+						distances[candidateCount] = distance;
+						candidateCount++;
+					}
+				}
+			}
+			if (candidateCount == 0) {
+				continue;
+			}
+
+			/* ... and add them nearest first, so the filter is only asked for nodes
+			 * that would be returned if no nearer node was found in later rings */
+			Integer[] order = new Integer[candidateCount];
+			for (int i = 0; i < candidateCount; i++) {
+				order[i] = i;
+			}
+			final double[] sortDistances = distances;
+			Arrays.sort(order, new Comparator<Integer>() {
+				public int compare(Integer a, Integer b) {
+					return Double.compare(sortDistances[a], sortDistances[b]);
+				}
+			});
+			for (int i = 0; i < candidateCount; i++) {
+				int c = order[i];
+				if (found == count && distances[c] >= bestDistances[count - 1]) {
+					break;
+				}
+				if (filter != null && !filter.isAllowed(candidateIds[c])) {
+					continue;
+				}
+				/* insert the node into the nodes found, sorted by distance */
+				int position = (found < count) ? found++ : count - 1;
+				while (position > 0 && bestDistances[position - 1] > distances[c]) {
+					bestIds[position] = bestIds[position - 1];
+					bestDistances[position] = bestDistances[position - 1];
+					position--;
+				}
+				bestIds[position] = candidateIds[c];
+				bestDistances[position] = distances[c];
+			}
+		}
+
+		long[] result = new long[found];
+		System.arraycopy(bestIds, 0, result, 0, found);
+		return result;
+	}
+
+
+	/**
+	 * returns the cells of the given ring (of cells at the given distance in rows
+	 * or columns) around the given cell
+	 */
+	private static int[] getRing(int row, int column, int ring) {
+		int minRow = Math.max(row - ring, 0);
+		int maxRow = Math.min(row + ring, CellGrid.getRows() - 1);
+		int minColumn = Math.max(column - ring, 0);
+		int maxColumn = Math.min(column + ring, CellGrid.getColumns() - 1);
+		int[] ringCells = new int[(maxRow - minRow + 1) * (maxColumn - minColumn + 1)];
+		int i = 0;
+		for (int r = minRow; r <= maxRow; r++) {
+			for (int c = minColumn; c <= maxColumn; c++) {
+				if (Math.abs(r - row) == ring || Math.abs(c - column) == ring) {
+					ringCells[i++] = CellGrid.getCell(r, c);
+				}
+			}
+		}
+		int[] result = new int[i];
+		System.arraycopy(ringCells, 0, result, 0, i);
+		return result;
+	}
+
+
+	/**
+	 * returns the distance from the given position to the nearest position outside
+	 * of the rings below the given one (infinite if these cover the whole grid)
+	 */
+	private static double getBound(double latitude, double longitude, int row, int column, int ring) {
+		double bound = Double.POSITIVE_INFINITY;
+		if (row - ring >= 0) {
+			bound = Math.min(bound, Place.distance(latitude, longitude,
+					CellGrid.getLatitude(row - ring + 1), longitude));
+		}
+		if (row + ring < CellGrid.getRows()) {
+			bound = Math.min(bound, Place.distance(latitude, longitude,
+					CellGrid.getLatitude(row + ring), longitude));
+		}
+		if (column - ring >= 0) {
+			bound = Math.min(bound, Place.distance(latitude, longitude,
+					latitude, CellGrid.getLongitude(column - ring + 1)));
+		}
+		if (column + ring < CellGrid.getColumns()) {
+			bound = Math.min(bound, Place.distance(latitude, longitude,
+					latitude, CellGrid.getLongitude(column + ring)));
+		}
+		return bound;
+	}
+
+
+	private static final class Cell {
+
+		private final long[] ids;
+
+		private final double[] latitudes;
+
+		private final double[] longitudes;
+
+
+		private Cell(long[] ids, double[] latitudes, double[] longitudes) {
+			this.ids = ids;
+			this.latitudes = latitudes;
+			this.longitudes = longitudes;
+		}
+
+	}
+
+}
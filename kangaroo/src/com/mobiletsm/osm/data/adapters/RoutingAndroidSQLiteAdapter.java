@@ -1,14 +1,24 @@
 package com.mobiletsm.osm.data.adapters;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 import org.openstreetmap.osmosis.core.domain.v0_6.Node;
+import org.openstreetmap.osmosis.core.domain.v0_6.Tag;
 import org.openstreetmap.osmosis.core.domain.v0_6.Way;
 
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 
 import com.mobiletsm.osm.OsmHelper;
+import com.mobiletsm.osm.WayNodeEncoding;
+import com.mobiletsm.osm.data.ContractionHierarchy;
+import com.mobiletsm.osm.data.LandmarkTable;
+import com.mobiletsm.osm.data.MapTile;
+import com.mobiletsm.osm.data.RoutingGraph;
+import com.mobiletsm.osm.data.RoutingGraphFile;
 import com.mobiletsm.osm.data.searching.POICode;
 import com.mobiletsm.osmosis.core.domain.v0_6.MobileNode;
 import com.mobiletsm.osmosis.core.domain.v0_6.MobileWay;
@@ -19,6 +29,26 @@ public class RoutingAndroidSQLiteAdapter extends RoutingDBAdapter {
 	SQLiteDatabase database = null;	
 	
 	
+	/* whether the database provides the cell index (null if not looked up yet) */
+	private Boolean cellIndex = null;
+	
+	
+	/* whether the database provides the tile index (null if not looked up yet) */
+	private Boolean tileIndex = null;
+	
+	
+	/* whether the way nodes are stored in binary form (null if not looked up yet) */
+	private Boolean binaryWayNodes = null;
+	
+	
+	/* whether the way ids of the street nodes are stored in binary form (null if not looked up yet) */
+	private Boolean binaryWayIds = null;
+	
+	
+	/* whether the tags are stored as ids of table tags_0 (null if not looked up yet) */
+	private Boolean tagIds = null;
+	
+	
 	@Override
 	public boolean open(String source) {
 		try {
@@ -26,6 +56,7 @@ public class RoutingAndroidSQLiteAdapter extends RoutingDBAdapter {
 				//database = SQLiteDatabase.openOrCreateDatabase(source, null);
 				
 				database = SQLiteDatabase.openDatabase(source, null, SQLiteDatabase.OPEN_READONLY);
+				graphFileName = RoutingGraphFile.getFileName(source);
 				
 				return isOpen();
 			} else {
@@ -48,6 +79,104 @@ public class RoutingAndroidSQLiteAdapter extends RoutingDBAdapter {
 		if (isOpen()) {
 			database.close();
 		}
+		cellIndex = null;
+		tileIndex = null;
+		binaryWayNodes = null;
+		binaryWayIds = null;
+		tagIds = null;
+		tagDictionary.clear();
+	}
+	
+	
+	@Override
+	protected boolean hasCellIndex() {
+		if (cellIndex == null) {
+			Cursor cursor = database.rawQuery(sql_hasCellIndex(), null);
+			cellIndex = cursor.getCount() > 0;
+			cursor.close();
+		}
+		return cellIndex;
+	}
+	
+	
+	@Override
+	protected boolean hasTiles() {
+		if (tileIndex == null) {
+			Cursor cursor = database.rawQuery(sql_hasTiles(), null);
+			tileIndex = cursor.getCount() > 0;
+			cursor.close();
+		}
+		return tileIndex;
+	}
+	
+	
+	@Override
+	protected boolean hasBinaryWayNodes() {
+		if (binaryWayNodes == null) {
+			binaryWayNodes = false;
+			Cursor cursor = database.rawQuery(sql_hasBinaryWayNodes(), null);
+			int col_name = cursor.getColumnIndex("name");
+			int col_type = cursor.getColumnIndex("type");
+			for(cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+				if ("waynodes".equals(cursor.getString(col_name))) {
+					binaryWayNodes = "blob".equalsIgnoreCase(cursor.getString(col_type));
+				}
+			}
+			cursor.close();
+		}
+		return binaryWayNodes;
+	}
+	
+	
+	@Override
+	protected boolean hasBinaryWayIds() {
+		if (binaryWayIds == null) {
+			binaryWayIds = false;
+			Cursor cursor = database.rawQuery(sql_hasBinaryWayIds(), null);
+			int col_name = cursor.getColumnIndex("name");
+			int col_type = cursor.getColumnIndex("type");
+			for(cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+				if ("ways".equals(cursor.getString(col_name))) {
+					binaryWayIds = "blob".equalsIgnoreCase(cursor.getString(col_type));
+				}
+			}
+			cursor.close();
+		}
+		return binaryWayIds;
+	}
+	
+	
+	@Override
+	protected boolean hasTagDictionary() {
+		if (tagIds == null) {
+			Cursor cursor = database.rawQuery(sql_hasTagDictionary(), null);
+			tagIds = cursor.getCount() > 0;
+			cursor.close();
+			if (tagIds) {
+				tagDictionary.clear();
+				cursor = database.rawQuery(sql_loadTagDictionary(), null);
+				int col_id = cursor.getColumnIndex("id");
+				int col_key = cursor.getColumnIndex("key");
+				int col_value = cursor.getColumnIndex("value");
+				for(cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+					tagDictionary.add(cursor.getInt(col_id), cursor.getString(col_key), cursor.getString(col_value));
+				}
+				cursor.close();
+			}
+		}
+		return tagIds;
+	}
+	
+	
+	/**
+	 * returns the tags stored in the given column of the current row
+	 */
+	private Collection<Tag> getTags(Cursor cursor, int col_tags) {
+		if (hasTagDictionary()) {
+			return tagDictionary.decode(cursor.getBlob(col_tags));
+		} else {
+			return tagDictionary.parse(cursor.getString(col_tags));
+		}
 	}
 	
 	
@@ -75,6 +204,68 @@ public class RoutingAndroidSQLiteAdapter extends RoutingDBAdapter {
 	}
 
 	
+	@Override
+	public List<Node> loadStreetNodesInCells(int[] cells) {
+		List<Node> nodes = new ArrayList<Node>();
+		Cursor cursor = database.rawQuery(SQL_loadStreetNodesInCells(cells), null);		
+		if (cursor.getCount() > 0) {
+			int col_id = cursor.getColumnIndex("id");
+			int col_lat = cursor.getColumnIndex("lat");
+			int col_lon = cursor.getColumnIndex("lon");	
+			
+			for(cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {	
+				long id = cursor.getLong(col_id);
+				Node node = streetNodes.get(id);
+				if (node == null) {
+					node = new MobileNode(id, cursor.getDouble(col_lat), cursor.getDouble(col_lon));
+					streetNodes.put(id, node);
+				}
+				nodes.add(node);
+			}			
+		}		
+		cursor.close();
+		return nodes;
+	}
+	
+	
+	@Override
+	protected Set<Long> loadWayIdsInTile(MapTile tile) {
+		Set<Long> wayIds = new LinkedHashSet<Long>();
+		boolean binaryWayIds = hasBinaryWayIds();
+		Cursor cursor = database.rawQuery(sql_loadWaysInTile(tile), null);
+		if (cursor.getCount() > 0) {
+			int col_ways = cursor.getColumnIndex("ways");
+			for(cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+				if (binaryWayIds) {
+					wayIds.addAll(WayNodeEncoding.decodeIds(cursor.getBlob(col_ways)));
+				} else {
+					wayIds.addAll(OsmHelper.unpackStringToLongs(cursor.getString(col_ways)));
+				}
+			}
+		}
+		cursor.close();
+		return wayIds;
+	}
+	
+	
+	@Override
+	protected void loadStreetNodes(List<Long> nodeIds) {
+		Cursor cursor = database.rawQuery(SQL_loadStreetNodes(nodeIds), null);
+		if (cursor.getCount() > 0) {
+			int col_id = cursor.getColumnIndex("id");
+			int col_lat = cursor.getColumnIndex("lat");
+			int col_lon = cursor.getColumnIndex("lon");
+			for(cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+				long id = cursor.getLong(col_id);
+				if (!streetNodes.containsKey(id)) {
+					streetNodes.put(id, new MobileNode(id, cursor.getDouble(col_lat), cursor.getDouble(col_lon)));
+				}
+			}
+		}
+		cursor.close();
+	}
+
+	
 	@Override
 	public void loadAllStreetNodesForWays(long fromWayId, long toWayId) {
 		String sql = SQL_loadAllStreetNodesForWays(fromWayId, toWayId);			
@@ -104,13 +295,18 @@ public class RoutingAndroidSQLiteAdapter extends RoutingDBAdapter {
 	@Override
 	public List<Long> loadCompleteWaysForNodes(long fromNodeId, long toNodeId) {
 		List<Long> allWays = new ArrayList<Long>();
+		boolean binaryWayIds = hasBinaryWayIds();
 		Cursor cursor = database.rawQuery(SQL_getWaysForNodes(fromNodeId, toNodeId), null);
 		if (cursor.getCount() > 0) {
 			int col_ways = cursor.getColumnIndex("ways");			
 			
 			for(cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {	
-				String ways = cursor.getString(col_ways);
-				List<Long> wayIds = OsmHelper.unpackStringToLongs(ways);
+				List<Long> wayIds;
+				if (binaryWayIds) {
+					wayIds = WayNodeEncoding.decodeIds(cursor.getBlob(col_ways));
+				} else {
+					wayIds = OsmHelper.unpackStringToLongs(cursor.getString(col_ways));
+				}
 				allWays.addAll(wayIds);
 				
 				if (wayIds.size() == 1) {
@@ -138,11 +334,14 @@ public class RoutingAndroidSQLiteAdapter extends RoutingDBAdapter {
 				long id = cursor.getLong(col_id);				
 				String name = cursor.getString(col_name);
 				String highway = cursor.getString(col_highway);
-				String tags = cursor.getString(col_tags);
-				String wn = cursor.getString(col_wn);	
-				
-				Way way = new MobileWay(id, tags, wn);	
-				OsmHelper.addSpecificTags(way, name, highway);
+				Collection<Tag> tags = getTags(cursor, col_tags);
+				Way way;
+				if (hasBinaryWayNodes()) {
+					way = new MobileWay(id, tags, cursor.getBlob(col_wn));
+				} else {
+					way = new MobileWay(id, tags, cursor.getString(col_wn));
+				}
+				addSpecificTags(way, name, highway);
 				addWayToMap(completeWays, way);
 			}			
 		}	
@@ -165,11 +364,14 @@ public class RoutingAndroidSQLiteAdapter extends RoutingDBAdapter {
 				long id = cursor.getLong(col_id);				
 				String name = cursor.getString(col_name);
 				String highway = cursor.getString(col_highway);
-				String tags = cursor.getString(col_tags);
-				String wn_red = cursor.getString(col_wn_red);	
-				
-				Way way = new MobileWay(id, tags, wn_red);
-				OsmHelper.addSpecificTags(way, name, highway);
+				Collection<Tag> tags = getTags(cursor, col_tags);
+				Way way;
+				if (hasBinaryWayNodes()) {
+					way = new MobileWay(id, tags, cursor.getBlob(col_wn_red));
+				} else {
+					way = new MobileWay(id, tags, cursor.getString(col_wn_red));
+				}
+				addSpecificTags(way, name, highway);
 				addWayToMap(reducedWays, way);
 			}	
 		}
@@ -223,10 +425,8 @@ public class RoutingAndroidSQLiteAdapter extends RoutingDBAdapter {
 				double lon = cursor.getDouble(col_lon);
 				Node node = new MobileNode(id, lat, lon);
 
-				String tags = null;
 				if (loadTags) {
-					tags = cursor.getString(col_tags);
-					node.getTags().addAll(OsmHelper.unpackStringToTags(tags));
+					node.getTags().addAll(getTags(cursor, col_tags));
 				}
 				
 				if (!streetNodes.containsKey(node.getId())) {
@@ -256,8 +456,7 @@ public class RoutingAndroidSQLiteAdapter extends RoutingDBAdapter {
 				long nst = cursor.getLong(col_nst);
 				MobileNode node = new MobileNode(id, lat, lon);
 
-				String tags = cursor.getString(col_tags);
-				node.getTags().addAll(OsmHelper.unpackStringToTags(tags));
+				node.getTags().addAll(getTags(cursor, col_tags));
 				
 				node.setNearestStreetNodeId(nst);
 				node.setPOICode(poiCode);
@@ -272,4 +471,103 @@ public class RoutingAndroidSQLiteAdapter extends RoutingDBAdapter {
 	}
 
 
+	@Override
+	protected int loadRoutingGraphStamp() {
+		Cursor cursor = database.rawQuery(sql_hasRoutingGraphStamp(), null);
+		boolean present = cursor.getCount() > 0;
+		cursor.close();
+		if (!present) {
+			return 0;
+		}
+		
+		int stamp = 0;
+		cursor = database.rawQuery(sql_loadRoutingGraphStamp(), null);
+		if (cursor.moveToFirst()) {
+			stamp = cursor.getInt(cursor.getColumnIndex("stamp"));
+		}
+		cursor.close();
+		return stamp;
+	}
+
+
+	@Override
+	public ContractionHierarchy loadContractionHierarchy(RoutingGraph graph, byte[] access) {
+		Cursor cursor = database.rawQuery(sql_hasContractionHierarchy(), null);
+		boolean present = cursor.getCount() > 0;
+		cursor.close();
+		if (!present) {
+			return null;
+		}
+		
+		cursor = database.rawQuery(sql_loadContractionHierarchyNodes(), null);
+		int count = cursor.getCount();
+		long[] nodeIds = new long[count];
+		int[] levels = new int[count];
+		if (count > 0) {
+			int col_id = cursor.getColumnIndex("id");
+			int col_level = cursor.getColumnIndex("level");
+			
+			int i = 0;
+			for(cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+				nodeIds[i] = cursor.getLong(col_id);
+				levels[i] = cursor.getInt(col_level);
+				i++;
+			}
+		}
+		cursor.close();
+		
+		cursor = database.rawQuery(sql_loadContractionHierarchyShortcuts(), null);
+		count = cursor.getCount();
+		long[] sources = new long[count];
+		long[] targets = new long[count];
+		long[] vias = new long[count];
+		if (count > 0) {
+			int col_source = cursor.getColumnIndex("source");
+			int col_target = cursor.getColumnIndex("target");
+			int col_via = cursor.getColumnIndex("via");
+			
+			int i = 0;
+			for(cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+				sources[i] = cursor.getLong(col_source);
+				targets[i] = cursor.getLong(col_target);
+				vias[i] = cursor.getLong(col_via);
+				i++;
+			}
+		}
+		cursor.close();
+		
+		return ContractionHierarchy.create(graph, access, nodeIds, levels, sources, targets, vias);
+	}
+
+
+	@Override
+	public LandmarkTable loadLandmarkTable(RoutingGraph graph, byte[] access) {
+		Cursor cursor = database.rawQuery(sql_hasLandmarkTable(), null);
+		boolean present = cursor.getCount() > 0;
+		cursor.close();
+		if (!present) {
+			return null;
+		}
+		
+		cursor = database.rawQuery(sql_loadLandmarkTable(), null);
+		int count = cursor.getCount();
+		long[] nodeIds = new long[count];
+		byte[][] distances = new byte[count][];
+		if (count > 0) {
+			int col_id = cursor.getColumnIndex("id");
+			int col_distances = cursor.getColumnIndex("distances");
+			
+			int i = 0;
+			for(cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+				nodeIds[i] = cursor.getLong(col_id);
+				distances[i] = cursor.getBlob(col_distances);
+				i++;
+			}
+		}
+		cursor.close();
+		
+		return LandmarkTable.create(graph, access, nodeIds, distances);
+	}
+
+
 }
@@ -1,8 +1,12 @@
 package com.mobiletsm.osm.data.adapters;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -14,8 +18,13 @@ import org.openstreetmap.osmosis.core.domain.v0_6.WayNode;
 
 import com.mobiletsm.osm.MobileTSMDatabaseWriter;
 import com.mobiletsm.osm.OsmHelper;
+import com.mobiletsm.osm.TagDictionary;
+import com.mobiletsm.osm.data.CellGrid;
 import com.mobiletsm.osm.data.MapTile;
+import com.mobiletsm.osm.data.RoutingGraph;
+import com.mobiletsm.osm.data.RoutingGraphFile;
 import com.mobiletsm.osm.data.searching.POICode;
+import com.mobiletsm.osmosis.core.domain.v0_6.MobileWay;
 import com.mobiletsm.routing.Place;
 
 public abstract class RoutingDBAdapter implements RoutingDataAdapter {
@@ -54,8 +63,31 @@ public abstract class RoutingDBAdapter implements RoutingDataAdapter {
 			latlonRadius = 1E-5;
 		}
 		
+		/* restrict the query to the bounding box of the circle and, if the 
+		 * database provides the cell index, to the cells covering it */
+		double extent = Math.sqrt(latlonRadius);
+		double minLat = center.getLatitude() - extent;
+		double maxLat = center.getLatitude() + extent;
+		double minLon = center.getLongitude() - extent;
+		double maxLon = center.getLongitude() + extent;
+		StringBuffer where = new StringBuffer();
+		int[] cells = hasCellIndex() ? CellGrid.getCells(minLat, minLon, maxLat, maxLon) : null;
+		if (cells != null) {
+			where.append("cell IN (");
+			for (int i = 0; i < cells.length; i++) {
+				if (i > 0) {
+					where.append(",");
+				}
+				where.append(cells[i]);
+			}
+			where.append(") AND ");
+		}
+		where.append(String.format(Locale.US, "lat BETWEEN %.6f AND %.6f AND lon BETWEEN %.6f AND %.6f AND ",
+				minLat, maxLat, minLon, maxLon));
+		
 		String sql = String.format(Locale.US, "SELECT id,lat,lon,ways FROM street_nodes_0 " +
-				"WHERE ((lat-%.6f)*(lat-%.6f) + (lon-%.6f)*(lon-%.6f)) < %.6f;",
+				"WHERE %s((lat-%.6f)*(lat-%.6f) + (lon-%.6f)*(lon-%.6f)) < %.6f;",
+				where.toString(),
 				center.getLatitude(), center.getLatitude(), 
 				center.getLongitude(), center.getLongitude(),
 				latlonRadius);
@@ -64,6 +96,108 @@ public abstract class RoutingDBAdapter implements RoutingDataAdapter {
 	}
 	
 	
+	protected String SQL_loadStreetNodesInCells(int[] cells) {
+		StringBuffer where = new StringBuffer();
+		if (hasCellIndex()) {
+			where.append("cell IN (");
+			for (int i = 0; i < cells.length; i++) {
+				if (i > 0) {
+					where.append(",");
+				}
+				where.append(cells[i]);
+			}
+			where.append(")");
+		} else {
+			/* bounding boxes of the cells (slightly enlarged to be safe from 
+			 * rounding errors) */
+			final double margin = 1E-7;
+			for (int i = 0; i < cells.length; i++) {
+				if (i > 0) {
+					where.append(" OR ");
+				}
+				where.append(String.format(Locale.US, "(lat BETWEEN %.7f AND %.7f AND lon BETWEEN %.7f AND %.7f)",
+						CellGrid.getMinLatitude(cells[i]) - margin, CellGrid.getMaxLatitude(cells[i]) + margin, 
+						CellGrid.getMinLongitude(cells[i]) - margin, CellGrid.getMaxLongitude(cells[i]) + margin));
+			}
+		}
+		String sql = "SELECT id,lat,lon FROM street_nodes_0 WHERE " + where.toString() + ";";
+		sqlLog(sql);
+		return sql;
+	}
+	
+	
+	protected String sql_hasCellIndex() {
+		String sql = "SELECT name FROM sqlite_master WHERE type = 'index' AND name = '" + 
+			MobileTSMDatabaseWriter.STREET_NODES_CELL_INDEX + "';";
+		sqlLog(sql);
+		return sql;
+	}
+	
+	
+	/**
+	 * returns true if the street nodes are stored with the cells of the CellGrid
+	 * they lie in (an indexed column added in later versions of the database)
+	 * @return
+	 */
+	protected abstract boolean hasCellIndex();
+	
+	
+	protected String sql_hasBinaryWayNodes() {
+		String sql = "PRAGMA table_info(ways_0);";
+		sqlLog(sql);
+		return sql;
+	}
+	
+	
+	/**
+	 * returns true if the way nodes of the ways are stored in the binary 
+	 * encoding of WayNodeEncoding (columns waynodes and waynodes_red declared 
+	 * as blob in later versions of the database) instead of as strings
+	 * @return
+	 */
+	protected abstract boolean hasBinaryWayNodes();
+	
+	
+	protected String sql_hasBinaryWayIds() {
+		String sql = "PRAGMA table_info(street_nodes_0);";
+		sqlLog(sql);
+		return sql;
+	}
+	
+	
+	/**
+	 * returns true if the way ids of the street nodes are stored in the binary 
+	 * encoding of WayNodeEncoding (column ways declared as blob in later 
+	 * versions of the database) instead of as strings
+	 * @return
+	 */
+	protected abstract boolean hasBinaryWayIds();
+	
+	
+	protected String sql_hasTagDictionary() {
+		String sql = "SELECT name FROM sqlite_master WHERE type = 'table' AND name = 'tags_0';";
+		sqlLog(sql);
+		return sql;
+	}
+	
+	
+	protected String sql_loadTagDictionary() {
+		String sql = "SELECT id,key,value FROM tags_0;";
+		sqlLog(sql);
+		return sql;
+	}
+	
+	
+	/**
+	 * returns true if the tags of the entities are stored as lists of ids of 
+	 * the tags in table tags_0 (added in later versions of the database, see
+	 * TagDictionary) instead of as strings. The tags of table tags_0 are 
+	 * loaded into tagDictionary when first called.
+	 * @return
+	 */
+	protected abstract boolean hasTagDictionary();
+	
+	
 	protected String SQL_loadAllStreetNodesForWays(long fromWayId, long toWayId) {
 		Set<Long> ids = new HashSet<Long>();		
 		if (fromWayId != -1) {
@@ -165,13 +299,183 @@ public abstract class RoutingDBAdapter implements RoutingDataAdapter {
 	}
 	
 	
+	protected String SQL_loadStreetNodes(List<Long> nodeIds) {
+		StringBuffer sql = new StringBuffer("SELECT id,lat,lon FROM street_nodes_0 WHERE id IN (");
+		for (int i = 0; i < nodeIds.size(); i++) {
+			if (i > 0) {
+				sql.append(",");
+			}
+			sql.append(nodeIds.get(i));
+		}
+		sql.append(");");
+		sqlLog(sql.toString());
+		return sql.toString();
+	}
+	
+	
+	protected String sql_hasTiles() {
+		String sql = "SELECT name FROM sqlite_master WHERE type = 'index' AND name = '" + 
+			MobileTSMDatabaseWriter.STREET_NODES_TILE_INDEX + "';";
+		sqlLog(sql);
+		return sql;
+	}
+	
+	
+	/**
+	 * returns true if the street nodes are stored with the map tiles they lie 
+	 * in (an indexed column added in later versions of the database)
+	 * @return
+	 */
+	protected abstract boolean hasTiles();
+	
+	
+	protected String sql_loadWaysInTile(MapTile tile) {
+		String sql = "SELECT ways FROM street_nodes_0 WHERE tile = " + tile.getId() + 
+			" AND type = " + MobileTSMDatabaseWriter.STREET_NODE_TYPE_ESSENTIAL + ";";
+		sqlLog(sql);
+		return sql;
+	}
+	
+	
+	/**
+	 * returns the ids of the ways through the essential street nodes in the given tile
+	 * @param tile
+	 * @return
+	 */
+	protected abstract Set<Long> loadWayIdsInTile(MapTile tile);
+	
+	
+	/**
+	 * load the street nodes with the given ids (without tags)
+	 * @param nodeIds
+	 */
+	protected abstract void loadStreetNodes(List<Long> nodeIds);
+	
+	
+	/* maximum number of ids in the queries of loadTile() */
+	private static final int MAX_IDS_PER_QUERY = 500;
+	
+	
+	@Override
+	public List<Long> loadTile(MapTile tile) {
+		if (tile.coversWholeMap() || !hasTiles()) {
+			return null;
+		}
+		
+		List<Long> wayIds = new ArrayList<Long>(loadWayIdsInTile(tile));
 		
+		/* load the ways not loaded yet ... */
+		List<Long> missingWays = new ArrayList<Long>();
+		for (Long wayId : wayIds) {
+			if (!reducedWays.containsKey(wayId)) {
+				missingWays.add(wayId);
+			}
+		}
+		for (int i = 0; i < missingWays.size(); i += MAX_IDS_PER_QUERY) {
+			loadReducedWays(missingWays.subList(i, Math.min(i + MAX_IDS_PER_QUERY, missingWays.size())));
+		}
+		
+		/* ... and their nodes not loaded yet */
+		Set<Long> missingNodes = new LinkedHashSet<Long>();
+		for (Long wayId : wayIds) {
+			Way way = reducedWays.get(wayId);
+			if (way instanceof MobileWay) {
+				for (long nodeId : ((MobileWay)way).getWayNodeIds()) {
+					if (!streetNodes.containsKey(nodeId)) {
+						missingNodes.add(nodeId);
+					}
+				}
+			} else if (way != null) {
+				for (Long nodeId : OsmHelper.getWayNodeIds(way)) {
+					if (!streetNodes.containsKey(nodeId)) {
+						missingNodes.add(nodeId);
+					}
+				}
+			}
+		}
+		List<Long> nodeIds = new ArrayList<Long>(missingNodes);
+		for (int i = 0; i < nodeIds.size(); i += MAX_IDS_PER_QUERY) {
+			loadStreetNodes(nodeIds.subList(i, Math.min(i + MAX_IDS_PER_QUERY, nodeIds.size())));
+		}
+		
+		return wayIds;
+	}
 	
-	/*  */	
 	
-	/* TODO: use map tiles */
-	protected Set<MapTile> mapTiles = null;
-
+	@Override
+	public RoutingGraph loadRoutingGraph() {
+		if (graphFileName == null || !new File(graphFileName).isFile()) {
+			return null;
+		}
+		loadReducedWays();
+		try {
+			return RoutingGraphFile.map(new File(graphFileName), reducedWays, loadRoutingGraphStamp());
+		} catch (IOException e) {
+			throw new RuntimeException("RoutingDBAdapter.loadRoutingGraph(): " + e.getMessage());
+		}
+	}
+	
+	
+	protected String sql_hasRoutingGraphStamp() {
+		String sql = "SELECT name FROM sqlite_master WHERE type = 'table' AND name = 'routing_graph_0';";
+		sqlLog(sql);
+		return sql;
+	}
+	
+	
+	protected String sql_loadRoutingGraphStamp() {
+		String sql = "SELECT stamp FROM routing_graph_0;";
+		sqlLog(sql);
+		return sql;
+	}
+	
+	
+	/**
+	 * returns the stamp of the graph file written with the database (see
+	 * RoutingGraphFile), 0 if the database has none
+	 * @return
+	 */
+	protected abstract int loadRoutingGraphStamp();
+	
+	
+	protected String sql_hasContractionHierarchy() {
+		String sql = "SELECT name FROM sqlite_master WHERE type = 'table' AND name = 'ch_shortcuts_0';";
+		sqlLog(sql);
+		return sql;
+	}
+	
+	
+	protected String sql_loadContractionHierarchyNodes() {
+		String sql = "SELECT id,level FROM ch_nodes_0;";
+		sqlLog(sql);
+		return sql;
+	}
+	
+	
+	protected String sql_loadContractionHierarchyShortcuts() {
+		String sql = "SELECT source,target,via FROM ch_shortcuts_0;";
+		sqlLog(sql);
+		return sql;
+	}
+	
+	
+	protected String sql_hasLandmarkTable() {
+		String sql = "SELECT name FROM sqlite_master WHERE type = 'table' AND name = 'alt_nodes_0';";
+		sqlLog(sql);
+		return sql;
+	}
+	
+	
+	protected String sql_loadLandmarkTable() {
+		String sql = "SELECT id,distances FROM alt_nodes_0;";
+		sqlLog(sql);
+		return sql;
+	}
+	
+	
+		
+	
+	/*  */	
 	
 	protected Map<Long, Node> poiNodes = null;
 	
@@ -187,6 +491,14 @@ public abstract class RoutingDBAdapter implements RoutingDataAdapter {
 	
 	protected Map<Long, Set<Long>> waysForNodes = null;	
 	
+	
+	/* name of the graph file of the database (set when the database is opened) */
+	protected String graphFileName = null;
+	
+	
+	/* tags of the entities loaded, one instance per distinct tag */
+	protected TagDictionary tagDictionary = new TagDictionary();
+	
 
 	
 	public void setMaps(Map<Long, Node> poiNodes, Map<Long, Node> streetNodes, Map<Long, Way> completeWays,
@@ -199,19 +511,42 @@ public abstract class RoutingDBAdapter implements RoutingDataAdapter {
 	}
 	
 	
+	/**
+	 * add the tags stored in separate columns of table ways_0 to the given way
+	 * @param way
+	 * @param name
+	 * @param highway
+	 */
+	protected void addSpecificTags(Way way, String name, String highway) {
+		way.getTags().add(tagDictionary.intern("name", name));
+		way.getTags().add(tagDictionary.intern("highway", highway));
+	}
+	
+	
 	protected void addWayToMap(Map<Long, Way> wayMap, Way way) {		
 		if (!wayMap.containsKey(way.getId())) {
 			wayMap.put(way.getId(), way);			
-			List<Long> wayNodeIds = OsmHelper.getWayNodeIds(way);
-			for (Long id : wayNodeIds) {				
-				Set<Long> wayIds = waysForNodes.get(id);
-				if (wayIds == null)
-					wayIds = new HashSet<Long>();
-				wayIds.add(way.getId());
-				waysForNodes.put(id, wayIds);
-			}			
+			if (way instanceof MobileWay) {
+				/* leave the way nodes encoded */
+				for (long id : ((MobileWay)way).getWayNodeIds()) {
+					addWayForNode(id, way.getId());
+				}
+			} else {
+				for (Long id : OsmHelper.getWayNodeIds(way)) {
+					addWayForNode(id, way.getId());
+				}
+			}
 		}		
 	}
 	
 	
+	private void addWayForNode(long nodeId, long wayId) {
+		Set<Long> wayIds = waysForNodes.get(nodeId);
+		if (wayIds == null)
+			wayIds = new HashSet<Long>();
+		wayIds.add(wayId);
+		waysForNodes.put(nodeId, wayIds);
+	}
+	
+	
 }
@@ -2,6 +2,12 @@ package com.mobiletsm.osm.data.adapters;
 
 import java.util.List;
 
+import org.openstreetmap.osmosis.core.domain.v0_6.Node;
+
+import com.mobiletsm.osm.data.ContractionHierarchy;
+import com.mobiletsm.osm.data.LandmarkTable;
+import com.mobiletsm.osm.data.MapTile;
+import com.mobiletsm.osm.data.RoutingGraph;
 import com.mobiletsm.osm.data.searching.POICode;
 import com.mobiletsm.routing.Place;
 
@@ -21,6 +27,15 @@ public interface RoutingDataAdapter {
 	public int loadAllStreetNodesAround(Place center, double radius);
 	
 	
+	/**
+	 * load all street nodes in the given cells of the CellGrid
+	 * @param cells
+	 * @return the nodes loaded (possibly including some nodes on the 
+	 * boundaries of neighbouring cells)
+	 */
+	public List<Node> loadStreetNodesInCells(int[] cells);
+	
+	
 	public void loadAllStreetNodesForWays(long fromWayId, long toWayId);
 	
 	
@@ -44,4 +59,44 @@ public interface RoutingDataAdapter {
 	
 	public void loadStreetNodes(long nodeId1, long nodeId2, boolean loadTags);
 	
+	
+	/**
+	 * load the reduced ways of the given map tile (the ways through the essential
+	 * street nodes in the tile) and the essential street nodes of these ways 
+	 * (also if they lie outside of the tile)
+	 * @param tile
+	 * @return the ids of the ways of the tile or null if the map is not divided 
+	 * into tiles
+	 */
+	public List<Long> loadTile(MapTile tile);
+	
+	
+	/**
+	 * load the routing graph from the graph file of the data source (see
+	 * RoutingGraphFile) together with the reduced ways, instead of building it
+	 * from the essential street nodes and reduced ways
+	 * @return the routing graph or null if there is no graph file
+	 */
+	public RoutingGraph loadRoutingGraph();
+	
+	
+	/**
+	 * load the contraction hierarchy for the given routing graph (built
+	 * from the reduced ways) if present in the data source
+	 * @param graph
+	 * @param access access mask the hierarchy has been built with
+	 * @return the contraction hierarchy or null if not present
+	 */
+	public ContractionHierarchy loadContractionHierarchy(RoutingGraph graph, byte[] access);
+	
+	
+	/**
+	 * load the landmark distances for the given routing graph (built
+	 * from the reduced ways) if present in the data source
+	 * @param graph
+	 * @param access access mask the distances have been computed for
+	 * @return the landmark table or null if not present
+	 */
+	public LandmarkTable loadLandmarkTable(RoutingGraph graph, byte[] access);
+	
 }
@@ -6,10 +6,20 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 import org.openstreetmap.osmosis.core.domain.v0_6.Node;
+import org.openstreetmap.osmosis.core.domain.v0_6.Tag;
 import org.openstreetmap.osmosis.core.domain.v0_6.Way;
 import com.mobiletsm.osm.OsmHelper;
+import com.mobiletsm.osm.WayNodeEncoding;
+import com.mobiletsm.osm.data.ContractionHierarchy;
+import com.mobiletsm.osm.data.LandmarkTable;
+import com.mobiletsm.osm.data.MapTile;
+import com.mobiletsm.osm.data.RoutingGraph;
+import com.mobiletsm.osm.data.RoutingGraphFile;
 import com.mobiletsm.osm.data.searching.POICode;
 import com.mobiletsm.osmosis.core.domain.v0_6.MobileNode;
 import com.mobiletsm.osmosis.core.domain.v0_6.MobileWay;
@@ -18,7 +28,30 @@ import com.mobiletsm.routing.Place;
 public class RoutingSQLiteAdapter extends RoutingDBAdapter {
 
 	
+	private static final String JDBC_PREFIX = "jdbc:sqlite:";
+	
+	
 	private Connection connection = null;
+	
+	
+	/* whether the database provides the cell index (null if not looked up yet) */
+	private Boolean cellIndex = null;
+	
+	
+	/* whether the database provides the tile index (null if not looked up yet) */
+	private Boolean tileIndex = null;
+	
+	
+	/* whether the way nodes are stored in binary form (null if not looked up yet) */
+	private Boolean binaryWayNodes = null;
+	
+	
+	/* whether the way ids of the street nodes are stored in binary form (null if not looked up yet) */
+	private Boolean binaryWayIds = null;
+	
+	
+	/* whether the tags are stored as ids of table tags_0 (null if not looked up yet) */
+	private Boolean tagIds = null;
 		
 	
 	@Override
@@ -27,6 +60,8 @@ public class RoutingSQLiteAdapter extends RoutingDBAdapter {
 			if (!isOpen()) {
 				Class.forName("org.sqlite.JDBC");
 				connection = DriverManager.getConnection(source);
+				graphFileName = RoutingGraphFile.getFileName(source.startsWith(JDBC_PREFIX) ? 
+						source.substring(JDBC_PREFIX.length()) : source);
 				return true;
 			} else {
 				return false;
@@ -57,14 +92,138 @@ public class RoutingSQLiteAdapter extends RoutingDBAdapter {
 				e.printStackTrace();
 			}
 		}
+		cellIndex = null;
+		tileIndex = null;
+		binaryWayNodes = null;
+		binaryWayIds = null;
+		tagIds = null;
+		tagDictionary.clear();
 	}
 	
 
+	@Override
+	protected boolean hasCellIndex() {
+		if (cellIndex == null) {
+			try {
+				Statement statement = connection.createStatement();
+				ResultSet rs = statement.executeQuery(sql_hasCellIndex());
+				cellIndex = rs.next();
+				rs.close();
+				statement.close();
+			} catch (Exception e) {
+				e.printStackTrace();
+				cellIndex = false;
+			}
+		}
+		return cellIndex;
+	}
+	
+	
+	@Override
+	protected boolean hasTiles() {
+		if (tileIndex == null) {
+			try {
+				Statement statement = connection.createStatement();
+				ResultSet rs = statement.executeQuery(sql_hasTiles());
+				tileIndex = rs.next();
+				rs.close();
+				statement.close();
+			} catch (Exception e) {
+				e.printStackTrace();
+				tileIndex = false;
+			}
+		}
+		return tileIndex;
+	}
+	
+	
+	@Override
+	protected boolean hasBinaryWayNodes() {
+		if (binaryWayNodes == null) {
+			binaryWayNodes = false;
+			try {
+				Statement statement = connection.createStatement();
+				ResultSet rs = statement.executeQuery(sql_hasBinaryWayNodes());
+				while (rs.next()) {
+					if ("waynodes".equals(rs.getString("name"))) {
+						binaryWayNodes = "blob".equalsIgnoreCase(rs.getString("type"));
+					}
+				}
+				rs.close();
+				statement.close();
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+		return binaryWayNodes;
+	}
+	
+	
+	@Override
+	protected boolean hasBinaryWayIds() {
+		if (binaryWayIds == null) {
+			binaryWayIds = false;
+			try {
+				Statement statement = connection.createStatement();
+				ResultSet rs = statement.executeQuery(sql_hasBinaryWayIds());
+				while (rs.next()) {
+					if ("ways".equals(rs.getString("name"))) {
+						binaryWayIds = "blob".equalsIgnoreCase(rs.getString("type"));
+					}
+				}
+				rs.close();
+				statement.close();
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+		return binaryWayIds;
+	}
+	
+	
+	@Override
+	protected boolean hasTagDictionary() {
+		if (tagIds == null) {
+			tagIds = false;
+			try {
+				Statement statement = connection.createStatement();
+				ResultSet rs = statement.executeQuery(sql_hasTagDictionary());
+				tagIds = rs.next();
+				rs.close();
+				if (tagIds) {
+					tagDictionary.clear();
+					rs = statement.executeQuery(sql_loadTagDictionary());
+					while (rs.next()) {
+						tagDictionary.add(rs.getInt("id"), rs.getString("key"), rs.getString("value"));
+					}
+					rs.close();
+				}
+				statement.close();
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+		return tagIds;
+	}
+	
+	
+	/**
+	 * returns the tags stored in column tags of the current row
+	 */
+	private Collection<Tag> getTags(ResultSet rs) throws SQLException {
+		if (hasTagDictionary()) {
+			return tagDictionary.decode(rs.getBytes("tags"));
+		} else {
+			return tagDictionary.parse(rs.getString("tags"));
+		}
+	}
+	
+	
 	@Override
 	public int loadAllStreetNodesAround(Place center, double radius) {
 		try {
 			Statement statement = connection.createStatement();			
-			String sql = SQL_loadAllStreetNodesAround(center, 0);			
+			String sql = SQL_loadAllStreetNodesAround(center, radius);			
 			ResultSet rs = statement.executeQuery(sql);	
 			int counter = 0;
 			while(rs.next()) {
@@ -87,6 +246,72 @@ public class RoutingSQLiteAdapter extends RoutingDBAdapter {
 	}
 
 	
+	@Override
+	public List<Node> loadStreetNodesInCells(int[] cells) {
+		List<Node> nodes = new ArrayList<Node>();
+		try {
+			Statement statement = connection.createStatement();			
+			ResultSet rs = statement.executeQuery(SQL_loadStreetNodesInCells(cells));	
+			while(rs.next()) {
+				long id = rs.getLong("id");
+				Node node = streetNodes.get(id);
+				if (node == null) {
+					node = new MobileNode(id, rs.getDouble("lat"), rs.getDouble("lon"));
+					streetNodes.put(id, node);
+				}
+				nodes.add(node);
+			}			
+			rs.close();
+			statement.close();
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		return nodes;
+	}
+	
+	
+	@Override
+	protected Set<Long> loadWayIdsInTile(MapTile tile) {
+		Set<Long> wayIds = new LinkedHashSet<Long>();
+		boolean binaryWayIds = hasBinaryWayIds();
+		try {
+			Statement statement = connection.createStatement();
+			ResultSet rs = statement.executeQuery(sql_loadWaysInTile(tile));
+			while (rs.next()) {
+				if (binaryWayIds) {
+					wayIds.addAll(WayNodeEncoding.decodeIds(rs.getBytes("ways")));
+				} else {
+					wayIds.addAll(OsmHelper.unpackStringToLongs(rs.getString("ways")));
+				}
+			}
+			rs.close();
+			statement.close();
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		return wayIds;
+	}
+	
+	
+	@Override
+	protected void loadStreetNodes(List<Long> nodeIds) {
+		try {
+			Statement statement = connection.createStatement();
+			ResultSet rs = statement.executeQuery(SQL_loadStreetNodes(nodeIds));
+			while (rs.next()) {
+				long id = rs.getLong("id");
+				if (!streetNodes.containsKey(id)) {
+					streetNodes.put(id, new MobileNode(id, rs.getDouble("lat"), rs.getDouble("lon")));
+				}
+			}
+			rs.close();
+			statement.close();
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	
 	@Override
 	public void loadAllStreetNodesForWays(long fromWayId, long toWayId) {
 		try {
@@ -115,12 +340,17 @@ public class RoutingSQLiteAdapter extends RoutingDBAdapter {
 	@Override
 	public List<Long> loadCompleteWaysForNodes(long fromNodeId, long toNodeId) {
 		List<Long> allWays = new ArrayList<Long>();
+		boolean binaryWayIds = hasBinaryWayIds();
 		try {
 			Statement statement = connection.createStatement();
 			ResultSet rs = statement.executeQuery(SQL_getWaysForNodes(fromNodeId, toNodeId));			
 			while(rs.next()) {
-				String ways = rs.getString("ways");
-				List<Long> wayIds = OsmHelper.unpackStringToLongs(ways);
+				List<Long> wayIds;
+				if (binaryWayIds) {
+					wayIds = WayNodeEncoding.decodeIds(rs.getBytes("ways"));
+				} else {
+					wayIds = OsmHelper.unpackStringToLongs(rs.getString("ways"));
+				}
 				allWays.addAll(wayIds);
 				
 				if (wayIds.size() == 1) {
@@ -145,10 +375,14 @@ public class RoutingSQLiteAdapter extends RoutingDBAdapter {
 				long id = rs.getLong("id");				
 				String name = rs.getString("name");
 				String highway = rs.getString("highway");
-				String tags = rs.getString("tags");
-				String wn = rs.getString("waynodes");	
-				Way way = new MobileWay(id, tags, wn);	
-				OsmHelper.addSpecificTags(way, name, highway);
+				Collection<Tag> tags = getTags(rs);
+				Way way;
+				if (hasBinaryWayNodes()) {
+					way = new MobileWay(id, tags, rs.getBytes("waynodes"));
+				} else {
+					way = new MobileWay(id, tags, rs.getString("waynodes"));
+				}
+				addSpecificTags(way, name, highway);
 				addWayToMap(completeWays, way);
 			}			
 			rs.close();
@@ -174,10 +408,14 @@ public class RoutingSQLiteAdapter extends RoutingDBAdapter {
 				long id = rs.getLong("id");	
 				String name = rs.getString("name");
 				String highway = rs.getString("highway");
-				String tags = rs.getString("tags");
-				String wn_red = rs.getString("waynodes_red");
-				Way way = new MobileWay(id, tags, wn_red);
-				OsmHelper.addSpecificTags(way, name, highway);
+				Collection<Tag> tags = getTags(rs);
+				Way way;
+				if (hasBinaryWayNodes()) {
+					way = new MobileWay(id, tags, rs.getBytes("waynodes_red"));
+				} else {
+					way = new MobileWay(id, tags, rs.getString("waynodes_red"));
+				}
+				addSpecificTags(way, name, highway);
 				addWayToMap(reducedWays, way);
 			}			
 			rs.close();
@@ -223,8 +461,7 @@ public class RoutingSQLiteAdapter extends RoutingDBAdapter {
 				Node node = new MobileNode(id, lat, lon);
 				
 				if (loadTags) {
-					String tags = rs.getString("tags");
-					node.getTags().addAll(OsmHelper.unpackStringToTags(tags));
+					node.getTags().addAll(getTags(rs));
 				}
 				
 				if (!streetNodes.containsKey(node.getId())) {
@@ -253,8 +490,7 @@ public class RoutingSQLiteAdapter extends RoutingDBAdapter {
 				long nst = rs.getLong("nst");
 				MobileNode node = new MobileNode(id, lat, lon);
 
-				String tags = rs.getString("tags");
-				node.getTags().addAll(OsmHelper.unpackStringToTags(tags));
+				node.getTags().addAll(getTags(rs));
 				
 				node.setNearestStreetNodeId(nst);
 				node.setPOICode(poiCode);
@@ -272,4 +508,116 @@ public class RoutingSQLiteAdapter extends RoutingDBAdapter {
 		}		
 	}
 
+
+	@Override
+	protected int loadRoutingGraphStamp() {
+		int stamp = 0;
+		try {
+			Statement statement = connection.createStatement();
+			ResultSet rs = statement.executeQuery(sql_hasRoutingGraphStamp());
+			boolean present = rs.next();
+			rs.close();
+			if (present) {
+				rs = statement.executeQuery(sql_loadRoutingGraphStamp());
+				if (rs.next()) {
+					stamp = rs.getInt("stamp");
+				}
+				rs.close();
+			}
+			statement.close();
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		return stamp;
+	}
+
+
+	@Override
+	public ContractionHierarchy loadContractionHierarchy(RoutingGraph graph, byte[] access) {
+		try {
+			Statement statement = connection.createStatement();
+			ResultSet rs = statement.executeQuery(sql_hasContractionHierarchy());
+			boolean present = rs.next();
+			rs.close();
+			if (!present) {
+				statement.close();
+				return null;
+			}
+			
+			List<Long> nodeIdList = new ArrayList<Long>();
+			List<Integer> levelList = new ArrayList<Integer>();
+			rs = statement.executeQuery(sql_loadContractionHierarchyNodes());
+			while(rs.next()) {
+				nodeIdList.add(rs.getLong("id"));
+				levelList.add(rs.getInt("level"));
+			}
+			rs.close();
+			
+			List<long[]> shortcutList = new ArrayList<long[]>();
+			rs = statement.executeQuery(sql_loadContractionHierarchyShortcuts());
+			while(rs.next()) {
+				shortcutList.add(new long[] {rs.getLong("source"), rs.getLong("target"), rs.getLong("via")});
+			}
+			rs.close();
+			statement.close();
+			
+			long[] nodeIds = new long[nodeIdList.size()];
+			int[] levels = new int[levelList.size()];
+			for (int i = 0; i < nodeIds.length; i++) {
+				nodeIds[i] = nodeIdList.get(i);
+				levels[i] = levelList.get(i);
+			}
+			long[] sources = new long[shortcutList.size()];
+			long[] targets = new long[shortcutList.size()];
+			long[] vias = new long[shortcutList.size()];
+			for (int i = 0; i < sources.length; i++) {
+				long[] shortcut = shortcutList.get(i);
+				sources[i] = shortcut[0];
+				targets[i] = shortcut[1];
+				vias[i] = shortcut[2];
+			}
+			
+			return ContractionHierarchy.create(graph, access, nodeIds, levels, sources, targets, vias);
+		} catch (SQLException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+
+	@Override
+	public LandmarkTable loadLandmarkTable(RoutingGraph graph, byte[] access) {
+		try {
+			Statement statement = connection.createStatement();
+			ResultSet rs = statement.executeQuery(sql_hasLandmarkTable());
+			boolean present = rs.next();
+			rs.close();
+			if (!present) {
+				statement.close();
+				return null;
+			}
+			
+			List<Long> nodeIdList = new ArrayList<Long>();
+			List<byte[]> distanceList = new ArrayList<byte[]>();
+			rs = statement.executeQuery(sql_loadLandmarkTable());
+			while(rs.next()) {
+				nodeIdList.add(rs.getLong("id"));
+				distanceList.add(rs.getBytes("distances"));
+			}
+			rs.close();
+			statement.close();
+			
+			long[] nodeIds = new long[nodeIdList.size()];
+			for (int i = 0; i < nodeIds.length; i++) {
+				nodeIds[i] = nodeIdList.get(i);
+			}
+			byte[][] distances = distanceList.toArray(new byte[distanceList.size()][]);
+			
+			return LandmarkTable.create(graph, access, nodeIds, distances);
+		} catch (SQLException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
 }
@@ -1,13 +1,18 @@
 package com.mobiletsm.osm.data.providers;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.Vector;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.openstreetmap.osm.data.coordinates.LatLon;
 import org.openstreetmap.osmosis.core.domain.v0_6.Node;
@@ -16,12 +21,21 @@ import org.openstreetmap.osmosis.core.domain.v0_6.WayNode;
 import org.openstreetmap.travelingsalesman.routing.IVehicle;
 
 import com.mobiletsm.osm.OsmHelper;
+import com.mobiletsm.osm.data.CellGrid;
+import com.mobiletsm.osm.data.ContractionHierarchy;
+import com.mobiletsm.osm.data.LandmarkTable;
+import com.mobiletsm.osm.data.MapTile;
+import com.mobiletsm.osm.data.NodeTable;
 import com.mobiletsm.osm.data.MobileInterfaceDataSet;
 import com.mobiletsm.osm.data.MobileRoutingInterfaceDataSet;
+import com.mobiletsm.osm.data.RoutingGraph;
+import com.mobiletsm.osm.data.StreetNodeIndex;
 import com.mobiletsm.osm.data.adapters.RoutingDBAdapter;
 import com.mobiletsm.osm.data.searching.POINodeSelector;
 import com.mobiletsm.osmosis.core.domain.v0_6.MobileNode;
+import com.mobiletsm.osmosis.core.domain.v0_6.MobileWay;
 import com.mobiletsm.osmosis.core.domain.v0_6.MobileWayNode;
+import com.mobiletsm.routing.AllStreetVehicle;
 import com.mobiletsm.routing.GeoConstraints;
 import com.mobiletsm.routing.Place;
 
@@ -63,6 +77,8 @@ public class DatabaseMDSProvider extends MobileDataSetProvider {
 		if (isOpen()) {
 			adapter.close();
 		}
+		resolvedCoordinates.clear();
+		streetNodeIndex.clear();
 	}
 	
 	
@@ -73,11 +89,61 @@ public class DatabaseMDSProvider extends MobileDataSetProvider {
 	 */
 	private boolean routingMapPresent = false;
 	
+	
+	/**
+	 * routing graph built from the routing map once it has been loaded
+	 */
+	private RoutingGraph routingGraph = null;
+	
+	
+	/**
+	 * contraction hierarchy on top of the routing graph (null if there
+	 * is none in the database) and whether it has been looked for
+	 */
+	private ContractionHierarchy contractionHierarchy = null;
+	
+	private boolean contractionHierarchyLoaded = false;
+	
+	
+	/**
+	 * landmark distances for the routing graph (null if there are none
+	 * in the database) and whether they have been looked for
+	 */
+	private LandmarkTable landmarkTable = null;
+	
+	private boolean landmarkTableLoaded = false;
+	
+	
+	/**
+	 * maximum number of map tiles the routing graph is held for (0 to load the
+	 * routing graph of the whole map at once) and number of tiles loaded around
+	 * the tiles of the nodes to route between
+	 */
+	private volatile int maxTiles = 0;
+	
+	private volatile int tileMargin = 1;
+	
+	
+	/**
+	 * ids of the reduced ways by map tile the routing graph is held for, least 
+	 * recently used first (only used if maxTiles > 0 and the map is divided into tiles)
+	 */
+	private Map<MapTile, List<Long>> routingTiles = new LinkedHashMap<MapTile, List<Long>>(16, 0.75f, true);
+	
+	
+	/**
+	 * guards the routing map: the routing graph and the ways are loaded (and
+	 * map tiles dropped) holding the write lock, routes are searched holding
+	 * the read lock (see acquireRoutingDataSet()), so searches run in parallel
+	 */
+	private final ReentrantReadWriteLock routingMapLock = new ReentrantReadWriteLock();
+	
 
 	private Map<Long, Node> poiNodes = Collections.synchronizedMap(new HashMap<Long, Node>());
 	
 	
-	private Map<Long, Node> streetNodes = Collections.synchronizedMap(new HashMap<Long, Node>());
+	/* plain street nodes (most of them) are held as id and coordinates only */
+	private Map<Long, Node> streetNodes = Collections.synchronizedMap(new NodeTable());
 	
 	
 	private Map<Long, Way> reducedWays = Collections.synchronizedMap(new HashMap<Long, Way>());
@@ -95,13 +161,29 @@ public class DatabaseMDSProvider extends MobileDataSetProvider {
 	}
 	
 	
-	/* node cache */
-	private final double defaultRadiusToLoad = 300;
-	private final double maxRadiusToLoad = 500;
-	private Vector<Node> cache = null;
-	private Place cacheCenter = null;
-	private double cacheRadius = 0;		
-	private Place lastQueryPos = null;	
+	/* street nodes indexed by the cells they lie in, loaded a few cells at a time */
+	private final StreetNodeIndex streetNodeIndex = new StreetNodeIndex() {
+		@Override
+		protected void loadCells(int[] cells) {
+			loadStreetNodeCells(this, cells);
+		}
+	};
+	
+	
+	/* street nodes farther away than this (in meters) are not searched for */
+	private final double maxStreetNodeDistance = 5000;
+	
+	
+	/* nearest street nodes of the coordinates recently queried, so places at the same
+	 * coordinates (e.g. a device that has not moved) are resolved without searching */
+	private final int maxResolvedCoordinates = 1000;
+	private final Map<Long, Long> resolvedCoordinates = 
+		Collections.synchronizedMap(new LinkedHashMap<Long, Long>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest) {
+				return size() > maxResolvedCoordinates;
+			}
+		});
 	
 	
 	@Override
@@ -115,147 +197,481 @@ public class DatabaseMDSProvider extends MobileDataSetProvider {
 			} else {
 				nodeId = center.getNearestOsmStreetNodeId();
 			}		
-			
-			if (!streetNodes.containsKey(nodeId)) {
-				adapter.loadStreetNodes(nodeId, -1, false);
-			}			
-			Node node = streetNodes.get(nodeId);
-			Place place = new Place(node, true); 
-			place.setNearestOsmStreetNodeId(nodeId);
-			return place;
-		}
-				
-		/* recalculate cache radius depending on distance moved since last query */
-		double newRadius = cacheRadius;
-		if (lastQueryPos != null) {
-			newRadius = 3 * lastQueryPos.distanceTo(center);
-			/* allow the radius to increase but not to decrease */
-			if (cacheRadius > newRadius) {
-				newRadius = cacheRadius;
+			return getStreetNodePlace(nodeId);
+		}
+		
+		/* do not search at all if the coordinates have been resolved before */
+		Long resolvedNodeId = resolvedCoordinates.get(getCoordinatesKey(center));
+		if (resolvedNodeId != null) {
+			if (updateCenter) {
+				center.setNearestOsmStreetNodeId(resolvedNodeId);
 			}
-			/* don't let the radius exceed a specific value */
-			if (newRadius > maxRadiusToLoad) {
-				newRadius = maxRadiusToLoad;
+			return getStreetNodePlace(resolvedNodeId);
+		}
+		
+		long[] nodeIds = streetNodeIndex.getNearest(center.getLatitude(), center.getLongitude(), 
+				1, maxStreetNodeDistance, null);
+		if (nodeIds.length > 0) {
+			return resolved(center, getStreetNode(nodeIds[0]), updateCenter);
+		} else {
+			/* there are no street nodes around the center */
+			return null;
+		}
+	}
+	
+	
+	@Override
+	public List<Place> getNearestStreetNodes(Place center, int count, final IVehicle vehicle) {
+		StreetNodeIndex.Filter filter = null;
+		if (vehicle != null) {
+			filter = new StreetNodeIndex.Filter() {
+				public boolean isAllowed(long nodeId) {
+					return isStreetNodeAllowed(nodeId, vehicle);
+				}
+			};
+		}
+		long[] nodeIds = streetNodeIndex.getNearest(center.getLatitude(), center.getLongitude(), 
+				count, maxStreetNodeDistance, filter);
+		List<Place> places = new ArrayList<Place>(nodeIds.length);
+		for (long nodeId : nodeIds) {
+			places.add(getStreetNodePlace(nodeId));
+		}
+		return places;
+	}
+	
+	
+	@Override
+	public int snapAll(Collection<Place> places) {
+		int resolvedCount = 0;
+		
+		/* places still to be searched for */
+		List<Place> unresolved = new ArrayList<Place>();
+		for (Place place : places) {
+			if (place.isOsmStreetNode() || place.hasNearestOsmStreetNode()) {
+				resolvedCount++;
+				continue;
 			}
+			Long resolvedNodeId = resolvedCoordinates.get(getCoordinatesKey(place));
+			if (resolvedNodeId != null) {
+				place.setNearestOsmStreetNodeId(resolvedNodeId);
+				resolvedCount++;
+			} else {
+				unresolved.add(place);
+			}
+		}
+		if (unresolved.isEmpty()) {
+			return resolvedCount;
 		}
-		lastQueryPos = center;
 		
-		double minDist = Double.MAX_VALUE;
-        Node minDistNode = null;   
-       
-        if (cache != null) {
-        	
-        	double distToCenter = cacheCenter.distanceTo(center);
-        	
-        	/* if position is still within circle */
-        	if (distToCenter < cacheRadius) {
-        		
-        		Iterator<Node> nodes = cache.iterator();            	
-            	while(nodes.hasNext()) {    	        	
-    	        	Node node = nodes.next();    	        	
-    	        	double dist = center.distanceTo(node.getLatitude(), node.getLongitude());
-    	            if (dist < minDist) {
-    	                minDist = dist;
-    	                minDistNode = node;
-    	            }	           
-    	        }
-            	
-            	/* if there is definitely no node outside the circle
-            	 * that is closer than the one we found inside */
-            	if (minDist + distToCenter < cacheRadius) {
-        			if (updateCenter) {
-        				center.setNearestOsmStreetNodeId(minDistNode.getId());
-        			}
-        			Place place = new Place(minDistNode, true); 
-        			place.setNearestOsmStreetNodeId(minDistNode.getId());
-        			return place;
-            	}
-        	}        	
-        }         		        
-        
-        /* initialize a new street node cache */
-        if (newRadius > 0) {
-        	cacheRadius = newRadius;
-        	cacheCenter = center;
-	        cache = new Vector<Node>();
-        }        
+		/* sort the places by the cells they lie in, so neighbouring places
+		 * are searched for one after another ... */
+		Collections.sort(unresolved, new Comparator<Place>() {
+			public int compare(Place place1, Place place2) {
+				int cell1 = CellGrid.getCell(place1.getLatitude(), place1.getLongitude());
+				int cell2 = CellGrid.getCell(place2.getLatitude(), place2.getLongitude());
+				return (cell1 < cell2) ? -1 : ((cell1 == cell2) ? 0 : 1);
+			}
+		});
 		
-		/* get the street node near the given center */
-		double radiusToLoad = cacheRadius;
-		if (radiusToLoad == 0) {
-			radiusToLoad = defaultRadiusToLoad;
+		/* ... load the cells around all of them at once ... */
+		Set<Integer> cells = new LinkedHashSet<Integer>();
+		for (Place place : unresolved) {
+			int[] around = CellGrid.getCells(
+					place.getLatitude() - CellGrid.CELL_SIZE, place.getLongitude() - CellGrid.CELL_SIZE,
+					place.getLatitude() + CellGrid.CELL_SIZE, place.getLongitude() + CellGrid.CELL_SIZE);
+			for (int cell : around) {
+				cells.add(cell);
+			}
+		}
+		int[] cellsToLoad = new int[cells.size()];
+		int i = 0;
+		for (Integer cell : cells) {
+			cellsToLoad[i++] = cell;
 		}
-        
-			System.out.println("DatabaseMDSProvider.getNearestStreetNode(): radiusToLoad = " + radiusToLoad);
+		streetNodeIndex.prepare(cellsToLoad);
 		
-		if (adapter.loadAllStreetNodesAround(center, radiusToLoad) > 0) {				
-			/* find the street node closest to the center */
-			for (Node node : streetNodes.values()) {
-				double dist = center.distanceTo(node.getLatitude(), node.getLongitude());
-	            /* fill the street node cache */
-				if (cacheRadius > 0 && dist < cacheRadius) {
-	            	cache.add(node);
-	            }
-				if (dist < minDist) {
-					minDist = dist;
-					minDistNode = node;
+		/* ... and find their nearest street nodes (loading more cells only
+		 * for places far away from any street) */
+		for (Place place : unresolved) {
+			long[] nodeIds = streetNodeIndex.getNearest(place.getLatitude(), place.getLongitude(), 
+					1, maxStreetNodeDistance, null);
+			if (nodeIds.length > 0) {
+				resolvedCoordinates.put(getCoordinatesKey(place), nodeIds[0]);
+				place.setNearestOsmStreetNodeId(nodeIds[0]);
+				resolvedCount++;
+			}
+		}
+		return resolvedCount;
+	}
+	
+	
+	/**
+	 * load the street nodes of the given cells into the given index
+	 */
+	private void loadStreetNodeCells(StreetNodeIndex index, int[] cells) {
+		/* street nodes by cell */
+		Map<Integer, List<Node>> nodesByCell = new HashMap<Integer, List<Node>>();
+		for (int cell : cells) {
+			nodesByCell.put(cell, new ArrayList<Node>());
+		}
+		for (Node node : adapter.loadStreetNodesInCells(cells)) {
+			List<Node> nodes = nodesByCell.get(CellGrid.getCell(node.getLatitude(), node.getLongitude()));
+			/* skip nodes on the boundaries of cells not asked for */
+			if (nodes != null) {
+				nodes.add(node);
+			}
+		}
+		for (int cell : cells) {
+			List<Node> nodes = nodesByCell.get(cell);
+			long[] ids = new long[nodes.size()];
+			double[] latitudes = new double[nodes.size()];
+			double[] longitudes = new double[nodes.size()];
+			for (int i = 0; i < ids.length; i++) {
+				Node node = nodes.get(i);
+				ids[i] = node.getId();
+				latitudes[i] = node.getLatitude();
+				longitudes[i] = node.getLongitude();
+			}
+			index.addCell(cell, ids, latitudes, longitudes);
+		}
+	}
+	
+	
+	/**
+	 * returns true if one of the ways of the given street node is allowed 
+	 * for the given vehicle (deciding by the tags of the way)
+	 */
+	private boolean isStreetNodeAllowed(long nodeId, IVehicle vehicle) {
+		routingMapLock.writeLock().lock();
+		try {
+			List<Long> wayIds = adapter.loadCompleteWaysForNodes(nodeId, -1);
+			adapter.loadReducedWays(wayIds);
+			for (Long wayId : wayIds) {
+				Way way = reducedWays.get(wayId);
+				if (way != null && vehicle.isAllowed(null, way)) {
+					return true;
 				}
-			}		
-			if (minDistNode != null) {
-    			if (updateCenter) {
-    				center.setNearestOsmStreetNodeId(minDistNode.getId());
-    			}
-				Place place = new Place(minDistNode, true); 
-    			place.setNearestOsmStreetNodeId(minDistNode.getId());
-    			return place;
-			} else {
-				/* no street node could be found
-				 * (TODO: this case should never occur, because not finding any 
-				 * street node is handled in the if clause one level higher) */
-				return null;
 			}
-		} else {
-			/* there are no street nodes around the center */
-			return null;
+			return false;
+		} finally {
+			routingMapLock.writeLock().unlock();
 		}
 	}
 	
+	
+	/**
+	 * remember the street node found nearest to the given center and return it as a place
+	 */
+	private Place resolved(Place center, Node node, boolean updateCenter) {
+		resolvedCoordinates.put(getCoordinatesKey(center), node.getId());
+		if (updateCenter) {
+			center.setNearestOsmStreetNodeId(node.getId());
+		}
+		Place place = new Place(node, true); 
+		place.setNearestOsmStreetNodeId(node.getId());
+		return place;
+	}
+	
+	
+	/**
+	 * returns the given street node, loading it if not held (any more, as the
+	 * nodes of dropped map tiles are removed but stay in the street node index)
+	 */
+	private Node getStreetNode(long nodeId) {
+		/* the read lock keeps the node from being dropped again right away */
+		routingMapLock.readLock().lock();
+		try {
+			if (!streetNodes.containsKey(nodeId)) {
+				adapter.loadStreetNodes(nodeId, -1, false);
+			}			
+			return streetNodes.get(nodeId);
+		} finally {
+			routingMapLock.readLock().unlock();
+		}
+	}
+	
+	
+	private Place getStreetNodePlace(long nodeId) {
+		Node node = getStreetNode(nodeId);
+		Place place = new Place(node, true); 
+		place.setNearestOsmStreetNodeId(nodeId);
+		return place;
+	}
+	
+	
+	private static long getCoordinatesKey(Place place) {
+		return ((long)Place.getHashForDouble(place.getLatitude()) << 32) 
+			| (Place.getHashForDouble(place.getLongitude()) & 0xffffffffL);
+	}
+	
 
 	public MobileInterfaceDataSet getRoutingDataSet(long fromNodeId, long toNodeId, IVehicle vehicle) {
-		
+		return getRoutingDataSet(new long[] {fromNodeId, toNodeId}, vehicle);
+	}
+	
+	
+	/**
+	 * set the maximum number of map tiles to hold the routing graph for. If the
+	 * map is divided into tiles (see MapTile), only the tiles around the nodes
+	 * to route between are loaded, and the tiles used least recently are dropped
+	 * if more tiles are held. If maxTiles is 0 (the default), the routing graph
+	 * of the whole map is loaded.
+	 * @param maxTiles
+	 */
+	public void setMaxTiles(int maxTiles) {
+		this.maxTiles = maxTiles;
+	}
+	
+	
+	/**
+	 * set the number of rings of map tiles loaded around the tiles covering
+	 * the nodes to route between (see setMaxTiles())
+	 * @param tileMargin
+	 */
+	public void setTileMargin(int tileMargin) {
+		this.tileMargin = tileMargin;
+	}
+	
+	
+	public MobileInterfaceDataSet getRoutingDataSet(long[] nodeIds, IVehicle vehicle) {
+		MobileInterfaceDataSet dataSet = acquireRoutingDataSet(nodeIds, vehicle);
+		releaseRoutingDataSet();
+		return dataSet;
+	}
+
+
+	@Override
+	public MobileInterfaceDataSet acquireRoutingDataSet(long[] nodeIds, IVehicle vehicle) {
+		routingMapLock.writeLock().lock();
+		try {
+			MobileInterfaceDataSet dataSet = buildRoutingDataSet(nodeIds, vehicle);
+			/* keep the read lock, so the data set is not changed until it is released */
+			routingMapLock.readLock().lock();
+			return dataSet;
+		} finally {
+			routingMapLock.writeLock().unlock();
+		}
+	}
+
+
+	@Override
+	public void releaseRoutingDataSet() {
+		routingMapLock.readLock().unlock();
+	}
+
+
+	/**
+	 * load the routing map as far as needed for the given nodes and return a
+	 * data set to route between them (called holding the write lock)
+	 */
+	private MobileInterfaceDataSet buildRoutingDataSet(long[] nodeIds, IVehicle vehicle) {
+
 		/* TODO: add support of vehicles */
 		if (vehicle != null) {
 			throw new UnsupportedOperationException("getRoutingDataSet(): vehicle not yet supported by DatabaseMDSProvider");
 		}
 		
-		/* load start and destination nodes (with tags) */
-		adapter.loadStreetNodes(fromNodeId, toNodeId, true);
+		/* load start and destination nodes (with tags), two at a time */
+		for (int i = 0; i < nodeIds.length; i += 2) {
+			adapter.loadStreetNodes(nodeIds[i], (i + 1 < nodeIds.length) ? nodeIds[i + 1] : -1, true);
+		}
 
 		/* load routing graph unless already present */
-		if (!routingMapPresent) {
-			adapter.loadAllEssentialStreetNodes();
-			adapter.loadReducedWays();
+		boolean tiled = !routingMapPresent && maxTiles > 0 && loadRoutingTiles(nodeIds);
+		if (!routingMapPresent && !tiled) {
+			/* map the graph file if there is one, the nodes of the graph are not loaded then */
+			try {
+				routingGraph = adapter.loadRoutingGraph();
+			} catch (RuntimeException e) {
+				System.out.println("DatabaseMDSProvider.getRoutingDataSet(): " +
+						"ignoring graph file: " + e.getMessage());
+				routingGraph = null;
+			}
+			if (routingGraph == null) {
+				adapter.loadAllEssentialStreetNodes();
+				adapter.loadReducedWays();
+				routingGraph = RoutingGraph.build(streetNodes, reducedWays.values());
+			}
 			routingMapPresent = true;
 		}			
 		
 		/* ways of start and destination nodes have to be loaded completely */
-		adapter.loadCompleteWaysForNodes(fromNodeId, toNodeId);
-		
-		long fromWayId = getWayForNode(fromNodeId);		
-		long toWayId = getWayForNode(toNodeId);		
-		
-		adapter.loadAllStreetNodesForWays(fromWayId, toWayId);
-		
-		setWayNodeDistances(fromWayId);
-		setWayNodeDistances(toWayId);
+		List<Long> wayIds = new ArrayList<Long>();
+		for (int i = 0; i < nodeIds.length; i += 2) {
+			long nodeId2 = (i + 1 < nodeIds.length) ? nodeIds[i + 1] : -1;
+			adapter.loadCompleteWaysForNodes(nodeIds[i], nodeId2);
+			
+			long wayId1 = getWayForNode(nodeIds[i]);
+			long wayId2 = getWayForNode(nodeId2);
+			
+			adapter.loadAllStreetNodesForWays(wayId1, wayId2);
+			
+			setWayNodeDistances(wayId1);
+			setWayNodeDistances(wayId2);
+			wayIds.add(wayId1);
+			wayIds.add(wayId2);
+		}
 
-		MobileRoutingInterfaceDataSet dataSet = new MobileRoutingInterfaceDataSet(fromWayId, toWayId, vehicle);
+		MobileRoutingInterfaceDataSet dataSet = new MobileRoutingInterfaceDataSet(wayIds, vehicle);
 		dataSet.setMaps(streetNodes, completeWays, reducedWays, waysForNodes);		
+		dataSet.setRoutingGraph(routingGraph);
+		
+		/* load contraction hierarchy (built for AllStreetVehicle) unless already done
+		 * (it is useless for the routing graph of some tiles only) */
+		if (!contractionHierarchyLoaded && !tiled) {
+			try {
+				contractionHierarchy = adapter.loadContractionHierarchy(routingGraph, 
+						routingGraph.getWayAccess(dataSet, new AllStreetVehicle()));
+			} catch (RuntimeException e) {
+				System.out.println("DatabaseMDSProvider.getRoutingDataSet(): " +
+						"ignoring contraction hierarchy: " + e.getMessage());
+			}
+			contractionHierarchyLoaded = true;
+		}
+		dataSet.setContractionHierarchy(contractionHierarchy);
+		
+		/* load landmark distances (computed for AllStreetVehicle) unless already done */
+		if (!landmarkTableLoaded && !tiled) {
+			try {
+				landmarkTable = adapter.loadLandmarkTable(routingGraph, 
+						routingGraph.getWayAccess(dataSet, new AllStreetVehicle()));
+			} catch (RuntimeException e) {
+				System.out.println("DatabaseMDSProvider.getRoutingDataSet(): " +
+						"ignoring landmark distances: " + e.getMessage());
+			}
+			landmarkTableLoaded = true;
+		}
+		dataSet.setLandmarkTable(landmarkTable);
 		
 		return dataSet;
 	}
 
 	
+	/**
+	 * load the routing graph for the map tiles covering the given nodes and
+	 * the tiles around them, dropping the tiles used least recently if more 
+	 * than maxTiles tiles are held. The routing graph is only rebuilt if 
+	 * tiles have been loaded or dropped. Returns false if the map is not 
+	 * divided into tiles (called holding the write lock).
+	 */
+	private boolean loadRoutingTiles(long[] nodeIds) {
+		
+		/* bounding box of the nodes, enlarged by the margin */
+		double minLat = Double.POSITIVE_INFINITY;
+		double maxLat = Double.NEGATIVE_INFINITY;
+		double minLon = Double.POSITIVE_INFINITY;
+		double maxLon = Double.NEGATIVE_INFINITY;
+		for (long nodeId : nodeIds) {
+			Node node = streetNodes.get(nodeId);
+			if (node != null) {
+				minLat = Math.min(minLat, node.getLatitude());
+				maxLat = Math.max(maxLat, node.getLatitude());
+				minLon = Math.min(minLon, node.getLongitude());
+				maxLon = Math.max(maxLon, node.getLongitude());
+			}
+		}
+		if (minLat > maxLat) {
+			return routingGraph != null && !routingTiles.isEmpty();
+		}
+		double margin = tileMargin * MapTile.TILE_SIZE;
+		List<MapTile> tiles = MapTile.getTiles(minLat - margin, minLon - margin, maxLat + margin, maxLon + margin);
+		
+		/* load the tiles not held yet (getting a tile marks it as used); the 
+		 * routing graph only changes with tiles that have ways */
+		boolean changed = false;
+		for (MapTile tile : tiles) {
+			if (routingTiles.get(tile) == null) {
+				List<Long> wayIds = adapter.loadTile(tile);
+				if (wayIds == null) {
+					return false;
+				}
+				routingTiles.put(tile, wayIds);
+				changed |= !wayIds.isEmpty();
+			}
+		}
+		
+		/* drop the tiles used least recently, but none of the tiles needed now */
+		Set<MapTile> needed = new HashSet<MapTile>(tiles);
+		List<Long> droppedWays = new ArrayList<Long>();
+		int excess = routingTiles.size() - Math.max(maxTiles, tiles.size());
+		Iterator<Map.Entry<MapTile, List<Long>>> iterator = routingTiles.entrySet().iterator();
+		while (excess > 0 && iterator.hasNext()) {
+			Map.Entry<MapTile, List<Long>> entry = iterator.next();
+			if (!needed.contains(entry.getKey())) {
+				droppedWays.addAll(entry.getValue());
+				iterator.remove();
+				excess--;
+				changed |= !entry.getValue().isEmpty();
+			}
+		}
+		
+		/* ways and essential street nodes of the tiles held */
+		List<Way> ways = new ArrayList<Way>();
+		Set<Long> wayIds = new HashSet<Long>();
+		for (List<Long> tileWayIds : routingTiles.values()) {
+			for (Long wayId : tileWayIds) {
+				Way way = reducedWays.get(wayId);
+				if (way != null && wayIds.add(wayId)) {
+					ways.add(way);
+				}
+			}
+		}
+		
+		if (!droppedWays.isEmpty()) {
+			Set<Long> nodesHeld = new HashSet<Long>();
+			for (Way way : ways) {
+				for (long nodeId : getWayNodeIds(way)) {
+					nodesHeld.add(nodeId);
+				}
+			}
+			for (long nodeId : nodeIds) {
+				nodesHeld.add(nodeId);
+			}
+			for (Long wayId : droppedWays) {
+				if (wayIds.contains(wayId)) {
+					continue;
+				}
+				Way way = reducedWays.remove(wayId);
+				if (way == null) {
+					continue;
+				}
+				for (long nodeId : getWayNodeIds(way)) {
+					if (!nodesHeld.contains(nodeId)) {
+						streetNodes.remove(nodeId);
+					}
+					Set<Long> waysForNode = waysForNodes.get(nodeId);
+					if (waysForNode != null && !completeWays.containsKey(wayId)) {
+						waysForNode.remove(wayId);
+						if (waysForNode.isEmpty()) {
+							waysForNodes.remove(nodeId);
+						}
+					}
+				}
+			}
+		}
+		
+		if (changed || routingGraph == null) {
+			routingGraph = RoutingGraph.build(streetNodes, ways);
+			System.out.println("DatabaseMDSProvider.loadRoutingTiles(): routing graph of " + 
+					routingTiles.size() + " tiles with " + routingGraph.getNodeCount() + " nodes");
+		}
+		return true;
+	}
+	
+	
+	private static long[] getWayNodeIds(Way way) {
+		if (way instanceof MobileWay) {
+			return ((MobileWay)way).getWayNodeIds();
+		}
+		List<WayNode> wayNodes = way.getWayNodes();
+		long[] ids = new long[wayNodes.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = wayNodes.get(i).getNodeId();
+		}
+		return ids;
+	}
+	
+	
 	/**
 	 * set distanceToPredecessor fields in MobileWayNodes of given way
 	 * @param wayId
@@ -277,6 +693,9 @@ public class DatabaseMDSProvider extends MobileDataSetProvider {
 				}
 				last = current;
 			}
+			if (way instanceof MobileWay) {
+				((MobileWay)way).invalidatePathLengths();
+			}
 		}
 	}
 	
@@ -284,7 +703,9 @@ public class DatabaseMDSProvider extends MobileDataSetProvider {
 	
 	private long getWayForNode(long nodeId) {
 		Set<Long> wayIds = waysForNodes.get(nodeId);
-		if (wayIds != null && wayIds.size() == 1)
+		/* the way has to be loaded completely (some ways of the node may not be
+		 * known if the routing graph is loaded for some map tiles only) */
+		if (wayIds != null && wayIds.size() == 1 && completeWays.containsKey(wayIds.iterator().next()))
 			return wayIds.iterator().next();
 		else
 			return -1;
@@ -297,58 +718,72 @@ public class DatabaseMDSProvider extends MobileDataSetProvider {
 		double minDist = Double.MAX_VALUE;
         Node minDistNode = null; 
 		
-		if (adapter.loadPOINodes(selector.getPOICode()) > 0) {				
-			/* find the street node closest to the center */
-			for (Node node : poiNodes.values()) {
-				/* skip this node if not allowed by selector */
-				if (selector.getPOICode() != null && !selector.isAllowed(null, node)) {
-					continue;
-				}
-				
-				double dist = center.distanceTo(node.getLatitude(), node.getLongitude());
-				if (geoConstraints != null && geoConstraints.getDirection() != null) {
-					dist += geoConstraints.getDirection().distanceTo(node.getLatitude(), node.getLongitude()); 
-				}
-				
-	            if (dist < minDist) {
-					minDist = dist;
-					minDistNode = node;
-				}
-			}		
+		/* find the POI node closest to the center */
+		for (Node node : getPOINodes(selector)) {
+			double dist = center.distanceTo(node.getLatitude(), node.getLongitude());
+			if (geoConstraints != null && geoConstraints.getDirection() != null) {
+				dist += geoConstraints.getDirection().distanceTo(node.getLatitude(), node.getLongitude()); 
+			}
 			
-			if (minDistNode != null) {				
-				Place place = new Place(minDistNode, false);
-				String name = OsmHelper.getPOINodeName(minDistNode);
-				if (name != null) {					
-					place.setName(name);
-				}
-				if (minDistNode instanceof MobileNode) {
-					place.setNearestOsmStreetNodeId(((MobileNode)minDistNode).getNearestStreetNodeId());
-					
-					/* get names of street(s) near this Point Of Interest */
-					List<Long> wayIds = adapter.loadCompleteWaysForNodes(place.getNearestOsmStreetNodeId(), -1);
-					List<Way> ways = new ArrayList<Way>();
-					adapter.loadReducedWays(wayIds);
-					for (Long wayId : wayIds) {
-						ways.add(reducedWays.get(wayId));
-					}					
-					String locationName = OsmHelper.getWayNameDescription(ways);
-					place.setLocationName(locationName);
-					
-				}				
-				return place;
-			} else {
-				/* no POI node could be found
-				 * (TODO: this case should never occur, because not finding any 
-				 * POI node is handled in the if clause one level higher) */
-				return null;
+            if (dist < minDist) {
+				minDist = dist;
+				minDistNode = node;
 			}
+		}		
+		
+		if (minDistNode != null) {				
+			return getPOIPlace(minDistNode);
 		} else {
-			/* there are no POI nodes around the center */
+			/* there are no POI nodes allowed by the selector */
 			return null;
 		}
 	}
 	
+	
+	public List<Node> getPOINodes(POINodeSelector selector) {
+		List<Node> nodes = new ArrayList<Node>();
+		if (adapter.loadPOINodes(selector.getPOICode()) > 0) {
+			synchronized (poiNodes) {
+				for (Node node : poiNodes.values()) {
+					/* skip this node if not allowed by selector */
+					if (selector.getPOICode() != null && !selector.isAllowed(null, node)) {
+						continue;
+					}
+					nodes.add(node);
+				}
+			}
+		}
+		return nodes;
+	}
+	
+	
+	public Place getPOIPlace(Node poiNode) {
+		Place place = new Place(poiNode, false);
+		String name = OsmHelper.getPOINodeName(poiNode);
+		if (name != null) {					
+			place.setName(name);
+		}
+		if (poiNode instanceof MobileNode) {
+			place.setNearestOsmStreetNodeId(((MobileNode)poiNode).getNearestStreetNodeId());
+			
+			/* get names of street(s) near this Point Of Interest */
+			List<Way> ways = new ArrayList<Way>();
+			routingMapLock.writeLock().lock();
+			try {
+				List<Long> wayIds = adapter.loadCompleteWaysForNodes(place.getNearestOsmStreetNodeId(), -1);
+				adapter.loadReducedWays(wayIds);
+				for (Long wayId : wayIds) {
+					ways.add(reducedWays.get(wayId));
+				}
+			} finally {
+				routingMapLock.writeLock().unlock();
+			}
+			String locationName = OsmHelper.getWayNameDescription(ways);
+			place.setLocationName(locationName);
+		}				
+		return place;
+	}
+	
 
 	/* methods not yet supported */
 	
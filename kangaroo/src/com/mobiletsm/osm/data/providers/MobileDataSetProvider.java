@@ -1,6 +1,10 @@
 package com.mobiletsm.osm.data.providers;
 
+import java.util.Collection;
+import java.util.List;
+
 import org.openstreetmap.osm.data.coordinates.LatLon;
+import org.openstreetmap.osmosis.core.domain.v0_6.Node;
 import org.openstreetmap.travelingsalesman.routing.IVehicle;
 
 import com.mobiletsm.osm.data.MobileInterfaceDataSet;
@@ -69,15 +73,82 @@ public abstract class MobileDataSetProvider {
 	public abstract Place getNearestStreetNode(Place center, boolean updateCenter);
 	
 	
+	/**
+	 * returns the (at most) count street nodes nearest to the given center, the
+	 * nearest first, skipping nodes on ways not allowed for the given vehicle
+	 * (if not null)
+	 * @param center
+	 * @param count
+	 * @param vehicle
+	 * @return
+	 */
+	public abstract List<Place> getNearestStreetNodes(Place center, int count, IVehicle vehicle);
+	
+	
+	/**
+	 * find the nearest street nodes of all given places at once and set them
+	 * (by Place.setNearestOsmStreetNodeId()); places that are street nodes or
+	 * already have a nearest street node are left unchanged
+	 * @param places
+	 * @return the number of places that are or have been resolved to a street node
+	 */
+	public abstract int snapAll(Collection<Place> places);
+	
+	
 	public abstract Place getNearestPOINode(Place center, POINodeSelector selector, GeoConstraints limits);
 	
 	
+	/**
+	 * returns all POI nodes allowed by the given selector
+	 * @param selector
+	 * @return
+	 */
+	public abstract List<Node> getPOINodes(POINodeSelector selector);
+	
+	
+	/**
+	 * returns a place describing the given POI node (name, nearest street node
+	 * and names of the streets near it)
+	 * @param poiNode
+	 * @return
+	 */
+	public abstract Place getPOIPlace(Node poiNode);
+	
+	
 	public abstract MobileInterfaceDataSet getCompleteDataSet();
 	
 	
 	public abstract MobileInterfaceDataSet getRoutingDataSet(long fromNodeId, long toNodeId, IVehicle vehicle);
 	
 	
+	/**
+	 * returns a data set to route between any of the given street nodes
+	 * @param nodeIds
+	 * @param vehicle
+	 * @return
+	 */
+	public abstract MobileInterfaceDataSet getRoutingDataSet(long[] nodeIds, IVehicle vehicle);
+	
+	
+	/**
+	 * like getRoutingDataSet(), but the data set is not changed (e.g. by map tiles
+	 * dropped for other threads) until the calling thread releases it by
+	 * releaseRoutingDataSet(). Several threads may hold data sets and search routes
+	 * on them at once. No other methods of the provider may be called before
+	 * the data set is released.
+	 * @param nodeIds
+	 * @param vehicle
+	 * @return
+	 */
+	public abstract MobileInterfaceDataSet acquireRoutingDataSet(long[] nodeIds, IVehicle vehicle);
+	
+	
+	/**
+	 * release the data set returned by acquireRoutingDataSet() to the calling thread
+	 */
+	public abstract void releaseRoutingDataSet();
+	
+	
 	public abstract MobileInterfaceDataSet updateRoutingDataSet(long fromNodeId, long toNodeId, IVehicle vehicle);
 	
 	
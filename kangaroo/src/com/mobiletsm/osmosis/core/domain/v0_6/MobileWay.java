@@ -19,6 +19,8 @@ import org.openstreetmap.osmosis.core.store.StoreClassRegister;
 import org.openstreetmap.osmosis.core.store.StoreReader;
 
 import com.mobiletsm.osm.OsmHelper;
+import com.mobiletsm.osm.WayNodeEncoding;
+import com.mobiletsm.osm.data.LongIntHashMap;
 
 /**
  * 
@@ -95,6 +97,10 @@ public class MobileWay extends Way {
 	private String wayNodes = null;
 	
 	
+	/* way nodes in the binary encoding of WayNodeEncoding, decoded when needed */
+	private byte[] encodedWayNodes = null;
+	
+	
 	public MobileWay(long id) {
 		super(id, 0, (Date)null, null, 0);
 	}
@@ -103,23 +109,86 @@ public class MobileWay extends Way {
 	/**
 	 * 
 	 */
-	public MobileWay(long id, String tags, String wayNodes) {
+	public MobileWay(long id, Collection<Tag> tags, String wayNodes) {
 		this(id);		
-		this.getTags().addAll(OsmHelper.unpackStringToTags(tags));
+		this.getTags().addAll(tags);
 		this.wayNodes = wayNodes;
 	}
 	
 	
+	/**
+	 * 
+	 */
+	public MobileWay(long id, Collection<Tag> tags, byte[] encodedWayNodes) {
+		this(id);		
+		this.getTags().addAll(tags);
+		this.encodedWayNodes = encodedWayNodes;
+	}
+	
+	
 	@Override
 	public List<WayNode> getWayNodes() {
 		List<WayNode> list = super.getWayNodes();
 		if (list.size() == 0 && wayNodes != null) {
 			list.addAll(OsmHelper.unpackStringToWayNodes(wayNodes));
+		} else if (list.size() == 0 && encodedWayNodes != null) {
+			list.addAll(WayNodeEncoding.decodeWayNodes(encodedWayNodes));
 		}
 		return list;
 	}
 	
 	
+	/**
+	 * returns true if the way nodes are only held in their binary encoding
+	 * (getWayNodes() has not been called yet)
+	 */
+	private boolean isEncoded() {
+		return encodedWayNodes != null && super.getWayNodes().size() == 0;
+	}
+	
+	
+	/**
+	 * returns the ids of the way nodes (without creating WayNode objects 
+	 * if the way nodes have not been decoded yet)
+	 * @return
+	 */
+	public long[] getWayNodeIds() {
+		if (isEncoded()) {
+			long[] ids = new long[WayNodeEncoding.getCount(encodedWayNodes)];
+			WayNodeEncoding.decode(encodedWayNodes, ids, null);
+			return ids;
+		}
+		List<WayNode> list = getWayNodes();
+		long[] ids = new long[list.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = list.get(i).getNodeId();
+		}
+		return ids;
+	}
+	
+	
+	/**
+	 * returns the distances of the way nodes to their predecessors (0 for way
+	 * nodes that are no MobileWayNodes), like getWayNodeIds() 
+	 * @return
+	 */
+	public double[] getWayNodeDistances() {
+		if (isEncoded()) {
+			double[] distances = new double[WayNodeEncoding.getCount(encodedWayNodes)];
+			WayNodeEncoding.decode(encodedWayNodes, null, distances);
+			return distances;
+		}
+		List<WayNode> list = getWayNodes();
+		double[] distances = new double[list.size()];
+		for (int i = 0; i < distances.length; i++) {
+			if (list.get(i) instanceof MobileWayNode) {
+				distances[i] = ((MobileWayNode)list.get(i)).getDistanceToPredecessor();
+			}
+		}
+		return distances;
+	}
+	
+	
 	/**
 	 * 
 	 * @param way
@@ -153,6 +222,7 @@ public class MobileWay extends Way {
 	 */
 	public void addWayNode(long wayNodeId, double distanceToPredecessor) {
 		super.getWayNodes().add(new MobileWayNode(wayNodeId, distanceToPredecessor));
+		invalidatePathLengths();
 	}
 	
 		
@@ -169,27 +239,169 @@ public class MobileWay extends Way {
 	}	
 	
 	
+	/* way nodes decoded by decodeWayNodes() (null if not decoded), replaced as a
+	 * whole so threads reading it concurrently never see parts of it */
+	private volatile DecodedWayNodes decodedWayNodes = null;
+	
+	
+	/* ways with more way nodes than this are given a node id -> index map */
+	private static final int MIN_INDEXED_WAY_NODES = 16;
+	
+	
 	/**
-	 * 
+	 * discard the decoded way nodes used by getPathLength(), must be called when
+	 * way nodes or their distances have been changed after getPathLength() was called
+	 */
+	public void invalidatePathLengths() {
+		decodedWayNodes = null;
+	}
+	
+	
+	/**
+	 * decode the way nodes into arrays of node ids and cumulative distances
+	 */
+	private DecodedWayNodes decodeWayNodes() {
+		int size;
+		long[] nodeIds;
+		double[] cumulativeDistances;
+		if (isEncoded()) {
+			/* straight from the binary encoding */
+			size = WayNodeEncoding.getCount(encodedWayNodes);
+			nodeIds = new long[size];
+			cumulativeDistances = new double[size];
+			WayNodeEncoding.decode(encodedWayNodes, nodeIds, cumulativeDistances);
+			/* the distance of the first way node to its predecessor does not count */
+			if (size > 0) {
+				cumulativeDistances[0] = 0;
+			}
+			for (int i = 1; i < size; i++) {
+				cumulativeDistances[i] += cumulativeDistances[i - 1];
+			}
+		} else {
+			List<WayNode> wayNodes = getWayNodes();
+			size = wayNodes.size();
+			nodeIds = new long[size];
+			cumulativeDistances = new double[size];
+			double distance = 0;
+			for (int i = 0; i < size; i++) {
+				WayNode wayNode = wayNodes.get(i);
+				if (i > 0) {
+					/* paths across way nodes without a distance have no length */
+					if (wayNode instanceof MobileWayNode) {
+						distance += ((MobileWayNode)wayNode).getDistanceToPredecessor();
+					} else {
+						distance = Double.NaN;
+					}
+				}
+				nodeIds[i] = wayNode.getNodeId();
+				cumulativeDistances[i] = distance;
+			}
+		}
+		
+		return new DecodedWayNodes(nodeIds, cumulativeDistances, 
+				WayHelper.isOneway(this), WayHelper.isReverseOneway(this));
+	}
+	
+	
+	/**
+	 * the decoded way nodes of a way, not changed once created
+	 */
+	private static final class DecodedWayNodes {
+		
+		private final long[] nodeIds;
+		
+		/* distance from the first way node along the way */
+		private final double[] cumulativeDistances;
+		
+		/* index of the next occurrence of the same node on the way (-1 if none) */
+		private final int[] nextOccurrences;
+		
+		/* node id -> index of the first occurrence (only for long ways) */
+		private final LongIntHashMap nodeIndices;
+		
+		private final boolean closed;
+		
+		private final boolean oneway;
+		
+		private final boolean reverseOneway;
+		
+		
+		private DecodedWayNodes(long[] nodeIds, double[] cumulativeDistances, 
+				boolean oneway, boolean reverseOneway) {
+			int size = nodeIds.length;
+			this.nodeIds = nodeIds;
+			this.cumulativeDistances = cumulativeDistances;
+			this.oneway = oneway;
+			this.reverseOneway = reverseOneway;
+			
+			nextOccurrences = new int[size];
+			nodeIndices = size > MIN_INDEXED_WAY_NODES ? new LongIntHashMap(size) : null;
+			for (int i = 0; i < size; i++) {
+				nextOccurrences[i] = -1;
+			}
+			
+			/* link repeated occurrences of the same node */
+			for (int i = size - 1; i >= 0; i--) {
+				int first = indexOf(nodeIds[i], i + 1);
+				if (first != -1) {
+					nextOccurrences[i] = first;
+				}
+				if (nodeIndices != null) {
+					nodeIndices.put(nodeIds[i], i);
+				}
+			}
+			
+			closed = size > 1 && nodeIds[0] == nodeIds[size - 1];
+		}
+		
+		
+		/**
+		 * returns the index of the first occurrence of the given node at or after
+		 * the given index (-1 if there is none)
+		 */
+		private int indexOf(long nodeId, int fromIndex) {
+			if (nodeIndices != null) {
+				int index = nodeIndices.get(nodeId);
+				if (index == LongIntHashMap.NO_VALUE) {
+					return -1;
+				}
+				while (index != -1 && index < fromIndex) {
+					index = nextOccurrences[index];
+				}
+				return index;
+			}
+			for (int i = fromIndex; i < nodeIds.length; i++) {
+				if (nodeIds[i] == nodeId) {
+					return i;
+				}
+			}
+			return -1;
+		}
+		
+	}
+	
+	
+	/**
+	 * returns the length of the path along this way between the given nodes. If a
+	 * node occurs more than once on the way, the shortest path between any of the
+	 * occurrences is used. On a closed way the path may lead around the ring in
+	 * either direction the oneway flags allow. Returns -1 if the nodes are the same,
+	 * one of them is not on the way or a way node on the path has no distance.
 	 * @param fromNodeId
 	 * @param toNodeId
 	 * @return
 	 */
 	public double getPathLength(long fromNodeId, long toNodeId) {
 		
-		double length = 0;
-		List<WayNode> wayNodes = super.getWayNodes();
-			
-		
-		/* find index of nodes to start from and to go to */
-		int fromNodeIndex = -1;
-		int toNodeIndex = -1;
-		for (int i = 0; i < wayNodes.size(); i++) {
-			if (wayNodes.get(i).getNodeId() == fromNodeId)
-				fromNodeIndex = i;
-			if (wayNodes.get(i).getNodeId() == toNodeId)
-				toNodeIndex = i; 
+		DecodedWayNodes decoded = decodedWayNodes;
+		if (decoded == null || (!isEncoded() && decoded.nodeIds.length != super.getWayNodes().size())) {
+			decoded = decodeWayNodes();
+			decodedWayNodes = decoded;
 		}
+		
+		int fromNodeIndex = decoded.indexOf(fromNodeId, 0);
+		int toNodeIndex = decoded.indexOf(toNodeId, 0);
+		
 		/* exit if start and end nodes are the same or one of them is not on the way */
 		if (fromNodeIndex == -1 || toNodeIndex == -1 || fromNodeId == toNodeId) {
 			System.out.println("wayId = " + this.getId());
@@ -198,49 +410,42 @@ public class MobileWay extends Way {
 			return -1;		
 		}
 		
-		if (isClosed()) {
-			
-			int index = fromNodeIndex;			
-			double lengthForward = Double.MAX_VALUE;
-			double lengthReverse = Double.MAX_VALUE;
-			
-			if (!WayHelper.isReverseOneway(this)) {
-				lengthForward = 0;
-				while (wayNodes.get(index).getNodeId() != toNodeId) {
-					if (++index == wayNodes.size()) index = 1;
-					MobileWayNode mobileWayNode = (MobileWayNode)wayNodes.get(index);
-					lengthForward += mobileWayNode.getDistanceToPredecessor();
-				}
-			}
-			
-			index = fromNodeIndex;
-			if (!WayHelper.isOneway(this)) {
-				lengthReverse = 0;
-				while (wayNodes.get(index).getNodeId() != toNodeId) {
-					MobileWayNode mobileWayNode = (MobileWayNode)wayNodes.get(index);
-					lengthReverse += mobileWayNode.getDistanceToPredecessor();				
-					if (--index == 0) index = wayNodes.size() - 1; 				
-				}
-			}
-			
-			length = Math.min(lengthForward, lengthReverse);
-			
-		} else {
-			
-			if (toNodeIndex < fromNodeIndex) {
-				int temp = toNodeIndex;
-				toNodeIndex = fromNodeIndex;
-				fromNodeIndex = temp;
-			}
-			
-			for (int i = fromNodeIndex + 1; i <= toNodeIndex; i++) {
-				WayNode wayNode = wayNodes.get(i);
-				if (wayNode instanceof MobileWayNode) {
-					length += ((MobileWayNode)wayNode).getDistanceToPredecessor();
+		double length = Double.MAX_VALUE;
+		double lengthIgnoringOneway = Double.MAX_VALUE;
+		double ringLength = decoded.cumulativeDistances[decoded.nodeIds.length - 1];
+		
+		for (int i = fromNodeIndex; i != -1; i = decoded.nextOccurrences[i]) {
+			for (int j = toNodeIndex; j != -1; j = decoded.nextOccurrences[j]) {
+				double forward;
+				double reverse;
+				if (decoded.closed) {
+					/* around the ring, the last way node is the first one */
+					double distance = decoded.cumulativeDistances[j] - decoded.cumulativeDistances[i];
+					forward = distance < 0 ? distance + ringLength : distance;
+					reverse = ringLength - forward;
+				} else if (j > i) {
+					forward = decoded.cumulativeDistances[j] - decoded.cumulativeDistances[i];
+					reverse = Double.MAX_VALUE;
 				} else {
+					forward = Double.MAX_VALUE;
+					reverse = decoded.cumulativeDistances[i] - decoded.cumulativeDistances[j];
+				}
+				if (forward != forward || reverse != reverse) {
 					return -1;
 				}
-			}			
+				if (!decoded.reverseOneway) {
+					length = Math.min(length, forward);
+				}
+				if (!decoded.oneway) {
+					length = Math.min(length, reverse);
+				}
+				lengthIgnoringOneway = Math.min(lengthIgnoringOneway, Math.min(forward, reverse));
+			}
+		}
+		
+		/* on open ways, the length of a path against the oneway direction is still returned */
+		if (!decoded.closed && length == Double.MAX_VALUE) {
+			length = lengthIgnoringOneway;
 		}
 		
 		return length;
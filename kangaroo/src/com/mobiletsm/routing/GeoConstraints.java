@@ -11,6 +11,9 @@ public class GeoConstraints {
 	
 	
 	private Place direction = null;
+	
+	
+	private Vehicle vehicle = null;
 
 	
 	/**
@@ -29,9 +32,33 @@ public class GeoConstraints {
 	}
 	
 	
+	/**
+	 * @return the vehicle distances are measured by route with (null if
+	 * distances are measured as the crow flies)
+	 */
+	public Vehicle getVehicle() {
+		return vehicle;
+	}
+
+	
+	/**
+	 * @param vehicle the vehicle to set
+	 */
+	public void setVehicle(Vehicle vehicle) {
+		this.vehicle = vehicle;
+	}
+	
+	
 	public GeoConstraints(Place direction) {
 		super();
 		this.direction = direction;
 	}
+	
+	
+	public GeoConstraints(Place direction, Vehicle vehicle) {
+		super();
+		this.direction = direction;
+		this.vehicle = vehicle;
+	}
 
 }
@@ -0,0 +1,92 @@
+package com.mobiletsm.routing;
+
+import com.mobiletsm.osm.data.MobileInterfaceDataSet;
+import com.mobiletsm.osm.data.providers.MobileDataSetProvider;
+import com.mobiletsm.routing.routers.MobileIsochrone;
+
+
+/**
+ * A {@link ReachableSet} backed by a {@link MobileIsochrone}. Places are
+ * resolved to their nearest street nodes, whose ways are loaded from the
+ * data set provider when needed.
+ */
+public class MobileTSMReachableSet extends ReachableSet {
+
+
+	private MobileIsochrone isochrone;
+
+
+	private MobileDataSetProvider provider;
+
+
+	private Vehicle vehicle;
+
+
+	public MobileTSMReachableSet(Place startPlace, double maxDurationOfTravel, MobileIsochrone isochrone,
+			MobileDataSetProvider provider, Vehicle vehicle) {
+		super(startPlace, maxDurationOfTravel);
+		this.isochrone = isochrone;
+		this.provider = provider;
+		this.vehicle = vehicle;
+	}
+
+
+	@Override
+	public int getNumberOfNodes() {
+		return isochrone.size();
+	}
+
+
+	@Override
+	public long getNodeId(int i) {
+		return isochrone.getNodeId(i);
+	}
+
+
+	@Override
+	public double getDurationOfTravel(int i) {
+		return isochrone.getCost(i);
+	}
+
+
+	@Override
+	public double getDurationOfTravel(Place place) {
+		double duration = getCost(place);
+		if (duration != duration || duration == Double.POSITIVE_INFINITY) {
+			return RouteParameter.PARAMETER_UNDEFINED;
+		}
+		return duration;
+	}
+
+
+	@Override
+	public boolean isReachable(Place place) {
+		return getCost(place) != Double.POSITIVE_INFINITY;
+	}
+
+
+	/**
+	 * returns the duration of travel to the given place, infinity if it
+	 * cannot be reached and NaN if this is not known
+	 */
+	private double getCost(Place place) {
+		Place node = provider.getNearestStreetNode(place, true);
+		if (node == null) {
+			return Double.POSITIVE_INFINITY;
+		}
+		long nodeId = node.getOsmNodeId();
+		long startNodeId = isochrone.getStartNode().getId();
+		if (nodeId == startNodeId) {
+			return 0;
+		}
+		/* the data set is held while the cost is looked up, so the routing
+		 * map is not changed by other threads meanwhile */
+		MobileInterfaceDataSet dataSet = provider.acquireRoutingDataSet(new long[] {startNodeId, nodeId}, null);
+		try {
+			return isochrone.getCost(dataSet, dataSet.getNodeByID(nodeId), vehicle);
+		} finally {
+			provider.releaseRoutingDataSet();
+		}
+	}
+
+}
@@ -14,11 +14,49 @@ import com.mobiletsm.osmosis.core.domain.v0_6.MobileWay;
 public class MobileTSMRouteParameter extends RouteParameter {
 
 	
+	/**
+	 * ids of the nodes the route leads along (not initialized here, as they are
+	 * set by updateRouteParameter() while the super constructor runs)
+	 */
+	private long[] nodeIds;
+	
+	
+	/**
+	 * lengths, durations of travel (without corners) and names of the ways of
+	 * the routing steps, to tell the route parameters of parts of the route
+	 */
+	private double[] stepLengths;
+	
+	private double[] stepDurations;
+	
+	private String[] stepWayNames;
+	
+	
+	/**
+	 * true if none of the ways of the route is a oneway for the vehicle
+	 */
+	private boolean reversible;
+	
+	
 	public MobileTSMRouteParameter(int type, Object vehicle) {
 		super(type, vehicle);
 	}
 	
 	
+	/**
+	 * create the route parameters of a route restored from its length, duration
+	 * of travel and the ids of its nodes
+	 * @param length
+	 * @param durationOfTravel
+	 * @param nodeIds
+	 * @param vehicle
+	 */
+	public MobileTSMRouteParameter(double length, double durationOfTravel, long[] nodeIds, Object vehicle) {
+		super(length, durationOfTravel, vehicle);
+		this.nodeIds = nodeIds;
+	}
+	
+	
 	public MobileTSMRouteParameter(Object route, Object vehicle) {
 		super(route, vehicle);
 	}
@@ -28,7 +66,107 @@ public class MobileTSMRouteParameter extends RouteParameter {
 		super(route);
 	}
 	
+	
+	private MobileTSMRouteParameter(MobileTSMRouteParameter other) {
+		super(other);
+		this.nodeIds = other.nodeIds;
+		this.stepLengths = other.stepLengths;
+		this.stepDurations = other.stepDurations;
+		this.stepWayNames = other.stepWayNames;
+		this.reversible = other.reversible;
+	}
+	
+	
+	/**
+	 * returns a copy sharing the node ids and routing steps of this route (which
+	 * are not changed once the route parameters have been created)
+	 */
+	@Override
+	public RouteParameter copy() {
+		return new MobileTSMRouteParameter(this);
+	}
+	
 
+	/**
+	 * returns one plus the number of routing steps of the route
+	 */
+	@Override
+	public int getWeight() {
+		if (route instanceof Route) {
+			return 1 + ((Route)route).getRoutingSteps().size();
+		} else if (nodeIds != null) {
+			return Math.max(nodeIds.length, 1);
+		}
+		return 1;
+	}
+	
+	
+	/**
+	 * returns the ids of the nodes the route leads along (the start node of the
+	 * first routing step and the end nodes of all routing steps) or null if
+	 * there is no route
+	 * @return
+	 */
+	@Override
+	public long[] getNodeIds() {
+		return nodeIds;
+	}
+	
+	
+	/**
+	 * returns true for routes found with a vehicle (and not restored without
+	 * their Route objects)
+	 */
+	@Override
+	public boolean hasParts() {
+		return stepLengths != null && stepDurations != null;
+	}
+	
+	
+	@Override
+	public RouteParameter getPart(int first, int last) {
+		if (!hasParts() || nodeIds.length == 0 || first < 0 || last < 0 || first > stepLengths.length || last > stepLengths.length
+				|| (first > last && !reversible)) {
+			return null;
+		}
+		int direction = first <= last ? 1 : -1;
+		long[] partNodeIds = new long[direction * (last - first) + 1];
+		double length = 0;
+		double duration = 0;
+		String lastStreetName = null;
+		for (int i = 0, node = first; i < partNodeIds.length; i++, node += direction) {
+			partNodeIds[i] = nodeIds[node];
+			if (node == last) {
+				break;
+			}
+			/* the routing step from this node to the next one */
+			int step = direction > 0 ? node : node - 1;
+			length += stepLengths[step];
+			duration += stepDurations[step];
+			duration += getCornerDuration(lastStreetName, stepWayNames[step]);
+			lastStreetName = stepWayNames[step];
+		}
+		return new MobileTSMRouteParameter(length, duration, partNodeIds, vehicle);
+	}
+	
+	
+	/**
+	 * returns the time in minutes added for turning from the street with the
+	 * first name into the street with the second name
+	 */
+	private static double getCornerDuration(String lastStreetName, String wayName) {
+		/* add 15 seconds for every corner */
+		if (lastStreetName != null && wayName != null) {
+			if (!lastStreetName.equals(wayName)) {
+				return (15.0 / 60.0);
+			}
+		} else if (lastStreetName != null || wayName != null) {
+			return (15.0 / 60.0);
+		}
+		return 0;
+	}
+	
+	
 	/**
 	 * 
 	 * @param route
@@ -60,13 +198,28 @@ public class MobileTSMRouteParameter extends RouteParameter {
 		List<RoutingStep> steps = ((Route)route).getRoutingSteps();
 		Iterator<RoutingStep> steps_itr = steps.iterator();
 		
+		int count = steps.size();
+		nodeIds = new long[count == 0 ? 0 : count + 1];
+		stepLengths = new double[count];
+		if (vehicle != null) {
+			stepDurations = new double[count];
+			stepWayNames = new String[count];
+			reversible = true;
+		}
+		
 		String lastStreetName = null;
+		int i = 0;
 		
 		/* iterate over all routing steps */
 		while (steps_itr.hasNext()) {
 			RoutingStep step = steps_itr.next();
 			Way way = step.getWay();
 			
+			if (i == 0) {
+				nodeIds[0] = step.getStartNode().getId();
+			}
+			nodeIds[i + 1] = step.getEndNode().getId();
+			
 			if (way instanceof MobileWay) {
 				dist = ((MobileWay)way).getPathLength(step.getStartNode().getId(), step.getEndNode().getId());
 				length += dist;
@@ -74,23 +227,25 @@ public class MobileTSMRouteParameter extends RouteParameter {
 				dist = step.distanceInMeters();
 				length += dist;
 			}
+			stepLengths[i] = dist;
 			
 			if (vehicle != null) {
 				/* add duration of travel for this routing step */
 				maxSpeed = ((Vehicle)vehicle).getMaxSpeedOnWay(way);
-				duration += (dist / 1000) / (maxSpeed / 60);
+				stepDurations[i] = (dist / 1000) / (maxSpeed / 60);
+				duration += stepDurations[i];
 				String wayName = WayHelper.getTag(way.getTags(), Tags.TAG_NAME);
+				stepWayNames[i] = wayName;
 				
-				/* add 15 seconds for every corner */
-				if (lastStreetName != null && wayName != null) {
-					if (!lastStreetName.equals(wayName)) {
-						duration += (15.0 / 60.0);
-					}
-				} else if (lastStreetName != null || wayName != null) {
-					duration += (15.0 / 60.0);
-				}
+				duration += getCornerDuration(lastStreetName, wayName);
 				lastStreetName = wayName;
+				
+				/* (the vehicles tell oneways by the tags of the way, without the map) */
+				if (((Vehicle)vehicle).isOneway(null, way) || ((Vehicle)vehicle).isReverseOneway(null, way)) {
+					reversible = false;
+				}
 			}
+			i++;
 		}
 		
 		this.length = length;
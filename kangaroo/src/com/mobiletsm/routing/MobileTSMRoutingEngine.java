@@ -1,29 +1,99 @@
 package com.mobiletsm.routing;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import org.openstreetmap.osmosis.core.domain.v0_6.Node;
 import org.openstreetmap.travelingsalesman.routing.IRouter;
 import org.openstreetmap.travelingsalesman.routing.Route;
+import org.openstreetmap.travelingsalesman.routing.Route.RoutingStep;
 
 import android.content.Context;
 import android.content.SharedPreferences;
 
 import com.mobiletsm.osm.data.MobileInterfaceDataSet;
+import com.mobiletsm.osm.data.MobileRoutingInterfaceDataSet;
+import com.mobiletsm.osm.data.RoutingGraph;
 import com.mobiletsm.osm.data.adapters.RoutingAndroidSQLiteAdapter;
 import com.mobiletsm.osm.data.providers.DatabaseMDSProvider;
 import com.mobiletsm.osm.data.providers.MobileDataSetProvider;
 import com.mobiletsm.osm.data.searching.POINodeSelector;
+import com.mobiletsm.osmosis.core.domain.v0_6.MobileNode;
 import com.mobiletsm.routing.MobileTSMRouteParameter;
 import com.mobiletsm.routing.RouteParameter;
 import com.mobiletsm.routing.Vehicle;
 import com.mobiletsm.routing.metrics.MobileRoutingMetric;
-import com.mobiletsm.routing.routers.MobileMultiTargetDijkstraRouter;
+import com.mobiletsm.routing.routers.MobileCHRouter;
+import com.mobiletsm.routing.routers.MobileDestinationTree;
+import com.mobiletsm.routing.routers.MobileDetourRouter;
+import com.mobiletsm.routing.routers.MobileIsochrone;
+import com.mobiletsm.routing.routers.MobileNearestTargetRouter;
+import com.mobiletsm.routing.routers.MobileOneToManyRouter;
+import com.mobiletsm.routing.routers.MobileOriginTree;
 
 
 public class MobileTSMRoutingEngine implements RoutingEngine {
 	
 	
-	private boolean useRoutingCache = false;
-	private RoutingCache routingCache = null;
-	private MobileDataSetProvider provider = null;
+	/* the engine may be used by several threads. Places are resolved and the
+	 * caches looked up without locking, routes are searched on data sets held
+	 * from the provider (see MobileDataSetProvider.acquireRoutingDataSet()), so
+	 * searches only wait for the routing map being loaded and run in parallel
+	 * otherwise. Only initializing the engine and switching the caches are
+	 * synchronized. */
+	private volatile boolean useRoutingCache = false;
+	private volatile RoutingCache routingCache = null;
+	private volatile PersistentRoutingCache persistentRoutingCache = null;
+	private volatile MobileDataSetProvider provider = null;
+	private String source = null;
+	
+	/* maximum number of map tiles the routing graph is held for (0 for the whole map) */
+	private int maxTiles = 0;
+	
+	/* destination routes are expected to lead to and the tree grown towards it */
+	private volatile Place activeDestination = null;
+	private volatile Vehicle activeVehicle = null;
+	private volatile MobileDestinationTree destinationTree = null;
+	
+	/* maximum number of graph nodes in the destination tree */
+	private static final int MAX_DESTINATION_TREE_NODES = 20000;
+	
+	/* trees grown from the origins routes have often started from, least recently
+	 * used first, the total number of graph nodes they hold labels for and the
+	 * numbers of routes recently started from origins without a tree */
+	private final LinkedHashMap<Long, MobileOriginTree> originTrees = 
+		new LinkedHashMap<Long, MobileOriginTree>(16, 0.75f, true);
+	private int originTreeNodes = 0;
+	private final LinkedHashMap<Long, Integer> originCounts = 
+		new LinkedHashMap<Long, Integer>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, Integer> eldest) {
+				return size() > MAX_COUNTED_ORIGINS;
+			}
+		};
+	
+	/* number of routes from an origin before a tree is grown from it */
+	private static final int ORIGIN_TREE_ROUTES = 3;
+	
+	/* maximum total number of graph nodes in the origin trees (12 bytes per node) */
+	private static final int MAX_ORIGIN_TREE_NODES = 500000;
+	
+	/* minimum number of origin trees that have to fit into MAX_ORIGIN_TREE_NODES,
+	 * as every tree holds labels for all nodes of the graph */
+	private static final int MIN_ORIGIN_TREES = 4;
+	
+	/* maximum number of origins routes are counted for */
+	private static final int MAX_COUNTED_ORIGINS = 100;
+	
+	/* maximum number of graph nodes searched by reachable() */
+	private static final int MAX_REACHABLE_NODES = 50000;
 	
 	//instance for Singleton 
 	private static MobileTSMRoutingEngine currentInstance= null;
@@ -39,6 +109,7 @@ public class MobileTSMRoutingEngine implements RoutingEngine {
 			currentInstance = new MobileTSMRoutingEngine();
 			currentInstance.enableRoutingCache();
 			currentInstance.init(prefsPrivate.getString("tsm_file_path", "/sdcard/map-fr.db"));
+			currentInstance.enablePersistentRoutingCache();
 			System.out.println("MobileTSMRoutingEngine: Initializing Routing Engine with db-file " + prefsPrivate.getString("tsm_file_path", "/sdcard/map-fr.db") + " ; engine is initialized: " + currentInstance.initialized());
 		}
 		else
@@ -53,6 +124,7 @@ public class MobileTSMRoutingEngine implements RoutingEngine {
 			//generate new Instance, initialize it.
 			currentInstance.enableRoutingCache();
 			currentInstance.init(prefsPrivate.getString("tsm_file_path", "/sdcard/map-fr.db"));
+			currentInstance.enablePersistentRoutingCache();
 			System.out.println("MobileTSMRoutingEngine: RE-Initializing Routing Engine with db-file " + prefsPrivate.getString("tsm_file_path", "/sdcard/map-fr.db") + " ; engine is initialized: " + currentInstance.initialized());
 		}
 		
@@ -67,12 +139,15 @@ public class MobileTSMRoutingEngine implements RoutingEngine {
 	 * @param source the SQLite database file path
 	 * @return true if initialization was successful, false otherwise
 	 */
-	public boolean init(String source) {
+	public synchronized boolean init(String source) {
 		if (!initialized()) {
 			if (provider != null) {
 				provider.close();
 			}			
-			provider = new DatabaseMDSProvider(new RoutingAndroidSQLiteAdapter());
+			DatabaseMDSProvider databaseProvider = new DatabaseMDSProvider(new RoutingAndroidSQLiteAdapter());
+			databaseProvider.setMaxTiles(maxTiles);
+			provider = databaseProvider;
+			this.source = source;
 			return provider.open(source);
 		} else {
 			return false;
@@ -80,6 +155,20 @@ public class MobileTSMRoutingEngine implements RoutingEngine {
 	}
 
 
+	/**
+	 * load the routing graph only for the map tiles around the places to route
+	 * between, holding it for at most the given number of tiles (0 to load the
+	 * routing graph of the whole map, see DatabaseMDSProvider.setMaxTiles())
+	 * @param maxTiles
+	 */
+	public synchronized void setMaxTiles(int maxTiles) {
+		this.maxTiles = maxTiles;
+		if (provider instanceof DatabaseMDSProvider) {
+			((DatabaseMDSProvider)provider).setMaxTiles(maxTiles);
+		}
+	}
+
+
 	@Override
 	public boolean initialized() 
 	{
@@ -103,22 +192,65 @@ public class MobileTSMRoutingEngine implements RoutingEngine {
 	}
 	
 	
+	/**
+	 * look the route up in the routing cache if enabled (concurrent requests for
+	 * the same route that is not in the cache share one calculation). The places
+	 * are resolved to their nearest street nodes first, so places near the same
+	 * street nodes find the same route in the routing cache.
+	 */
 	@Override
-	public RouteParameter routeFromTo(Place from, Place to, Object vehicle, boolean updatePlaces) {
+	public RouteParameter routeFromTo(final Place from, final Place to, final Object vehicle, 
+			final boolean updatePlaces) {
 		/* only accept MobileTSM Vehicle objects */
 		if (!(vehicle instanceof Vehicle)) {
 			throw new RuntimeException("MobileRoutingEngine.routeFromTo(): Not a Vehicle");
 		}
 		
-		/* look up this routing order in the routing cache if enabled */
-		if (useRoutingCache && routingCache != null) {
-			RouteParameter cacheRoute = routingCache.getElement(from, to, vehicle);
-			if (cacheRoute != null) {
-					System.out.println("MobileTSMRoutingEngine.routeFromTo(): using route from routing cache");
-				return cacheRoute;
-			}
-		}				
+		final Place resolvedFrom = resolve(from, updatePlaces);
+		final Place resolvedTo = resolve(to, updatePlaces);
 		
+		RoutingCache cache = useRoutingCache ? routingCache : null;
+		if (cache == null) {
+			return calculateRoute(from, to, resolvedFrom, resolvedTo, vehicle);
+		}
+		
+		return cache.getElement(resolvedFrom, resolvedTo, vehicle, new Callable<RouteParameter>() {
+			public RouteParameter call() {
+				return calculateRoute(from, to, resolvedFrom, resolvedTo, vehicle);
+			}
+		});
+	}
+	
+	
+	/**
+	 * returns the given place with its nearest street node set, if it can be
+	 * found. Unless the place may be updated, a copy of it is returned. 
+	 */
+	private Place resolve(Place place, boolean updatePlace) {
+		if (isResolved(place)) {
+			return place;
+		}
+		Place node = provider.getNearestStreetNode(place, updatePlace);
+		if (node == null || updatePlace) {
+			return place;
+		}
+		Place resolved = new Place(place);
+		resolved.setNearestOsmStreetNodeId(node.getOsmNodeId());
+		return resolved;
+	}
+	
+	
+	private static boolean isResolved(Place place) {
+		return place.isOsmStreetNode() || place.hasNearestOsmStreetNode();
+	}
+	
+	
+	/**
+	 * calculate the route between the given places, given also as resolved by
+	 * resolve() 
+	 */
+	private RouteParameter calculateRoute(Place from, Place to, Place resolvedFrom, Place resolvedTo, 
+			Object vehicle) {
 		RouteParameter result;
 
 		if (from.equalsCoordinates(to)) {
@@ -127,10 +259,10 @@ public class MobileTSMRoutingEngine implements RoutingEngine {
 			
 		} else {
 			
-			/* find the street nodes that are closest to start and 
-			 * destination places */
-			Place fromNode = provider.getNearestStreetNode(from, updatePlaces);
-			Place toNode = provider.getNearestStreetNode(to, updatePlaces);		
+			/* get the street nodes the start and destination 
+			 * places have been resolved to */
+			Place fromNode = isResolved(resolvedFrom) ? provider.getNearestStreetNode(resolvedFrom, false) : null;
+			Place toNode = isResolved(resolvedTo) ? provider.getNearestStreetNode(resolvedTo, false) : null;		
 
 			if (fromNode == null || toNode == null) {
 				/* return that no route could be found, because start and/or
@@ -143,22 +275,48 @@ public class MobileTSMRoutingEngine implements RoutingEngine {
 				
 				if (fromNodeId != toNodeId) {
 				
-					/* build routing data set */
-					MobileInterfaceDataSet routingDataSet = provider.getRoutingDataSet(fromNodeId, toNodeId, null);		
-					
-					/* set up the router */
-					IRouter router = new MobileMultiTargetDijkstraRouter();
-					router.setMetric(new MobileRoutingMetric());
+					/* look this routing order up in the persistent routing cache if enabled */
+					result = getFromPersistentRoutingCache(fromNodeId, toNodeId, (Vehicle)vehicle);
 					
-					/* calculate the route */
-					Route route = router.route(routingDataSet, routingDataSet.getNodeByID(toNodeId), 
-							routingDataSet.getNodeByID(fromNodeId), (Vehicle)vehicle);
-					
-					/* return the route parameter */
-					if (route != null) {
-						result = new MobileTSMRouteParameter(route, vehicle);
-					} else {
-						result = new MobileTSMRouteParameter(RouteParameter.ROUTE_PARAMETER_NO_ROUTE_FOUND, vehicle);
+					if (result == null) {
+						/* build routing data set, held while the route is searched */
+						MobileInterfaceDataSet routingDataSet = provider.acquireRoutingDataSet(
+								new long[] {fromNodeId, toNodeId}, null);
+						Route route = null;
+						try {
+							/* look the route up in the tree of the active destination if possible */
+							if (isActiveDestination(to, vehicle)) {
+								route = routeFromDestinationTree(routingDataSet, fromNodeId, toNodeId, (Vehicle)vehicle);
+							}
+							
+							/* look the route up in the tree of its origin if there is one */
+							if (route == null) {
+								MobileOriginTree tree = getOriginTree(routingDataSet, fromNodeId, (Vehicle)vehicle);
+								if (tree != null) {
+									route = tree.route(routingDataSet, routingDataSet.getNodeByID(toNodeId), (Vehicle)vehicle);
+								}
+							}
+							
+							if (route == null) {
+								/* set up the router */
+								IRouter router = new MobileCHRouter();
+								router.setMetric(new MobileRoutingMetric());
+								
+								/* calculate the route */
+								route = router.route(routingDataSet, routingDataSet.getNodeByID(toNodeId), 
+										routingDataSet.getNodeByID(fromNodeId), (Vehicle)vehicle);
+							}
+						} finally {
+							provider.releaseRoutingDataSet();
+						}
+						
+						/* return the route parameter */
+						if (route != null) {
+							result = new MobileTSMRouteParameter(route, vehicle);
+						} else {
+							result = new MobileTSMRouteParameter(RouteParameter.ROUTE_PARAMETER_NO_ROUTE_FOUND, vehicle);
+						}
+						putIntoPersistentRoutingCache(fromNodeId, toNodeId, result);
 					}
 	
 				} else {
@@ -172,14 +330,354 @@ public class MobileTSMRoutingEngine implements RoutingEngine {
 		result.setStartPlace(from);
 		result.setDestinationPlace(to);
 		
-		/* store the route in the routing cache if enabled */
-		if (useRoutingCache && routingCache != null) {
-			routingCache.putElement(result);
-			System.out.println("MobileTSMRoutingEngine.routeFromTo(): route put into routing cache " +
-					"(# routes in cache = " + routingCache.size() + ")");
+		return result; 
+	}
+
+	
+	/**
+	 * find the routes from each of the given sources to each of the given targets.
+	 * Routes already in the routing cache are taken from there. All other routes
+	 * are found by one shortest path tree per source (or per target, if there are
+	 * less targets than sources), so only min(#sources, #targets) searches are needed.
+	 * A source (target) with a single route left is routed point-to-point.
+	 */
+	@Override
+	public RouteMatrix routeMatrix(List<Place> sources, List<Place> targets, Object vehicle) {
+		/* only accept MobileTSM Vehicle objects */
+		if (!(vehicle instanceof Vehicle)) {
+			throw new RuntimeException("MobileRoutingEngine.routeMatrix(): Not a Vehicle");
 		}
 		
-		return result; 
+		RouteMatrix matrix = new RouteMatrix(sources.size(), targets.size());
+		
+		/* find the nearest street nodes of all places at once */
+		List<Place> places = new ArrayList<Place>(sources);
+		places.addAll(targets);
+		provider.snapAll(places);
+		
+		/* grow the trees from the shorter list of places */
+		boolean forward = sources.size() <= targets.size();
+		List<Place> roots = forward ? sources : targets;
+		List<Place> others = forward ? targets : sources;
+		
+		/* nearest street nodes of the places (looked up when needed) */
+		Place[] rootNodes = new Place[roots.size()];
+		Place[] otherNodes = new Place[others.size()];
+		boolean[] rootResolved = new boolean[roots.size()];
+		boolean[] otherResolved = new boolean[others.size()];
+		
+		/* routes that have to be calculated, by root */
+		List<List<Integer>> pending = new ArrayList<List<Integer>>();
+		Set<Long> nodeIds = new LinkedHashSet<Long>();
+		
+		for (int r = 0; r < roots.size(); r++) {
+			List<Integer> pendingOthers = new ArrayList<Integer>();
+			pending.add(pendingOthers);
+			
+			for (int o = 0; o < others.size(); o++) {
+				Place from = forward ? roots.get(r) : others.get(o);
+				Place to = forward ? others.get(o) : roots.get(r);
+				
+				RouteParameter result = null;
+				
+				/* resolve the places first, so the routing cache is searched by street nodes */
+				if (!rootResolved[r]) {
+					rootNodes[r] = provider.getNearestStreetNode(roots.get(r), true);
+					rootResolved[r] = true;
+				}
+				if (!otherResolved[o]) {
+					otherNodes[o] = provider.getNearestStreetNode(others.get(o), true);
+					otherResolved[o] = true;
+				}
+				
+				/* look up this routing order in the routing cache if enabled */
+				if (useRoutingCache && routingCache != null) {
+					result = routingCache.getElement(from, to, vehicle);
+				}
+				
+				if (result == null) {
+					if (from.equalsCoordinates(to)) {
+						result = new MobileTSMRouteParameter(RouteParameter.ROUTE_PARAMETER_ONE_POINT_ROUTE, vehicle);
+					} else {
+						if (rootNodes[r] == null || otherNodes[o] == null) {
+							result = new MobileTSMRouteParameter(RouteParameter.ROUTE_PARAMETER_NO_ROUTE_FOUND, vehicle);
+						} else if (rootNodes[r].getOsmNodeId() == otherNodes[o].getOsmNodeId()) {
+							result = new MobileTSMRouteParameter(RouteParameter.ROUTE_PARAMETER_ONE_POINT_ROUTE, vehicle);
+						} else {
+							result = getFromPersistentRoutingCache(
+									forward ? rootNodes[r].getOsmNodeId() : otherNodes[o].getOsmNodeId(),
+									forward ? otherNodes[o].getOsmNodeId() : rootNodes[r].getOsmNodeId(), 
+									(Vehicle)vehicle);
+							if (result == null) {
+								pendingOthers.add(o);
+								nodeIds.add(rootNodes[r].getOsmNodeId());
+								nodeIds.add(otherNodes[o].getOsmNodeId());
+								continue;
+							}
+						}
+					}
+					result.setStartPlace(from);
+					result.setDestinationPlace(to);
+					putIntoRoutingCache(result);
+				}
+				
+				matrix.setRouteParameter(forward ? r : o, forward ? o : r, result);
+			}
+		}
+		
+		if (nodeIds.isEmpty()) {
+			return matrix;
+		}
+		
+		/* build a routing data set for all street nodes involved */
+		long[] ids = new long[nodeIds.size()];
+		int k = 0;
+		for (Long id : nodeIds) {
+			ids[k++] = id;
+		}
+		MobileInterfaceDataSet routingDataSet = provider.acquireRoutingDataSet(ids, null);
+		try {
+			
+			/* set up the router */
+			MobileOneToManyRouter router = new MobileOneToManyRouter();
+			router.setMetric(new MobileRoutingMetric());
+			
+			for (int r = 0; r < roots.size(); r++) {
+				List<Integer> pendingOthers = pending.get(r);
+				if (pendingOthers.isEmpty()) {
+					continue;
+				}
+			
+				Node rootNode = routingDataSet.getNodeByID(rootNodes[r].getOsmNodeId());
+				List<Node> nodes = new ArrayList<Node>();
+				for (Integer o : pendingOthers) {
+					nodes.add(routingDataSet.getNodeByID(otherNodes[o].getOsmNodeId()));
+				}
+			
+				/* calculate the routes (by the tree of the root if it is an origin
+				 * routes often start from, a single route is found faster by the
+				 * point-to-point router than by growing a tree) */
+				Route[] routes;
+				MobileOriginTree tree = null;
+				if (forward) {
+					tree = getOriginTree(routingDataSet, rootNodes[r].getOsmNodeId(), (Vehicle)vehicle);
+				}
+				if (tree != null) {
+					routes = new Route[nodes.size()];
+					for (int i = 0; i < routes.length; i++) {
+						routes[i] = tree.route(routingDataSet, nodes.get(i), (Vehicle)vehicle);
+					}
+				} else if (nodes.size() == 1) {
+					IRouter singleRouter = new MobileCHRouter();
+					singleRouter.setMetric(new MobileRoutingMetric());
+					if (forward) {
+						routes = new Route[] {singleRouter.route(routingDataSet, nodes.get(0), rootNode, (Vehicle)vehicle)};
+					} else {
+						routes = new Route[] {singleRouter.route(routingDataSet, rootNode, nodes.get(0), (Vehicle)vehicle)};
+					}
+				} else if (forward) {
+					routes = router.routeToTargets(routingDataSet, rootNode, nodes, (Vehicle)vehicle);
+				} else {
+					routes = router.routeFromStarts(routingDataSet, nodes, rootNode, (Vehicle)vehicle);
+				}
+			
+				for (int i = 0; i < routes.length; i++) {
+					int o = pendingOthers.get(i);
+					RouteParameter result;
+					if (routes[i] != null) {
+						result = new MobileTSMRouteParameter(routes[i], vehicle);
+					} else {
+						result = new MobileTSMRouteParameter(RouteParameter.ROUTE_PARAMETER_NO_ROUTE_FOUND, vehicle);
+					}
+					result.setStartPlace(forward ? roots.get(r) : others.get(o));
+					result.setDestinationPlace(forward ? others.get(o) : roots.get(r));
+					putIntoRoutingCache(result);
+					putIntoPersistentRoutingCache(
+							forward ? rootNodes[r].getOsmNodeId() : otherNodes[o].getOsmNodeId(),
+							forward ? otherNodes[o].getOsmNodeId() : rootNodes[r].getOsmNodeId(), result);
+				
+					matrix.setRouteParameter(forward ? r : o, forward ? o : r, result);
+				}
+			}
+		} finally {
+			provider.releaseRoutingDataSet();
+		}
+		
+		return matrix;
+	}
+	
+	
+	/**
+	 * find the street nodes that can be reached from the given place within the
+	 * given duration of travel. Durations are those at the maximum speeds of the
+	 * vehicle without any time for turns, so a place that is not reachable cannot
+	 * be reached on any route found by routeFromTo() in time either.
+	 */
+	@Override
+	public ReachableSet reachable(Place from, Object vehicle, double maxMinutes) {
+		/* only accept MobileTSM Vehicle objects */
+		if (!(vehicle instanceof Vehicle)) {
+			throw new RuntimeException("MobileRoutingEngine.reachable(): Not a Vehicle");
+		}
+		
+		Place fromNode = provider.getNearestStreetNode(from, true);
+		if (fromNode == null) {
+			return null;
+		}
+		long fromNodeId = fromNode.getOsmNodeId();
+		
+		MobileInterfaceDataSet routingDataSet = provider.acquireRoutingDataSet(new long[] {fromNodeId}, null);
+		MobileIsochrone isochrone;
+		try {
+			isochrone = MobileIsochrone.grow(routingDataSet, routingDataSet.getNodeByID(fromNodeId), 
+					(Vehicle)vehicle, true, maxMinutes, MAX_REACHABLE_NODES);
+		} finally {
+			provider.releaseRoutingDataSet();
+		}
+		if (isochrone == null) {
+			return null;
+		}
+		
+		return new MobileTSMReachableSet(from, maxMinutes, isochrone, provider, (Vehicle)vehicle);
+	}
+	
+	
+	/**
+	 * keep a shortest path tree grown backwards from the given destination, so
+	 * that routes to it from places within the tree are found by a lookup
+	 */
+	@Override
+	public synchronized void setActiveDestination(Place destination, Object vehicle) {
+		if (destination != null && !(vehicle instanceof Vehicle)) {
+			throw new RuntimeException("MobileRoutingEngine.setActiveDestination(): Not a Vehicle");
+		}
+		if (destination == null || !isActiveDestination(destination, vehicle)) {
+			destinationTree = null;
+			activeVehicle = (Vehicle)vehicle;
+			activeDestination = destination;
+		}
+	}
+	
+	
+	private boolean isActiveDestination(Place destination, Object vehicle) {
+		/* read once, as they may be set by another thread meanwhile */
+		Place destinationSet = activeDestination;
+		Vehicle vehicleSet = activeVehicle;
+		return destinationSet != null && destinationSet.equalsCoordinates(destination) 
+				&& vehicleSet != null && vehicleSet.equals(vehicle);
+	}
+	
+	
+	/**
+	 * returns the tree grown from the given origin for the given vehicle. If
+	 * there is none yet, the route is counted and a tree is grown once enough
+	 * routes have started from the origin; otherwise null is returned. No trees
+	 * are grown if less than MIN_ORIGIN_TREES trees of the graph fit the budget.
+	 */
+	private MobileOriginTree getOriginTree(MobileInterfaceDataSet routingDataSet, long fromNodeId, 
+			Vehicle vehicle) {
+		RoutingGraph graph = null;
+		if (routingDataSet instanceof MobileRoutingInterfaceDataSet) {
+			graph = ((MobileRoutingInterfaceDataSet)routingDataSet).getRoutingGraph();
+		}
+		if (graph == null || (long)graph.getNodeCount() * MIN_ORIGIN_TREES > MAX_ORIGIN_TREE_NODES) {
+			return null;
+		}
+		
+		synchronized (originTrees) {
+			MobileOriginTree tree = originTrees.get(fromNodeId);
+			if (tree != null && tree.isValidFor(routingDataSet, vehicle)) {
+				return tree;
+			}
+			Integer count = originCounts.get(fromNodeId);
+			count = count == null ? 1 : count + 1;
+			if (count < ORIGIN_TREE_ROUTES) {
+				originCounts.put(fromNodeId, count);
+				return null;
+			}
+			originCounts.remove(fromNodeId);
+		}
+		
+		MobileOriginTree tree = MobileOriginTree.grow(routingDataSet, 
+				routingDataSet.getNodeByID(fromNodeId), vehicle);
+		if (tree == null) {
+			return null;
+		}
+		
+		synchronized (originTrees) {
+			MobileOriginTree previous = originTrees.put(fromNodeId, tree);
+			if (previous != null) {
+				originTreeNodes -= previous.size();
+			}
+			originTreeNodes += tree.size();
+			/* drop the least recently used trees to stay within the budget */
+			Iterator<MobileOriginTree> trees = originTrees.values().iterator();
+			while (originTreeNodes > MAX_ORIGIN_TREE_NODES && trees.hasNext()) {
+				originTreeNodes -= trees.next().size();
+				trees.remove();
+			}
+		}
+		return tree;
+	}
+	
+	
+	private void clearOriginTrees() {
+		synchronized (originTrees) {
+			originTrees.clear();
+			originCounts.clear();
+			originTreeNodes = 0;
+		}
+	}
+	
+	
+	/**
+	 * find the route from the given node to the active destination using the
+	 * destination tree, which is grown first if necessary. Returns null if the
+	 * route cannot be told from the tree.
+	 */
+	private Route routeFromDestinationTree(MobileInterfaceDataSet routingDataSet, 
+			long fromNodeId, long toNodeId, Vehicle vehicle) {
+		MobileDestinationTree tree = destinationTree;
+		if (tree == null || tree.getTargetNode().getId() != toNodeId 
+				|| !tree.isValidFor(routingDataSet, vehicle)) {
+			tree = MobileDestinationTree.grow(routingDataSet, routingDataSet.getNodeByID(toNodeId), 
+					vehicle, MAX_DESTINATION_TREE_NODES);
+			destinationTree = tree;
+		}
+		if (tree == null) {
+			return null;
+		}
+		return tree.route(routingDataSet, routingDataSet.getNodeByID(fromNodeId), vehicle);
+	}
+	
+	
+	/**
+	 * store the given route in the routing cache if enabled
+	 * @param route
+	 */
+	private void putIntoRoutingCache(RouteParameter route) {
+		if (useRoutingCache && routingCache != null) {
+			routingCache.putElement(route);
+		}
+	}
+	
+	
+	/**
+	 * returns the route between the given street nodes from the persistent
+	 * routing cache if enabled, null otherwise
+	 */
+	private RouteParameter getFromPersistentRoutingCache(long fromNodeId, long toNodeId, Vehicle vehicle) {
+		if (persistentRoutingCache == null) {
+			return null;
+		}
+		return persistentRoutingCache.getElement(fromNodeId, toNodeId, vehicle);
+	}
+	
+	
+	private void putIntoPersistentRoutingCache(long fromNodeId, long toNodeId, RouteParameter route) {
+		if (persistentRoutingCache != null) {
+			persistentRoutingCache.putElement(fromNodeId, toNodeId, route);
+		}
 	}
 
 	
@@ -191,8 +689,200 @@ public class MobileTSMRoutingEngine implements RoutingEngine {
 		
 		POINodeSelector poiNodeSelector = (POINodeSelector)selector;
 		
+		/* measure distances by route if a vehicle is given */
+		if (limits != null && limits.getVehicle() != null) {
+			if (limits.getDirection() != null) {
+				RouteParameter[] routes = routeViaPOINode(center, limits.getDirection(), 
+						poiNodeSelector, limits.getVehicle());
+				return routes != null ? routes[0].getDestinationPlace() : null;
+			}
+			RouteParameter route = routeToNearestPOINode(center, poiNodeSelector, limits.getVehicle());
+			return route != null ? route.getDestinationPlace() : null;
+		}
+		
 		return provider.getNearestPOINode(center, poiNodeSelector, limits);		
 	}
+	
+	
+	/**
+	 * find the nearest POI node by a single search from the street node nearest to
+	 * the given place, which stops at the first nearest street node of a POI node
+	 * it reaches
+	 */
+	@Override
+	public RouteParameter routeToNearestPOINode(Place from, Object selector, Object vehicle) {
+		if (!(selector instanceof POINodeSelector)) {
+			throw new RuntimeException("MobileTSMRoutingEngine.routeToNearestPOINode(): Not a POINodeSelector");
+		}
+		if (!(vehicle instanceof Vehicle)) {
+			throw new RuntimeException("MobileTSMRoutingEngine.routeToNearestPOINode(): Not a Vehicle");
+		}
+		
+		Place fromNode = provider.getNearestStreetNode(from, true);
+		if (fromNode == null) {
+			return null;
+		}
+		long fromNodeId = fromNode.getOsmNodeId();
+		
+		Map<Long, Node> poiNodes = getPOINodesByStreetNode(from, (POINodeSelector)selector);
+		if (poiNodes.isEmpty()) {
+			return null;
+		}
+		
+		RouteParameter result;
+		Node poiNode = poiNodes.get(fromNodeId);
+		
+		if (poiNode != null) {
+			result = new MobileTSMRouteParameter(RouteParameter.ROUTE_PARAMETER_ONE_POINT_ROUTE, vehicle);
+		} else {
+			/* build a routing data set for the starting point and all POI street nodes */
+			long[] ids = new long[poiNodes.size() + 1];
+			ids[0] = fromNodeId;
+			int k = 1;
+			for (Long id : poiNodes.keySet()) {
+				ids[k++] = id;
+			}
+			MobileInterfaceDataSet routingDataSet = provider.acquireRoutingDataSet(ids, null);
+			Route route;
+			try {
+				List<Node> targets = new ArrayList<Node>();
+				for (Long id : poiNodes.keySet()) {
+					Node target = routingDataSet.getNodeByID(id);
+					if (target != null) {
+						targets.add(target);
+					}
+				}
+				
+				MobileNearestTargetRouter router = new MobileNearestTargetRouter();
+				router.setMetric(new MobileRoutingMetric());
+				route = router.route(routingDataSet, targets, routingDataSet.getNodeByID(fromNodeId), 
+						(Vehicle)vehicle);
+			} finally {
+				provider.releaseRoutingDataSet();
+			}
+			if (route == null) {
+				return null;
+			}
+			
+			/* the POI node belongs to the street node the route ends at */
+			List<RoutingStep> steps = route.getRoutingSteps();
+			poiNode = poiNodes.get(steps.get(steps.size() - 1).getEndNode().getId());
+			result = new MobileTSMRouteParameter(route, vehicle);
+		}
+		
+		result.setStartPlace(from);
+		result.setDestinationPlace(provider.getPOIPlace(poiNode));
+		
+		return result;
+	}
+
+	
+	/**
+	 * find the POI node with the smallest detour by one search forwards from the
+	 * street node nearest to from and one backwards from the street node nearest
+	 * to to. Both routes are put into the routing cache if enabled.
+	 */
+	@Override
+	public RouteParameter[] routeViaPOINode(Place from, Place to, Object selector, Object vehicle) {
+		if (!(selector instanceof POINodeSelector)) {
+			throw new RuntimeException("MobileTSMRoutingEngine.routeViaPOINode(): Not a POINodeSelector");
+		}
+		if (!(vehicle instanceof Vehicle)) {
+			throw new RuntimeException("MobileTSMRoutingEngine.routeViaPOINode(): Not a Vehicle");
+		}
+		
+		Place fromNode = provider.getNearestStreetNode(from, true);
+		Place toNode = provider.getNearestStreetNode(to, true);
+		if (fromNode == null || toNode == null) {
+			return null;
+		}
+		long fromNodeId = fromNode.getOsmNodeId();
+		long toNodeId = toNode.getOsmNodeId();
+		
+		Map<Long, Node> poiNodes = getPOINodesByStreetNode(from, (POINodeSelector)selector);
+		if (poiNodes.isEmpty()) {
+			return null;
+		}
+		
+		/* build a routing data set for both places and all POI street nodes */
+		long[] ids = new long[poiNodes.size() + 2];
+		ids[0] = fromNodeId;
+		ids[1] = toNodeId;
+		int k = 2;
+		for (Long id : poiNodes.keySet()) {
+			ids[k++] = id;
+		}
+		MobileInterfaceDataSet routingDataSet = provider.acquireRoutingDataSet(ids, null);
+		Route[] routes;
+		try {
+			List<Node> targets = new ArrayList<Node>();
+			for (Long id : poiNodes.keySet()) {
+				Node target = routingDataSet.getNodeByID(id);
+				if (target != null) {
+					targets.add(target);
+				}
+			}
+			
+			MobileDetourRouter router = new MobileDetourRouter();
+			router.setMetric(new MobileRoutingMetric());
+			routes = router.route(routingDataSet, targets, routingDataSet.getNodeByID(fromNodeId), 
+					routingDataSet.getNodeByID(toNodeId), (Vehicle)vehicle);
+		} finally {
+			provider.releaseRoutingDataSet();
+		}
+		if (routes == null) {
+			return null;
+		}
+		
+		/* the POI node belongs to the street node the routes meet at */
+		long poiStreetNodeId = fromNodeId;
+		if (routes[0] != null) {
+			List<RoutingStep> steps = routes[0].getRoutingSteps();
+			poiStreetNodeId = steps.get(steps.size() - 1).getEndNode().getId();
+		} else if (routes[1] != null) {
+			poiStreetNodeId = routes[1].getRoutingSteps().get(0).getStartNode().getId();
+		}
+		Place poiPlace = provider.getPOIPlace(poiNodes.get(poiStreetNodeId));
+		
+		RouteParameter[] result = new RouteParameter[2];
+		for (int i = 0; i < 2; i++) {
+			if (routes[i] != null) {
+				result[i] = new MobileTSMRouteParameter(routes[i], vehicle);
+			} else {
+				result[i] = new MobileTSMRouteParameter(RouteParameter.ROUTE_PARAMETER_ONE_POINT_ROUTE, vehicle);
+			}
+		}
+		result[0].setStartPlace(from);
+		result[0].setDestinationPlace(poiPlace);
+		result[1].setStartPlace(poiPlace);
+		result[1].setDestinationPlace(to);
+		putIntoRoutingCache(result[0]);
+		putIntoRoutingCache(result[1]);
+		
+		return result;
+	}
+	
+	
+	/**
+	 * returns the POI nodes allowed by the given selector by their nearest street
+	 * nodes (the one closest to the given place if several POI nodes share a 
+	 * street node)
+	 */
+	private Map<Long, Node> getPOINodesByStreetNode(Place place, POINodeSelector selector) {
+		Map<Long, Node> poiNodes = new LinkedHashMap<Long, Node>();
+		for (Node poiNode : provider.getPOINodes(selector)) {
+			if (!(poiNode instanceof MobileNode)) {
+				continue;
+			}
+			Long streetNodeId = ((MobileNode)poiNode).getNearestStreetNodeId();
+			Node other = poiNodes.get(streetNodeId);
+			if (other == null || place.distanceTo(poiNode.getLatitude(), poiNode.getLongitude()) 
+					< place.distanceTo(other.getLatitude(), other.getLongitude())) {
+				poiNodes.put(streetNodeId, poiNode);
+			}
+		}
+		return poiNodes;
+	}
 
 	
 	@Override
@@ -200,15 +890,24 @@ public class MobileTSMRoutingEngine implements RoutingEngine {
 		throw new UnsupportedOperationException("getNearestStreetNode() not yet supported by MobileTSMRoutingEngine");
 	}
 	
+	
+	@Override
+	public int snapAll(Collection<Place> places) {
+		return provider.snapAll(places);
+	}
+	
 
 	@Override
-	public void shutdown() {
+	public synchronized void shutdown() {
 		if (initialized()) {
 			provider.close();
 		}
 		
 		/* clear routing cache */
 		clearRoutingCache();
+		clearOriginTrees();
+		
+		disablePersistentRoutingCache();
 	}
 
 
@@ -219,7 +918,7 @@ public class MobileTSMRoutingEngine implements RoutingEngine {
 
 
 	@Override
-	public void enableRoutingCache() {
+	public synchronized void enableRoutingCache() {
 		useRoutingCache = true;
 		if (routingCache == null) {
 			routingCache = new RoutingCache();
@@ -234,4 +933,46 @@ public class MobileTSMRoutingEngine implements RoutingEngine {
 		}
 	}
 
+	
+	/**
+	 * keep routes in a file next to the map database, so they survive restarts
+	 * (the file is dropped automatically when the map database changes)
+	 * @return true if the persistent routing cache could be opened
+	 */
+	public synchronized boolean enablePersistentRoutingCache() {
+		if (persistentRoutingCache == null && source != null) {
+			persistentRoutingCache = PersistentRoutingCache.open(source + ".routes", source);
+		}
+		return persistentRoutingCache != null;
+	}
+	
+	
+	public synchronized void disablePersistentRoutingCache() {
+		if (persistentRoutingCache != null) {
+			persistentRoutingCache.close();
+			persistentRoutingCache = null;
+		}
+	}
+	
+	
+	/**
+	 * returns the routing cache (null if it has never been enabled), e.g. to 
+	 * change its limits or to read its statistics
+	 * @return
+	 */
+	public RoutingCache getRoutingCache() {
+		return routingCache;
+	}
+	
+	
+	/**
+	 * returns the number of origins a shortest path tree is held for
+	 * @return
+	 */
+	public int getOriginTreeCount() {
+		synchronized (originTrees) {
+			return originTrees.size();
+		}
+	}
+
 }
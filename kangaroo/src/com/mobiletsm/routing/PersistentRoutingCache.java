@@ -0,0 +1,364 @@
+package com.mobiletsm.routing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+
+import com.mobiletsm.osm.WayNodeEncoding;
+
+
+/**
+ * A routing cache kept in an append-only file, so routes survive restarts of
+ * the routing engine. Routes are stored by the street nodes they lead from and
+ * to and by a profile of the vehicle (its kind and maximum speed), together with
+ * their length, duration of travel and the ids of their nodes. Only routes that
+ * have been found are stored, as not finding a route may be temporary (e.g. if
+ * the map tiles it leads across have not been loaded). The file starts
+ * with a fingerprint of the map database (its length and time of last
+ * modification); if the map database changes, all routes are dropped.
+ *
+ * All routes are held in memory (their node ids encoded by WayNodeEncoding).
+ * Routes beyond the maximum number are dropped in the order they have been
+ * stored, and the file is rewritten when it holds too many outdated records.
+ * The cache is safe to be used by several threads.
+ */
+public class PersistentRoutingCache {
+
+
+	/* changed with the encoding of node ids, so files written before are dropped */
+	private static final int MAGIC = 0x4b525444;
+
+
+	/* flag of records of routes not found, which are not stored anymore and
+	 * skipped in files written before */
+	private static final int FLAG_NO_ROUTE_FOUND = 1;
+
+
+	public static final int DEFAULT_MAX_ELEMENTS = 10000;
+
+
+	private File file;
+
+
+	private String fingerprint;
+
+
+	private int maxElements;
+
+
+	/* routes in the order they have been stored */
+	private LinkedHashMap<Key, Record> records = new LinkedHashMap<Key, Record>();
+
+
+	/* number of records in the file, including outdated ones */
+	private int recordsInFile = 0;
+
+
+	private DataOutputStream out = null;
+
+
+	private PersistentRoutingCache(File file, String fingerprint, int maxElements) {
+		this.file = file;
+		this.fingerprint = fingerprint;
+		this.maxElements = maxElements;
+	}
+
+
+	/**
+	 * open the cache in the given file for the given map database file, creating
+	 * the file if necessary. Returns null if the file cannot be used.
+	 * @param cacheFile
+	 * @param mapFile
+	 * @param maxElements
+	 * @return
+	 */
+	public static PersistentRoutingCache open(String cacheFile, String mapFile, int maxElements) {
+		File map = new File(mapFile);
+		PersistentRoutingCache cache = new PersistentRoutingCache(new File(cacheFile),
+				map.length() + ":" + map.lastModified(), maxElements);
+		try {
+			boolean valid = cache.load();
+			if (!valid) {
+				cache.rewrite();
+			}
+			cache.out = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(cache.file, true)));
+			System.out.println("PersistentRoutingCache.open(): " + cache.records.size() + " routes loaded");
+			return cache;
+		} catch (IOException e) {
+			e.printStackTrace();
+			cache.close();
+			return null;
+		}
+	}
+
+
+	public static PersistentRoutingCache open(String cacheFile, String mapFile) {
+		return open(cacheFile, mapFile, DEFAULT_MAX_ELEMENTS);
+	}
+
+
+	/**
+	 * read the records from the file. Returns false if the file has to be
+	 * rewritten (it does not exist, belongs to another map or is damaged).
+	 */
+	private boolean load() throws IOException {
+		if (!file.exists()) {
+			return false;
+		}
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (in.readInt() != MAGIC || !fingerprint.equals(in.readUTF())) {
+				System.out.println("PersistentRoutingCache.load(): map or file format has changed, dropping all routes");
+				return false;
+			}
+			while (true) {
+				long fromNodeId;
+				try {
+					fromNodeId = in.readLong();
+				} catch (EOFException e) {
+					return true;
+				}
+				long toNodeId = in.readLong();
+				String profile = in.readUTF();
+				Record record = new Record();
+				record.flags = in.readByte();
+				record.length = in.readDouble();
+				record.durationOfTravel = in.readDouble();
+				record.nodes = new byte[in.readInt()];
+				in.readFully(record.nodes);
+				if ((record.flags & FLAG_NO_ROUTE_FOUND) == 0) {
+					put(new Key(fromNodeId, toNodeId, profile), record);
+				}
+				recordsInFile++;
+			}
+		} catch (EOFException e) {
+			/* the last record has not been written completely */
+			return false;
+		} finally {
+			in.close();
+		}
+	}
+
+
+	/**
+	 * write the header and all routes held to a new file replacing the old one
+	 */
+	private void rewrite() throws IOException {
+		boolean reopen = out != null;
+		if (reopen) {
+			out.close();
+			out = null;
+		}
+		File temp = new File(file.getPath() + ".tmp");
+		DataOutputStream tempOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+		try {
+			tempOut.writeInt(MAGIC);
+			tempOut.writeUTF(fingerprint);
+			for (Entry<Key, Record> entry : records.entrySet()) {
+				write(tempOut, entry.getKey(), entry.getValue());
+			}
+		} finally {
+			tempOut.close();
+		}
+		if (file.exists() && !file.delete()) {
+			throw new IOException("PersistentRoutingCache.rewrite(): cannot delete " + file);
+		}
+		if (!temp.renameTo(file)) {
+			throw new IOException("PersistentRoutingCache.rewrite(): cannot rename " + temp);
+		}
+		recordsInFile = records.size();
+		if (reopen) {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+		}
+	}
+
+
+	private static void write(DataOutputStream stream, Key key, Record record) throws IOException {
+		stream.writeLong(key.fromNodeId);
+		stream.writeLong(key.toNodeId);
+		stream.writeUTF(key.profile);
+		stream.writeByte(record.flags);
+		stream.writeDouble(record.length);
+		stream.writeDouble(record.durationOfTravel);
+		stream.writeInt(record.nodes.length);
+		stream.write(record.nodes);
+	}
+
+
+	private void put(Key key, Record record) {
+		/* move routes stored again to the end */
+		records.remove(key);
+		records.put(key, record);
+		Iterator<Record> iterator = records.values().iterator();
+		while (records.size() > maxElements && iterator.hasNext()) {
+			iterator.next();
+			iterator.remove();
+		}
+	}
+
+
+	/**
+	 * returns the number of routes in the cache
+	 * @return
+	 */
+	public synchronized int size() {
+		return records.size();
+	}
+
+
+	/**
+	 * returns the route parameters of the route between the given street nodes
+	 * for the given vehicle (without start and destination places and without
+	 * a Route object) or null if the route is not in the cache
+	 * @param fromNodeId
+	 * @param toNodeId
+	 * @param vehicle
+	 * @return
+	 */
+	public synchronized RouteParameter getElement(long fromNodeId, long toNodeId, Vehicle vehicle) {
+		Record record = records.get(new Key(fromNodeId, toNodeId, getProfile(vehicle)));
+		if (record == null) {
+			return null;
+		}
+		long[] nodeIds = new long[WayNodeEncoding.getCount(record.nodes)];
+		WayNodeEncoding.decode(record.nodes, nodeIds, null);
+		return new MobileTSMRouteParameter(record.length, record.durationOfTravel, nodeIds, vehicle);
+	}
+
+
+	/**
+	 * store the given route between the given street nodes (routes not found
+	 * are not stored)
+	 * @param fromNodeId
+	 * @param toNodeId
+	 * @param route
+	 */
+	public synchronized void putElement(long fromNodeId, long toNodeId, RouteParameter route) {
+		if (!(route.getVehicle() instanceof Vehicle)) {
+			throw new RuntimeException("PersistentRoutingCache.putElement(): Not a Vehicle");
+		}
+		if (out == null || route.getNoRouteFound()) {
+			return;
+		}
+
+		Key key = new Key(fromNodeId, toNodeId, getProfile((Vehicle)route.getVehicle()));
+		Record record = new Record();
+		record.flags = 0;
+		record.length = route.getLength();
+		record.durationOfTravel = route.getDurationOfTravel();
+		long[] nodeIds = null;
+		if (route instanceof MobileTSMRouteParameter) {
+			nodeIds = ((MobileTSMRouteParameter)route).getNodeIds();
+		}
+		record.nodes = WayNodeEncoding.encode(nodeIds != null ? nodeIds : new long[0], null);
+		put(key, record);
+
+		try {
+			if (recordsInFile >= 2 * maxElements) {
+				rewrite();
+			} else {
+				write(out, key, record);
+				out.flush();
+				recordsInFile++;
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			close();
+		}
+	}
+
+
+	/**
+	 * drop all routes
+	 */
+	public synchronized void clear() {
+		records.clear();
+		try {
+			rewrite();
+		} catch (IOException e) {
+			e.printStackTrace();
+			close();
+		}
+	}
+
+
+	public synchronized void close() {
+		if (out != null) {
+			try {
+				out.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			out = null;
+		}
+	}
+
+
+	/**
+	 * vehicles with the same profile find the same routes at the same speeds
+	 */
+	private static String getProfile(Vehicle vehicle) {
+		return vehicle.getClass().getName() + "@" + vehicle.getMaxSpeed();
+	}
+
+
+	private static final class Record {
+
+		private int flags;
+
+		private double length;
+
+		private double durationOfTravel;
+
+		/* node ids encoded by WayNodeEncoding */
+		private byte[] nodes;
+
+	}
+
+
+	private static final class Key {
+
+		private final long fromNodeId;
+
+		private final long toNodeId;
+
+		private final String profile;
+
+
+		private Key(long fromNodeId, long toNodeId, String profile) {
+			this.fromNodeId = fromNodeId;
+			this.toNodeId = toNodeId;
+			this.profile = profile;
+		}
+
+
+		@Override
+		public boolean equals(Object object) {
+			if (!(object instanceof Key)) {
+				return false;
+			}
+			Key key = (Key)object;
+			return fromNodeId == key.fromNodeId && toNodeId == key.toNodeId && profile.equals(key.profile);
+		}
+
+
+		@Override
+		public int hashCode() {
+			int hash = (int)(fromNodeId ^ (fromNodeId >>> 32));
+			hash = 31 * hash + (int)(toNodeId ^ (toNodeId >>> 32));
+			return 31 * hash + profile.hashCode();
+		}
+
+	}
+
+}
@@ -0,0 +1,83 @@
+package com.mobiletsm.routing;
+
+
+/**
+ * The street nodes that can be reached from a start place within a maximum
+ * duration of travel as returned by
+ * {@link RoutingEngine#reachable(Place, Object, double)}.
+ */
+public abstract class ReachableSet {
+
+
+	/**
+	 * start place
+	 */
+	protected Place startPlace = null;
+
+
+	/**
+	 * maximum duration of travel in minutes
+	 */
+	protected double maxDurationOfTravel = 0;
+
+
+	public ReachableSet(Place startPlace, double maxDurationOfTravel) {
+		super();
+		this.startPlace = startPlace;
+		this.maxDurationOfTravel = maxDurationOfTravel;
+	}
+
+
+	public Place getStartPlace() {
+		return startPlace;
+	}
+
+
+	public double getMaxDurationOfTravel() {
+		return maxDurationOfTravel;
+	}
+
+
+	/**
+	 * returns the number of street nodes listed (nodes where streets meet or end,
+	 * ordered by duration of travel)
+	 * @return
+	 */
+	public abstract int getNumberOfNodes();
+
+
+	/**
+	 * returns the OpenStreetMap id of the i-th street node
+	 * @param i
+	 * @return
+	 */
+	public abstract long getNodeId(int i);
+
+
+	/**
+	 * returns the time it takes to travel to the i-th street node in minutes
+	 * @param i
+	 * @return
+	 */
+	public abstract double getDurationOfTravel(int i);
+
+
+	/**
+	 * returns the shortest time it can take to travel to the given place in
+	 * minutes (RouteParameter.PARAMETER_UNDEFINED if the place cannot be reached
+	 * within the maximum duration of travel or this is not known)
+	 * @param place
+	 * @return
+	 */
+	public abstract double getDurationOfTravel(Place place);
+
+
+	/**
+	 * returns false if the given place certainly cannot be reached within the
+	 * maximum duration of travel, true otherwise
+	 * @param place
+	 * @return
+	 */
+	public abstract boolean isReachable(Place place);
+
+}
@@ -0,0 +1,111 @@
+package com.mobiletsm.routing;
+
+
+/**
+ * The routes between a list of start places (sources) and a list of
+ * destination places (targets) as returned by
+ * {@link RoutingEngine#routeMatrix(java.util.List, java.util.List, Object)}.
+ */
+public class RouteMatrix {
+
+
+	private RouteParameter[][] routes;
+
+
+	public RouteMatrix(int numberOfSources, int numberOfTargets) {
+		super();
+		routes = new RouteParameter[numberOfSources][numberOfTargets];
+	}
+
+
+	public int getNumberOfSources() {
+		return routes.length;
+	}
+
+
+	public int getNumberOfTargets() {
+		if (routes.length == 0) {
+			return 0;
+		}
+		return routes[0].length;
+	}
+
+
+	/**
+	 * returns the route parameters of the route from the given source to the given target
+	 * @param source
+	 * @param target
+	 * @return
+	 */
+	public RouteParameter getRouteParameter(int source, int target) {
+		return routes[source][target];
+	}
+
+
+	public void setRouteParameter(int source, int target, RouteParameter route) {
+		routes[source][target] = route;
+	}
+
+
+	/**
+	 * returns the length of the route from the given source to the given target
+	 * in meters (RouteParameter.PARAMETER_UNDEFINED if no route was found)
+	 * @param source
+	 * @param target
+	 * @return
+	 */
+	public double getLength(int source, int target) {
+		RouteParameter route = routes[source][target];
+		if (route == null || route.getNoRouteFound()) {
+			return RouteParameter.PARAMETER_UNDEFINED;
+		}
+		return route.getLength();
+	}
+
+
+	/**
+	 * returns the time it will take to travel from the given source to the given
+	 * target in minutes (RouteParameter.PARAMETER_UNDEFINED if no route was found)
+	 * @param source
+	 * @param target
+	 * @return
+	 */
+	public double getDurationOfTravel(int source, int target) {
+		RouteParameter route = routes[source][target];
+		if (route == null || route.getNoRouteFound()) {
+			return RouteParameter.PARAMETER_UNDEFINED;
+		}
+		return route.getDurationOfTravel();
+	}
+
+
+	/**
+	 * returns the lengths of all routes in meters (indexed by source and target)
+	 * @return
+	 */
+	public double[][] getLengths() {
+		double[][] lengths = new double[getNumberOfSources()][getNumberOfTargets()];
+		for (int i = 0; i < lengths.length; i++) {
+			for (int j = 0; j < lengths[i].length; j++) {
+				lengths[i][j] = getLength(i, j);
+			}
+		}
+		return lengths;
+	}
+
+
+	/**
+	 * returns the durations of travel of all routes in minutes (indexed by source and target)
+	 * @return
+	 */
+	public double[][] getDurationsOfTravel() {
+		double[][] durations = new double[getNumberOfSources()][getNumberOfTargets()];
+		for (int i = 0; i < durations.length; i++) {
+			for (int j = 0; j < durations[i].length; j++) {
+				durations[i][j] = getDurationOfTravel(i, j);
+			}
+		}
+		return durations;
+	}
+
+}
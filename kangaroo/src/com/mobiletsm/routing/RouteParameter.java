@@ -91,6 +91,38 @@ public abstract class RouteParameter {
 	}
 	
 	
+	/**
+	 * create route parameters of a route known only by its length and duration
+	 * of travel (e.g. restored from a persistent cache)
+	 * @param length
+	 * @param durationOfTravel
+	 * @param vehicle
+	 */
+	protected RouteParameter(double length, double durationOfTravel, Object vehicle) {
+		this.route = null;
+		this.vehicle = vehicle;
+		this.noRouteFound = false;
+		this.length = length;
+		this.durationOfTravel = durationOfTravel;
+	}
+	
+	
+	/**
+	 * create a copy of the given route parameters (sharing the object describing
+	 * the route), see copy()
+	 * @param other
+	 */
+	protected RouteParameter(RouteParameter other) {
+		this.length = other.length;
+		this.durationOfTravel = other.durationOfTravel;
+		this.route = other.route;
+		this.vehicle = other.vehicle;
+		this.noRouteFound = other.noRouteFound;
+		this.startPlace = other.startPlace;
+		this.destinationPlace = other.destinationPlace;
+	}
+	
+	
 	public RouteParameter(Object route) {
 		this(route, null);
 	}
@@ -183,6 +215,53 @@ public abstract class RouteParameter {
 	public Object getVehicle() {
 		return vehicle;
 	}
+	
+	
+	/**
+	 * returns an estimate of the memory held by this route parameter (in units
+	 * of a routing step), used to limit the size of a RoutingCache
+	 * @return
+	 */
+	public int getWeight() {
+		return 1;
+	}
+
+	
+	/**
+	 * returns the ids of the nodes the route leads along or null if they
+	 * are not known
+	 * @return
+	 */
+	public long[] getNodeIds() {
+		return null;
+	}
+	
+	
+	/**
+	 * returns true if getPart() can tell the route parameters of parts of
+	 * this route
+	 * @return
+	 */
+	public boolean hasParts() {
+		return false;
+	}
+	
+	
+	/**
+	 * returns the route parameters of the part of this route from its node
+	 * with the first index to its node with the last index (see getNodeIds()).
+	 * If the first index is greater than the last one, the part is travelled
+	 * in reverse. Returns null if the part cannot be told or, in reverse, the
+	 * vehicle may not travel it. As parts of shortest routes are shortest
+	 * routes themselves, the part is the shortest route between its nodes (but
+	 * in reverse, a shorter route may lead along a oneway).
+	 * @param first
+	 * @param last
+	 * @return
+	 */
+	public RouteParameter getPart(int first, int last) {
+		return null;
+	}
 
 
 	@Override
@@ -230,6 +309,14 @@ public abstract class RouteParameter {
 	protected abstract void updateRouteParameter(Object route, Object vehicle);
 	
 	
+	/**
+	 * returns a copy of these route parameters, e.g. to hand out a cached route
+	 * with other start and destination places
+	 * @return
+	 */
+	public abstract RouteParameter copy();
+	
+	
 	/* static methods */
 	
 	/**
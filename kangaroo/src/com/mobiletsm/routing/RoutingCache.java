@@ -1,87 +1,543 @@
 package com.mobiletsm.routing;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 
+/**
+ * A cache of route parameters by start place, destination place and vehicle.
+ * Places that have been resolved to street nodes are told by their street nodes,
+ * so all places near the same street nodes share their routes (see Key).
+ *
+ * Routes are also indexed by the street nodes they lead along. A route between
+ * two street nodes that is not in the cache is taken from a cached route leading
+ * along both of them (as parts of shortest routes are shortest routes), or, if
+ * enabled by setReverseRoutes(), leading along both of them in reverse if none
+ * of its ways is a oneway for the vehicle (see RouteParameter.getPart()).
+ * The cache is bounded by a maximum number of routes and a maximum total weight
+ * of the routes (see RouteParameter.getWeight()), evicting the least recently
+ * used routes first. It counts hits, misses and evictions.
+ *
+ * The cache is safe to be used by several threads. Routes missing from the
+ * cache can be calculated by getElement() with a Callable; concurrent requests
+ * for the same route then share one calculation (and its result).
+ */
 public class RoutingCache {
 
-	
-	// TODO: handle route reversal
-	
-	
-	HashMap<Place, HashMap<Place, RouteParameter>> cache = 
-		new HashMap<Place, HashMap<Place, RouteParameter>>();
 
-	
-	public void clear() {
+	public static final int DEFAULT_MAX_ELEMENTS = 1000;
+
+
+	public static final int DEFAULT_MAX_WEIGHT = 100000;
+
+
+	private int maxElements;
+
+
+	private int maxWeight;
+
+
+	/* routes in order of access, least recently used first */
+	private LinkedHashMap<Key, RouteParameter> cache =
+		new LinkedHashMap<Key, RouteParameter>(16, 0.75f, true);
+
+
+	private int weight = 0;
+
+
+	/* routes by the street nodes they lead along */
+	private HashMap<Long, List<Occurrence>> routesByNode = new HashMap<Long, List<Occurrence>>();
+
+
+	/* true if routes may be taken from cached routes in reverse (off by default) */
+	private boolean reverseRoutes = false;
+
+
+	/* statistics */
+
+	private long hits = 0;
+
+	private long partHits = 0;
+
+	private long misses = 0;
+
+	private long evictions = 0;
+
+	private long joins = 0;
+
+
+	/* calculations of routes in progress */
+	private final ConcurrentHashMap<Key, FutureTask<RouteParameter>> calculations =
+		new ConcurrentHashMap<Key, FutureTask<RouteParameter>>();
+
+
+	public RoutingCache() {
+		this(DEFAULT_MAX_ELEMENTS, DEFAULT_MAX_WEIGHT);
+	}
+
+
+	public RoutingCache(int maxElements, int maxWeight) {
+		super();
+		this.maxElements = maxElements;
+		this.maxWeight = maxWeight;
+	}
+
+
+	public synchronized void clear() {
 		cache.clear();
+		routesByNode.clear();
+		weight = 0;
 	}
-	
-	
+
+
 	/**
 	 * return the number of routes in this routing cache
 	 * @return
 	 */
-	public int size() {
-		int result = 0;
-		for (Entry<Place, HashMap<Place, RouteParameter>> entry : cache.entrySet()) {
-			for (Entry<Place, RouteParameter> entry2 : entry.getValue().entrySet()) {
-				result++;
+	public synchronized int size() {
+		return cache.size();
+	}
+
+
+	/**
+	 * return the total weight of the routes in this routing cache
+	 * @return
+	 */
+	public synchronized int getWeight() {
+		return weight;
+	}
+
+
+	public synchronized int getMaxElements() {
+		return maxElements;
+	}
+
+
+	public synchronized int getMaxWeight() {
+		return maxWeight;
+	}
+
+
+	/**
+	 * set the maximum number of routes and the maximum total weight of the
+	 * routes, evicting routes if the routing cache exceeds them
+	 * @param maxElements
+	 * @param maxWeight
+	 */
+	public synchronized void setLimits(int maxElements, int maxWeight) {
+		this.maxElements = maxElements;
+		this.maxWeight = maxWeight;
+		evict();
+	}
+
+
+	/**
+	 * return the number of successful look ups
+	 * @return
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+
+	/**
+	 * return the number of successful look ups that have found a part of a
+	 * cached route (or a cached route in reverse)
+	 * @return
+	 */
+	public synchronized long getPartHits() {
+		return partHits;
+	}
+
+
+	/**
+	 * return the number of look ups that did not find a route
+	 * @return
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+
+	/**
+	 * return the number of routes removed to stay within the limits
+	 * @return
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+
+	/**
+	 * return the number of requests that have waited for the calculation of
+	 * the same route by another thread
+	 * @return
+	 */
+	public synchronized long getJoins() {
+		return joins;
+	}
+
+
+	/**
+	 * set whether routes may be taken from cached routes in reverse (false by
+	 * default). Such a route may be longer than the shortest route, if the
+	 * latter leads along a oneway the cached route does not.
+	 * @param reverseRoutes
+	 */
+	public synchronized void setReverseRoutes(boolean reverseRoutes) {
+		this.reverseRoutes = reverseRoutes;
+	}
+
+
+	public synchronized boolean getReverseRoutes() {
+		return reverseRoutes;
+	}
+
+
+	public synchronized void resetStatistics() {
+		hits = 0;
+		partHits = 0;
+		misses = 0;
+		evictions = 0;
+		joins = 0;
+	}
+
+
+	public synchronized boolean hasElement(Place from, Place to, Object vehicle) {
+		return cache.containsKey(new Key(from, to, vehicle));
+	}
+
+
+	/**
+	 * return the route from the cache or null if it is not in the cache. As a
+	 * route is shared by all places near the same street nodes, a copy of it
+	 * with the given places as start and destination is returned.
+	 * @param from
+	 * @param to
+	 * @param vehicle
+	 * @return
+	 */
+	public synchronized RouteParameter getElement(Place from, Place to, Object vehicle) {
+		Key key = new Key(from, to, vehicle);
+		RouteParameter route = cache.get(key);
+		if (route != null) {
+			route = withPlaces(route, from, to);
+		} else {
+			route = getPart(key);
+			if (route != null) {
+				route.setStartPlace(from);
+				route.setDestinationPlace(to);
+				partHits++;
 			}
 		}
-		return result;
+		if (route != null) {
+			hits++;
+		} else {
+			misses++;
+		}
+		return route;
 	}
-	
-	
-	public boolean hasElement(Place from, Place to, Object vehicle) {
-		return getElement(from, to, vehicle) != null;
+
+
+	/**
+	 * returns a copy of the given route with the given places as start and destination
+	 */
+	private static RouteParameter withPlaces(RouteParameter route, Place from, Place to) {
+		RouteParameter copy = route.copy();
+		copy.setStartPlace(from);
+		copy.setDestinationPlace(to);
+		return copy;
 	}
 	
 	
-	public RouteParameter getElement(Place from, Place to, Object vehicle) {
-		HashMap<Place, RouteParameter> map = cache.get(from);
-		if (map != null) {
-			RouteParameter route = map.get(to);
-			if (route != null) {
-				Object routeVehicle = route.getVehicle();
-				if (routeVehicle.equals(vehicle)) {
-					return route;
-				} else {
-					return null;
+	/**
+	 * return the part of a cached route leading along the street nodes of the
+	 * given key or null if there is no such route
+	 */
+	private RouteParameter getPart(Key key) {
+		if (!(key.from instanceof Long) || !(key.to instanceof Long) || key.from.equals(key.to)) {
+			return null;
+		}
+		List<Occurrence> occurrences = routesByNode.get(key.from);
+		if (occurrences == null) {
+			return null;
+		}
+		long toNodeId = ((Long)key.to).longValue();
+		for (Occurrence occurrence : occurrences) {
+			if (!key.hasVehicle(occurrence.key.vehicle)) {
+				continue;
+			}
+			/* the route is not read from the cache, so only the route used is
+			 * moved to the end of the access order */
+			RouteParameter route = occurrence.route;
+			long[] nodeIds = route.getNodeIds();
+			for (int i = 0; i < nodeIds.length; i++) {
+				if (nodeIds[i] == toNodeId) {
+					if (i < occurrence.position && !reverseRoutes) {
+						break;
+					}
+					RouteParameter part = route.getPart(occurrence.position, i);
+					if (part != null) {
+						cache.get(occurrence.key);
+						return part;
+					}
+					break;
 				}
-			} else { 
-				return null;
 			}
-		} else {
-			return null;
 		}
+		return null;
 	}
-	
-	
-	/* TODO: implement an algorithm to limit the number of elements */
-	
-	public void putElement(RouteParameter route) {		
+
+
+	/**
+	 * return the route from the cache or calculate it by the given calculation
+	 * and put it into the cache. If the same route is being calculated by another
+	 * thread, wait for its result instead of calculating it once more (and return
+	 * a copy of it with the given places, like routes found in the cache).
+	 * @param from
+	 * @param to
+	 * @param vehicle
+	 * @param calculation
+	 * @return
+	 */
+	public RouteParameter getElement(Place from, Place to, Object vehicle, Callable<RouteParameter> calculation) {
+		RouteParameter route = getElement(from, to, vehicle);
+		if (route != null) {
+			return route;
+		}
+
+		Key key = new Key(from, to, vehicle);
+		FutureTask<RouteParameter> task = new FutureTask<RouteParameter>(calculation);
+		FutureTask<RouteParameter> running = calculations.putIfAbsent(key, task);
+		if (running == null) {
+			try {
+				/* the route may have been put into the cache in the meantime */
+				synchronized (this) {
+					route = cache.get(key);
+				}
+				if (route != null) {
+					return withPlaces(route, from, to);
+				}
+				task.run();
+				route = getResult(task);
+				if (route != null) {
+					/* under the places as requested, as the calculation may update them */
+					put(key, route);
+				}
+				return route;
+			} finally {
+				calculations.remove(key, task);
+			}
+		}
+
+		synchronized (this) {
+			joins++;
+		}
+		route = getResult(running);
+		return route == null ? null : withPlaces(route, from, to);
+	}
+
+
+	private static RouteParameter getResult(FutureTask<RouteParameter> task) {
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("RoutingCache.getResult(): interrupted while waiting for route");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException)cause;
+			} else if (cause instanceof Error) {
+				throw (Error)cause;
+			}
+			throw new RuntimeException("RoutingCache.getResult(): " + cause);
+		}
+	}
+
+
+	public synchronized void putElement(RouteParameter route) {
 		/* check if route parameters specify start and destination places */
 		if (route.getStartPlace() == null || route.getDestinationPlace() == null) {
 			throw new RuntimeException("RoutingCache.putElement(): no start and/or destination place given");
-		}		
-		
+		}
+
 		/* check if route parameters specify a vehicle */
 		if (route.getVehicle() == null) {
 			throw new RuntimeException("RoutingCache.putElement(): no vehicle given");
 		}
-		
-		HashMap<Place, RouteParameter> map = cache.get(route.getStartPlace());
-		
-		if (map != null) {
-			map.put(route.getDestinationPlace(), route);			
-		} else {
-			map = new HashMap<Place, RouteParameter>();
-			map.put(route.getDestinationPlace(), route);
-			cache.put(route.getStartPlace(), map);
+
+		put(new Key(route.getStartPlace(), route.getDestinationPlace(), route.getVehicle()), route);
+	}
+
+
+	private synchronized void put(Key key, RouteParameter route) {
+		/* routes that would not fit into an empty cache are not cached at all */
+		int routeWeight = route.getWeight();
+		if (routeWeight > maxWeight || maxElements < 1) {
+			return;
+		}
+
+		RouteParameter previous = cache.put(key, route);
+		if (previous != null) {
+			weight -= previous.getWeight();
+			unindex(key, previous);
 		}
+		weight += routeWeight;
+		index(key, route);
+		evict();
 	}
-	
-	
+
+
+	private void index(Key key, RouteParameter route) {
+		long[] nodeIds = route.getNodeIds();
+		if (nodeIds == null || !route.hasParts()) {
+			return;
+		}
+		for (int i = 0; i < nodeIds.length; i++) {
+			List<Occurrence> occurrences = routesByNode.get(nodeIds[i]);
+			if (occurrences == null) {
+				occurrences = new ArrayList<Occurrence>(2);
+				routesByNode.put(nodeIds[i], occurrences);
+			}
+			occurrences.add(new Occurrence(key, route, i));
+		}
+	}
+
+
+	private void unindex(Key key, RouteParameter route) {
+		long[] nodeIds = route.getNodeIds();
+		if (nodeIds == null || !route.hasParts()) {
+			return;
+		}
+		for (int i = 0; i < nodeIds.length; i++) {
+			List<Occurrence> occurrences = routesByNode.get(nodeIds[i]);
+			if (occurrences == null) {
+				continue;
+			}
+			Iterator<Occurrence> iterator = occurrences.iterator();
+			while (iterator.hasNext()) {
+				if (iterator.next().key.equals(key)) {
+					iterator.remove();
+				}
+			}
+			if (occurrences.isEmpty()) {
+				routesByNode.remove(nodeIds[i]);
+			}
+		}
+	}
+
+
+	/**
+	 * remove the least recently used routes until the cache is within its limits
+	 */
+	private void evict() {
+		Iterator<Entry<Key, RouteParameter>> entries = cache.entrySet().iterator();
+		while ((cache.size() > maxElements || weight > maxWeight) && entries.hasNext()) {
+			Entry<Key, RouteParameter> entry = entries.next();
+			weight -= entry.getValue().getWeight();
+			unindex(entry.getKey(), entry.getValue());
+			entries.remove();
+			evictions++;
+		}
+	}
+
+
+	@Override
+	public synchronized String toString() {
+		return "RoutingCache: " + cache.size() + " routes (weight " + weight + "), " + hits + " hits ("
+				+ partHits + " by parts of routes), " + misses + " misses, " + evictions + " evictions, " + joins + " joins";
+	}
+
+
+	/**
+	 * start, destination and vehicle of a route. Start and destination are the
+	 * ids of the street nodes the places are or have been resolved to, or copies
+	 * of the places if they have not been resolved (places change their hash
+	 * codes when their nearest street nodes are set).
+	 */
+	private static final class Key {
+
+		private final Object from;
+
+		private final Object to;
+
+		private final Object vehicle;
+
+		private final int hash;
+
+
+		private Key(Place from, Place to, Object vehicle) {
+			this.from = getEndpoint(from);
+			this.to = getEndpoint(to);
+			this.vehicle = vehicle;
+			int hash = 31 * this.from.hashCode() + this.to.hashCode();
+			this.hash = 31 * hash + (vehicle == null ? 0 : vehicle.hashCode());
+		}
+
+
+		@Override
+		public boolean equals(Object object) {
+			if (!(object instanceof Key)) {
+				return false;
+			}
+			Key key = (Key)object;
+			return from.equals(key.from) && to.equals(key.to) && hasVehicle(key.vehicle);
+		}
+
+
+		private boolean hasVehicle(Object vehicle) {
+			return this.vehicle == null ? vehicle == null : this.vehicle.equals(vehicle);
+		}
+
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+
+		private static Object getEndpoint(Place place) {
+			if (place.isOsmStreetNode()) {
+				return Long.valueOf(place.getOsmNodeId());
+			}
+			if (place.hasNearestOsmStreetNode()) {
+				return Long.valueOf(place.getNearestOsmStreetNodeId());
+			}
+			return new Place(place);
+		}
+
+	}
+
+
+	/**
+	 * a route leading along a street node (by its key in the cache) and the
+	 * index of the street node in the route
+	 */
+	private static final class Occurrence {
+
+		private final Key key;
+
+		private final RouteParameter route;
+
+		private final int position;
+
+
+		private Occurrence(Key key, RouteParameter route, int position) {
+			this.key = key;
+			this.route = route;
+			this.position = position;
+		}
+
+	}
+
+
 }
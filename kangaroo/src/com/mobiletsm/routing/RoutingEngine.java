@@ -1,5 +1,8 @@
 package com.mobiletsm.routing;
 
+import java.util.Collection;
+import java.util.List;
+
 
 /**
  * This interface defines the routing api used to perform routing and
@@ -62,14 +65,90 @@ public interface RoutingEngine {
 	 * @return
 	 */
 	public RouteParameter routeFromTo(Place from, Place to, Object vehicle);
-		
+
+
+	/**
+	 * find the routes from each of the given sources to each of the given targets
+	 * using the specified vehicle. Like routeFromTo(), places are updated to their
+	 * nearest street nodes.
+	 * @param sources
+	 * @param targets
+	 * @param vehicle
+	 * @return the route parameters, indexed by source and target
+	 */
+	public RouteMatrix routeMatrix(List<Place> sources, List<Place> targets, Object vehicle);
+
+
+	/**
+	 * tell the routing engine that the following routes will mostly lead from
+	 * changing places to the given destination (e.g. the place of the next event)
+	 * using the specified vehicle, so it may prepare for them. A destination of
+	 * null tells that there is no such destination anymore.
+	 * @param destination
+	 * @param vehicle
+	 */
+	public void setActiveDestination(Place destination, Object vehicle);
+
+
+	/**
+	 * find the street nodes that can be reached from the given place within the
+	 * given duration of travel (in minutes) using the specified vehicle.
+	 * @param from
+	 * @param vehicle
+	 * @param maxMinutes
+	 * @return the reachable street nodes or null if the place could not be
+	 * resolved to a street node or the engine does not compute reachable sets
+	 * (callers then have to treat every place as reachable)
+	 */
+	public ReachableSet reachable(Place from, Object vehicle, double maxMinutes);
+
 	
 	public Place getNearestPOINode(Place center, Object selector, GeoConstraints limits);
+
+	
+	/**
+	 * find the route from the given place to the POI node allowed by the given
+	 * selector that is nearest by route using the specified vehicle. Like
+	 * routeFromTo(), the place is updated to its nearest street node.
+	 * @param from
+	 * @param selector
+	 * @param vehicle
+	 * @return the route parameter, whose destination place is the POI node, or
+	 * null if no such POI node can be reached
+	 */
+	public RouteParameter routeToNearestPOINode(Place from, Object selector, Object vehicle);
+
+	
+	/**
+	 * find the POI node allowed by the given selector that is the smallest detour
+	 * on the way between the two given places, i.e. the one minimizing the length
+	 * of the route from from to it plus the length of the route from it to to,
+	 * using the specified vehicle. Like routeFromTo(), places are updated to their
+	 * nearest street nodes.
+	 * @param from
+	 * @param to
+	 * @param selector
+	 * @param vehicle
+	 * @return the route parameters of both routes (the destination place of the 
+	 * first one and the start place of the second one is the POI node) or null if
+	 * there is no route via any such POI node
+	 */
+	public RouteParameter[] routeViaPOINode(Place from, Place to, Object selector, Object vehicle);
 		
 	
 	public Place getNearestStreetNode(Place center);
 	
 	
+	/**
+	 * update all given places to their nearest street nodes at once (as routeFromTo()
+	 * does for its places), so routes between them need not search for street nodes
+	 * one by one anymore
+	 * @param places
+	 * @return the number of places that are or have been updated to a street node
+	 */
+	public int snapAll(Collection<Place> places);
+	
+	
 	public void enableRoutingCache();
 	
 	
@@ -137,6 +137,17 @@ public abstract class Vehicle implements IVehicle {
 	}
 	
 	
+	/**
+	 * vehicles are equal if they are of the same kind and have the same maximum
+	 * speed, so this is the hash code of both
+	 */
+	@Override
+	public int hashCode() {
+		long bits = Double.doubleToLongBits(getMaxSpeed());
+		return 31 * getClass().getName().hashCode() + (int)(bits ^ (bits >>> 32));
+	}
+	
+	
 	/* methods to be implemented by a vehicle */
 	
 	public abstract boolean equals(Object object);
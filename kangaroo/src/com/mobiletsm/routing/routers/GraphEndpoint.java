@@ -0,0 +1,286 @@
+package com.mobiletsm.routing.routers;
+
+import java.util.Iterator;
+import java.util.List;
+
+import org.openstreetmap.osm.data.IDataSet;
+import org.openstreetmap.osmosis.core.domain.v0_6.Node;
+import org.openstreetmap.osmosis.core.domain.v0_6.Way;
+import org.openstreetmap.osmosis.core.domain.v0_6.WayNode;
+import org.openstreetmap.travelingsalesman.routing.IVehicle;
+import org.openstreetmap.travelingsalesman.routing.Route.RoutingStep;
+import org.openstreetmap.travelingsalesman.routing.metrics.IRoutingMetric;
+
+import com.mobiletsm.osm.data.RoutingGraph;
+import com.mobiletsm.osmosis.core.domain.v0_6.MobileWayNode;
+
+
+/**
+ * Connects a street node to a {@link RoutingGraph}. A street node that is
+ * part of the graph is connected to itself, an intermediate street node
+ * (which is not part of the graph built from reduced ways) is connected to
+ * the nearest graph nodes along its complete way(s) in both directions, as
+ * far as the vehicle may go in that direction.
+ */
+public class GraphEndpoint {
+
+
+	static final int MAX_CONNECTIONS = 8;
+
+
+	private Node node;
+
+
+	private boolean leaving;
+
+
+	private int size = 0;
+
+
+	private int[] graphNodes = new int[MAX_CONNECTIONS];
+
+
+	private double[] costs = new double[MAX_CONNECTIONS];
+
+
+	private Way[] ways = new Way[MAX_CONNECTIONS];
+
+
+	/* direct connection to another endpoint's node without passing a graph node */
+
+	private double directCost = Double.POSITIVE_INFINITY;
+
+	private Way directWay = null;
+
+
+	private GraphEndpoint(Node node, boolean leaving) {
+		this.node = node;
+		this.leaving = leaving;
+	}
+
+
+	/**
+	 * connect the given node to the graph. If leaving is true, the costs are
+	 * those of travelling from the node to the graph nodes, otherwise those of
+	 * travelling from the graph nodes to the node. If otherNode is not null and
+	 * can be reached directly along a way without passing a graph node, this
+	 * is available as direct connection.
+	 * @param map map providing the complete ways of intermediate nodes
+	 * @param graph
+	 * @param node
+	 * @param vehicle
+	 * @param leaving
+	 * @param otherNode (may be null)
+	 * @return
+	 */
+	public static GraphEndpoint create(IDataSet map, RoutingGraph graph, Node node, IVehicle vehicle,
+			boolean leaving, Node otherNode) {
+		GraphEndpoint endpoint = new GraphEndpoint(node, leaving);
+
+		int index = graph.getNodeIndex(node.getId());
+		if (index != -1) {
+			endpoint.add(index, 0, null);
+			return endpoint;
+		}
+
+		long otherNodeId = (otherNode != null) ? otherNode.getId() : -1;
+		Iterator<Way> waysForNode = map.getWaysForNode(node.getId());
+		while (waysForNode != null && waysForNode.hasNext()) {
+			Way way = waysForNode.next();
+			if (!vehicle.isAllowed(map, way)) {
+				continue;
+			}
+			/* travelling along the way in its own direction (leaving the node
+			 * towards higher indices or arriving from lower indices) */
+			if (!vehicle.isReverseOneway(map, way)) {
+				endpoint.walk(graph, way, leaving, otherNodeId);
+			}
+			/* travelling against the direction of the way */
+			if (!vehicle.isOneway(map, way)) {
+				endpoint.walk(graph, way, !leaving, otherNodeId);
+			}
+		}
+		return endpoint;
+	}
+
+
+	/**
+	 * walk along the way from the node towards higher (up = true) or lower
+	 * indices until a graph node (or the other node) is reached
+	 */
+	private void walk(RoutingGraph graph, Way way, boolean up, long otherNodeId) {
+		List<WayNode> wayNodes = way.getWayNodes();
+		int size = wayNodes.size();
+		boolean closed = size > 2 && wayNodes.get(0).getNodeId() == wayNodes.get(size - 1).getNodeId();
+
+		int start = -1;
+		for (int i = 0; i < size; i++) {
+			if (wayNodes.get(i).getNodeId() == node.getId()) {
+				start = i;
+				break;
+			}
+		}
+		if (start == -1) {
+			return;
+		}
+
+		double cost = 0;
+		int i = start;
+		for (int steps = 0; steps < size; steps++) {
+			if (up) {
+				if (++i == size) {
+					if (!closed) {
+						return;
+					}
+					i = 1;
+				}
+				cost += getDistanceToPredecessor(wayNodes.get(i));
+			} else {
+				if (i == 0) {
+					if (!closed) {
+						return;
+					}
+					i = size - 1;
+				}
+				cost += getDistanceToPredecessor(wayNodes.get(i));
+				i--;
+			}
+			long nodeId = wayNodes.get(i).getNodeId();
+			if (nodeId == node.getId()) {
+				return;
+			}
+			if (nodeId == otherNodeId) {
+				if (cost < directCost) {
+					directCost = cost;
+					directWay = way;
+				}
+				return;
+			}
+			int index = graph.getNodeIndex(nodeId);
+			if (index != -1) {
+				add(index, cost, way);
+				return;
+			}
+		}
+	}
+
+
+	private static double getDistanceToPredecessor(WayNode wayNode) {
+		if (wayNode instanceof MobileWayNode) {
+			return ((MobileWayNode)wayNode).getDistanceToPredecessor();
+		} else {
+			return 0;
+		}
+	}
+
+
+	private void add(int graphNode, double cost, Way way) {
+		for (int i = 0; i < size; i++) {
+			if (graphNodes[i] == graphNode) {
+				if (cost < costs[i]) {
+					costs[i] = cost;
+					ways[i] = way;
+				}
+				return;
+			}
+		}
+		if (size < MAX_CONNECTIONS) {
+			graphNodes[size] = graphNode;
+			costs[size] = cost;
+			ways[size] = way;
+			size++;
+		}
+	}
+
+
+	public Node getNode() {
+		return node;
+	}
+
+
+	/**
+	 * returns true if the costs are those of leaving the node
+	 * @return
+	 */
+	public boolean isLeaving() {
+		return leaving;
+	}
+
+
+	/**
+	 * returns the number of graph nodes this endpoint is connected to
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+
+
+	public int getGraphNode(int i) {
+		return graphNodes[i];
+	}
+
+
+	public double getCost(int i) {
+		return costs[i];
+	}
+
+
+	/**
+	 * returns the cost of the i-th connection according to the given metric
+	 * (the length if metric is null)
+	 * @param i
+	 * @param map
+	 * @param graph
+	 * @param metric (may be null)
+	 * @return
+	 */
+	public double getCost(int i, IDataSet map, RoutingGraph graph, IRoutingMetric metric) {
+		if (metric == null || ways[i] == null) {
+			return costs[i];
+		}
+		Node graphNode = map.getNodeByID(graph.getNodeId(graphNodes[i]));
+		if (leaving) {
+			return metric.getCost(new RoutingStep(map, node, graphNode, ways[i]));
+		} else {
+			return metric.getCost(new RoutingStep(map, graphNode, node, ways[i]));
+		}
+	}
+
+
+	/**
+	 * returns the way connecting the node to the i-th graph node or null
+	 * if the node is a graph node itself
+	 * @param i
+	 * @return
+	 */
+	public Way getWay(int i) {
+		return ways[i];
+	}
+
+
+	/**
+	 * returns the position of the given graph node in this endpoint or -1
+	 * @param graphNode
+	 * @return
+	 */
+	public int indexOf(int graphNode) {
+		for (int i = 0; i < size; i++) {
+			if (graphNodes[i] == graphNode) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+
+	public double getDirectCost() {
+		return directCost;
+	}
+
+
+	public Way getDirectWay() {
+		return directWay;
+	}
+
+}
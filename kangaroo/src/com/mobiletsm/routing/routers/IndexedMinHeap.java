@@ -0,0 +1,212 @@
+package com.mobiletsm.routing.routers;
+
+import java.util.Arrays;
+
+
+/**
+ * An indexed 4-ary min-heap over dense int items (e.g. node indices) with
+ * double keys. In contrast to a TreeSet ordered by a comparator, the heap
+ * supports decrease-key in O(log n) without removing and re-inserting an
+ * element and does not allocate anything per operation.
+ */
+public class IndexedMinHeap {
+
+
+	private static final int ARITY = 4;
+
+
+	/* heap position -> item */
+	private int[] heap;
+
+
+	/* item -> heap position (-1 if item is not in the heap) */
+	private int[] position;
+
+
+	/* item -> key */
+	private double[] keys;
+
+
+	private int size = 0;
+
+
+	public IndexedMinHeap(int capacity) {
+		if (capacity < 1) {
+			capacity = 1;
+		}
+		heap = new int[capacity];
+		position = new int[capacity];
+		keys = new double[capacity];
+		Arrays.fill(position, -1);
+	}
+
+
+	/**
+	 * make sure items up to (excluding) the given capacity can be stored
+	 * @param capacity
+	 */
+	public void ensureCapacity(int capacity) {
+		if (capacity > position.length) {
+			int newCapacity = Math.max(capacity, 2 * position.length);
+			int oldCapacity = position.length;
+			int[] newHeap = new int[newCapacity];
+			int[] newPosition = new int[newCapacity];
+			double[] newKeys = new double[newCapacity];
+			System.arraycopy(heap, 0, newHeap, 0, size);
+			System.arraycopy(position, 0, newPosition, 0, oldCapacity);
+			System.arraycopy(keys, 0, newKeys, 0, oldCapacity);
+			Arrays.fill(newPosition, oldCapacity, newCapacity, -1);
+			heap = newHeap;
+			position = newPosition;
+			keys = newKeys;
+		}
+	}
+
+
+	public int capacity() {
+		return position.length;
+	}
+
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+
+	public int size() {
+		return size;
+	}
+
+
+	public boolean contains(int item) {
+		return position[item] != -1;
+	}
+
+
+	public double getKey(int item) {
+		return keys[item];
+	}
+
+
+	/**
+	 * insert the given item with the given key or decrease its key if the
+	 * item is already in the heap and the new key is smaller. Returns true
+	 * if the heap has been modified.
+	 * @param item
+	 * @param key
+	 * @return
+	 */
+	public boolean insertOrDecrease(int item, double key) {
+		int pos = position[item];
+		if (pos == -1) {
+			keys[item] = key;
+			pos = size++;
+			heap[pos] = item;
+			position[item] = pos;
+			siftUp(pos);
+			return true;
+		} else if (key < keys[item]) {
+			keys[item] = key;
+			siftUp(pos);
+			return true;
+		}
+		return false;
+	}
+
+
+	/**
+	 * returns the smallest key in the heap (the heap must not be empty)
+	 * @return
+	 */
+	public double peekKey() {
+		return keys[heap[0]];
+	}
+
+
+	/**
+	 * returns the item with the smallest key in the heap (the heap must not be empty)
+	 * @return
+	 */
+	public int peek() {
+		return heap[0];
+	}
+
+
+	/**
+	 * removes and returns the item with the smallest key (the heap must not be empty)
+	 * @return
+	 */
+	public int poll() {
+		int top = heap[0];
+		position[top] = -1;
+		size--;
+		if (size > 0) {
+			int last = heap[size];
+			heap[0] = last;
+			position[last] = 0;
+			siftDown(0);
+		}
+		return top;
+	}
+
+
+	/**
+	 * remove all items from the heap in O(size)
+	 */
+	public void clear() {
+		for (int i = 0; i < size; i++) {
+			position[heap[i]] = -1;
+		}
+		size = 0;
+	}
+
+
+	private void siftUp(int pos) {
+		int item = heap[pos];
+		double key = keys[item];
+		while (pos > 0) {
+			int parentPos = (pos - 1) / ARITY;
+			int parent = heap[parentPos];
+			if (keys[parent] <= key) {
+				break;
+			}
+			heap[pos] = parent;
+			position[parent] = pos;
+			pos = parentPos;
+		}
+		heap[pos] = item;
+		position[item] = pos;
+	}
+
+
+	private void siftDown(int pos) {
+		int item = heap[pos];
+		double key = keys[item];
+		while (true) {
+			int firstChild = ARITY * pos + 1;
+			if (firstChild >= size) {
+				break;
+			}
+			int lastChild = Math.min(firstChild + ARITY, size);
+			int minPos = firstChild;
+			double minKey = keys[heap[firstChild]];
+			for (int child = firstChild + 1; child < lastChild; child++) {
+				double childKey = keys[heap[child]];
+				if (childKey < minKey) {
+					minKey = childKey;
+					minPos = child;
+				}
+			}
+			if (minKey >= key) {
+				break;
+			}
+			int minItem = heap[minPos];
+			heap[pos] = minItem;
+			position[minItem] = pos;
+			pos = minPos;
+		}
+		heap[pos] = item;
+		position[item] = pos;
+	}
+
+}
@@ -0,0 +1,306 @@
+package com.mobiletsm.routing.routers;
+
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.openstreetmap.osm.ConfigurationSection;
+import org.openstreetmap.osm.data.IDataSet;
+import org.openstreetmap.osmosis.core.domain.v0_6.Node;
+import org.openstreetmap.osmosis.core.domain.v0_6.Way;
+import org.openstreetmap.travelingsalesman.routing.IProgressListener;
+import org.openstreetmap.travelingsalesman.routing.IRouter;
+import org.openstreetmap.travelingsalesman.routing.IVehicle;
+import org.openstreetmap.travelingsalesman.routing.Route;
+import org.openstreetmap.travelingsalesman.routing.Route.RoutingStep;
+import org.openstreetmap.travelingsalesman.routing.metrics.IRoutingMetric;
+import org.openstreetmap.travelingsalesman.routing.metrics.ShortestRouteMetric;
+
+import com.mobiletsm.osm.data.LandmarkTable;
+import com.mobiletsm.osm.data.MobileRoutingInterfaceDataSet;
+import com.mobiletsm.osm.data.RoutingGraph;
+import com.mobiletsm.routing.metrics.MobileRoutingMetric;
+
+
+/**
+ * A bidirectional A* router using the landmark distances ({@link LandmarkTable})
+ * provided by a {@link MobileRoutingInterfaceDataSet} to guide the search
+ * (ALT). The forward search from the starting point and the backward search
+ * from the destination use the average of the lower bounds to the destination
+ * and from the starting point as potentials, so the search can stop as soon
+ * as the smallest keys of both searches add up to the best path found so far.
+ *
+ * With a {@link MobileRoutingMetric} the edge costs are the lengths stored in
+ * the graph. Any other metric is asked for the costs of the edges (turn costs
+ * are not taken into account) and the lower bounds are scaled by the smallest
+ * ratio between cost and length of an edge.
+ *
+ * If there is no landmark table or the vehicle may use ways (or directions) the
+ * landmark distances have not been computed for, routing is delegated to a
+ * {@link MobileGraphDijkstraRouter}.
+ */
+public class MobileALTRouter implements IRouter {
+
+
+	/**
+	 * subtracted from every lower bound to make up for the rounding of the
+	 * landmark distances
+	 */
+	private static final double LOWER_BOUND_TOLERANCE = 0.1;
+
+
+	private static final Logger LOG = Logger.getLogger(MobileALTRouter.class.getName());
+
+
+	private IRoutingMetric myMetric = new ShortestRouteMetric();
+
+
+	private MobileGraphDijkstraRouter fallbackRouter = new MobileGraphDijkstraRouter();
+
+
+	public ConfigurationSection getSettings() {
+		return null;
+	}
+
+
+	public void addProgressListener(final IProgressListener aListener) {
+		fallbackRouter.addProgressListener(aListener);
+	}
+
+
+	public IRoutingMetric getMetric() {
+		return myMetric;
+	}
+
+
+	public void setMetric(final IRoutingMetric aMetric) {
+		myMetric = aMetric;
+		fallbackRouter.setMetric(aMetric);
+	}
+
+
+	public Route route(final IDataSet aMap, final Way targetWay, final Node startNode, final IVehicle selector) {
+		return fallbackRouter.route(aMap, targetWay, startNode, selector);
+	}
+
+
+	public Route route(final IDataSet aMap, final Collection<Node> aTargetNodes, final Node aStartingPoint,
+			final IVehicle aSelector) {
+		if (aTargetNodes.size() == 1) {
+			return route(aMap, aTargetNodes.iterator().next(), aStartingPoint, aSelector);
+		}
+		return fallbackRouter.route(aMap, aTargetNodes, aStartingPoint, aSelector);
+	}
+
+
+	public Route route(final IDataSet aMap, final Node aTargetNode, final Node aStartNode, final IVehicle aSelector) {
+
+		LandmarkTable landmarks = null;
+		if (aMap instanceof MobileRoutingInterfaceDataSet) {
+			landmarks = ((MobileRoutingInterfaceDataSet)aMap).getLandmarkTable();
+		}
+		if (landmarks == null) {
+			return fallbackRouter.route(aMap, aTargetNode, aStartNode, aSelector);
+		}
+
+		RoutingGraph graph = landmarks.getGraph();
+		byte[] access = graph.getWayAccess(aMap, aSelector);
+		if (!landmarks.isValidFor(access)) {
+			return fallbackRouter.route(aMap, aTargetNode, aStartNode, aSelector);
+		}
+
+		if (aStartNode.getId() == aTargetNode.getId()) {
+			return null;
+		}
+
+		LOG.log(Level.INFO, "MobileALTRouter starting...");
+
+		/* edge costs and the factor turning lengths into costs */
+		myMetric.setMap(aMap);
+		boolean useLengths = myMetric instanceof MobileRoutingMetric;
+		double[] costs = null;
+		double costPerLength = 1;
+		if (!useLengths) {
+			costs = graph.getEdgeCosts(aMap, myMetric);
+			costPerLength = graph.getMinimumCostPerLength(aMap, myMetric);
+		}
+
+		GraphEndpoint source = GraphEndpoint.create(aMap, graph, aStartNode, aSelector, true, aTargetNode);
+		GraphEndpoint destination = GraphEndpoint.create(aMap, graph, aTargetNode, aSelector, false, null);
+		double[] sourceCosts = new double[source.size()];
+		for (int i = 0; i < source.size(); i++) {
+			sourceCosts[i] = source.getCost(i, aMap, graph, useLengths ? null : myMetric);
+		}
+		double[] destinationCosts = new double[destination.size()];
+		for (int i = 0; i < destination.size(); i++) {
+			destinationCosts[i] = destination.getCost(i, aMap, graph, useLengths ? null : myMetric);
+		}
+
+		/* the potentials are stored as values of the forward search */
+		SearchWorkspace workspace = SearchWorkspace.get(graph.getNodeCount());
+		SearchWorkspace.Search forwardSearch = workspace.forward;
+		SearchWorkspace.Search backwardSearch = workspace.backward;
+		IndexedMinHeap forwardHeap = forwardSearch.heap;
+		IndexedMinHeap backwardHeap = backwardSearch.heap;
+
+		double bestDistance = Double.POSITIVE_INFINITY;
+		if (source.getDirectWay() != null) {
+			bestDistance = useLengths ? source.getDirectCost() : myMetric.getCost(
+					new RoutingStep(aMap, aStartNode, aTargetNode, source.getDirectWay()));
+		}
+		int meetingNode = -1;
+
+		/* start at the graph nodes connected to start and destination (a parent
+		 * of -1 - i marks the i-th connection of the endpoint) */
+		for (int i = 0; i < source.size(); i++) {
+			int v = source.getGraphNode(i);
+			if (sourceCosts[i] < forwardSearch.getDistance(v)) {
+				forwardSearch.reach(v, sourceCosts[i], -1 - i, -1);
+				forwardHeap.insertOrDecrease(v, sourceCosts[i] + getPotential(forwardSearch, landmarks, v,
+						source, sourceCosts, destination, destinationCosts, costPerLength));
+			}
+		}
+		for (int i = 0; i < destination.size(); i++) {
+			int v = destination.getGraphNode(i);
+			if (destinationCosts[i] < backwardSearch.getDistance(v)) {
+				backwardSearch.reach(v, destinationCosts[i], -1 - i, -1);
+				backwardHeap.insertOrDecrease(v, destinationCosts[i] - getPotential(forwardSearch, landmarks, v,
+						source, sourceCosts, destination, destinationCosts, costPerLength));
+				if (forwardSearch.getDistance(v) + destinationCosts[i] < bestDistance) {
+					bestDistance = forwardSearch.getDistance(v) + destinationCosts[i];
+					meetingNode = v;
+				}
+			}
+		}
+
+		while (!forwardHeap.isEmpty() && !backwardHeap.isEmpty()
+				&& forwardHeap.peekKey() + backwardHeap.peekKey() < bestDistance) {
+
+			if (forwardHeap.peekKey() <= backwardHeap.peekKey()) {
+				int u = forwardHeap.poll();
+				double distance = forwardSearch.getDistance(u);
+				int lastEdge = graph.getFirstEdge(u + 1);
+				for (int e = graph.getFirstEdge(u); e < lastEdge; e++) {
+					/* we are going FROM u TO w */
+					if (!graph.isEdgeAllowed(e, access)) {
+						continue;
+					}
+					int w = graph.getEdgeTarget(e);
+					double newDistance = distance + (useLengths ? graph.getEdgeLength(e) : costs[2 * e]);
+					if (newDistance < forwardSearch.getDistance(w)) {
+						forwardSearch.reach(w, newDistance, u, e);
+						forwardHeap.insertOrDecrease(w, newDistance + getPotential(forwardSearch, landmarks, w,
+								source, sourceCosts, destination, destinationCosts, costPerLength));
+						if (newDistance + backwardSearch.getDistance(w) < bestDistance) {
+							bestDistance = newDistance + backwardSearch.getDistance(w);
+							meetingNode = w;
+						}
+					}
+				}
+			} else {
+				int u = backwardHeap.poll();
+				double distance = backwardSearch.getDistance(u);
+				int lastEdge = graph.getFirstEdge(u + 1);
+				for (int e = graph.getFirstEdge(u); e < lastEdge; e++) {
+					/* we are going FROM w TO u */
+					if (!graph.isReverseEdgeAllowed(e, access)) {
+						continue;
+					}
+					int w = graph.getEdgeTarget(e);
+					double newDistance = distance + (useLengths ? graph.getEdgeLength(e) : costs[2 * e + 1]);
+					if (newDistance < backwardSearch.getDistance(w)) {
+						backwardSearch.reach(w, newDistance, u, e);
+						backwardHeap.insertOrDecrease(w, newDistance - getPotential(forwardSearch, landmarks, w,
+								source, sourceCosts, destination, destinationCosts, costPerLength));
+						if (newDistance + forwardSearch.getDistance(w) < bestDistance) {
+							bestDistance = newDistance + forwardSearch.getDistance(w);
+							meetingNode = w;
+						}
+					}
+				}
+			}
+		}
+
+		if (bestDistance == Double.POSITIVE_INFINITY) {
+			LOG.log(Level.INFO, "MobileALTRouter found nothing");
+			return null;
+		}
+
+		LOG.log(Level.INFO, "MobileALTRouter found a shortest path, reconstructing path...");
+
+		LinkedList<RoutingStep> steps = new LinkedList<RoutingStep>();
+		if (meetingNode == -1) {
+			MobileGraphDijkstraRouter.addStep(aMap, steps, aStartNode, aTargetNode, source.getDirectWay());
+			return new Route(aMap, steps, aStartNode);
+		}
+
+		/* nodes from the start to the meeting node */
+		LinkedList<Integer> nodes = new LinkedList<Integer>();
+		int v = meetingNode;
+		while (forwardSearch.getParent(v) >= 0) {
+			nodes.addFirst(v);
+			v = forwardSearch.getParent(v);
+		}
+		Node current = MobileGraphDijkstraRouter.getNode(aMap, graph, v);
+		Way way = source.getWay(-1 - forwardSearch.getParent(v));
+		if (way != null) {
+			MobileGraphDijkstraRouter.addStep(aMap, steps, aStartNode, current, way);
+		}
+		for (Integer w : nodes) {
+			Node next = MobileGraphDijkstraRouter.getNode(aMap, graph, w);
+			MobileGraphDijkstraRouter.addStep(aMap, steps, current, next,
+					graph.getWay(graph.getEdgeWay(forwardSearch.getParentEdge(w))));
+			current = next;
+		}
+
+		/* nodes from the meeting node to the destination */
+		v = meetingNode;
+		while (backwardSearch.getParent(v) >= 0) {
+			int u = backwardSearch.getParent(v);
+			Node next = MobileGraphDijkstraRouter.getNode(aMap, graph, u);
+			MobileGraphDijkstraRouter.addStep(aMap, steps, current, next,
+					graph.getWay(graph.getEdgeWay(backwardSearch.getParentEdge(v))));
+			current = next;
+			v = u;
+		}
+		way = destination.getWay(-1 - backwardSearch.getParent(v));
+		if (way != null) {
+			MobileGraphDijkstraRouter.addStep(aMap, steps, current, aTargetNode, way);
+		}
+
+		return new Route(aMap, steps, aStartNode);
+	}
+
+
+	/**
+	 * returns the potential of node v for the forward search (the potential
+	 * for the backward search is its negation), i.e. half the difference of
+	 * the lower bounds of the costs to the destination and from the start
+	 */
+	private static double getPotential(SearchWorkspace.Search potentials, LandmarkTable landmarks, int v,
+			GraphEndpoint source, double[] sourceCosts, GraphEndpoint destination, double[] destinationCosts,
+			double costPerLength) {
+		double potential = potentials.getValue(v);
+		if (potential != potential) {
+			double toDestination = Double.POSITIVE_INFINITY;
+			for (int i = 0; i < destination.size(); i++) {
+				double bound = landmarks.getLowerBound(v, destination.getGraphNode(i)) - LOWER_BOUND_TOLERANCE;
+				toDestination = Math.min(toDestination, costPerLength * Math.max(bound, 0) + destinationCosts[i]);
+			}
+			double fromSource = Double.POSITIVE_INFINITY;
+			for (int i = 0; i < source.size(); i++) {
+				double bound = landmarks.getLowerBound(source.getGraphNode(i), v) - LOWER_BOUND_TOLERANCE;
+				fromSource = Math.min(fromSource, costPerLength * Math.max(bound, 0) + sourceCosts[i]);
+			}
+			if (toDestination == Double.POSITIVE_INFINITY || fromSource == Double.POSITIVE_INFINITY) {
+				potential = 0;
+			} else {
+				potential = (toDestination - fromSource) / 2;
+			}
+			potentials.setValue(v, potential);
+		}
+		return potential;
+	}
+
+}
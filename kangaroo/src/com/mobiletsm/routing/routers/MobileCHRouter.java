@@ -0,0 +1,286 @@
+package com.mobiletsm.routing.routers;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.openstreetmap.osm.ConfigurationSection;
+import org.openstreetmap.osm.data.IDataSet;
+import org.openstreetmap.osmosis.core.domain.v0_6.Node;
+import org.openstreetmap.osmosis.core.domain.v0_6.Way;
+import org.openstreetmap.travelingsalesman.routing.IProgressListener;
+import org.openstreetmap.travelingsalesman.routing.IRouter;
+import org.openstreetmap.travelingsalesman.routing.IVehicle;
+import org.openstreetmap.travelingsalesman.routing.Route;
+import org.openstreetmap.travelingsalesman.routing.Route.RoutingStep;
+import org.openstreetmap.travelingsalesman.routing.metrics.IRoutingMetric;
+import org.openstreetmap.travelingsalesman.routing.metrics.ShortestRouteMetric;
+
+import com.mobiletsm.osm.data.ContractionHierarchy;
+import com.mobiletsm.osm.data.MobileRoutingInterfaceDataSet;
+import com.mobiletsm.osm.data.RoutingGraph;
+import com.mobiletsm.routing.metrics.MobileRoutingMetric;
+
+
+/**
+ * A router using the {@link ContractionHierarchy} provided by a
+ * {@link MobileRoutingInterfaceDataSet}. A forward search from the starting
+ * point and a backward search from the destination both only follow arcs
+ * leading upwards in the hierarchy and meet at the highest node of the
+ * shortest path. Shortcuts on the path found are unpacked to the edges of the
+ * routing graph. Nodes that can be reached on a shorter path from a higher
+ * node are not expanded (stall-on-demand).
+ *
+ * If there is no hierarchy, the metric is not a {@link MobileRoutingMetric}
+ * or the vehicle may use other ways (or directions) than the hierarchy has
+ * been built for, routing is delegated to a {@link MobileALTRouter}.
+ */
+public class MobileCHRouter implements IRouter {
+
+
+	private static final Logger LOG = Logger.getLogger(MobileCHRouter.class.getName());
+
+
+	private IRoutingMetric myMetric = new ShortestRouteMetric();
+
+
+	private MobileALTRouter fallbackRouter = new MobileALTRouter();
+
+
+	public ConfigurationSection getSettings() {
+		return null;
+	}
+
+
+	public void addProgressListener(final IProgressListener aListener) {
+		fallbackRouter.addProgressListener(aListener);
+	}
+
+
+	public IRoutingMetric getMetric() {
+		return myMetric;
+	}
+
+
+	public void setMetric(final IRoutingMetric aMetric) {
+		myMetric = aMetric;
+		fallbackRouter.setMetric(aMetric);
+	}
+
+
+	public Route route(final IDataSet aMap, final Way targetWay, final Node startNode, final IVehicle selector) {
+		return fallbackRouter.route(aMap, targetWay, startNode, selector);
+	}
+
+
+	public Route route(final IDataSet aMap, final Collection<Node> aTargetNodes, final Node aStartingPoint,
+			final IVehicle aSelector) {
+		if (aTargetNodes.size() == 1) {
+			return route(aMap, aTargetNodes.iterator().next(), aStartingPoint, aSelector);
+		}
+		return fallbackRouter.route(aMap, aTargetNodes, aStartingPoint, aSelector);
+	}
+
+
+	public Route route(final IDataSet aMap, final Node aTargetNode, final Node aStartNode, final IVehicle aSelector) {
+
+		ContractionHierarchy hierarchy = null;
+		if (aMap instanceof MobileRoutingInterfaceDataSet) {
+			hierarchy = ((MobileRoutingInterfaceDataSet)aMap).getContractionHierarchy();
+		}
+		if (hierarchy == null || !(myMetric instanceof MobileRoutingMetric)) {
+			return fallbackRouter.route(aMap, aTargetNode, aStartNode, aSelector);
+		}
+
+		RoutingGraph graph = hierarchy.getGraph();
+		byte[] access = graph.getWayAccess(aMap, aSelector);
+		if (access != hierarchy.getAccess() && !Arrays.equals(access, hierarchy.getAccess())) {
+			return fallbackRouter.route(aMap, aTargetNode, aStartNode, aSelector);
+		}
+
+		if (aStartNode.getId() == aTargetNode.getId()) {
+			return null;
+		}
+
+		LOG.log(Level.INFO, "MobileCHRouter starting...");
+
+		GraphEndpoint source = GraphEndpoint.create(aMap, graph, aStartNode, aSelector, true, aTargetNode);
+		GraphEndpoint destination = GraphEndpoint.create(aMap, graph, aTargetNode, aSelector, false, null);
+
+		SearchWorkspace workspace = SearchWorkspace.get(graph.getNodeCount());
+		SearchWorkspace.Search forwardSearch = workspace.forward;
+		SearchWorkspace.Search backwardSearch = workspace.backward;
+		IndexedMinHeap forwardHeap = forwardSearch.heap;
+		IndexedMinHeap backwardHeap = backwardSearch.heap;
+
+		/* start at the graph nodes connected to start and destination (a parent
+		 * of -1 - i marks the i-th connection of the endpoint) */
+		for (int i = 0; i < source.size(); i++) {
+			int v = source.getGraphNode(i);
+			if (source.getCost(i) < forwardSearch.getDistance(v)) {
+				forwardSearch.reach(v, source.getCost(i), -1 - i, -1);
+				forwardHeap.insertOrDecrease(v, source.getCost(i));
+			}
+		}
+		for (int i = 0; i < destination.size(); i++) {
+			int v = destination.getGraphNode(i);
+			if (destination.getCost(i) < backwardSearch.getDistance(v)) {
+				backwardSearch.reach(v, destination.getCost(i), -1 - i, -1);
+				backwardHeap.insertOrDecrease(v, destination.getCost(i));
+			}
+		}
+
+		double bestDistance = source.getDirectCost();
+		int meetingNode = -1;
+
+		while (true) {
+			boolean forward = !forwardHeap.isEmpty() && forwardHeap.peekKey() < bestDistance;
+			boolean backward = !backwardHeap.isEmpty() && backwardHeap.peekKey() < bestDistance;
+			if (!forward && !backward) {
+				break;
+			}
+			if (forward && backward) {
+				forward = forwardHeap.peekKey() <= backwardHeap.peekKey();
+			}
+
+			if (forward) {
+				int u = forwardHeap.poll();
+				double distance = forwardSearch.getDistance(u);
+				if (distance + backwardSearch.getDistance(u) < bestDistance) {
+					bestDistance = distance + backwardSearch.getDistance(u);
+					meetingNode = u;
+				}
+				if (isStalled(hierarchy, u, distance, forwardSearch, true)) {
+					continue;
+				}
+				int last = hierarchy.getFirstUpArc(u + 1);
+				for (int p = hierarchy.getFirstUpArc(u); p < last; p++) {
+					int a = hierarchy.getUpArc(p);
+					int w = hierarchy.getArcTarget(a);
+					double newDistance = distance + hierarchy.getArcLength(a);
+					if (newDistance < forwardSearch.getDistance(w)) {
+						forwardSearch.reach(w, newDistance, a, -1);
+						forwardHeap.insertOrDecrease(w, newDistance);
+					}
+				}
+			} else {
+				int u = backwardHeap.poll();
+				double distance = backwardSearch.getDistance(u);
+				if (distance + forwardSearch.getDistance(u) < bestDistance) {
+					bestDistance = distance + forwardSearch.getDistance(u);
+					meetingNode = u;
+				}
+				if (isStalled(hierarchy, u, distance, backwardSearch, false)) {
+					continue;
+				}
+				int last = hierarchy.getFirstDownArc(u + 1);
+				for (int p = hierarchy.getFirstDownArc(u); p < last; p++) {
+					int a = hierarchy.getDownArc(p);
+					int w = hierarchy.getArcSource(a);
+					double newDistance = distance + hierarchy.getArcLength(a);
+					if (newDistance < backwardSearch.getDistance(w)) {
+						backwardSearch.reach(w, newDistance, a, -1);
+						backwardHeap.insertOrDecrease(w, newDistance);
+					}
+				}
+			}
+		}
+
+		if (bestDistance == Double.POSITIVE_INFINITY) {
+			LOG.log(Level.INFO, "MobileCHRouter found nothing");
+			return null;
+		}
+
+		LOG.log(Level.INFO, "MobileCHRouter found a shortest path, reconstructing path...");
+
+		LinkedList<RoutingStep> steps = new LinkedList<RoutingStep>();
+		if (meetingNode == -1) {
+			MobileGraphDijkstraRouter.addStep(aMap, steps, aStartNode, aTargetNode, source.getDirectWay());
+			return new Route(aMap, steps, aStartNode);
+		}
+
+		/* arcs from the start to the meeting node */
+		LinkedList<Integer> arcs = new LinkedList<Integer>();
+		int v = meetingNode;
+		while (forwardSearch.getParent(v) >= 0) {
+			int a = forwardSearch.getParent(v);
+			arcs.addFirst(a);
+			v = hierarchy.getArcSource(a);
+		}
+		Way way = source.getWay(-1 - forwardSearch.getParent(v));
+		if (way != null) {
+			MobileGraphDijkstraRouter.addStep(aMap, steps, aStartNode,
+					MobileGraphDijkstraRouter.getNode(aMap, graph, v), way);
+		}
+
+		/* arcs from the meeting node to the destination */
+		v = meetingNode;
+		while (backwardSearch.getParent(v) >= 0) {
+			int a = backwardSearch.getParent(v);
+			arcs.addLast(a);
+			v = hierarchy.getArcTarget(a);
+		}
+
+		int[] stack = new int[16];
+		for (Integer arc : arcs) {
+			int size = 0;
+			stack[size++] = arc;
+			while (size > 0) {
+				int a = stack[--size];
+				if (hierarchy.isShortcut(a)) {
+					if (size + 2 > stack.length) {
+						int[] newStack = new int[2 * stack.length];
+						System.arraycopy(stack, 0, newStack, 0, size);
+						stack = newStack;
+					}
+					stack[size++] = hierarchy.getSecondHalf(a);
+					stack[size++] = hierarchy.getFirstHalf(a);
+				} else {
+					MobileGraphDijkstraRouter.addStep(aMap, steps,
+							MobileGraphDijkstraRouter.getNode(aMap, graph, hierarchy.getArcSource(a)),
+							MobileGraphDijkstraRouter.getNode(aMap, graph, hierarchy.getArcTarget(a)),
+							graph.getWay(graph.getEdgeWay(hierarchy.getArcEdge(a))));
+				}
+			}
+		}
+
+		way = destination.getWay(-1 - backwardSearch.getParent(v));
+		if (way != null) {
+			MobileGraphDijkstraRouter.addStep(aMap, steps,
+					MobileGraphDijkstraRouter.getNode(aMap, graph, v), aTargetNode, way);
+		}
+
+		return new Route(aMap, steps, aStartNode);
+	}
+
+
+	/**
+	 * returns true if node u can be reached on a shorter path than the given
+	 * distance from a node above (forward search) or a node above can be
+	 * reached from u on a shorter path (backward search)
+	 */
+	private static boolean isStalled(ContractionHierarchy hierarchy, int u, double distance,
+			SearchWorkspace.Search search, boolean forward) {
+		if (forward) {
+			int last = hierarchy.getFirstDownArc(u + 1);
+			for (int p = hierarchy.getFirstDownArc(u); p < last; p++) {
+				int a = hierarchy.getDownArc(p);
+				if (search.getDistance(hierarchy.getArcSource(a)) + hierarchy.getArcLength(a) < distance) {
+					return true;
+				}
+			}
+		} else {
+			int last = hierarchy.getFirstUpArc(u + 1);
+			for (int p = hierarchy.getFirstUpArc(u); p < last; p++) {
+				int a = hierarchy.getUpArc(p);
+				if (search.getDistance(hierarchy.getArcTarget(a)) + hierarchy.getArcLength(a) < distance) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+}
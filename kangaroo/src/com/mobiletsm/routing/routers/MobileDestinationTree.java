@@ -0,0 +1,256 @@
+package com.mobiletsm.routing.routers;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.openstreetmap.osm.data.IDataSet;
+import org.openstreetmap.osmosis.core.domain.v0_6.Node;
+import org.openstreetmap.osmosis.core.domain.v0_6.Way;
+import org.openstreetmap.travelingsalesman.routing.IVehicle;
+import org.openstreetmap.travelingsalesman.routing.Route;
+import org.openstreetmap.travelingsalesman.routing.Route.RoutingStep;
+
+import com.mobiletsm.osm.data.LongIntHashMap;
+import com.mobiletsm.osm.data.MobileRoutingInterfaceDataSet;
+import com.mobiletsm.osm.data.RoutingGraph;
+
+
+/**
+ * A shortest path tree grown backwards from a destination on the
+ * {@link RoutingGraph} provided by a {@link MobileRoutingInterfaceDataSet}
+ * and kept for later queries. It holds the shortest distances (the lengths
+ * stored in the graph) from the graph nodes nearest to the destination to
+ * the destination, so the route from a starting point near these nodes is
+ * found by looking up the nodes the starting point is connected to and
+ * following the tree, without a new search. The tree is bounded by a
+ * maximum number of nodes.
+ */
+public class MobileDestinationTree {
+
+
+	private static final Logger LOG = Logger.getLogger(MobileDestinationTree.class.getName());
+
+
+	private RoutingGraph graph;
+
+
+	/* copy of the access mask the tree has been grown for */
+	private byte[] access;
+
+
+	private Node targetNode;
+
+
+	private GraphEndpoint destination;
+
+
+	/* graph node -> slot */
+	private LongIntHashMap slots;
+
+
+	/* graph node, distance to the destination, parent slot (or -1 - i for the
+	 * i-th connection of the destination endpoint) and edge to the parent by slot */
+
+	private int[] nodes;
+
+	private double[] distances;
+
+	private int[] parents;
+
+	private int[] parentEdges;
+
+	private int size = 0;
+
+
+	/* all nodes not in the tree are at least this far from the destination */
+	private double radius;
+
+
+	private MobileDestinationTree() {
+	}
+
+
+	/**
+	 * grow a tree towards the given target node containing at most the given number
+	 * of graph nodes. Returns null if the map does not provide a routing graph.
+	 * @param aMap
+	 * @param aTargetNode
+	 * @param aSelector
+	 * @param maxNodes
+	 * @return
+	 */
+	public static MobileDestinationTree grow(final IDataSet aMap, final Node aTargetNode,
+			final IVehicle aSelector, int maxNodes) {
+
+		RoutingGraph graph = null;
+		if (aMap instanceof MobileRoutingInterfaceDataSet) {
+			graph = ((MobileRoutingInterfaceDataSet)aMap).getRoutingGraph();
+		}
+		if (graph == null) {
+			return null;
+		}
+
+		LOG.log(Level.INFO, "MobileDestinationTree growing...");
+
+		MobileDestinationTree tree = new MobileDestinationTree();
+		tree.graph = graph;
+		byte[] access = graph.getWayAccess(aMap, aSelector);
+		tree.access = new byte[access.length];
+		System.arraycopy(access, 0, tree.access, 0, access.length);
+		tree.targetNode = aTargetNode;
+		tree.destination = GraphEndpoint.create(aMap, graph, aTargetNode, aSelector, false, null);
+
+		maxNodes = Math.min(maxNodes, graph.getNodeCount());
+		tree.slots = new LongIntHashMap(maxNodes);
+		tree.nodes = new int[maxNodes];
+		tree.distances = new double[maxNodes];
+		tree.parents = new int[maxNodes];
+		tree.parentEdges = new int[maxNodes];
+
+		SearchWorkspace.Search search = SearchWorkspace.get(graph.getNodeCount()).forward;
+		IndexedMinHeap heap = search.heap;
+
+		for (int i = 0; i < tree.destination.size(); i++) {
+			int v = tree.destination.getGraphNode(i);
+			double distance = tree.destination.getCost(i);
+			if (distance < search.getDistance(v)) {
+				search.reach(v, distance, -1 - i, -1);
+				heap.insertOrDecrease(v, distance);
+			}
+		}
+
+		while (!heap.isEmpty() && tree.size < maxNodes) {
+			int u = heap.poll();
+			search.settle(u);
+			double distance = search.getDistance(u);
+
+			/* parents are settled before their children */
+			int slot = tree.size++;
+			int parent = search.getParent(u);
+			tree.slots.put(u, slot);
+			tree.nodes[slot] = u;
+			tree.distances[slot] = distance;
+			tree.parents[slot] = parent >= 0 ? tree.slots.get(parent) : parent;
+			tree.parentEdges[slot] = search.getParentEdge(u);
+
+			int lastEdge = graph.getFirstEdge(u + 1);
+			for (int e = graph.getFirstEdge(u); e < lastEdge; e++) {
+				int w = graph.getEdgeTarget(e);
+				/* we are going FROM w TO u */
+				if (search.isSettled(w) || !graph.isReverseEdgeAllowed(e, tree.access)) {
+					continue;
+				}
+				double newDistance = distance + graph.getEdgeLength(e);
+				if (newDistance < search.getDistance(w)) {
+					search.reach(w, newDistance, u, e);
+					heap.insertOrDecrease(w, newDistance);
+				}
+			}
+		}
+
+		tree.radius = heap.isEmpty() ? Double.POSITIVE_INFINITY : heap.peekKey();
+
+		LOG.log(Level.INFO, "MobileDestinationTree contains " + tree.size + " nodes");
+
+		return tree;
+	}
+
+
+	public Node getTargetNode() {
+		return targetNode;
+	}
+
+
+	/**
+	 * returns the number of graph nodes in the tree
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+
+
+	/**
+	 * returns true if the tree can be used for routing on the given map with
+	 * the given vehicle
+	 * @param aMap
+	 * @param aSelector
+	 * @return
+	 */
+	public boolean isValidFor(final IDataSet aMap, final IVehicle aSelector) {
+		if (!(aMap instanceof MobileRoutingInterfaceDataSet)
+				|| ((MobileRoutingInterfaceDataSet)aMap).getRoutingGraph() != graph) {
+			return false;
+		}
+		return Arrays.equals(access, graph.getWayAccess(aMap, aSelector));
+	}
+
+
+	/**
+	 * find the route from the given starting point to the destination of the tree.
+	 * Returns null if the route cannot be told from the tree, i.e. if the
+	 * starting point is too far from the destination or the tree is not valid
+	 * for the given map and vehicle (see isValidFor()).
+	 * @param aMap
+	 * @param aStartNode
+	 * @param aSelector
+	 * @return
+	 */
+	public Route route(final IDataSet aMap, final Node aStartNode, final IVehicle aSelector) {
+
+		if (aStartNode.getId() == targetNode.getId() || !isValidFor(aMap, aSelector)) {
+			return null;
+		}
+
+		GraphEndpoint source = GraphEndpoint.create(aMap, graph, aStartNode, aSelector, true, targetNode);
+
+		/* the best connection into the tree and the smallest distance possible
+		 * through a connection to a node outside the tree */
+		double bestDistance = source.getDirectCost();
+		int bestConnection = -1;
+		double outsideDistance = Double.POSITIVE_INFINITY;
+		for (int i = 0; i < source.size(); i++) {
+			int slot = slots.get(source.getGraphNode(i));
+			if (slot == LongIntHashMap.NO_VALUE) {
+				outsideDistance = Math.min(outsideDistance, source.getCost(i) + radius);
+			} else if (source.getCost(i) + distances[slot] < bestDistance) {
+				bestDistance = source.getCost(i) + distances[slot];
+				bestConnection = i;
+			}
+		}
+
+		if (bestDistance == Double.POSITIVE_INFINITY || bestDistance > outsideDistance) {
+			return null;
+		}
+
+		LinkedList<RoutingStep> steps = new LinkedList<RoutingStep>();
+		if (bestConnection == -1) {
+			MobileGraphDijkstraRouter.addStep(aMap, steps, aStartNode, targetNode, source.getDirectWay());
+			return new Route(aMap, steps, aStartNode);
+		}
+
+		int slot = slots.get(source.getGraphNode(bestConnection));
+		Node current = MobileGraphDijkstraRouter.getNode(aMap, graph, nodes[slot]);
+		Way way = source.getWay(bestConnection);
+		if (way != null) {
+			MobileGraphDijkstraRouter.addStep(aMap, steps, aStartNode, current, way);
+		}
+		while (parents[slot] >= 0) {
+			int parent = parents[slot];
+			Node next = MobileGraphDijkstraRouter.getNode(aMap, graph, nodes[parent]);
+			MobileGraphDijkstraRouter.addStep(aMap, steps, current, next,
+					graph.getWay(graph.getEdgeWay(parentEdges[slot])));
+			current = next;
+			slot = parent;
+		}
+		way = destination.getWay(-1 - parents[slot]);
+		if (way != null) {
+			MobileGraphDijkstraRouter.addStep(aMap, steps, current, targetNode, way);
+		}
+
+		return new Route(aMap, steps, aStartNode);
+	}
+
+}
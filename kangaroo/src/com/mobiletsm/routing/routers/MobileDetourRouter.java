@@ -0,0 +1,415 @@
+package com.mobiletsm.routing.routers;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.openstreetmap.osm.data.IDataSet;
+import org.openstreetmap.osmosis.core.domain.v0_6.Node;
+import org.openstreetmap.osmosis.core.domain.v0_6.Way;
+import org.openstreetmap.travelingsalesman.routing.IVehicle;
+import org.openstreetmap.travelingsalesman.routing.Route;
+import org.openstreetmap.travelingsalesman.routing.Route.RoutingStep;
+import org.openstreetmap.travelingsalesman.routing.metrics.IRoutingMetric;
+import org.openstreetmap.travelingsalesman.routing.metrics.ShortestRouteMetric;
+
+import com.mobiletsm.osm.data.MobileRoutingInterfaceDataSet;
+import com.mobiletsm.osm.data.RoutingGraph;
+import com.mobiletsm.routing.metrics.MobileRoutingMetric;
+
+
+/**
+ * Finds the target node with the smallest detour between a starting point and
+ * a destination, i.e. the one minimizing the cost of the route from the starting
+ * point to it plus the cost of the route from it to the destination, on the
+ * {@link RoutingGraph} provided by a {@link MobileRoutingInterfaceDataSet}.
+ * One search grows forwards from the starting point and one backwards from the
+ * destination, advancing the one with the smaller distance, until no target
+ * is left that could be better than the best one found so far. So the two
+ * searches tell both routes of all targets at once.
+ *
+ * Edge costs are told like in {@link MobileOneToManyRouter}. Without a routing
+ * graph, the routes via every target are calculated by a {@link MobileCHRouter}.
+ */
+public class MobileDetourRouter {
+
+
+	private static final Logger LOG = Logger.getLogger(MobileDetourRouter.class.getName());
+
+
+	private IRoutingMetric myMetric = new ShortestRouteMetric();
+
+
+	private MobileCHRouter fallbackRouter = new MobileCHRouter();
+
+
+	public IRoutingMetric getMetric() {
+		return myMetric;
+	}
+
+
+	public void setMetric(final IRoutingMetric aMetric) {
+		myMetric = aMetric;
+		fallbackRouter.setMetric(aMetric);
+	}
+
+
+	/**
+	 * find the routes from the given starting point to the target node with the
+	 * smallest detour and from there to the given destination. Returns an array
+	 * holding both routes (a route is null if it would start and end at the same
+	 * node) or null if there is no route via any of the target nodes.
+	 * @param aMap
+	 * @param aTargetNodes
+	 * @param aStartNode
+	 * @param aDestinationNode
+	 * @param aSelector
+	 * @return
+	 */
+	public Route[] route(final IDataSet aMap, final Collection<Node> aTargetNodes, final Node aStartNode,
+			final Node aDestinationNode, final IVehicle aSelector) {
+
+		List<Node> targets = new ArrayList<Node>(aTargetNodes);
+		int count = targets.size();
+
+		RoutingGraph graph = null;
+		if (aMap instanceof MobileRoutingInterfaceDataSet) {
+			graph = ((MobileRoutingInterfaceDataSet)aMap).getRoutingGraph();
+		}
+		if (graph == null) {
+			return routeEach(aMap, targets, aStartNode, aDestinationNode, aSelector);
+		}
+
+		LOG.log(Level.INFO, "MobileDetourRouter starting...");
+
+		/* edge costs (null if the lengths are used) */
+		myMetric.setMap(aMap);
+		boolean useLengths = myMetric instanceof MobileRoutingMetric;
+		IRoutingMetric endpointMetric = useLengths ? null : myMetric;
+		double[] costs = useLengths ? null : graph.getEdgeCosts(aMap, myMetric);
+		byte[] access = graph.getWayAccess(aMap, aSelector);
+
+		SearchWorkspace workspace = SearchWorkspace.get(graph.getNodeCount());
+		SearchWorkspace.Search forwardSearch = workspace.forward;
+		SearchWorkspace.Search backwardSearch = workspace.backward;
+		GraphEndpoint source = GraphEndpoint.create(aMap, graph, aStartNode, aSelector, true, null);
+		GraphEndpoint sink = GraphEndpoint.create(aMap, graph, aDestinationNode, aSelector, false, null);
+		boolean startInGraph = graph.getNodeIndex(aStartNode.getId()) != -1;
+		boolean destinationInGraph = graph.getNodeIndex(aDestinationNode.getId()) != -1;
+
+		/* best costs found so far from the starting point to every target and from
+		 * every target to the destination, the connections of the target's endpoints
+		 * they have been found at (-1 for a direct connection, -2 if the target is
+		 * the starting point or destination itself) and the ways of direct connections */
+		GraphEndpoint[] arriving = new GraphEndpoint[count];
+		GraphEndpoint[] leaving = new GraphEndpoint[count];
+		double[] toCosts = new double[count];
+		double[] fromCosts = new double[count];
+		int[] toConnections = new int[count];
+		int[] fromConnections = new int[count];
+		Way[] toDirectWays = new Way[count];
+		Way[] fromDirectWays = new Way[count];
+
+		/* connections of the targets, listed by graph node (the first connection
+		 * of a node is stored as its link in the search it belongs to) */
+		int maxConnections = GraphEndpoint.MAX_CONNECTIONS * count;
+		int[] nextConnection = new int[2 * maxConnections];
+		int[] connectionOwners = new int[2 * maxConnections];
+		int[] connectionIndices = new int[2 * maxConnections];
+		double[] connectionCosts = new double[2 * maxConnections];
+		int connectionCount = 0;
+
+		for (int j = 0; j < count; j++) {
+			Node target = targets.get(j);
+			boolean targetInGraph = graph.getNodeIndex(target.getId()) != -1;
+			toCosts[j] = Double.POSITIVE_INFINITY;
+			fromCosts[j] = Double.POSITIVE_INFINITY;
+			toConnections[j] = -1;
+			fromConnections[j] = -1;
+
+			if (target.getId() == aStartNode.getId()) {
+				toCosts[j] = 0;
+				toConnections[j] = -2;
+			} else {
+				GraphEndpoint endpoint = GraphEndpoint.create(aMap, graph, target, aSelector, false, null);
+				arriving[j] = endpoint;
+				if (!startInGraph && !targetInGraph) {
+					GraphEndpoint direct = GraphEndpoint.create(aMap, graph, aStartNode, aSelector, true, target);
+					if (direct.getDirectWay() != null) {
+						toDirectWays[j] = direct.getDirectWay();
+						toCosts[j] = getDirectCost(aMap, aStartNode, target, direct, useLengths);
+					}
+				}
+				for (int i = 0; i < endpoint.size(); i++) {
+					int v = endpoint.getGraphNode(i);
+					connectionOwners[connectionCount] = j;
+					connectionIndices[connectionCount] = i;
+					connectionCosts[connectionCount] = endpoint.getCost(i, aMap, graph, endpointMetric);
+					nextConnection[connectionCount] = forwardSearch.getLink(v);
+					forwardSearch.setLink(v, connectionCount);
+					connectionCount++;
+				}
+			}
+
+			if (target.getId() == aDestinationNode.getId()) {
+				fromCosts[j] = 0;
+				fromConnections[j] = -2;
+			} else {
+				GraphEndpoint endpoint = GraphEndpoint.create(aMap, graph, target, aSelector, true, null);
+				leaving[j] = endpoint;
+				if (!targetInGraph && !destinationInGraph) {
+					GraphEndpoint direct = GraphEndpoint.create(aMap, graph, target, aSelector, true, aDestinationNode);
+					if (direct.getDirectWay() != null) {
+						fromDirectWays[j] = direct.getDirectWay();
+						fromCosts[j] = getDirectCost(aMap, target, aDestinationNode, direct, useLengths);
+					}
+				}
+				for (int i = 0; i < endpoint.size(); i++) {
+					int v = endpoint.getGraphNode(i);
+					connectionOwners[connectionCount] = j;
+					connectionIndices[connectionCount] = i;
+					connectionCosts[connectionCount] = endpoint.getCost(i, aMap, graph, endpointMetric);
+					nextConnection[connectionCount] = backwardSearch.getLink(v);
+					backwardSearch.setLink(v, connectionCount);
+					connectionCount++;
+				}
+			}
+		}
+
+		/* the best target found so far */
+		double bestCost = Double.POSITIVE_INFINITY;
+		int bestTarget = -1;
+		for (int j = 0; j < count; j++) {
+			if (toCosts[j] + fromCosts[j] < bestCost) {
+				bestCost = toCosts[j] + fromCosts[j];
+				bestTarget = j;
+			}
+		}
+
+		/* start at the graph nodes connected to the starting point and destination
+		 * (a parent of -1 - i marks the i-th connection of the endpoint) */
+		for (int i = 0; i < source.size(); i++) {
+			int v = source.getGraphNode(i);
+			double cost = source.getCost(i, aMap, graph, endpointMetric);
+			if (cost < forwardSearch.getDistance(v)) {
+				forwardSearch.reach(v, cost, -1 - i, -1);
+				forwardSearch.heap.insertOrDecrease(v, cost);
+			}
+		}
+		for (int i = 0; i < sink.size(); i++) {
+			int v = sink.getGraphNode(i);
+			double cost = sink.getCost(i, aMap, graph, endpointMetric);
+			if (cost < backwardSearch.getDistance(v)) {
+				backwardSearch.reach(v, cost, -1 - i, -1);
+				backwardSearch.heap.insertOrDecrease(v, cost);
+			}
+		}
+
+		while (true) {
+			double forwardKey = forwardSearch.heap.isEmpty() ?
+					Double.POSITIVE_INFINITY : forwardSearch.heap.peekKey();
+			double backwardKey = backwardSearch.heap.isEmpty() ?
+					Double.POSITIVE_INFINITY : backwardSearch.heap.peekKey();
+			if (forwardKey == Double.POSITIVE_INFINITY && backwardKey == Double.POSITIVE_INFINITY) {
+				break;
+			}
+			/* no target can be better than the best one found so far unless both
+			 * searches are still below its cost together */
+			if (forwardKey + backwardKey >= bestCost
+					&& isDone(toCosts, fromCosts, forwardKey, backwardKey, bestCost)) {
+				break;
+			}
+
+			boolean forward = forwardKey <= backwardKey;
+			SearchWorkspace.Search search = forward ? forwardSearch : backwardSearch;
+			int u = search.heap.poll();
+			search.settle(u);
+			double distance = search.getDistance(u);
+
+			for (int c = search.getLink(u); c != -1; c = nextConnection[c]) {
+				int j = connectionOwners[c];
+				double cost = distance + connectionCosts[c];
+				if (forward && cost < toCosts[j]) {
+					toCosts[j] = cost;
+					toConnections[j] = connectionIndices[c];
+				} else if (!forward && cost < fromCosts[j]) {
+					fromCosts[j] = cost;
+					fromConnections[j] = connectionIndices[c];
+				}
+				if (toCosts[j] + fromCosts[j] < bestCost) {
+					bestCost = toCosts[j] + fromCosts[j];
+					bestTarget = j;
+				}
+			}
+
+			int lastEdge = graph.getFirstEdge(u + 1);
+			for (int e = graph.getFirstEdge(u); e < lastEdge; e++) {
+				double cost;
+				if (forward) {
+					/* we are going FROM u TO w */
+					if (!graph.isEdgeAllowed(e, access)) {
+						continue;
+					}
+					cost = useLengths ? graph.getEdgeLength(e) : costs[2 * e];
+				} else {
+					/* we are going FROM w TO u */
+					if (!graph.isReverseEdgeAllowed(e, access)) {
+						continue;
+					}
+					cost = useLengths ? graph.getEdgeLength(e) : costs[2 * e + 1];
+				}
+				int w = graph.getEdgeTarget(e);
+				if (search.isSettled(w)) {
+					continue;
+				}
+				double newDistance = distance + cost;
+				if (newDistance < search.getDistance(w)) {
+					search.reach(w, newDistance, u, e);
+					search.heap.insertOrDecrease(w, newDistance);
+				}
+			}
+		}
+
+		if (bestTarget == -1) {
+			LOG.log(Level.INFO, "MobileDetourRouter found no target");
+			return null;
+		}
+
+		Node target = targets.get(bestTarget);
+		Route[] routes = new Route[2];
+
+		/* from the starting point to the target */
+		if (toConnections[bestTarget] != -2) {
+			LinkedList<RoutingStep> steps = new LinkedList<RoutingStep>();
+			if (toConnections[bestTarget] == -1) {
+				MobileGraphDijkstraRouter.addStep(aMap, steps, aStartNode, target, toDirectWays[bestTarget]);
+			} else {
+				GraphEndpoint endpoint = arriving[bestTarget];
+				LinkedList<Integer> nodes = new LinkedList<Integer>();
+				int v = endpoint.getGraphNode(toConnections[bestTarget]);
+				while (forwardSearch.getParent(v) >= 0) {
+					nodes.addFirst(v);
+					v = forwardSearch.getParent(v);
+				}
+				Node current = MobileGraphDijkstraRouter.getNode(aMap, graph, v);
+				Way way = source.getWay(-1 - forwardSearch.getParent(v));
+				if (way != null) {
+					MobileGraphDijkstraRouter.addStep(aMap, steps, aStartNode, current, way);
+				}
+				for (Integer w : nodes) {
+					Node next = MobileGraphDijkstraRouter.getNode(aMap, graph, w);
+					MobileGraphDijkstraRouter.addStep(aMap, steps, current, next,
+							graph.getWay(graph.getEdgeWay(forwardSearch.getParentEdge(w))));
+					current = next;
+				}
+				way = endpoint.getWay(toConnections[bestTarget]);
+				if (way != null) {
+					MobileGraphDijkstraRouter.addStep(aMap, steps, current, target, way);
+				}
+			}
+			routes[0] = new Route(aMap, steps, aStartNode);
+		}
+
+		/* from the target to the destination */
+		if (fromConnections[bestTarget] != -2) {
+			LinkedList<RoutingStep> steps = new LinkedList<RoutingStep>();
+			if (fromConnections[bestTarget] == -1) {
+				MobileGraphDijkstraRouter.addStep(aMap, steps, target, aDestinationNode, fromDirectWays[bestTarget]);
+			} else {
+				GraphEndpoint endpoint = leaving[bestTarget];
+				int v = endpoint.getGraphNode(fromConnections[bestTarget]);
+				Node current = MobileGraphDijkstraRouter.getNode(aMap, graph, v);
+				Way way = endpoint.getWay(fromConnections[bestTarget]);
+				if (way != null) {
+					MobileGraphDijkstraRouter.addStep(aMap, steps, target, current, way);
+				}
+				while (backwardSearch.getParent(v) >= 0) {
+					int u = backwardSearch.getParent(v);
+					Node next = MobileGraphDijkstraRouter.getNode(aMap, graph, u);
+					MobileGraphDijkstraRouter.addStep(aMap, steps, current, next,
+							graph.getWay(graph.getEdgeWay(backwardSearch.getParentEdge(v))));
+					current = next;
+					v = u;
+				}
+				way = sink.getWay(-1 - backwardSearch.getParent(v));
+				if (way != null) {
+					MobileGraphDijkstraRouter.addStep(aMap, steps, current, aDestinationNode, way);
+				}
+			}
+			routes[1] = new Route(aMap, steps, target);
+		}
+
+		LOG.log(Level.INFO, "MobileDetourRouter found target " + target.getId());
+
+		return routes;
+	}
+
+
+	/**
+	 * returns true if no target can be reached at a smaller cost than the given best
+	 * cost, given that all nodes still to be settled by the searches are at least as
+	 * far as the given keys
+	 */
+	private static boolean isDone(double[] toCosts, double[] fromCosts, double forwardKey,
+			double backwardKey, double bestCost) {
+		for (int j = 0; j < toCosts.length; j++) {
+			if (Math.min(toCosts[j], forwardKey) + Math.min(fromCosts[j], backwardKey) < bestCost) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+	private double getDirectCost(final IDataSet aMap, Node from, Node to, GraphEndpoint direct, boolean useLengths) {
+		return useLengths ? direct.getDirectCost() : myMetric.getCost(
+				new RoutingStep(aMap, from, to, direct.getDirectWay()));
+	}
+
+
+	/**
+	 * route via every target on its own, if there is no routing graph
+	 */
+	private Route[] routeEach(final IDataSet aMap, final List<Node> aTargetNodes, final Node aStartNode,
+			final Node aDestinationNode, final IVehicle aSelector) {
+		Route[] best = null;
+		double bestCost = Double.POSITIVE_INFINITY;
+		for (Node target : aTargetNodes) {
+			Route[] routes = new Route[2];
+			double cost = 0;
+			if (target.getId() != aStartNode.getId()) {
+				routes[0] = fallbackRouter.route(aMap, target, aStartNode, aSelector);
+				if (routes[0] == null) {
+					continue;
+				}
+				cost += getCost(aMap, routes[0]);
+			}
+			if (target.getId() != aDestinationNode.getId()) {
+				routes[1] = fallbackRouter.route(aMap, aDestinationNode, target, aSelector);
+				if (routes[1] == null) {
+					continue;
+				}
+				cost += getCost(aMap, routes[1]);
+			}
+			if (cost < bestCost) {
+				bestCost = cost;
+				best = routes;
+			}
+		}
+		return best;
+	}
+
+
+	private double getCost(final IDataSet aMap, Route route) {
+		myMetric.setMap(aMap);
+		double cost = 0;
+		for (RoutingStep step : route.getRoutingSteps()) {
+			cost += myMetric.getCost(step);
+		}
+		return cost;
+	}
+
+}
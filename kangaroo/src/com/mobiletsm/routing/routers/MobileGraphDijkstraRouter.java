@@ -0,0 +1,219 @@
+package com.mobiletsm.routing.routers;
+
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.openstreetmap.osm.ConfigurationSection;
+import org.openstreetmap.osm.data.IDataSet;
+import org.openstreetmap.osmosis.core.domain.v0_6.Node;
+import org.openstreetmap.osmosis.core.domain.v0_6.Way;
+import org.openstreetmap.travelingsalesman.routing.IProgressListener;
+import org.openstreetmap.travelingsalesman.routing.IRouter;
+import org.openstreetmap.travelingsalesman.routing.IVehicle;
+import org.openstreetmap.travelingsalesman.routing.Route;
+import org.openstreetmap.travelingsalesman.routing.Route.RoutingStep;
+import org.openstreetmap.travelingsalesman.routing.metrics.IRoutingMetric;
+import org.openstreetmap.travelingsalesman.routing.metrics.ShortestRouteMetric;
+
+import com.mobiletsm.osm.data.MobileRoutingInterfaceDataSet;
+import com.mobiletsm.osm.data.RoutingGraph;
+import com.mobiletsm.osmosis.core.domain.v0_6.MobileNode;
+import com.mobiletsm.routing.Place;
+import com.mobiletsm.routing.metrics.MobileRoutingMetric;
+
+
+/**
+ * A router that runs directly on the {@link RoutingGraph} provided by a
+ * {@link MobileRoutingInterfaceDataSet}. Like {@link MobileMultiTargetDijkstraRouter}
+ * it searches from the target towards the starting point, guided by the
+ * straight-line distance to the starting point. Edge costs are the lengths
+ * stored in the graph, so the graph is only used with a {@link MobileRoutingMetric}.
+ * For other metrics, data sets without a routing graph and multiple targets
+ * the routing is delegated to a {@link MobileHeapDijkstraRouter}. The search
+ * state is kept in the {@link SearchWorkspace} of the calling thread.
+ */
+public class MobileGraphDijkstraRouter implements IRouter {
+
+
+	/**
+	 * scales the straight-line distance used to guide the search, so that it
+	 * never overestimates the length of the remaining path (Place.distance()
+	 * and the distances stored in the database are computed differently)
+	 */
+	private static final double HEURISTIC_FACTOR = 0.99;
+
+
+	private static final Logger LOG = Logger.getLogger(MobileGraphDijkstraRouter.class.getName());
+
+
+	private IRoutingMetric myMetric = new ShortestRouteMetric();
+
+
+	private MobileHeapDijkstraRouter fallbackRouter = new MobileHeapDijkstraRouter();
+
+
+	public ConfigurationSection getSettings() {
+		return null;
+	}
+
+
+	public void addProgressListener(final IProgressListener aListener) {
+		fallbackRouter.addProgressListener(aListener);
+	}
+
+
+	public IRoutingMetric getMetric() {
+		return myMetric;
+	}
+
+
+	public void setMetric(final IRoutingMetric aMetric) {
+		myMetric = aMetric;
+		fallbackRouter.setMetric(aMetric);
+	}
+
+
+	public Route route(final IDataSet aMap, final Way targetWay, final Node startNode, final IVehicle selector) {
+		return fallbackRouter.route(aMap, targetWay, startNode, selector);
+	}
+
+
+	public Route route(final IDataSet aMap, final Collection<Node> aTargetNodes, final Node aStartingPoint,
+			final IVehicle aSelector) {
+		if (aTargetNodes.size() == 1) {
+			return route(aMap, aTargetNodes.iterator().next(), aStartingPoint, aSelector);
+		}
+		return fallbackRouter.route(aMap, aTargetNodes, aStartingPoint, aSelector);
+	}
+
+
+	public Route route(final IDataSet aMap, final Node aTargetNode, final Node aStartNode, final IVehicle aSelector) {
+
+		RoutingGraph graph = null;
+		if (aMap instanceof MobileRoutingInterfaceDataSet) {
+			graph = ((MobileRoutingInterfaceDataSet)aMap).getRoutingGraph();
+		}
+		if (graph == null || !(myMetric instanceof MobileRoutingMetric)) {
+			return fallbackRouter.route(aMap, aTargetNode, aStartNode, aSelector);
+		}
+
+		if (aStartNode.getId() == aTargetNode.getId()) {
+			return null;
+		}
+
+		LOG.log(Level.INFO, "MobileGraphDijkstraRouter starting...");
+
+		GraphEndpoint source = GraphEndpoint.create(aMap, graph, aStartNode, aSelector, true, aTargetNode);
+		GraphEndpoint destination = GraphEndpoint.create(aMap, graph, aTargetNode, aSelector, false, null);
+		byte[] access = graph.getWayAccess(aMap, aSelector);
+
+		SearchWorkspace.Search search = SearchWorkspace.get(graph.getNodeCount()).forward;
+		IndexedMinHeap heap = search.heap;
+
+		double startLat = aStartNode.getLatitude();
+		double startLon = aStartNode.getLongitude();
+
+		/* start at the graph nodes leading to the target (a parent of -1 - i
+		 * marks the i-th connection of the destination endpoint) */
+		for (int i = 0; i < destination.size(); i++) {
+			int v = destination.getGraphNode(i);
+			double distance = destination.getCost(i);
+			if (distance < search.getDistance(v)) {
+				search.reach(v, distance, -1 - i, -1);
+				heap.insertOrDecrease(v, distance + HEURISTIC_FACTOR * Place.distance(
+						graph.getLatitude(v), graph.getLongitude(v), startLat, startLon));
+			}
+		}
+
+		double bestDistance = source.getDirectCost();
+		int bestNode = -1;
+
+		while (!heap.isEmpty() && heap.peekKey() < bestDistance) {
+			int u = heap.poll();
+			search.settle(u);
+			double distance = search.getDistance(u);
+
+			int i = source.indexOf(u);
+			if (i != -1 && distance + source.getCost(i) < bestDistance) {
+				bestDistance = distance + source.getCost(i);
+				bestNode = u;
+			}
+
+			int lastEdge = graph.getFirstEdge(u + 1);
+			for (int e = graph.getFirstEdge(u); e < lastEdge; e++) {
+				int w = graph.getEdgeTarget(e);
+				/* we are going FROM w TO u */
+				if (search.isSettled(w) || !graph.isReverseEdgeAllowed(e, access)) {
+					continue;
+				}
+				double newDistance = distance + graph.getEdgeLength(e);
+				if (newDistance < search.getDistance(w)) {
+					search.reach(w, newDistance, u, e);
+					heap.insertOrDecrease(w, newDistance + HEURISTIC_FACTOR * Place.distance(
+							graph.getLatitude(w), graph.getLongitude(w), startLat, startLon));
+				}
+			}
+		}
+
+		if (bestDistance == Double.POSITIVE_INFINITY) {
+			LOG.log(Level.INFO, "MobileGraphDijkstraRouter found nothing");
+			return null;
+		}
+
+		LOG.log(Level.INFO, "MobileGraphDijkstraRouter found a shortest path, reconstructing path...");
+
+		LinkedList<RoutingStep> steps = new LinkedList<RoutingStep>();
+		if (bestNode == -1) {
+			addStep(aMap, steps, aStartNode, aTargetNode, source.getDirectWay());
+		} else {
+			Node current = getNode(aMap, graph, bestNode);
+			Way way = source.getWay(source.indexOf(bestNode));
+			if (way != null) {
+				addStep(aMap, steps, aStartNode, current, way);
+			}
+			int v = bestNode;
+			while (search.getParent(v) >= 0) {
+				int u = search.getParent(v);
+				Node next = getNode(aMap, graph, u);
+				addStep(aMap, steps, current, next, graph.getWay(graph.getEdgeWay(search.getParentEdge(v))));
+				current = next;
+				v = u;
+			}
+			way = destination.getWay(-1 - search.getParent(v));
+			if (way != null) {
+				addStep(aMap, steps, current, aTargetNode, way);
+			}
+		}
+
+		return new Route(aMap, steps, aStartNode);
+	}
+
+
+	static Node getNode(IDataSet aMap, RoutingGraph graph, int node) {
+		Node result = aMap.getNodeByID(graph.getNodeId(node));
+		if (result == null) {
+			/* the node may have been dropped with the map tile it lies in */
+			result = new MobileNode(graph.getNodeId(node), graph.getLatitude(node), graph.getLongitude(node));
+		}
+		return result;
+	}
+
+
+	/**
+	 * append a step to the given list, joining it with the last step if
+	 * both follow the same way
+	 */
+	static void addStep(IDataSet aMap, LinkedList<RoutingStep> steps, Node from, Node to, Way way) {
+		if (!steps.isEmpty()) {
+			RoutingStep lastStep = steps.getLast();
+			if (lastStep.getWay() == way) {
+				lastStep.setEndNode(to);
+				return;
+			}
+		}
+		steps.add(new RoutingStep(aMap, from, to, way));
+	}
+
+}
@@ -0,0 +1,446 @@
+package com.mobiletsm.routing.routers;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.openstreetmap.osm.ConfigurationSection;
+import org.openstreetmap.osm.data.IDataSet;
+import org.openstreetmap.osm.data.coordinates.LatLon;
+import org.openstreetmap.osmosis.core.domain.v0_6.Node;
+import org.openstreetmap.osmosis.core.domain.v0_6.Way;
+import org.openstreetmap.osmosis.core.domain.v0_6.WayNode;
+import org.openstreetmap.travelingsalesman.routing.IProgressListener;
+import org.openstreetmap.travelingsalesman.routing.IRouter;
+import org.openstreetmap.travelingsalesman.routing.IVehicle;
+import org.openstreetmap.travelingsalesman.routing.Route;
+import org.openstreetmap.travelingsalesman.routing.Route.RoutingStep;
+import org.openstreetmap.travelingsalesman.routing.metrics.IRoutingMetric;
+import org.openstreetmap.travelingsalesman.routing.metrics.ShortestRouteMetric;
+
+import com.mobiletsm.osm.data.LongIntHashMap;
+
+
+/**
+ * A Dijkstra router that searches from the target nodes towards the
+ * starting point just like {@link MobileMultiTargetDijkstraRouter} does, but
+ * keeps its search state in primitive arrays over dense int node indices and
+ * its frontier in an {@link IndexedMinHeap} with decrease-key. Nodes are
+ * ordered by their best distance to the targets plus their straight-line
+ * distance to the starting point (as done by {@link MobileNodeDistanceComparator}).
+ *
+ * We assume:
+ * <ul>
+ *  <li>there are no 2 ways between the same 2 nodes.</li>
+ *  <li>The metric is never negative</li>
+ * </ul>
+ */
+public class MobileHeapDijkstraRouter implements IRouter {
+
+
+	/**
+	 * The minimal progress that has to have been made
+	 * in order to inform our listeners.
+	 */
+	private static final double MINPROGRESSMADE = 0.01;
+
+
+	/**
+	 * initial number of nodes the search state arrays can hold
+	 */
+	private static final int INITIAL_CAPACITY = 1024;
+
+
+	private static final Logger LOG = Logger.getLogger(MobileHeapDijkstraRouter.class.getName());
+
+
+	private double myLastDistRemaining = Double.MAX_VALUE;
+
+
+	private Set<IProgressListener> myProgressListeners = new HashSet<IProgressListener>();
+
+
+	/**
+	 * This is the metric we are optimizing for.
+	 */
+	private IRoutingMetric myMetric = new ShortestRouteMetric();
+
+
+	/* search state, indexed by dense node indices */
+
+	private LongIntHashMap nodeIndices = null;
+
+	private Node[] nodes = null;
+
+	private double[] bestDistances = null;
+
+	private double[] straightLineDistances = null;
+
+	private RoutingStep[] bestSteps = null;
+
+	private boolean[] visited = null;
+
+	private int nodeCount = 0;
+
+	private IndexedMinHeap nodesToVisit = null;
+
+	/* reused by getNextNodes() */
+	private List<RoutingStep> nextSteps = new ArrayList<RoutingStep>();
+
+
+	public ConfigurationSection getSettings() {
+		return null;
+	}
+
+
+	public void addProgressListener(final IProgressListener aListener) {
+		this.myProgressListeners.add(aListener);
+	}
+
+
+	public IRoutingMetric getMetric() {
+		return myMetric;
+	}
+
+
+	public void setMetric(final IRoutingMetric aMetric) {
+		myMetric = aMetric;
+	}
+
+
+	public Route route(final IDataSet aMap, final Way targetWay, final Node startNode, final IVehicle selector) {
+		List<Node> targets = new LinkedList<Node>();
+		for (Node targetNode : aMap.getWayHelper().getNodes(targetWay)) {
+			if (selector != null && !selector.isAllowed(aMap, targetNode)) {
+				continue;
+			}
+			targets.add(targetNode);
+		}
+		return route(aMap, targets, startNode, selector);
+	}
+
+
+	public Route route(final IDataSet aMap, final Node aTargetNode, final Node aStartNode, final IVehicle aSelector) {
+		List<Node> targets = new LinkedList<Node>();
+		targets.add(aTargetNode);
+		return route(aMap, targets, aStartNode, aSelector);
+	}
+
+
+	/**
+	 * @param aTargetNodes the {@link Node}s, any one of which we want to reach
+	 * @param aStartingPoint the {@link Node} we are now at
+	 * @param aSelector (may be null) optional selector to determine unallowed roads.
+	 * @param aMap the map to route on
+	 * @return null or a list of Segments to use in order to reach the destination
+	 */
+	public synchronized Route route(final IDataSet aMap, final Collection<Node> aTargetNodes,
+			final Node aStartingPoint, final IVehicle aSelector) {
+
+		if (aTargetNodes.size() == 1) {
+			Node target = aTargetNodes.iterator().next();
+			if (aStartingPoint.getId() == target.getId()) {
+				return null;
+			}
+		}
+
+		LOG.log(Level.INFO, "MobileHeapDijkstraRouter starting...");
+
+		initSearchState();
+		myMetric.setMap(aMap);
+
+		long[] targetIds = new long[aTargetNodes.size()];
+		int i = 0;
+		for (Node target : aTargetNodes) {
+			targetIds[i++] = target.getId();
+			visited[getIndex(target, aStartingPoint)] = true;
+		}
+
+		/* add all nodes leading to the targets to the frontier */
+		for (Node target : aTargetNodes) {
+			for (RoutingStep nextStep : getNextNodes(aMap, target, aSelector)) {
+				relax(getIndex(nextStep.getStartNode(), aStartingPoint), 0,
+						calculateDistance(null, nextStep), nextStep);
+			}
+		}
+
+		/* settle nodes in order of their distance to the targets */
+		while (!nodesToVisit.isEmpty()) {
+			int current = nodesToVisit.poll();
+			visited[current] = true;
+			Node currentNode = nodes[current];
+
+			if (currentNode.getId() == aStartingPoint.getId()) {
+				LOG.log(Level.INFO, "MobileHeapDijkstraRouter found a shortest path, reconstructing path...");
+				return reconstructShortestPath(aMap, targetIds, aStartingPoint);
+			}
+
+			progressMade(currentNode, aTargetNodes, aStartingPoint);
+
+			double bestDistanceFromCurrentNode = bestDistances[current];
+			RoutingStep bestStepFromCurrentNode = bestSteps[current];
+
+			for (RoutingStep nextStep : getNextNodes(aMap, currentNode, aSelector)) {
+				relax(getIndex(nextStep.getStartNode(), aStartingPoint), bestDistanceFromCurrentNode,
+						calculateDistance(bestStepFromCurrentNode, nextStep), nextStep);
+			}
+		}
+
+		LOG.log(Level.INFO, "MobileHeapDijkstraRouter found nothing");
+
+		return null;
+	}
+
+
+	private void relax(int index, double distance, double stepCost, RoutingStep step) {
+		if (visited[index]) {
+			return;
+		}
+		double newDistance = distance + stepCost;
+		if (newDistance < bestDistances[index]) {
+			bestDistances[index] = newDistance;
+			bestSteps[index] = step;
+			nodesToVisit.insertOrDecrease(index, newDistance + straightLineDistances[index]);
+		}
+	}
+
+
+	private double calculateDistance(final RoutingStep aLastStep, final RoutingStep step) {
+		double cost = myMetric.getCost(step);
+		if (aLastStep != null) {
+			cost += myMetric.getCost(aLastStep.getStartNode(), step, aLastStep);
+		}
+		return cost;
+	}
+
+
+	private void initSearchState() {
+		if (nodeIndices == null) {
+			nodeIndices = new LongIntHashMap(INITIAL_CAPACITY);
+			nodes = new Node[INITIAL_CAPACITY];
+			bestDistances = new double[INITIAL_CAPACITY];
+			straightLineDistances = new double[INITIAL_CAPACITY];
+			bestSteps = new RoutingStep[INITIAL_CAPACITY];
+			visited = new boolean[INITIAL_CAPACITY];
+			nodesToVisit = new IndexedMinHeap(INITIAL_CAPACITY);
+		} else {
+			nodeIndices.clear();
+			nodesToVisit.clear();
+			for (int i = 0; i < nodeCount; i++) {
+				nodes[i] = null;
+				bestSteps[i] = null;
+			}
+		}
+		nodeCount = 0;
+		myLastDistRemaining = Double.MAX_VALUE;
+	}
+
+
+	/**
+	 * returns the dense index of the given node, assigning a new
+	 * index (and growing the state arrays) if the node is new
+	 * @param node
+	 * @param aStartingPoint
+	 * @return
+	 */
+	private int getIndex(Node node, Node aStartingPoint) {
+		int index = nodeIndices.get(node.getId());
+		if (index != LongIntHashMap.NO_VALUE) {
+			return index;
+		}
+		index = nodeCount;
+		if (index == nodes.length) {
+			grow(2 * nodes.length);
+		}
+		nodeCount++;
+		nodeIndices.put(node.getId(), index);
+		nodes[index] = node;
+		bestDistances[index] = Double.POSITIVE_INFINITY;
+		straightLineDistances[index] = LatLon.distanceInMeters(node, aStartingPoint);
+		bestSteps[index] = null;
+		visited[index] = false;
+		return index;
+	}
+
+
+	private void grow(int capacity) {
+		Node[] newNodes = new Node[capacity];
+		System.arraycopy(nodes, 0, newNodes, 0, nodeCount);
+		nodes = newNodes;
+		double[] newBestDistances = new double[capacity];
+		System.arraycopy(bestDistances, 0, newBestDistances, 0, nodeCount);
+		bestDistances = newBestDistances;
+		double[] newStraightLineDistances = new double[capacity];
+		System.arraycopy(straightLineDistances, 0, newStraightLineDistances, 0, nodeCount);
+		straightLineDistances = newStraightLineDistances;
+		RoutingStep[] newBestSteps = new RoutingStep[capacity];
+		System.arraycopy(bestSteps, 0, newBestSteps, 0, nodeCount);
+		bestSteps = newBestSteps;
+		boolean[] newVisited = new boolean[capacity];
+		System.arraycopy(visited, 0, newVisited, 0, nodeCount);
+		visited = newVisited;
+		nodesToVisit.ensureCapacity(capacity);
+	}
+
+
+	/**
+	 * Construct the route by walking the best steps from the starting point to the targets.
+	 */
+	private Route reconstructShortestPath(final IDataSet aMap, final long[] targetIds, final Node aStartingPoint) {
+		List<RoutingStep> steps = new LinkedList<RoutingStep>();
+		Node currentNode = aStartingPoint;
+		RoutingStep lastStep = null;
+
+		while (!contains(targetIds, currentNode.getId())) {
+			RoutingStep bestStep = bestSteps[nodeIndices.get(currentNode.getId())];
+
+			if (bestStep.getStartNode().getId() != currentNode.getId()) {
+				throw new IllegalStateException("MobileHeapDijkstraRouter: best step does not start where it should!\n"
+						+ "should start at: " + currentNode.getId() + "\n"
+						+ "does   start at: " + bestStep.getStartNode().getId() + "\n"
+						+ "does     end at: " + bestStep.getEndNode().getId() + "\n");
+			}
+
+			currentNode = bestStep.getEndNode();
+
+			/* join steps that simply follow the same road */
+			if (lastStep != null && lastStep.getWay().getId() == bestStep.getWay().getId()) {
+				lastStep.setEndNode(currentNode);
+			} else {
+				steps.add(bestStep);
+				lastStep = bestStep;
+			}
+		}
+		return new Route(aMap, steps, aStartingPoint);
+	}
+
+
+	private static boolean contains(long[] ids, long id) {
+		for (int i = 0; i < ids.length; i++) {
+			if (ids[i] == id) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+
+	private void progressMade(final Node here, final Collection<Node> aTargetNodes, final Node start) {
+		if (myProgressListeners.isEmpty()) {
+			return;
+		}
+		double distTotal = Double.MAX_VALUE;
+		for (Node target : aTargetNodes) {
+			distTotal = Math.min(distTotal, LatLon.distance(start, target));
+		}
+		double distRemaining = LatLon.distance(here, start);
+		if (Math.abs(myLastDistRemaining - distRemaining) / distTotal > MINPROGRESSMADE) {
+			for (IProgressListener listener : this.myProgressListeners) {
+				listener.progressMade(distTotal - distRemaining, distTotal, here);
+			}
+			myLastDistRemaining = distRemaining;
+		}
+	}
+
+
+	/**
+	 * returns the steps leading from not yet visited neighbours to the given node
+	 * (the returned list is reused by the next call)
+	 * @param aMap the map to route in
+	 * @param aCurrentNode where we are (starting at the targets)
+	 * @param aSelector the selector giving us the way that are allowed
+	 * @return
+	 */
+	private List<RoutingStep> getNextNodes(final IDataSet aMap, final Node aCurrentNode, final IVehicle aSelector) {
+		nextSteps.clear();
+
+		try {
+			Iterator<Way> waysForNode = aMap.getWaysForNode(aCurrentNode.getId());
+			while (waysForNode != null && waysForNode.hasNext()) {
+				Way way = waysForNode.next();
+
+				try {
+					if (!aSelector.isAllowed(aMap, way)) {
+						continue;
+					}
+
+					List<WayNode> wayNodeList = way.getWayNodes();
+					int size = wayNodeList.size();
+					int index = getNodeIndex(aCurrentNode, wayNodeList);
+
+					/* one step ahead in the list of way nodes */
+					if (size > index + 1 && !aSelector.isOneway(aMap, way)) {
+						addStep(aMap, wayNodeList.get(index + 1).getNodeId(), aCurrentNode, way, aSelector);
+					} else if (size == index + 1 && size > 2
+							&& wayNodeList.get(0).getNodeId() == wayNodeList.get(size - 1).getNodeId()
+							&& !aSelector.isOneway(aMap, way)) {
+						/* turn around a roundabout */
+						addStep(aMap, wayNodeList.get(1).getNodeId(), aCurrentNode, way, aSelector);
+					}
+
+					/* one step back in the list of way nodes */
+					index = getLastNodeIndex(aCurrentNode, wayNodeList);
+					if (index > 0 && !aSelector.isReverseOneway(aMap, way)) {
+						addStep(aMap, wayNodeList.get(index - 1).getNodeId(), aCurrentNode, way, aSelector);
+					}
+				} catch (Exception e) {
+					LOG.log(Level.SEVERE, "Exception while doing way #" + way
+							+ " in getNextNodes(NodeID=" + aCurrentNode.getId() + ") in MobileHeapDijkstraRouter! "
+							+ "Ignoring this way.", e);
+				}
+			}
+		} catch (Exception e) {
+			LOG.log(Level.SEVERE, "Exception while doing getNextNodes(NodeID=" + aCurrentNode.getId()
+					+ ") in MobileHeapDijkstraRouter! Considering this node a dead end.", e);
+		}
+
+		return nextSteps;
+	}
+
+
+	private void addStep(final IDataSet aMap, long nodeId, final Node aCurrentNode, final Way way, final IVehicle aSelector) {
+		int index = nodeIndices.get(nodeId);
+		if (index != LongIntHashMap.NO_VALUE && visited[index]) {
+			return;
+		}
+		Node node = aMap.getNodeByID(nodeId);
+		if (node == null) {
+			LOG.log(Level.SEVERE, "could not load node with ID=" + nodeId);
+			return;
+		}
+		if (aSelector.isAllowed(aMap, node)) {
+			/* we are going FROM node TO aCurrentNode! */
+			nextSteps.add(new RoutingStep(aMap, node, aCurrentNode, way));
+		}
+	}
+
+
+	private int getNodeIndex(final Node aNode, final List<WayNode> wayNodeList) {
+		int index = 0;
+		for (WayNode node : wayNodeList) {
+			if (node.getNodeId() == aNode.getId()) {
+				break;
+			}
+			index++;
+		}
+		return index;
+	}
+
+
+	private int getLastNodeIndex(final Node aNode, final List<WayNode> wayNodeList) {
+		int size = wayNodeList.size();
+		for (int index = size - 1; index >= 0; index--) {
+			if (wayNodeList.get(index).getNodeId() == aNode.getId()) {
+				return index;
+			}
+		}
+		return -1;
+	}
+
+}
@@ -0,0 +1,288 @@
+package com.mobiletsm.routing.routers;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.openstreetmap.osm.data.IDataSet;
+import org.openstreetmap.osmosis.core.domain.v0_6.Node;
+import org.openstreetmap.osmosis.core.domain.v0_6.Way;
+import org.openstreetmap.travelingsalesman.routing.IVehicle;
+
+import com.mobiletsm.osm.data.LongIntHashMap;
+import com.mobiletsm.osm.data.MobileRoutingInterfaceDataSet;
+import com.mobiletsm.osm.data.RoutingGraph;
+import com.mobiletsm.routing.Vehicle;
+
+
+/**
+ * The nodes of the {@link RoutingGraph} provided by a {@link MobileRoutingInterfaceDataSet}
+ * that can be reached from a starting point within a given budget, found by a
+ * Dijkstra search that stops at the budget (or at a maximum number of nodes).
+ * Costs are either the lengths stored in the graph (meters) or the travel times
+ * along them at the maximum speeds of a {@link Vehicle} on the ways (minutes,
+ * without any time for turns, so they never exceed the travel time of a route
+ * as told by MobileTSMRouteParameter).
+ */
+public class MobileIsochrone {
+
+
+	private static final Logger LOG = Logger.getLogger(MobileIsochrone.class.getName());
+
+
+	private RoutingGraph graph;
+
+
+	private Node startNode;
+
+
+	/* minutes per meter by way of the graph (null if costs are lengths) */
+	private double[] wayCostsPerLength;
+
+
+	private double maxCost;
+
+
+	/* graph node -> slot */
+	private LongIntHashMap slots;
+
+
+	/* graph node and cost by slot, in order of increasing cost */
+
+	private int[] nodes;
+
+	private double[] costs;
+
+	private int size = 0;
+
+
+	/* all nodes not in the isochrone cost at least this much */
+	private double radius;
+
+
+	private MobileIsochrone() {
+	}
+
+
+	/**
+	 * find the graph nodes that can be reached from the given starting point at a
+	 * cost of at most maxCost (meters, or minutes if travelTime is true), but not more
+	 * than maxNodes nodes. Returns null if the map does not provide a routing graph or
+	 * travelTime is true and the selector is not a {@link Vehicle}.
+	 * @param aMap
+	 * @param aStartNode
+	 * @param aSelector
+	 * @param travelTime
+	 * @param maxCost
+	 * @param maxNodes
+	 * @return
+	 */
+	public static MobileIsochrone grow(final IDataSet aMap, final Node aStartNode, final IVehicle aSelector,
+			boolean travelTime, double maxCost, int maxNodes) {
+
+		RoutingGraph graph = null;
+		if (aMap instanceof MobileRoutingInterfaceDataSet) {
+			graph = ((MobileRoutingInterfaceDataSet)aMap).getRoutingGraph();
+		}
+		if (graph == null || (travelTime && !(aSelector instanceof Vehicle))) {
+			return null;
+		}
+
+		LOG.log(Level.INFO, "MobileIsochrone growing...");
+
+		MobileIsochrone isochrone = new MobileIsochrone();
+		isochrone.graph = graph;
+		isochrone.startNode = aStartNode;
+		isochrone.maxCost = maxCost;
+		if (travelTime) {
+			Vehicle vehicle = (Vehicle)aSelector;
+			isochrone.wayCostsPerLength = new double[graph.getWayCount()];
+			for (int w = 0; w < graph.getWayCount(); w++) {
+				isochrone.wayCostsPerLength[w] = getCostPerLength(vehicle, graph.getWay(w));
+			}
+		}
+		byte[] access = graph.getWayAccess(aMap, aSelector);
+		GraphEndpoint source = GraphEndpoint.create(aMap, graph, aStartNode, aSelector, true, null);
+
+		maxNodes = Math.min(maxNodes, graph.getNodeCount());
+		int capacity = Math.max(Math.min(maxNodes, 1024), 1);
+		isochrone.slots = new LongIntHashMap(capacity);
+		isochrone.nodes = new int[capacity];
+		isochrone.costs = new double[isochrone.nodes.length];
+
+		SearchWorkspace.Search search = SearchWorkspace.get(graph.getNodeCount()).forward;
+		IndexedMinHeap heap = search.heap;
+
+		for (int i = 0; i < source.size(); i++) {
+			int v = source.getGraphNode(i);
+			double cost = isochrone.getConnectionCost(source, i, aSelector);
+			if (cost <= maxCost && cost < search.getDistance(v)) {
+				search.reach(v, cost, -1 - i, -1);
+				heap.insertOrDecrease(v, cost);
+			}
+		}
+
+		while (!heap.isEmpty() && isochrone.size < maxNodes) {
+			int u = heap.poll();
+			search.settle(u);
+			double cost = search.getDistance(u);
+			isochrone.add(u, cost);
+
+			int lastEdge = graph.getFirstEdge(u + 1);
+			for (int e = graph.getFirstEdge(u); e < lastEdge; e++) {
+				/* we are going FROM u TO w */
+				int w = graph.getEdgeTarget(e);
+				if (search.isSettled(w) || !graph.isEdgeAllowed(e, access)) {
+					continue;
+				}
+				double newCost = cost + isochrone.getEdgeCost(e);
+				if (newCost <= maxCost && newCost < search.getDistance(w)) {
+					search.reach(w, newCost, u, e);
+					heap.insertOrDecrease(w, newCost);
+				}
+			}
+		}
+
+		/* nodes left in the heap have not been added because of maxNodes */
+		isochrone.radius = heap.isEmpty() ? Double.POSITIVE_INFINITY : heap.peekKey();
+
+		LOG.log(Level.INFO, "MobileIsochrone contains " + isochrone.size + " nodes");
+
+		return isochrone;
+	}
+
+
+	private static double getCostPerLength(Vehicle vehicle, Way way) {
+		/* km/h -> minutes per meter */
+		return 60.0 / (1000.0 * vehicle.getMaxSpeedOnWay(way));
+	}
+
+
+	private double getEdgeCost(int e) {
+		double length = graph.getEdgeLength(e);
+		return wayCostsPerLength == null ? length : length * wayCostsPerLength[graph.getEdgeWay(e)];
+	}
+
+
+	private double getConnectionCost(GraphEndpoint endpoint, int i, IVehicle aSelector) {
+		Way way = endpoint.getWay(i);
+		if (wayCostsPerLength == null || way == null) {
+			return endpoint.getCost(i);
+		}
+		return endpoint.getCost(i) * getCostPerLength((Vehicle)aSelector, way);
+	}
+
+
+	private void add(int node, double cost) {
+		if (size == nodes.length) {
+			int[] newNodes = new int[2 * nodes.length];
+			System.arraycopy(nodes, 0, newNodes, 0, size);
+			nodes = newNodes;
+			double[] newCosts = new double[2 * costs.length];
+			System.arraycopy(costs, 0, newCosts, 0, size);
+			costs = newCosts;
+		}
+		slots.put(node, size);
+		nodes[size] = node;
+		costs[size] = cost;
+		size++;
+	}
+
+
+	public Node getStartNode() {
+		return startNode;
+	}
+
+
+	/**
+	 * returns true if the costs are travel times in minutes, false if they are lengths in meters
+	 * @return
+	 */
+	public boolean isTravelTime() {
+		return wayCostsPerLength != null;
+	}
+
+
+	public double getMaxCost() {
+		return maxCost;
+	}
+
+
+	/**
+	 * returns true if the search has been stopped by the maximum number of nodes
+	 * before all nodes within the maximum cost have been found
+	 * @return
+	 */
+	public boolean isTruncated() {
+		return radius != Double.POSITIVE_INFINITY;
+	}
+
+
+	/**
+	 * returns the number of graph nodes in the isochrone
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+
+
+	/**
+	 * returns the OpenStreetMap id of the i-th node (nodes are ordered by cost)
+	 * @param i
+	 * @return
+	 */
+	public long getNodeId(int i) {
+		return graph.getNodeId(nodes[i]);
+	}
+
+
+	public double getCost(int i) {
+		return costs[i];
+	}
+
+
+	/**
+	 * returns the cost of reaching the given street node, which may be a node
+	 * of the graph or a node on one of the ways of the given map. Returns
+	 * infinity if the node cannot be reached at a cost of at most the maximum
+	 * cost and NaN if this is unknown because the isochrone has been truncated.
+	 * @param aMap
+	 * @param aNode
+	 * @param aSelector
+	 * @return
+	 */
+	public double getCost(final IDataSet aMap, final Node aNode, final IVehicle aSelector) {
+		if (aNode.getId() == startNode.getId()) {
+			return 0;
+		}
+
+		GraphEndpoint target = GraphEndpoint.create(aMap, graph, aNode, aSelector, false, null);
+		double cost = Double.POSITIVE_INFINITY;
+		double outsideCost = Double.POSITIVE_INFINITY;
+
+		/* the node may lie on the same way as the starting point */
+		GraphEndpoint source = GraphEndpoint.create(aMap, graph, startNode, aSelector, true, aNode);
+		if (source.getDirectWay() != null) {
+			cost = source.getDirectCost();
+			if (wayCostsPerLength != null) {
+				cost *= getCostPerLength((Vehicle)aSelector, source.getDirectWay());
+			}
+		}
+
+		for (int i = 0; i < target.size(); i++) {
+			int slot = slots.get(target.getGraphNode(i));
+			double connectionCost = getConnectionCost(target, i, aSelector);
+			if (slot == LongIntHashMap.NO_VALUE) {
+				outsideCost = Math.min(outsideCost, radius + connectionCost);
+			} else {
+				cost = Math.min(cost, costs[slot] + connectionCost);
+			}
+		}
+
+		if (cost > outsideCost && outsideCost <= maxCost) {
+			return Double.NaN;
+		}
+		return cost <= maxCost ? cost : Double.POSITIVE_INFINITY;
+	}
+
+}
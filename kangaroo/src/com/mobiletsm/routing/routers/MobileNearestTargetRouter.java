@@ -0,0 +1,234 @@
+package com.mobiletsm.routing.routers;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.openstreetmap.osm.data.IDataSet;
+import org.openstreetmap.osmosis.core.domain.v0_6.Node;
+import org.openstreetmap.osmosis.core.domain.v0_6.Way;
+import org.openstreetmap.travelingsalesman.routing.IVehicle;
+import org.openstreetmap.travelingsalesman.routing.Route;
+import org.openstreetmap.travelingsalesman.routing.Route.RoutingStep;
+import org.openstreetmap.travelingsalesman.routing.metrics.IRoutingMetric;
+import org.openstreetmap.travelingsalesman.routing.metrics.ShortestRouteMetric;
+
+import com.mobiletsm.osm.data.MobileRoutingInterfaceDataSet;
+import com.mobiletsm.osm.data.RoutingGraph;
+import com.mobiletsm.routing.metrics.MobileRoutingMetric;
+
+
+/**
+ * Finds the route from a starting point to the nearest (by route) of many
+ * target nodes with a single Dijkstra search on the {@link RoutingGraph}
+ * provided by a {@link MobileRoutingInterfaceDataSet}. The targets are
+ * connected to the graph nodes next to them and the search stops as soon
+ * as no node is left that is closer than the best target found so far, so
+ * only the part of the graph around the starting point up to the nearest
+ * target is searched. The target that has been reached is the end node of
+ * the last step of the route.
+ *
+ * Edge costs are told like in {@link MobileOneToManyRouter}. Without a
+ * routing graph, the route is calculated by a {@link MobileMultiTargetDijkstraRouter}.
+ */
+public class MobileNearestTargetRouter {
+
+
+	private static final Logger LOG = Logger.getLogger(MobileNearestTargetRouter.class.getName());
+
+
+	private IRoutingMetric myMetric = new ShortestRouteMetric();
+
+
+	private MobileMultiTargetDijkstraRouter fallbackRouter = new MobileMultiTargetDijkstraRouter();
+
+
+	public IRoutingMetric getMetric() {
+		return myMetric;
+	}
+
+
+	public void setMetric(final IRoutingMetric aMetric) {
+		myMetric = aMetric;
+		fallbackRouter.setMetric(aMetric);
+	}
+
+
+	/**
+	 * find the route from the given starting point to the nearest of the given
+	 * target nodes. Returns null if none of the target nodes can be reached or
+	 * the starting point is a target node itself.
+	 * @param aMap
+	 * @param aTargetNodes
+	 * @param aStartNode
+	 * @param aSelector
+	 * @return
+	 */
+	public Route route(final IDataSet aMap, final Collection<Node> aTargetNodes, final Node aStartNode,
+			final IVehicle aSelector) {
+
+		for (Node target : aTargetNodes) {
+			if (target.getId() == aStartNode.getId()) {
+				return null;
+			}
+		}
+
+		RoutingGraph graph = null;
+		if (aMap instanceof MobileRoutingInterfaceDataSet) {
+			graph = ((MobileRoutingInterfaceDataSet)aMap).getRoutingGraph();
+		}
+		if (graph == null) {
+			return aTargetNodes.isEmpty() ? null : fallbackRouter.route(aMap, aTargetNodes, aStartNode, aSelector);
+		}
+
+		LOG.log(Level.INFO, "MobileNearestTargetRouter starting...");
+
+		/* edge costs (null if the lengths are used) */
+		myMetric.setMap(aMap);
+		boolean useLengths = myMetric instanceof MobileRoutingMetric;
+		IRoutingMetric endpointMetric = useLengths ? null : myMetric;
+		double[] costs = useLengths ? null : graph.getEdgeCosts(aMap, myMetric);
+		byte[] access = graph.getWayAccess(aMap, aSelector);
+
+		SearchWorkspace.Search search = SearchWorkspace.get(graph.getNodeCount()).forward;
+		IndexedMinHeap heap = search.heap;
+		GraphEndpoint source = GraphEndpoint.create(aMap, graph, aStartNode, aSelector, true, null);
+		boolean startInGraph = graph.getNodeIndex(aStartNode.getId()) != -1;
+
+		List<Node> targets = new ArrayList<Node>(aTargetNodes);
+		int count = targets.size();
+
+		/* the best target found so far, the connection of its endpoint it has
+		 * been found at (-1 for a direct connection) and the way of a direct connection */
+		double bestCost = Double.POSITIVE_INFINITY;
+		int bestTarget = -1;
+		int bestConnection = -1;
+		Way directWay = null;
+		GraphEndpoint[] endpoints = new GraphEndpoint[count];
+
+		/* connections of the targets, listed by graph node (the first
+		 * connection of a node is stored as its link) */
+		int maxConnections = GraphEndpoint.MAX_CONNECTIONS * count;
+		int[] nextConnection = new int[maxConnections];
+		int[] connectionOwners = new int[maxConnections];
+		int[] connectionIndices = new int[maxConnections];
+		double[] connectionCosts = new double[maxConnections];
+		int connectionCount = 0;
+
+		for (int j = 0; j < count; j++) {
+			Node target = targets.get(j);
+			GraphEndpoint endpoint = GraphEndpoint.create(aMap, graph, target, aSelector, false, null);
+			endpoints[j] = endpoint;
+
+			/* the target may lie on the same way between two graph nodes as the starting point */
+			if (!startInGraph && graph.getNodeIndex(target.getId()) == -1) {
+				GraphEndpoint direct = GraphEndpoint.create(aMap, graph, aStartNode, aSelector, true, target);
+				if (direct.getDirectWay() != null) {
+					double cost = useLengths ? direct.getDirectCost() : myMetric.getCost(
+							new RoutingStep(aMap, aStartNode, target, direct.getDirectWay()));
+					if (cost < bestCost) {
+						bestCost = cost;
+						bestTarget = j;
+						bestConnection = -1;
+						directWay = direct.getDirectWay();
+					}
+				}
+			}
+
+			for (int i = 0; i < endpoint.size(); i++) {
+				int v = endpoint.getGraphNode(i);
+				connectionOwners[connectionCount] = j;
+				connectionIndices[connectionCount] = i;
+				connectionCosts[connectionCount] = endpoint.getCost(i, aMap, graph, endpointMetric);
+				nextConnection[connectionCount] = search.getLink(v);
+				search.setLink(v, connectionCount);
+				connectionCount++;
+			}
+		}
+
+		/* start at the graph nodes connected to the starting point (a parent
+		 * of -1 - i marks the i-th connection of the source endpoint) */
+		for (int i = 0; i < source.size(); i++) {
+			int v = source.getGraphNode(i);
+			double cost = source.getCost(i, aMap, graph, endpointMetric);
+			if (cost < search.getDistance(v)) {
+				search.reach(v, cost, -1 - i, -1);
+				heap.insertOrDecrease(v, cost);
+			}
+		}
+
+		while (!heap.isEmpty() && heap.peekKey() < bestCost) {
+			int u = heap.poll();
+			search.settle(u);
+			double distance = search.getDistance(u);
+
+			for (int c = search.getLink(u); c != -1; c = nextConnection[c]) {
+				if (distance + connectionCosts[c] < bestCost) {
+					bestCost = distance + connectionCosts[c];
+					bestTarget = connectionOwners[c];
+					bestConnection = connectionIndices[c];
+				}
+			}
+
+			int lastEdge = graph.getFirstEdge(u + 1);
+			for (int e = graph.getFirstEdge(u); e < lastEdge; e++) {
+				/* we are going FROM u TO w */
+				if (!graph.isEdgeAllowed(e, access)) {
+					continue;
+				}
+				int w = graph.getEdgeTarget(e);
+				if (search.isSettled(w)) {
+					continue;
+				}
+				double newDistance = distance + (useLengths ? graph.getEdgeLength(e) : costs[2 * e]);
+				if (newDistance < search.getDistance(w)) {
+					search.reach(w, newDistance, u, e);
+					heap.insertOrDecrease(w, newDistance);
+				}
+			}
+		}
+
+		if (bestTarget == -1) {
+			LOG.log(Level.INFO, "MobileNearestTargetRouter found no target");
+			return null;
+		}
+
+		Node target = targets.get(bestTarget);
+		LinkedList<RoutingStep> steps = new LinkedList<RoutingStep>();
+		if (bestConnection == -1) {
+			MobileGraphDijkstraRouter.addStep(aMap, steps, aStartNode, target, directWay);
+			return new Route(aMap, steps, aStartNode);
+		}
+
+		/* nodes from the starting point to the graph node connected to the target */
+		LinkedList<Integer> nodes = new LinkedList<Integer>();
+		int v = endpoints[bestTarget].getGraphNode(bestConnection);
+		while (search.getParent(v) >= 0) {
+			nodes.addFirst(v);
+			v = search.getParent(v);
+		}
+		Node current = MobileGraphDijkstraRouter.getNode(aMap, graph, v);
+		Way way = source.getWay(-1 - search.getParent(v));
+		if (way != null) {
+			MobileGraphDijkstraRouter.addStep(aMap, steps, aStartNode, current, way);
+		}
+		for (Integer w : nodes) {
+			Node next = MobileGraphDijkstraRouter.getNode(aMap, graph, w);
+			MobileGraphDijkstraRouter.addStep(aMap, steps, current, next,
+					graph.getWay(graph.getEdgeWay(search.getParentEdge(w))));
+			current = next;
+		}
+		way = endpoints[bestTarget].getWay(bestConnection);
+		if (way != null) {
+			MobileGraphDijkstraRouter.addStep(aMap, steps, current, target, way);
+		}
+
+		LOG.log(Level.INFO, "MobileNearestTargetRouter found target " + target.getId());
+
+		return new Route(aMap, steps, aStartNode);
+	}
+
+}
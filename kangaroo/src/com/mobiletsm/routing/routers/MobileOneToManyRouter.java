@@ -0,0 +1,322 @@
+package com.mobiletsm.routing.routers;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.openstreetmap.osm.data.IDataSet;
+import org.openstreetmap.osmosis.core.domain.v0_6.Node;
+import org.openstreetmap.osmosis.core.domain.v0_6.Way;
+import org.openstreetmap.travelingsalesman.routing.IVehicle;
+import org.openstreetmap.travelingsalesman.routing.Route;
+import org.openstreetmap.travelingsalesman.routing.Route.RoutingStep;
+import org.openstreetmap.travelingsalesman.routing.metrics.IRoutingMetric;
+import org.openstreetmap.travelingsalesman.routing.metrics.ShortestRouteMetric;
+
+import com.mobiletsm.osm.data.MobileRoutingInterfaceDataSet;
+import com.mobiletsm.osm.data.RoutingGraph;
+import com.mobiletsm.routing.metrics.MobileRoutingMetric;
+
+
+/**
+ * Finds the routes from one starting point to many destinations (or from many
+ * starting points to one destination) with a single Dijkstra search on the
+ * {@link RoutingGraph} provided by a {@link MobileRoutingInterfaceDataSet}.
+ * The search grows a shortest path tree from the common node (forwards from
+ * the starting point or backwards from the destination) until the best routes
+ * to all other nodes are known.
+ *
+ * With a {@link MobileRoutingMetric} the edge costs are the lengths stored in
+ * the graph, any other metric is asked for the costs of the edges (turn costs
+ * are not taken into account). Without a routing graph, every route is
+ * calculated on its own by a {@link MobileCHRouter}.
+ */
+public class MobileOneToManyRouter {
+
+
+	private static final Logger LOG = Logger.getLogger(MobileOneToManyRouter.class.getName());
+
+
+	private IRoutingMetric myMetric = new ShortestRouteMetric();
+
+
+	private MobileCHRouter fallbackRouter = new MobileCHRouter();
+
+
+	public IRoutingMetric getMetric() {
+		return myMetric;
+	}
+
+
+	public void setMetric(final IRoutingMetric aMetric) {
+		myMetric = aMetric;
+		fallbackRouter.setMetric(aMetric);
+	}
+
+
+	/**
+	 * find the routes from the given starting point to each of the given target
+	 * nodes. The route at position i leads to the i-th target node and is null
+	 * if there is no route or the target node is the starting point itself.
+	 * @param aMap
+	 * @param aStartNode
+	 * @param aTargetNodes
+	 * @param aSelector
+	 * @return
+	 */
+	public Route[] routeToTargets(final IDataSet aMap, final Node aStartNode, final List<Node> aTargetNodes,
+			final IVehicle aSelector) {
+		return route(aMap, aStartNode, aTargetNodes, aSelector, true);
+	}
+
+
+	/**
+	 * find the routes from each of the given starting points to the given target
+	 * node. The route at position i starts at the i-th starting point and is null
+	 * if there is no route or the starting point is the target node itself.
+	 * @param aMap
+	 * @param aStartNodes
+	 * @param aTargetNode
+	 * @param aSelector
+	 * @return
+	 */
+	public Route[] routeFromStarts(final IDataSet aMap, final List<Node> aStartNodes, final Node aTargetNode,
+			final IVehicle aSelector) {
+		return route(aMap, aTargetNode, aStartNodes, aSelector, false);
+	}
+
+
+	/**
+	 * grow a shortest path tree from the root node, along the edges if forward is
+	 * true (root node is the starting point) and against them otherwise (root node
+	 * is the destination)
+	 */
+	private Route[] route(final IDataSet aMap, final Node aRootNode, final List<Node> aOtherNodes,
+			final IVehicle aSelector, final boolean forward) {
+
+		int count = aOtherNodes.size();
+		Route[] routes = new Route[count];
+
+		RoutingGraph graph = null;
+		if (aMap instanceof MobileRoutingInterfaceDataSet) {
+			graph = ((MobileRoutingInterfaceDataSet)aMap).getRoutingGraph();
+		}
+		if (graph == null) {
+			for (int j = 0; j < count; j++) {
+				Node other = aOtherNodes.get(j);
+				routes[j] = forward ? fallbackRouter.route(aMap, other, aRootNode, aSelector)
+						: fallbackRouter.route(aMap, aRootNode, other, aSelector);
+			}
+			return routes;
+		}
+
+		LOG.log(Level.INFO, "MobileOneToManyRouter starting...");
+
+		/* edge costs (null if the lengths are used) */
+		myMetric.setMap(aMap);
+		boolean useLengths = myMetric instanceof MobileRoutingMetric;
+		IRoutingMetric endpointMetric = useLengths ? null : myMetric;
+		double[] costs = useLengths ? null : graph.getEdgeCosts(aMap, myMetric);
+		byte[] access = graph.getWayAccess(aMap, aSelector);
+
+		SearchWorkspace.Search search = SearchWorkspace.get(graph.getNodeCount()).forward;
+		IndexedMinHeap heap = search.heap;
+		GraphEndpoint root = GraphEndpoint.create(aMap, graph, aRootNode, aSelector, forward, null);
+		boolean rootInGraph = graph.getNodeIndex(aRootNode.getId()) != -1;
+
+		/* best cost found so far for every other node and the connection of
+		 * its endpoint it has been found at (-1 for a direct connection) */
+		GraphEndpoint[] others = new GraphEndpoint[count];
+		double[] bestCosts = new double[count];
+		int[] bestConnections = new int[count];
+		Way[] directWays = new Way[count];
+
+		/* connections of the other endpoints, listed by graph node (the
+		 * first connection of a node is stored as its link) */
+		int maxConnections = GraphEndpoint.MAX_CONNECTIONS * count;
+		int[] nextConnection = new int[maxConnections];
+		int[] connectionOwners = new int[maxConnections];
+		int[] connectionIndices = new int[maxConnections];
+		double[] connectionCosts = new double[maxConnections];
+		int connectionCount = 0;
+
+		for (int j = 0; j < count; j++) {
+			Node other = aOtherNodes.get(j);
+			bestCosts[j] = Double.POSITIVE_INFINITY;
+			bestConnections[j] = -1;
+			if (other.getId() == aRootNode.getId()) {
+				continue;
+			}
+			GraphEndpoint endpoint = GraphEndpoint.create(aMap, graph, other, aSelector, !forward, null);
+			others[j] = endpoint;
+
+			/* both nodes may lie on the same way between two graph nodes */
+			if (!rootInGraph && graph.getNodeIndex(other.getId()) == -1) {
+				Node start = forward ? aRootNode : other;
+				Node target = forward ? other : aRootNode;
+				GraphEndpoint direct = GraphEndpoint.create(aMap, graph, start, aSelector, true, target);
+				if (direct.getDirectWay() != null) {
+					directWays[j] = direct.getDirectWay();
+					bestCosts[j] = useLengths ? direct.getDirectCost() : myMetric.getCost(
+							new RoutingStep(aMap, start, target, direct.getDirectWay()));
+				}
+			}
+
+			for (int i = 0; i < endpoint.size(); i++) {
+				int v = endpoint.getGraphNode(i);
+				connectionOwners[connectionCount] = j;
+				connectionIndices[connectionCount] = i;
+				connectionCosts[connectionCount] = endpoint.getCost(i, aMap, graph, endpointMetric);
+				nextConnection[connectionCount] = search.getLink(v);
+				search.setLink(v, connectionCount);
+				connectionCount++;
+			}
+		}
+
+		/* start at the graph nodes connected to the root node (a parent of
+		 * -1 - i marks the i-th connection of the root endpoint) */
+		for (int i = 0; i < root.size(); i++) {
+			int v = root.getGraphNode(i);
+			double cost = root.getCost(i, aMap, graph, endpointMetric);
+			if (cost < search.getDistance(v)) {
+				search.reach(v, cost, -1 - i, -1);
+				heap.insertOrDecrease(v, cost);
+			}
+		}
+
+		double bound = getBound(others, bestCosts);
+		while (!heap.isEmpty() && heap.peekKey() < bound) {
+			int u = heap.poll();
+			search.settle(u);
+			double distance = search.getDistance(u);
+
+			boolean improved = false;
+			for (int c = search.getLink(u); c != -1; c = nextConnection[c]) {
+				int j = connectionOwners[c];
+				if (distance + connectionCosts[c] < bestCosts[j]) {
+					bestCosts[j] = distance + connectionCosts[c];
+					bestConnections[j] = connectionIndices[c];
+					improved = true;
+				}
+			}
+			if (improved) {
+				bound = getBound(others, bestCosts);
+			}
+
+			int lastEdge = graph.getFirstEdge(u + 1);
+			for (int e = graph.getFirstEdge(u); e < lastEdge; e++) {
+				double cost;
+				if (forward) {
+					/* we are going FROM u TO w */
+					if (!graph.isEdgeAllowed(e, access)) {
+						continue;
+					}
+					cost = useLengths ? graph.getEdgeLength(e) : costs[2 * e];
+				} else {
+					/* we are going FROM w TO u */
+					if (!graph.isReverseEdgeAllowed(e, access)) {
+						continue;
+					}
+					cost = useLengths ? graph.getEdgeLength(e) : costs[2 * e + 1];
+				}
+				int w = graph.getEdgeTarget(e);
+				if (search.isSettled(w)) {
+					continue;
+				}
+				double newDistance = distance + cost;
+				if (newDistance < search.getDistance(w)) {
+					search.reach(w, newDistance, u, e);
+					heap.insertOrDecrease(w, newDistance);
+				}
+			}
+		}
+
+		LOG.log(Level.INFO, "MobileOneToManyRouter finished search, reconstructing paths...");
+
+		for (int j = 0; j < count; j++) {
+			if (others[j] == null || bestCosts[j] == Double.POSITIVE_INFINITY) {
+				continue;
+			}
+			Node other = aOtherNodes.get(j);
+			LinkedList<RoutingStep> steps = new LinkedList<RoutingStep>();
+
+			if (bestConnections[j] == -1) {
+				if (forward) {
+					MobileGraphDijkstraRouter.addStep(aMap, steps, aRootNode, other, directWays[j]);
+					routes[j] = new Route(aMap, steps, aRootNode);
+				} else {
+					MobileGraphDijkstraRouter.addStep(aMap, steps, other, aRootNode, directWays[j]);
+					routes[j] = new Route(aMap, steps, other);
+				}
+				continue;
+			}
+
+			int graphNode = others[j].getGraphNode(bestConnections[j]);
+			Way otherWay = others[j].getWay(bestConnections[j]);
+
+			if (forward) {
+				/* nodes from the root node to the graph node connected to the target */
+				LinkedList<Integer> nodes = new LinkedList<Integer>();
+				int v = graphNode;
+				while (search.getParent(v) >= 0) {
+					nodes.addFirst(v);
+					v = search.getParent(v);
+				}
+				Node current = MobileGraphDijkstraRouter.getNode(aMap, graph, v);
+				Way way = root.getWay(-1 - search.getParent(v));
+				if (way != null) {
+					MobileGraphDijkstraRouter.addStep(aMap, steps, aRootNode, current, way);
+				}
+				for (Integer w : nodes) {
+					Node next = MobileGraphDijkstraRouter.getNode(aMap, graph, w);
+					MobileGraphDijkstraRouter.addStep(aMap, steps, current, next,
+							graph.getWay(graph.getEdgeWay(search.getParentEdge(w))));
+					current = next;
+				}
+				if (otherWay != null) {
+					MobileGraphDijkstraRouter.addStep(aMap, steps, current, other, otherWay);
+				}
+				routes[j] = new Route(aMap, steps, aRootNode);
+			} else {
+				/* nodes from the graph node connected to the start to the root node */
+				Node current = MobileGraphDijkstraRouter.getNode(aMap, graph, graphNode);
+				if (otherWay != null) {
+					MobileGraphDijkstraRouter.addStep(aMap, steps, other, current, otherWay);
+				}
+				int v = graphNode;
+				while (search.getParent(v) >= 0) {
+					int u = search.getParent(v);
+					Node next = MobileGraphDijkstraRouter.getNode(aMap, graph, u);
+					MobileGraphDijkstraRouter.addStep(aMap, steps, current, next,
+							graph.getWay(graph.getEdgeWay(search.getParentEdge(v))));
+					current = next;
+					v = u;
+				}
+				Way way = root.getWay(-1 - search.getParent(v));
+				if (way != null) {
+					MobileGraphDijkstraRouter.addStep(aMap, steps, current, aRootNode, way);
+				}
+				routes[j] = new Route(aMap, steps, other);
+			}
+		}
+
+		return routes;
+	}
+
+
+	/**
+	 * returns the largest of the best costs found so far, so the search may stop
+	 * as soon as no node with a smaller distance is left
+	 */
+	private static double getBound(GraphEndpoint[] others, double[] bestCosts) {
+		double bound = 0;
+		for (int j = 0; j < others.length; j++) {
+			if (others[j] != null && bestCosts[j] > bound) {
+				bound = bestCosts[j];
+			}
+		}
+		return bound;
+	}
+
+}
@@ -0,0 +1,242 @@
+package com.mobiletsm.routing.routers;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.openstreetmap.osm.data.IDataSet;
+import org.openstreetmap.osmosis.core.domain.v0_6.Node;
+import org.openstreetmap.osmosis.core.domain.v0_6.Way;
+import org.openstreetmap.travelingsalesman.routing.IVehicle;
+import org.openstreetmap.travelingsalesman.routing.Route;
+import org.openstreetmap.travelingsalesman.routing.Route.RoutingStep;
+
+import com.mobiletsm.osm.data.MobileRoutingInterfaceDataSet;
+import com.mobiletsm.osm.data.RoutingGraph;
+
+
+/**
+ * A complete shortest path tree grown forwards from an origin on the
+ * {@link RoutingGraph} provided by a {@link MobileRoutingInterfaceDataSet}
+ * and kept for later queries (like the {@link MobileDestinationTree} grown
+ * towards a destination). It holds the shortest distance (the lengths stored
+ * in the graph) from the origin and the parent of every graph node, indexed
+ * by graph node, so the route from the origin to any node is found by looking
+ * up the graph nodes the node is connected to and following the tree back to
+ * the origin, without a new search.
+ */
+public class MobileOriginTree {
+
+
+	private static final Logger LOG = Logger.getLogger(MobileOriginTree.class.getName());
+
+
+	private RoutingGraph graph;
+
+
+	/* copy of the access mask the tree has been grown for */
+	private byte[] access;
+
+
+	private Node originNode;
+
+
+	private GraphEndpoint origin;
+
+
+	/* distance from the origin (infinite if the node cannot be reached), parent
+	 * (or -1 - i for the i-th connection of the origin endpoint) and edge from
+	 * the parent by graph node */
+
+	private float[] distances;
+
+	private int[] parents;
+
+	private int[] parentEdges;
+
+
+	private MobileOriginTree() {
+	}
+
+
+	/**
+	 * grow a tree from the given origin node to all graph nodes. Returns null
+	 * if the map does not provide a routing graph.
+	 * @param aMap
+	 * @param aOriginNode
+	 * @param aSelector
+	 * @return
+	 */
+	public static MobileOriginTree grow(final IDataSet aMap, final Node aOriginNode, final IVehicle aSelector) {
+
+		RoutingGraph graph = null;
+		if (aMap instanceof MobileRoutingInterfaceDataSet) {
+			graph = ((MobileRoutingInterfaceDataSet)aMap).getRoutingGraph();
+		}
+		if (graph == null) {
+			return null;
+		}
+
+		LOG.log(Level.INFO, "MobileOriginTree growing...");
+
+		MobileOriginTree tree = new MobileOriginTree();
+		tree.graph = graph;
+		byte[] access = graph.getWayAccess(aMap, aSelector);
+		tree.access = new byte[access.length];
+		System.arraycopy(access, 0, tree.access, 0, access.length);
+		tree.originNode = aOriginNode;
+		tree.origin = GraphEndpoint.create(aMap, graph, aOriginNode, aSelector, true, null);
+
+		int nodeCount = graph.getNodeCount();
+		tree.distances = new float[nodeCount];
+		tree.parents = new int[nodeCount];
+		tree.parentEdges = new int[nodeCount];
+		Arrays.fill(tree.distances, Float.POSITIVE_INFINITY);
+
+		SearchWorkspace.Search search = SearchWorkspace.get(nodeCount).forward;
+		IndexedMinHeap heap = search.heap;
+
+		for (int i = 0; i < tree.origin.size(); i++) {
+			int v = tree.origin.getGraphNode(i);
+			double distance = tree.origin.getCost(i);
+			if (distance < search.getDistance(v)) {
+				search.reach(v, distance, -1 - i, -1);
+				heap.insertOrDecrease(v, distance);
+			}
+		}
+
+		int size = 0;
+		while (!heap.isEmpty()) {
+			int u = heap.poll();
+			search.settle(u);
+			double distance = search.getDistance(u);
+
+			tree.distances[u] = (float)distance;
+			tree.parents[u] = search.getParent(u);
+			tree.parentEdges[u] = search.getParentEdge(u);
+			size++;
+
+			int lastEdge = graph.getFirstEdge(u + 1);
+			for (int e = graph.getFirstEdge(u); e < lastEdge; e++) {
+				/* we are going FROM u TO w */
+				int w = graph.getEdgeTarget(e);
+				if (search.isSettled(w) || !graph.isEdgeAllowed(e, tree.access)) {
+					continue;
+				}
+				double newDistance = distance + graph.getEdgeLength(e);
+				if (newDistance < search.getDistance(w)) {
+					search.reach(w, newDistance, u, e);
+					heap.insertOrDecrease(w, newDistance);
+				}
+			}
+		}
+
+		LOG.log(Level.INFO, "MobileOriginTree reaches " + size + " nodes");
+
+		return tree;
+	}
+
+
+	public Node getOriginNode() {
+		return originNode;
+	}
+
+
+	/**
+	 * returns the number of graph nodes the tree holds labels for
+	 * @return
+	 */
+	public int size() {
+		return distances.length;
+	}
+
+
+	/**
+	 * returns true if the tree can be used for routing on the given map with
+	 * the given vehicle
+	 * @param aMap
+	 * @param aSelector
+	 * @return
+	 */
+	public boolean isValidFor(final IDataSet aMap, final IVehicle aSelector) {
+		if (!(aMap instanceof MobileRoutingInterfaceDataSet)
+				|| ((MobileRoutingInterfaceDataSet)aMap).getRoutingGraph() != graph) {
+			return false;
+		}
+		return Arrays.equals(access, graph.getWayAccess(aMap, aSelector));
+	}
+
+
+	/**
+	 * find the route from the origin of the tree to the given target node.
+	 * Returns null if the target node cannot be reached or the tree is not
+	 * valid for the given map and vehicle (see isValidFor()).
+	 * @param aMap
+	 * @param aTargetNode
+	 * @param aSelector
+	 * @return
+	 */
+	public Route route(final IDataSet aMap, final Node aTargetNode, final IVehicle aSelector) {
+
+		if (aTargetNode.getId() == originNode.getId() || !isValidFor(aMap, aSelector)) {
+			return null;
+		}
+
+		GraphEndpoint target = GraphEndpoint.create(aMap, graph, aTargetNode, aSelector, false, null);
+
+		/* the best connection out of the tree (-1 for the direct connection of
+		 * the origin to the target along a way) */
+		double bestDistance = Double.POSITIVE_INFINITY;
+		int bestConnection = -1;
+		Way directWay = null;
+		if (graph.getNodeIndex(originNode.getId()) == -1 && graph.getNodeIndex(aTargetNode.getId()) == -1) {
+			GraphEndpoint direct = GraphEndpoint.create(aMap, graph, originNode, aSelector, true, aTargetNode);
+			bestDistance = direct.getDirectCost();
+			directWay = direct.getDirectWay();
+		}
+		for (int i = 0; i < target.size(); i++) {
+			int v = target.getGraphNode(i);
+			if (distances[v] + target.getCost(i) < bestDistance) {
+				bestDistance = distances[v] + target.getCost(i);
+				bestConnection = i;
+			}
+		}
+
+		if (bestDistance == Double.POSITIVE_INFINITY) {
+			return null;
+		}
+
+		LinkedList<RoutingStep> steps = new LinkedList<RoutingStep>();
+		if (bestConnection == -1) {
+			MobileGraphDijkstraRouter.addStep(aMap, steps, originNode, aTargetNode, directWay);
+			return new Route(aMap, steps, originNode);
+		}
+
+		/* nodes from the origin to the graph node connected to the target */
+		LinkedList<Integer> nodes = new LinkedList<Integer>();
+		int v = target.getGraphNode(bestConnection);
+		while (parents[v] >= 0) {
+			nodes.addFirst(v);
+			v = parents[v];
+		}
+		Node current = MobileGraphDijkstraRouter.getNode(aMap, graph, v);
+		Way way = origin.getWay(-1 - parents[v]);
+		if (way != null) {
+			MobileGraphDijkstraRouter.addStep(aMap, steps, originNode, current, way);
+		}
+		for (Integer w : nodes) {
+			Node next = MobileGraphDijkstraRouter.getNode(aMap, graph, w);
+			MobileGraphDijkstraRouter.addStep(aMap, steps, current, next,
+					graph.getWay(graph.getEdgeWay(parentEdges[w])));
+			current = next;
+		}
+		way = target.getWay(bestConnection);
+		if (way != null) {
+			MobileGraphDijkstraRouter.addStep(aMap, steps, current, aTargetNode, way);
+		}
+
+		return new Route(aMap, steps, originNode);
+	}
+
+}
@@ -0,0 +1,197 @@
+package com.mobiletsm.routing.routers;
+
+import java.util.Arrays;
+
+
+/**
+ * The search state of the routers running on a routing graph (distances,
+ * parents, settled flags and the priority queue), kept per thread and reused
+ * for every query instead of allocating arrays sized to the graph each time.
+ * Every entry is stamped with the generation of the search that wrote it, so
+ * starting a new search only increments the generation: entries with an older
+ * stamp read as unreached, unsettled and unset.
+ *
+ * The state obtained by {@link #get(int)} must not be held across a call to
+ * another router on the same thread.
+ */
+final class SearchWorkspace {
+
+
+	private static final ThreadLocal<SearchWorkspace> WORKSPACES = new ThreadLocal<SearchWorkspace>() {
+		@Override
+		protected SearchWorkspace initialValue() {
+			return new SearchWorkspace();
+		}
+	};
+
+
+	/**
+	 * returns the workspace of the current thread, reset for a new search on
+	 * a graph with the given number of nodes
+	 * @param nodeCount
+	 * @return
+	 */
+	static SearchWorkspace get(int nodeCount) {
+		SearchWorkspace workspace = WORKSPACES.get();
+		workspace.forward.reset(nodeCount);
+		workspace.backward.reset(nodeCount);
+		return workspace;
+	}
+
+
+	/* the state of a unidirectional search (or the forward half of a bidirectional one) */
+	final Search forward = new Search();
+
+
+	/* the state of the backward half of a bidirectional search */
+	final Search backward = new Search();
+
+
+	private SearchWorkspace() {
+	}
+
+
+	/**
+	 * The state of one search over the nodes of a graph.
+	 */
+	static final class Search {
+
+
+		final IndexedMinHeap heap = new IndexedMinHeap(1);
+
+
+		private int generation = 0;
+
+
+		/* distance, parent and parent edge are valid if reached[v] == generation */
+
+		private int[] reached = new int[0];
+
+		private double[] distances = new double[0];
+
+		private int[] parents = new int[0];
+
+		private int[] parentEdges = new int[0];
+
+
+		private int[] settled = new int[0];
+
+
+		/* additional per node values, valid if marked[v] == generation */
+
+		private int[] marked = new int[0];
+
+		private double[] values = new double[0];
+
+		private int[] links = new int[0];
+
+
+		private Search() {
+		}
+
+
+		private void reset(int nodeCount) {
+			heap.clear();
+			heap.ensureCapacity(nodeCount);
+			if (reached.length < nodeCount) {
+				reached = new int[nodeCount];
+				distances = new double[nodeCount];
+				parents = new int[nodeCount];
+				parentEdges = new int[nodeCount];
+				settled = new int[nodeCount];
+				marked = new int[nodeCount];
+				values = new double[nodeCount];
+				links = new int[nodeCount];
+				generation = 0;
+			}
+			if (generation == Integer.MAX_VALUE) {
+				Arrays.fill(reached, 0);
+				Arrays.fill(settled, 0);
+				Arrays.fill(marked, 0);
+				generation = 0;
+			}
+			generation++;
+		}
+
+
+		/**
+		 * returns the distance node v has been reached at (infinity if it has not been reached)
+		 */
+		double getDistance(int v) {
+			return reached[v] == generation ? distances[v] : Double.POSITIVE_INFINITY;
+		}
+
+
+		/**
+		 * only valid if node v has been reached
+		 */
+		int getParent(int v) {
+			return parents[v];
+		}
+
+
+		/**
+		 * only valid if node v has been reached
+		 */
+		int getParentEdge(int v) {
+			return parentEdges[v];
+		}
+
+
+		/**
+		 * store that node v has been reached at the given distance from the given parent
+		 */
+		void reach(int v, double distance, int parent, int parentEdge) {
+			reached[v] = generation;
+			distances[v] = distance;
+			parents[v] = parent;
+			parentEdges[v] = parentEdge;
+		}
+
+
+		boolean isSettled(int v) {
+			return settled[v] == generation;
+		}
+
+
+		void settle(int v) {
+			settled[v] = generation;
+		}
+
+
+		/**
+		 * returns the value stored for node v (NaN if none has been stored)
+		 */
+		double getValue(int v) {
+			return marked[v] == generation ? values[v] : Double.NaN;
+		}
+
+
+		/**
+		 * returns the link stored for node v (-1 if none has been stored)
+		 */
+		int getLink(int v) {
+			return marked[v] == generation ? links[v] : -1;
+		}
+
+
+		void setValue(int v, double value) {
+			if (marked[v] != generation) {
+				marked[v] = generation;
+				links[v] = -1;
+			}
+			values[v] = value;
+		}
+
+
+		void setLink(int v, int link) {
+			if (marked[v] != generation) {
+				marked[v] = generation;
+				values[v] = Double.NaN;
+			}
+			links[v] = link;
+		}
+
+	}
+
+}
@@ -0,0 +1,181 @@
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.openstreetmap.osmosis.core.domain.v0_6.Node;
+import org.openstreetmap.osmosis.core.domain.v0_6.Tag;
+
+import com.mobiletsm.osm.data.LongIntHashMap;
+import com.mobiletsm.osm.data.NodeTable;
+import com.mobiletsm.osmosis.core.domain.v0_6.MobileNode;
+
+
+/**
+ * Checks LongIntHashMap and NodeTable and prints the results of the given
+ * cases:
+ *
+ * maps: random puts, removes and gets on a LongIntHashMap and a NodeTable (with
+ * every tenth node tagged) give the results of a HashMap.
+ *
+ * heap: prints the heap per node taken by 200000 nodes in a HashMap and in a
+ * NodeTable.
+ *
+ * usage: NodeTableCheck [case ...]
+ */
+public class NodeTableCheck {
+
+
+	private static final String[] DEFAULT_CASES = new String[] {
+		"maps",
+		"heap"
+	};
+
+
+	public static void main(String[] args) throws Exception {
+		String[] cases = DEFAULT_CASES;
+		if (args.length > 0) {
+			cases = args;
+		}
+
+		for (String name : cases) {
+			if (name.equals("maps")) {
+				checkMaps();
+			} else if (name.equals("heap")) {
+				checkHeap();
+			} else {
+				System.out.println("NodeTableCheck: unknown case " + name);
+			}
+		}
+	}
+
+
+	private static void checkMaps() {
+		Random random = new Random(5);
+
+		/* keys in steps of 1024 to get collisions in the hash map */
+		LongIntHashMap map = new LongIntHashMap();
+		Map<Long, Integer> expectedMap = new HashMap<Long, Integer>();
+		int different = 0;
+		for (int i = 0; i < 2000000; i++) {
+			long key = random.nextInt(5000) * 1024L;
+			int operation = random.nextInt(3);
+			int found;
+			Integer expected;
+			if (operation == 0) {
+				int value = random.nextInt(1000);
+				found = map.put(key, value);
+				expected = expectedMap.put(key, value);
+			} else if (operation == 1) {
+				found = map.remove(key);
+				expected = expectedMap.remove(key);
+			} else {
+				found = map.get(key);
+				expected = expectedMap.get(key);
+			}
+			if (found != (expected == null ? LongIntHashMap.NO_VALUE : expected.intValue())
+					|| map.size() != expectedMap.size()) {
+				different++;
+			}
+		}
+		System.out.println("maps: 2000000 operations on a LongIntHashMap, " + different + " different from HashMap");
+
+		NodeTable table = new NodeTable();
+		Map<Long, Node> expectedTable = new HashMap<Long, Node>();
+		different = 0;
+		for (int i = 0; i < 300000; i++) {
+			long id = random.nextInt(3000);
+			int operation = random.nextInt(3);
+			Node found;
+			Node expected;
+			if (operation == 0) {
+				MobileNode node = new MobileNode(id, 48 + random.nextDouble(), 11 + random.nextDouble());
+				if (random.nextInt(10) == 0) {
+					node.getTags().add(new Tag("name", "node " + id));
+				}
+				found = table.put(id, node);
+				expected = expectedTable.put(id, node);
+			} else if (operation == 1) {
+				found = table.remove(id);
+				expected = expectedTable.remove(id);
+			} else {
+				found = table.get(id);
+				expected = expectedTable.get(id);
+			}
+			if (!isSame(found, expected) || table.size() != expectedTable.size()) {
+				different++;
+			}
+		}
+		Set<Long> ids = new HashSet<Long>();
+		for (Node node : table.values()) {
+			if (!isSame(node, expectedTable.get(node.getId()))) {
+				different++;
+			}
+			ids.add(node.getId());
+		}
+		if (!ids.equals(expectedTable.keySet())) {
+			different++;
+		}
+		System.out.println("maps: 300000 operations on a NodeTable, " + different + " different from HashMap");
+	}
+
+
+	private static void checkHeap() throws InterruptedException {
+		int count = 200000;
+		Random random = new Random(1);
+
+		long used = getUsedHeap();
+		Map<Long, Node> map = new HashMap<Long, Node>();
+		for (int i = 0; i < count; i++) {
+			long id = 100000000L + 7 * i;
+			map.put(id, new MobileNode(id, 48 + random.nextDouble(), 11 + random.nextDouble()));
+		}
+		long mapHeap = getUsedHeap() - used;
+
+		used = getUsedHeap();
+		Map<Long, Node> table = new NodeTable();
+		for (int i = 0; i < count; i++) {
+			long id = 100000000L + 7 * i;
+			table.put(id, new MobileNode(id, 48 + random.nextDouble(), 11 + random.nextDouble()));
+		}
+		long tableHeap = getUsedHeap() - used;
+
+		System.out.println("heap: " + count + " nodes, " + (mapHeap / count) + " bytes per node in a HashMap ("
+				+ map.size() + " nodes), " + (tableHeap / count) + " in a NodeTable (" + table.size() + " nodes)");
+	}
+
+
+	/**
+	 * returns true if both nodes are null or have the same id, coordinates and tags
+	 */
+	private static boolean isSame(Node node1, Node node2) {
+		if (node1 == null || node2 == null) {
+			return node1 == node2;
+		}
+		return node1.getId() == node2.getId()
+				&& Math.abs(node1.getLatitude() - node2.getLatitude()) < 1e-7
+				&& Math.abs(node1.getLongitude() - node2.getLongitude()) < 1e-7
+				&& node1.getTags().size() == node2.getTags().size();
+	}
+
+
+	/**
+	 * returns the used heap after running the garbage collector until it has not shrunk 3 times in a row
+	 */
+	private static long getUsedHeap() throws InterruptedException {
+		Runtime runtime = Runtime.getRuntime();
+		long used = Long.MAX_VALUE;
+		int unchanged = 0;
+		while (unchanged < 3) {
+			System.runFinalization();
+			System.gc();
+			Thread.sleep(100);
+			long nowUsed = runtime.totalMemory() - runtime.freeMemory();
+			unchanged = (nowUsed < used) ? 0 : unchanged + 1;
+			used = Math.min(used, nowUsed);
+		}
+		return used;
+	}
+
+}
@@ -55,6 +55,7 @@ import com.kangaroo.task.UrgencyTaskPriorityComparator;
 import com.kangaroo.tsm.osm.io.FileLoader;
 import com.mobiletsm.osm.MobileTSMDatabaseWriter;
 import com.mobiletsm.osm.OsmHelper;
+import com.mobiletsm.osm.data.LandmarkTable;
 import com.mobiletsm.osm.data.MobileDataSet;
 import com.mobiletsm.osm.data.adapters.RoutingSQLiteAdapter;
 import com.mobiletsm.osm.data.providers.DatabaseMDSProvider;
@@ -292,6 +293,8 @@ public class OSMFileReader {
 	public static void writeDatabase(IDataSet map, String filename) {
 		MobileTSMDatabaseWriter writer = new MobileTSMDatabaseWriter(filename);
 		writer.setLogStream(System.out);		
+		writer.setWriteContractionHierarchy(true);
+		writer.setLandmarkCount(LandmarkTable.DEFAULT_LANDMARK_COUNT);
 		writer.openDatabase();
 		writer.writeDatabaseV2(map);
 		System.out.print("closing database...");
@@ -0,0 +1,126 @@
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.openstreetmap.travelingsalesman.routing.IRouter;
+
+import com.mobiletsm.osm.data.MobileInterfaceDataSet;
+import com.mobiletsm.osm.data.adapters.RoutingSQLiteAdapter;
+import com.mobiletsm.osm.data.providers.DatabaseMDSProvider;
+import com.mobiletsm.routing.AllStreetVehicle;
+import com.mobiletsm.routing.Vehicle;
+import com.mobiletsm.routing.metrics.MobileRoutingMetric;
+
+
+/**
+ * Runs the same random routing queries back-to-back with each of the given
+ * routers and prints the time and the number of bytes allocated per query.
+ * The routing data sets are loaded in advance, so only the routers themselves
+ * are measured.
+ *
+ * usage: RoutingBenchmark database [queries [router ...]]
+ */
+public class RoutingBenchmark {
+
+
+	private static final String[] DEFAULT_ROUTERS = new String[] {
+		"MobileMultiTargetDijkstraRouter",
+		"MobileHeapDijkstraRouter",
+		"MobileGraphDijkstraRouter",
+		"MobileALTRouter",
+		"MobileCHRouter"
+	};
+
+
+	private static final int ROUNDS = 5;
+
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.out.println("usage: RoutingBenchmark database [queries [router ...]]");
+			return;
+		}
+		String database = args[0];
+		int queryCount = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+		String[] routers = DEFAULT_ROUTERS;
+		if (args.length > 2) {
+			routers = new String[args.length - 2];
+			System.arraycopy(args, 2, routers, 0, routers.length);
+		}
+
+		/* pick random pairs of street nodes */
+		Class.forName("org.sqlite.JDBC");
+		Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database);
+		ResultSet result = connection.createStatement().executeQuery(
+				"SELECT id FROM street_nodes_0 WHERE type=0");
+		List<Long> ids = new ArrayList<Long>();
+		while (result.next()) {
+			ids.add(result.getLong(1));
+		}
+		connection.close();
+
+		DatabaseMDSProvider provider = new DatabaseMDSProvider(new RoutingSQLiteAdapter());
+		if (!provider.open("jdbc:sqlite:" + database)) {
+			System.out.println("RoutingBenchmark: could not open " + database);
+			return;
+		}
+		Vehicle vehicle = new AllStreetVehicle(50);
+
+		Random random = new Random(1);
+		List<MobileInterfaceDataSet> dataSets = new ArrayList<MobileInterfaceDataSet>();
+		List<long[]> queries = new ArrayList<long[]>();
+		while (queries.size() < queryCount) {
+			long fromId = ids.get(random.nextInt(ids.size()));
+			long toId = ids.get(random.nextInt(ids.size()));
+			if (fromId == toId) {
+				continue;
+			}
+			MobileInterfaceDataSet dataSet;
+			try {
+				dataSet = provider.getRoutingDataSet(fromId, toId, null);
+			} catch (RuntimeException e) {
+				/* skip pairs the provider fails to load */
+				continue;
+			}
+			dataSets.add(dataSet);
+			queries.add(new long[] { fromId, toId });
+		}
+
+		com.sun.management.ThreadMXBean threads =
+			(com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+
+		for (String name : routers) {
+			IRouter router = (IRouter)Class.forName("com.mobiletsm.routing.routers." + name).newInstance();
+			router.setMetric(new MobileRoutingMetric());
+
+			/* all but the last round warm up the router */
+			for (int round = 0; round < ROUNDS; round++) {
+				int found = 0;
+				long bytes = threads.getThreadAllocatedBytes(thread);
+				long time = System.nanoTime();
+				for (int i = 0; i < queries.size(); i++) {
+					MobileInterfaceDataSet dataSet = dataSets.get(i);
+					long[] query = queries.get(i);
+					if (router.route(dataSet, dataSet.getNodeByID(query[1]),
+							dataSet.getNodeByID(query[0]), vehicle) != null) {
+						found++;
+					}
+				}
+				time = System.nanoTime() - time;
+				bytes = threads.getThreadAllocatedBytes(thread) - bytes;
+				if (round == ROUNDS - 1) {
+					System.out.println(name + ": " + (time / 1000 / queries.size()) + " us/query, "
+							+ (bytes / queries.size()) + " bytes/query, " + found + " routes found");
+				}
+			}
+		}
+
+		provider.close();
+	}
+
+}
@@ -0,0 +1,357 @@
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.mobiletsm.routing.AllStreetVehicle;
+import com.mobiletsm.routing.MobileTSMRouteParameter;
+import com.mobiletsm.routing.MobileTSMRoutingEngine;
+import com.mobiletsm.routing.Place;
+import com.mobiletsm.routing.RouteParameter;
+import com.mobiletsm.routing.RoutingCache;
+import com.mobiletsm.routing.Vehicle;
+
+
+/**
+ * Checks the routing cache of the MobileTSMRoutingEngine on random routes
+ * between the street nodes of the given database and prints the results of
+ * the given cases:
+ *
+ * concurrent: requests for the same routes from several threads share one
+ * calculation per route, and distinct routes requested from several threads
+ * (with the routing graph of the whole map and of 9 map tiles) have the
+ * lengths found one at a time by an engine without a routing cache.
+ *
+ * snap: routes between GPS fixes jittered by about a metre around the same
+ * places are found in the cache (as the fixes snap to the same street nodes),
+ * have the lengths found by an engine without a routing cache and start and
+ * end at the places requested.
+ *
+ * parts: routes between two street nodes of a cached route are taken from
+ * it (in reverse, which is enabled here, if none of its ways is a oneway) and
+ * have the length and duration of travel found by an engine without a routing
+ * cache (reverse routes may be longer, if the shortest route leads along a
+ * oneway).
+ *
+ * usage: RoutingCacheCheck database [case ...]
+ */
+public class RoutingCacheCheck {
+
+
+	private static final String[] DEFAULT_CASES = new String[] {
+		"concurrent",
+		"snap",
+		"parts"
+	};
+
+
+	private static final int THREADS = 16;
+
+
+	/* street nodes of the database (id, latitude, longitude) */
+	private static List<double[]> streetNodes = new ArrayList<double[]>();
+
+
+	/* the engines log every route, which is not printed */
+	private static PrintStream out = System.out;
+
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.out.println("usage: RoutingCacheCheck database [case ...]");
+			return;
+		}
+		String database = args[0];
+		String[] cases = DEFAULT_CASES;
+		if (args.length > 1) {
+			cases = new String[args.length - 1];
+			System.arraycopy(args, 1, cases, 0, cases.length);
+		}
+
+		Class.forName("org.sqlite.JDBC");
+		Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database);
+		ResultSet result = connection.createStatement().executeQuery(
+				"SELECT id, lat, lon FROM street_nodes_0 WHERE type=0");
+		while (result.next()) {
+			streetNodes.add(new double[] {result.getLong(1), result.getDouble(2), result.getDouble(3)});
+		}
+		connection.close();
+
+		for (String name : cases) {
+			System.setOut(new PrintStream(new ByteArrayOutputStream()));
+			try {
+				if (name.equals("concurrent")) {
+					checkConcurrent(database);
+				} else if (name.equals("snap")) {
+					checkSnap(database);
+				} else if (name.equals("parts")) {
+					checkParts(database);
+				} else {
+					out.println("RoutingCacheCheck: unknown case " + name);
+				}
+			} finally {
+				System.setOut(out);
+			}
+		}
+	}
+
+
+	private static void checkConcurrent(String database) throws Exception {
+		final Vehicle vehicle = new AllStreetVehicle(50);
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+
+		/* 64 requests for 4 routes, calculated by a callable that takes its time */
+		final RoutingCache cache = new RoutingCache();
+		final AtomicInteger calculations = new AtomicInteger();
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Future<RouteParameter>> requests = new ArrayList<Future<RouteParameter>>();
+		for (int i = 0; i < 64; i++) {
+			final double[] from = streetNodes.get(0);
+			final double[] to = streetNodes.get(1 + i % 4);
+			requests.add(executor.submit(new Callable<RouteParameter>() {
+				public RouteParameter call() throws Exception {
+					start.await();
+					return cache.getElement(getPlace(from), getPlace(to), vehicle, new Callable<RouteParameter>() {
+						public RouteParameter call() throws Exception {
+							calculations.incrementAndGet();
+							Thread.sleep(200);
+							return new MobileTSMRouteParameter(0, 0, new long[] {(long)from[0], (long)to[0]}, vehicle);
+						}
+					});
+				}
+			}));
+		}
+		start.countDown();
+		for (Future<RouteParameter> request : requests) {
+			request.get();
+		}
+		executor.shutdown();
+		out.println("concurrent: " + requests.size() + " requests for 4 routes, " + calculations.get()
+				+ " calculations, " + cache.getJoins() + " joins");
+
+		/* distinct routes with the routing graph of the whole map and of some map tiles */
+		checkConcurrentRoutes(database, 0);
+		checkConcurrentRoutes(database, 9);
+	}
+
+
+	/**
+	 * route distinct routes one at a time, then from several threads by an
+	 * engine holding the routing graph for the given number of map tiles
+	 */
+	private static void checkConcurrentRoutes(String database, int maxTiles) throws Exception {
+		final Vehicle vehicle = new AllStreetVehicle(50);
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+
+		MobileTSMRoutingEngine plainEngine = new MobileTSMRoutingEngine();
+		plainEngine.init(database);
+		plainEngine.disableRoutingCache();
+		final MobileTSMRoutingEngine engine = new MobileTSMRoutingEngine();
+		engine.setMaxTiles(maxTiles);
+		engine.init(database);
+		engine.enableRoutingCache();
+
+		Random random = new Random(5);
+		final List<double[][]> routes = new ArrayList<double[][]>();
+		final List<RouteParameter> expected = new ArrayList<RouteParameter>();
+		int skipped = 0;
+		while (routes.size() < 300) {
+			double[] from = streetNodes.get(random.nextInt(streetNodes.size()));
+			double[] to = streetNodes.get(random.nextInt(streetNodes.size()));
+			try {
+				expected.add(plainEngine.routeFromTo(getPlace(from), getPlace(to), vehicle));
+				routes.add(new double[][] {from, to});
+			} catch (RuntimeException e) {
+				/* routes failing one at a time are left out */
+				skipped++;
+			}
+		}
+
+		List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+		for (int k = 0; k < 4; k++) {
+			for (int i = 0; i < routes.size(); i++) {
+				final double[][] route = routes.get(i);
+				final RouteParameter expectedRoute = expected.get(i);
+				results.add(executor.submit(new Callable<Boolean>() {
+					public Boolean call() {
+						RouteParameter found = engine.routeFromTo(getPlace(route[0]), getPlace(route[1]), vehicle);
+						return isSame(found, expectedRoute);
+					}
+				}));
+			}
+		}
+		int different = 0;
+		int failed = 0;
+		for (Future<Boolean> result : results) {
+			try {
+				if (!result.get()) {
+					different++;
+				}
+			} catch (Exception e) {
+				e.printStackTrace();
+				failed++;
+			}
+		}
+		executor.shutdown();
+		out.println("concurrent: " + results.size() + " requests for " + routes.size() + " routes from "
+				+ THREADS + " threads (" + maxTiles + " tiles), " + different
+				+ " different from routes found one at a time, " + failed + " failed ("
+				+ skipped + " routes failing one at a time left out)");
+		out.println("concurrent: " + engine.getRoutingCache());
+
+		plainEngine.shutdown();
+		engine.shutdown();
+	}
+
+
+	private static void checkSnap(String database) {
+		Vehicle vehicle = new AllStreetVehicle(50);
+		MobileTSMRoutingEngine plainEngine = new MobileTSMRoutingEngine();
+		plainEngine.init(database);
+		plainEngine.disableRoutingCache();
+		MobileTSMRoutingEngine engine = new MobileTSMRoutingEngine();
+		engine.init(database);
+		engine.enableRoutingCache();
+
+		Random random = new Random(5);
+		int routes = 0;
+		int different = 0;
+		int otherPlaces = 0;
+		for (int i = 0; i < 15; i++) {
+			double[] from = streetNodes.get(random.nextInt(streetNodes.size()));
+			double[] to = streetNodes.get(random.nextInt(streetNodes.size()));
+			for (int j = 0; j < 5; j++) {
+				Place fromPlace = new Place(from[1] + random.nextGaussian() * 1e-5, from[2] + random.nextGaussian() * 1e-5);
+				Place toPlace = getPlace(to);
+				/* the places are updated on every other request */
+				boolean updatePlaces = j % 2 == 0;
+				RouteParameter found = engine.routeFromTo(fromPlace, toPlace, vehicle, updatePlaces);
+				RouteParameter expected = plainEngine.routeFromTo(new Place(fromPlace), new Place(toPlace),
+						vehicle, false);
+				routes++;
+				if (!isSame(found, expected)) {
+					different++;
+				}
+				if (!found.getStartPlace().equalsCoordinates(fromPlace)
+						|| !found.getDestinationPlace().equalsCoordinates(toPlace)) {
+					otherPlaces++;
+				}
+			}
+		}
+		out.println("snap: " + routes + " routes, " + different + " different from routes found without a cache, "
+				+ otherPlaces + " with other places than requested");
+		out.println("snap: " + engine.getRoutingCache());
+
+		plainEngine.shutdown();
+		engine.shutdown();
+	}
+
+
+	private static void checkParts(String database) {
+		Vehicle vehicle = new AllStreetVehicle(50);
+		MobileTSMRoutingEngine plainEngine = new MobileTSMRoutingEngine();
+		plainEngine.init(database);
+		plainEngine.disableRoutingCache();
+		MobileTSMRoutingEngine engine = new MobileTSMRoutingEngine();
+		engine.init(database);
+		engine.enableRoutingCache();
+		RoutingCache cache = engine.getRoutingCache();
+		cache.setReverseRoutes(true);
+
+		/* coordinates of the street nodes by id */
+		Map<Long, double[]> streetNodesById = new HashMap<Long, double[]>();
+		for (double[] streetNode : streetNodes) {
+			streetNodesById.put((long)streetNode[0], streetNode);
+		}
+
+		Random random = new Random(7);
+		int parts = 0;
+		int differentParts = 0;
+		int reverseParts = 0;
+		int longerReverseParts = 0;
+		int shorterReverseParts = 0;
+		int reverseRouted = 0;
+		for (int i = 0; i < 40; i++) {
+			double[] from = streetNodes.get(random.nextInt(streetNodes.size()));
+			double[] to = streetNodes.get(random.nextInt(streetNodes.size()));
+			long[] nodeIds = engine.routeFromTo(getPlace(from), getPlace(to), vehicle).getNodeIds();
+			if (nodeIds == null || nodeIds.length < 3) {
+				continue;
+			}
+			for (int k = 0; k < 3; k++) {
+				int first = random.nextInt(nodeIds.length);
+				int last = random.nextInt(nodeIds.length);
+				double[] streetNode1 = streetNodesById.get(nodeIds[Math.min(first, last)]);
+				double[] streetNode2 = streetNodesById.get(nodeIds[Math.max(first, last)]);
+				if (streetNode1 == null || streetNode2 == null || streetNode1 == streetNode2) {
+					continue;
+				}
+				Place place1 = getPlace(streetNode1);
+				Place place2 = getPlace(streetNode2);
+
+				/* the part in the direction of the cached route */
+				long partHits = cache.getPartHits();
+				RouteParameter found = engine.routeFromTo(new Place(place1), new Place(place2), vehicle);
+				RouteParameter expected = plainEngine.routeFromTo(new Place(place1), new Place(place2), vehicle);
+				parts++;
+				if (cache.getPartHits() == partHits || !isSame(found, expected)
+						|| Math.abs(found.getDurationOfTravel() - expected.getDurationOfTravel()) > 1e-6) {
+					differentParts++;
+				}
+
+				/* the part in reverse */
+				partHits = cache.getPartHits();
+				found = engine.routeFromTo(new Place(place2), new Place(place1), vehicle);
+				expected = plainEngine.routeFromTo(new Place(place2), new Place(place1), vehicle);
+				if (cache.getPartHits() == partHits) {
+					reverseRouted++;
+				} else {
+					reverseParts++;
+					if (found.getLength() > expected.getLength() + 1e-6) {
+						longerReverseParts++;
+					} else if (found.getLength() < expected.getLength() - 1e-6) {
+						shorterReverseParts++;
+					}
+				}
+			}
+		}
+		out.println("parts: " + parts + " parts of cached routes, " + differentParts
+				+ " not taken from the cache or different from routes found without a cache");
+		out.println("parts: " + reverseParts + " parts in reverse, " + longerReverseParts + " longer and "
+				+ shorterReverseParts + " shorter than routes found without a cache, "
+				+ reverseRouted + " routed as a cached route leads along a oneway");
+		out.println("parts: " + cache);
+
+		plainEngine.shutdown();
+		engine.shutdown();
+	}
+
+
+	/**
+	 * returns a place at the coordinates of the given street node
+	 */
+	private static Place getPlace(double[] streetNode) {
+		return new Place(streetNode[1], streetNode[2]);
+	}
+
+
+	private static boolean isSame(RouteParameter route1, RouteParameter route2) {
+		if (route1.getNoRouteFound() || route2.getNoRouteFound()) {
+			return route1.getNoRouteFound() == route2.getNoRouteFound();
+		}
+		return Math.abs(route1.getLength() - route2.getLength()) < 1e-6;
+	}
+
+}
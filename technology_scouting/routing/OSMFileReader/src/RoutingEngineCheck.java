@@ -0,0 +1,355 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+
+import org.openstreetmap.osmosis.core.domain.v0_6.Node;
+import org.openstreetmap.osmosis.core.domain.v0_6.Way;
+import org.openstreetmap.travelingsalesman.routing.IRouter;
+import org.openstreetmap.travelingsalesman.routing.Route;
+
+import com.mobiletsm.osm.data.MobileInterfaceDataSet;
+import com.mobiletsm.osm.data.RoutingGraphFile;
+import com.mobiletsm.osm.data.adapters.RoutingSQLiteAdapter;
+import com.mobiletsm.osm.data.providers.DatabaseMDSProvider;
+import com.mobiletsm.routing.AllStreetVehicle;
+import com.mobiletsm.routing.MobileTSMRouteParameter;
+import com.mobiletsm.routing.MobileTSMRoutingEngine;
+import com.mobiletsm.routing.Place;
+import com.mobiletsm.routing.RouteParameter;
+import com.mobiletsm.routing.Vehicle;
+import com.mobiletsm.routing.metrics.MobileRoutingMetric;
+import com.mobiletsm.routing.routers.MobileCHRouter;
+
+
+/**
+ * Checks the MobileTSMRoutingEngine on random routes between the street
+ * nodes of the given database and prints the results of the given cases:
+ *
+ * trees: routes from origins routes often start from are found by trees
+ * grown from the origins and have the lengths found by MobileCHRouter.
+ *
+ * graph: routes found with the graph file next to the database have the
+ * lengths of the routes found on a copy of the database without the graph
+ * file (the graph built from the street nodes and ways). The graph file is
+ * not mapped for a copy of the database imported again (with another stamp).
+ * Prints the time and heap taken by loading the routing data set with and
+ * without the graph file.
+ *
+ * lengths: prints the lengths of 400 random routes found with the routing
+ * graph of the whole map and of 9 map tiles, run on other versions and
+ * compare the output.
+ *
+ * usage: RoutingEngineCheck database [case ...]
+ */
+public class RoutingEngineCheck {
+
+
+	private static final String[] DEFAULT_CASES = new String[] {
+		"trees",
+		"graph"
+	};
+
+
+	/* street nodes of the database (id, latitude, longitude) */
+	private static List<double[]> streetNodes = new ArrayList<double[]>();
+
+
+	/* the engines log every route, which is not printed */
+	private static PrintStream out = System.out;
+
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.out.println("usage: RoutingEngineCheck database [case ...]");
+			return;
+		}
+		String database = args[0];
+		String[] cases = DEFAULT_CASES;
+		if (args.length > 1) {
+			cases = new String[args.length - 1];
+			System.arraycopy(args, 1, cases, 0, cases.length);
+		}
+
+		Class.forName("org.sqlite.JDBC");
+		Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database);
+		ResultSet result = connection.createStatement().executeQuery(
+				"SELECT id, lat, lon FROM street_nodes_0 WHERE type=0");
+		while (result.next()) {
+			streetNodes.add(new double[] {result.getLong(1), result.getDouble(2), result.getDouble(3)});
+		}
+		connection.close();
+
+		for (String name : cases) {
+			System.setOut(new PrintStream(new ByteArrayOutputStream()));
+			try {
+				if (name.equals("trees")) {
+					checkTrees(database);
+				} else if (name.equals("graph")) {
+					checkGraph(database);
+				} else if (name.equals("lengths")) {
+					printLengths(database);
+				} else {
+					out.println("RoutingEngineCheck: unknown case " + name);
+				}
+			} finally {
+				System.setOut(out);
+			}
+		}
+	}
+
+
+	private static void checkTrees(String database) {
+		Vehicle vehicle = new AllStreetVehicle(50);
+		MobileTSMRoutingEngine engine = new MobileTSMRoutingEngine();
+		engine.init(database);
+		engine.disableRoutingCache();
+
+		DatabaseMDSProvider provider = new DatabaseMDSProvider(new RoutingSQLiteAdapter());
+		provider.open("jdbc:sqlite:" + database);
+		IRouter router = new MobileCHRouter();
+		router.setMetric(new MobileRoutingMetric());
+
+		Random random = new Random(11);
+		int routes = 0;
+		int different = 0;
+		int failed = 0;
+		for (int i = 0; i < 3; i++) {
+			double[] from = streetNodes.get(random.nextInt(streetNodes.size()));
+			long fromId = (long)from[0];
+			for (int j = 0; j < 30; j++) {
+				double[] to = streetNodes.get(random.nextInt(streetNodes.size()));
+				long toId = (long)to[0];
+				if (toId == fromId) {
+					continue;
+				}
+
+				RouteParameter expected;
+				RouteParameter found;
+				try {
+					MobileInterfaceDataSet dataSet = provider.getRoutingDataSet(fromId, toId, null);
+					Route route = router.route(dataSet, dataSet.getNodeByID(toId), dataSet.getNodeByID(fromId), vehicle);
+					if (route != null) {
+						expected = new MobileTSMRouteParameter(route, vehicle);
+					} else {
+						expected = new MobileTSMRouteParameter(RouteParameter.ROUTE_PARAMETER_NO_ROUTE_FOUND, vehicle);
+					}
+					found = engine.routeFromTo(getPlace(from), getPlace(to), vehicle);
+				} catch (RuntimeException e) {
+					failed++;
+					continue;
+				}
+
+				routes++;
+				if (!isSame(found, expected)) {
+					different++;
+				}
+			}
+		}
+		out.println("trees: " + routes + " routes from 3 origins, " + engine.getOriginTreeCount()
+				+ " trees grown, " + different + " different from routes found by MobileCHRouter, "
+				+ failed + " failed");
+
+		provider.close();
+		engine.shutdown();
+	}
+
+
+	private static void checkGraph(String database) throws Exception {
+		if (!new File(RoutingGraphFile.getFileName(database)).isFile()) {
+			out.println("graph: no graph file " + RoutingGraphFile.getFileName(database));
+			return;
+		}
+		/* a copy of the database without the graph file */
+		File copy = File.createTempFile("RoutingEngineCheck", ".db");
+		copy.deleteOnExit();
+		copyFile(new File(database), copy);
+
+		Vehicle vehicle = new AllStreetVehicle(50);
+		MobileTSMRoutingEngine engineWithFile = new MobileTSMRoutingEngine();
+		engineWithFile.init(database);
+		engineWithFile.disableRoutingCache();
+		MobileTSMRoutingEngine engineWithoutFile = new MobileTSMRoutingEngine();
+		engineWithoutFile.init(copy.getPath());
+		engineWithoutFile.disableRoutingCache();
+
+		Random random = new Random(13);
+		int different = 0;
+		for (int i = 0; i < 400; i++) {
+			double[] from = streetNodes.get(random.nextInt(streetNodes.size()));
+			double[] to = streetNodes.get(random.nextInt(streetNodes.size()));
+			RouteParameter routeWithFile = engineWithFile.routeFromTo(getPlace(from), getPlace(to), vehicle);
+			RouteParameter routeWithoutFile = engineWithoutFile.routeFromTo(getPlace(from), getPlace(to), vehicle);
+			if (!isSame(routeWithFile, routeWithoutFile)) {
+				different++;
+			}
+		}
+		engineWithFile.shutdown();
+		engineWithoutFile.shutdown();
+		out.println("graph: 400 routes, " + different + " different with and without the graph file");
+
+		/* a copy of the database imported again, next to the graph file of the earlier import */
+		File reimported = File.createTempFile("RoutingEngineCheck", ".db");
+		reimported.deleteOnExit();
+		copyFile(new File(database), reimported);
+		File oldGraphFile = new File(RoutingGraphFile.getFileName(reimported.getPath()));
+		oldGraphFile.deleteOnExit();
+		copyFile(new File(RoutingGraphFile.getFileName(database)), oldGraphFile);
+		Connection connection = DriverManager.getConnection("jdbc:sqlite:" + reimported.getPath());
+		connection.createStatement().executeUpdate("UPDATE routing_graph_0 SET stamp = stamp + 1;");
+		connection.close();
+		out.println("graph: graph file " + getMapped(database) + " for its database, "
+				+ getMapped(reimported.getPath()) + " for a copy imported again");
+
+		/* loaded twice each, the first time with the classes still to be loaded */
+		for (int i = 1; i <= 2; i++) {
+			String withFile = getLoadStatistics(database);
+			String withoutFile = getLoadStatistics(copy.getPath());
+			out.println("graph: routing data set loaded (" + i + ". time) in " + withFile + " with the graph file, "
+					+ withoutFile + " without");
+		}
+	}
+
+
+	private static void printLengths(String database) {
+		Vehicle vehicle = new AllStreetVehicle(50);
+		MobileTSMRoutingEngine engine = new MobileTSMRoutingEngine();
+		engine.init(database);
+		engine.disableRoutingCache();
+		MobileTSMRoutingEngine tiledEngine = new MobileTSMRoutingEngine();
+		tiledEngine.setMaxTiles(9);
+		tiledEngine.init(database);
+		tiledEngine.disableRoutingCache();
+
+		Random random = new Random(17);
+		for (int i = 0; i < 400; i++) {
+			double[] from = streetNodes.get(random.nextInt(streetNodes.size()));
+			double[] to = streetNodes.get(random.nextInt(streetNodes.size()));
+			RouteParameter route = engine.routeFromTo(getPlace(from), getPlace(to), vehicle);
+			RouteParameter tiledRoute = tiledEngine.routeFromTo(getPlace(from), getPlace(to), vehicle);
+			out.println("lengths: " + (long)from[0] + " " + (long)to[0] + " " + getLength(route)
+					+ " " + getLength(tiledRoute));
+		}
+		engine.shutdown();
+		tiledEngine.shutdown();
+	}
+
+
+	private static String getLength(RouteParameter route) {
+		return route.getNoRouteFound() ? "none" : String.format(Locale.US, "%.3f", route.getLength());
+	}
+
+
+	/**
+	 * tells if the graph file next to the given database is mapped
+	 */
+	private static String getMapped(String database) {
+		RoutingSQLiteAdapter adapter = new RoutingSQLiteAdapter();
+		adapter.open("jdbc:sqlite:" + database);
+		adapter.setMaps(new HashMap<Long, Node>(), new HashMap<Long, Node>(), new HashMap<Long, Way>(),
+				new HashMap<Long, Way>(), new HashMap<Long, Set<Long>>());
+		try {
+			return adapter.loadRoutingGraph() != null ? "mapped" : "not found";
+		} catch (RuntimeException e) {
+			return "not mapped (" + e.getMessage() + ")";
+		} finally {
+			adapter.close();
+		}
+	}
+
+
+	/**
+	 * returns the time and heap taken by loading the routing data set of the given database
+	 */
+	private static String getLoadStatistics(String database) throws InterruptedException {
+		DatabaseMDSProvider provider = new DatabaseMDSProvider(new RoutingSQLiteAdapter());
+		provider.open("jdbc:sqlite:" + database);
+		long fromId = (long)streetNodes.get(0)[0];
+		long toId = (long)streetNodes.get(streetNodes.size() - 1)[0];
+
+		Runtime runtime = Runtime.getRuntime();
+		collectGarbage();
+		long heap = runtime.totalMemory() - runtime.freeMemory();
+		long time = System.nanoTime();
+		MobileInterfaceDataSet dataSet = provider.getRoutingDataSet(fromId, toId, null);
+		time = System.nanoTime() - time;
+		collectGarbage();
+		heap = runtime.totalMemory() - runtime.freeMemory() - heap;
+
+		/* keep the data set (and the graph held by the provider) until measured */
+		if (dataSet.getNodeByID(fromId) == null) {
+			out.println("graph: node " + fromId + " not found");
+		}
+		provider.close();
+		return (time / 1000000) + " ms and " + (heap / 1024) + " KB";
+	}
+
+
+	/**
+	 * runs the garbage collector until the used heap has not shrunk 3 times in a row
+	 */
+	private static void collectGarbage() throws InterruptedException {
+		Runtime runtime = Runtime.getRuntime();
+		long used = Long.MAX_VALUE;
+		int unchanged = 0;
+		while (unchanged < 3) {
+			System.runFinalization();
+			System.gc();
+			Thread.sleep(100);
+			long nowUsed = runtime.totalMemory() - runtime.freeMemory();
+			unchanged = (nowUsed < used) ? 0 : unchanged + 1;
+			used = Math.min(used, nowUsed);
+		}
+	}
+
+
+	private static void copyFile(File source, File target) throws IOException {
+		InputStream in = new FileInputStream(source);
+		try {
+			OutputStream fileOut = new FileOutputStream(target);
+			try {
+				byte[] buffer = new byte[65536];
+				int count;
+				while ((count = in.read(buffer)) != -1) {
+					fileOut.write(buffer, 0, count);
+				}
+			} finally {
+				fileOut.close();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+
+	/**
+	 * returns a place at the coordinates of the given street node
+	 */
+	private static Place getPlace(double[] streetNode) {
+		Place place = new Place(streetNode[1], streetNode[2]);
+		place.setNearestOsmStreetNodeId((long)streetNode[0]);
+		return place;
+	}
+
+
+	private static boolean isSame(RouteParameter route1, RouteParameter route2) {
+		if (route1.getNoRouteFound() || route2.getNoRouteFound()) {
+			return route1.getNoRouteFound() == route2.getNoRouteFound();
+		}
+		return Math.abs(route1.getLength() - route2.getLength()) < 1e-3;
+	}
+
+}
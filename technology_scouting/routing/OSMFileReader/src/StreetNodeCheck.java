@@ -0,0 +1,471 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.openstreetmap.osm.ConfigurationSection;
+import org.openstreetmap.osm.data.IDataSet;
+import org.openstreetmap.osmosis.core.domain.v0_6.Node;
+import org.openstreetmap.osmosis.core.domain.v0_6.Relation;
+import org.openstreetmap.osmosis.core.domain.v0_6.Way;
+
+import com.mobiletsm.osm.MobileTSMDatabaseWriter;
+import com.mobiletsm.osm.data.CellGrid;
+import com.mobiletsm.osm.data.adapters.RoutingSQLiteAdapter;
+import com.mobiletsm.osm.data.providers.DatabaseMDSProvider;
+import com.mobiletsm.routing.Place;
+import com.mobiletsm.routing.Vehicle;
+
+
+/**
+ * Checks the look ups of street nodes around places of the given database
+ * and prints the results of the given cases:
+ *
+ * cells: the street nodes around random places are the same with and without
+ * the cell index of the street nodes (on a copy of the database the index is
+ * added to or dropped from), and the cell index is used by SQLite.
+ *
+ * nearest: the nearest street nodes of random places found by the
+ * DatabaseMDSProvider are as near as the nearest ones found by searching all
+ * street nodes. Prints the time of the look ups, run on older versions to compare.
+ *
+ * nearestk: the same for the 5 nearest street nodes, with and without a vehicle
+ * that may use every third way only.
+ *
+ * snap: snapping random places to their nearest street nodes at once gives
+ * the same street nodes as looking them up one by one (each on a new
+ * DatabaseMDSProvider), also for places snapped twice. Prints both times.
+ *
+ * usage: StreetNodeCheck database [case ...]
+ */
+public class StreetNodeCheck {
+
+
+	private static final String[] DEFAULT_CASES = new String[] {
+		"cells",
+		"nearest",
+		"nearestk",
+		"snap"
+	};
+
+
+	/* street nodes of the database (id, latitude, longitude) */
+	private static List<double[]> streetNodes = new ArrayList<double[]>();
+
+
+	/* maximum distance of the nearest street node searched by DatabaseMDSProvider in meters */
+	private static final int MAX_DISTANCE = 5000;
+
+
+	/* the adapters and providers log every query, which is not printed */
+	private static PrintStream out = System.out;
+
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.out.println("usage: StreetNodeCheck database [case ...]");
+			return;
+		}
+		String database = args[0];
+		String[] cases = DEFAULT_CASES;
+		if (args.length > 1) {
+			cases = new String[args.length - 1];
+			System.arraycopy(args, 1, cases, 0, cases.length);
+		}
+
+		Class.forName("org.sqlite.JDBC");
+		Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database);
+		ResultSet result = connection.createStatement().executeQuery(
+				"SELECT id, lat, lon FROM street_nodes_0");
+		while (result.next()) {
+			streetNodes.add(new double[] {result.getLong(1), result.getDouble(2), result.getDouble(3)});
+		}
+		connection.close();
+
+		for (String name : cases) {
+			System.setOut(new PrintStream(new ByteArrayOutputStream()));
+			try {
+				if (name.equals("cells")) {
+					checkCells(database);
+				} else if (name.equals("nearest")) {
+					checkNearest(database);
+				} else if (name.equals("nearestk")) {
+					checkNearestK(database);
+				} else if (name.equals("snap")) {
+					checkSnap(database);
+				} else {
+					out.println("StreetNodeCheck: unknown case " + name);
+				}
+			} finally {
+				System.setOut(out);
+			}
+		}
+	}
+
+
+	private static void checkCells(String database) throws Exception {
+		/* a copy of the database with the cell index if the database has none and without otherwise */
+		File copy = File.createTempFile("StreetNodeCheck", ".db");
+		copy.deleteOnExit();
+		copyFile(new File(database), copy);
+		boolean indexed = hasCellIndex(database);
+		if (indexed) {
+			Connection connection = DriverManager.getConnection("jdbc:sqlite:" + copy.getPath());
+			connection.createStatement().executeUpdate(
+					"DROP INDEX " + MobileTSMDatabaseWriter.STREET_NODES_CELL_INDEX + ";");
+			connection.close();
+		} else {
+			MobileTSMDatabaseWriter writer = new MobileTSMDatabaseWriter("jdbc:sqlite:" + copy.getPath());
+			writer.openDatabase();
+			writer.writeCellIndexV2();
+			writer.closeDatabase();
+		}
+		String withIndex = indexed ? database : copy.getPath();
+		String withoutIndex = indexed ? copy.getPath() : database;
+
+		Map<Long, Node> nodesWithIndex = new HashMap<Long, Node>();
+		RoutingSQLiteAdapter adapterWithIndex = openAdapter(withIndex, nodesWithIndex);
+		Map<Long, Node> nodesWithoutIndex = new HashMap<Long, Node>();
+		RoutingSQLiteAdapter adapterWithoutIndex = openAdapter(withoutIndex, nodesWithoutIndex);
+
+		Random random = new Random(3);
+		int different = 0;
+		long timeWithIndex = 0;
+		long timeWithoutIndex = 0;
+		for (int i = 0; i < 200; i++) {
+			Place center = getRandomPlace(random, 0.005);
+			double radius = 100 + random.nextInt(500);
+
+			nodesWithIndex.clear();
+			long time = System.nanoTime();
+			adapterWithIndex.loadAllStreetNodesAround(center, radius);
+			timeWithIndex += System.nanoTime() - time;
+
+			nodesWithoutIndex.clear();
+			time = System.nanoTime();
+			adapterWithoutIndex.loadAllStreetNodesAround(center, radius);
+			timeWithoutIndex += System.nanoTime() - time;
+
+			if (!nodesWithIndex.keySet().equals(nodesWithoutIndex.keySet())) {
+				different++;
+			}
+		}
+		adapterWithIndex.close();
+		adapterWithoutIndex.close();
+
+		Set<Integer> cells = new HashSet<Integer>();
+		for (double[] streetNode : streetNodes) {
+			cells.add(CellGrid.getCell(streetNode[1], streetNode[2]));
+		}
+		out.println("cells: " + streetNodes.size() + " street nodes in " + cells.size() + " cells, "
+				+ "200 look ups, " + different + " different with and without the cell index");
+		out.println("cells: " + (timeWithIndex / 1000000) + " ms with the cell index, "
+				+ (timeWithoutIndex / 1000000) + " ms without");
+
+		/* the query plan of a look up by cells */
+		Connection connection = DriverManager.getConnection("jdbc:sqlite:" + withIndex);
+		ResultSet result = connection.createStatement().executeQuery(
+				"EXPLAIN QUERY PLAN SELECT id FROM street_nodes_0 WHERE cell IN (" + cells.iterator().next() + ");");
+		while (result.next()) {
+			StringBuffer plan = new StringBuffer("cells: query plan:");
+			for (int column = 1; column <= result.getMetaData().getColumnCount(); column++) {
+				plan.append(" ").append(result.getString(column));
+			}
+			out.println(plan);
+		}
+		connection.close();
+	}
+
+
+	private static void checkNearest(String database) {
+		DatabaseMDSProvider provider = new DatabaseMDSProvider(new RoutingSQLiteAdapter());
+		provider.open("jdbc:sqlite:" + database);
+
+		Random random = new Random(5);
+		int different = 0;
+		int notFound = 0;
+		long time = 0;
+		for (int i = 0; i < 500; i++) {
+			Place center = getRandomPlace(random, 0.01);
+			/* some places far from the street nodes */
+			if (i % 50 == 0) {
+				center = new Place(center.getLatitude() + 0.3, center.getLongitude());
+			}
+
+			long start = System.nanoTime();
+			Place found = provider.getNearestStreetNode(center, false);
+			time += System.nanoTime() - start;
+
+			double distance = Double.MAX_VALUE;
+			for (double[] streetNode : streetNodes) {
+				distance = Math.min(distance, center.distanceTo(streetNode[1], streetNode[2]));
+			}
+			if (found == null) {
+				notFound++;
+				if (distance < MAX_DISTANCE) {
+					different++;
+				}
+			} else if (Math.abs(center.distanceTo(found.getLatitude(), found.getLongitude()) - distance) > 1e-6) {
+				different++;
+			}
+		}
+		provider.close();
+		out.println("nearest: 500 look ups, " + different + " different from searching all street nodes, "
+				+ notFound + " without a street node within " + MAX_DISTANCE + " m, " + (time / 1000000) + " ms");
+	}
+
+
+	private static void checkNearestK(String database) {
+		DatabaseMDSProvider provider = new DatabaseMDSProvider(new RoutingSQLiteAdapter());
+		provider.open("jdbc:sqlite:" + database);
+		Map<Long, Way> ways = new HashMap<Long, Way>();
+		RoutingSQLiteAdapter adapter = new RoutingSQLiteAdapter();
+		adapter.setMaps(new HashMap<Long, Node>(), new HashMap<Long, Node>(), new HashMap<Long, Way>(),
+				ways, new HashMap<Long, Set<Long>>());
+		adapter.open("jdbc:sqlite:" + database);
+		Vehicle vehicle = new EveryThirdWayVehicle();
+
+		Random random = new Random(6);
+		int different = 0;
+		int rejected = 0;
+		for (int i = 0; i < 60; i++) {
+			final Place center = getRandomPlace(random, 0.01);
+			boolean useVehicle = i % 2 == 0;
+
+			/* the 5 nearest street nodes by searching all of them */
+			List<double[]> sorted = new ArrayList<double[]>(streetNodes);
+			Collections.sort(sorted, new Comparator<double[]>() {
+				public int compare(double[] node1, double[] node2) {
+					return Double.compare(center.distanceTo(node1[1], node1[2]), center.distanceTo(node2[1], node2[2]));
+				}
+			});
+			List<Double> distances = new ArrayList<Double>();
+			for (double[] streetNode : sorted) {
+				if (distances.size() == 5) {
+					break;
+				}
+				if (useVehicle) {
+					boolean allowed = false;
+					List<Long> wayIds = adapter.loadCompleteWaysForNodes((long)streetNode[0], -1);
+					adapter.loadReducedWays(wayIds);
+					for (Long wayId : wayIds) {
+						Way way = ways.get(wayId);
+						if (way != null && vehicle.isAllowed(null, way)) {
+							allowed = true;
+						}
+					}
+					if (!allowed) {
+						rejected++;
+						continue;
+					}
+				}
+				distances.add(center.distanceTo(streetNode[1], streetNode[2]));
+			}
+
+			List<Place> found = provider.getNearestStreetNodes(center, 5, useVehicle ? vehicle : null);
+			if (found.size() != distances.size()) {
+				different++;
+				continue;
+			}
+			for (int k = 0; k < found.size(); k++) {
+				Place place = found.get(k);
+				if (Math.abs(center.distanceTo(place.getLatitude(), place.getLongitude()) - distances.get(k)) > 1e-6) {
+					different++;
+					break;
+				}
+			}
+		}
+		adapter.close();
+		provider.close();
+		out.println("nearestk: 60 look ups of the 5 nearest street nodes (half of them for a vehicle), "
+				+ different + " different from searching all street nodes, "
+				+ rejected + " street nodes rejected for the vehicle");
+	}
+
+
+	private static void checkSnap(String database) {
+		Random random = new Random(7);
+		List<Place> places = new ArrayList<Place>();
+		List<Place> snapped = new ArrayList<Place>();
+		for (int i = 0; i < 300; i++) {
+			Place place = getRandomPlace(random, 0.01);
+			/* some places far from the street nodes */
+			if (i % 100 == 0) {
+				place = new Place(place.getLatitude() + 0.3, place.getLongitude());
+			}
+			places.add(place);
+			snapped.add(new Place(place.getLatitude(), place.getLongitude()));
+		}
+		/* the same place twice and a copy of a place */
+		snapped.add(snapped.get(3));
+		snapped.add(new Place(snapped.get(4).getLatitude(), snapped.get(4).getLongitude()));
+
+		/* snap other places both ways first, so neither is timed while classes are loaded */
+		Random warmUpRandom = new Random(8);
+		List<Place> warmUpPlaces = new ArrayList<Place>();
+		for (int i = 0; i < 50; i++) {
+			warmUpPlaces.add(getRandomPlace(warmUpRandom, 0.01));
+		}
+		DatabaseMDSProvider provider = new DatabaseMDSProvider(new RoutingSQLiteAdapter());
+		provider.open("jdbc:sqlite:" + database);
+		for (Place place : warmUpPlaces) {
+			provider.getNearestStreetNode(new Place(place.getLatitude(), place.getLongitude()), true);
+		}
+		provider.snapAll(warmUpPlaces);
+		provider.close();
+
+		provider = new DatabaseMDSProvider(new RoutingSQLiteAdapter());
+		provider.open("jdbc:sqlite:" + database);
+		long time = System.nanoTime();
+		for (Place place : places) {
+			provider.getNearestStreetNode(place, true);
+		}
+		long timeOneByOne = System.nanoTime() - time;
+		provider.close();
+
+		provider = new DatabaseMDSProvider(new RoutingSQLiteAdapter());
+		provider.open("jdbc:sqlite:" + database);
+		time = System.nanoTime();
+		int resolved = provider.snapAll(snapped);
+		long timeAtOnce = System.nanoTime() - time;
+		provider.close();
+
+		int different = 0;
+		int notFound = 0;
+		for (int i = 0; i < places.size(); i++) {
+			Place place = places.get(i);
+			Place snappedPlace = snapped.get(i);
+			if (!place.hasNearestOsmStreetNode()) {
+				notFound++;
+			}
+			if (place.hasNearestOsmStreetNode() != snappedPlace.hasNearestOsmStreetNode()
+					|| (place.hasNearestOsmStreetNode()
+							&& place.getNearestOsmStreetNodeId() != snappedPlace.getNearestOsmStreetNodeId())) {
+				different++;
+			}
+		}
+		Place copy = snapped.get(snapped.size() - 1);
+		if (copy.hasNearestOsmStreetNode() != places.get(4).hasNearestOsmStreetNode()
+				|| (copy.hasNearestOsmStreetNode()
+						&& copy.getNearestOsmStreetNodeId() != places.get(4).getNearestOsmStreetNodeId())) {
+			different++;
+		}
+		out.println("snap: 300 places, " + different + " different at once and one by one, "
+				+ notFound + " without a street node, " + resolved + " of " + snapped.size() + " snapped");
+		out.println("snap: " + (timeAtOnce / 1000000) + " ms at once, " + (timeOneByOne / 1000000) + " ms one by one");
+	}
+
+
+	/**
+	 * a vehicle that may use every third way (by id) only
+	 */
+	private static final class EveryThirdWayVehicle extends Vehicle {
+
+		@Override
+		public boolean equals(Object object) {
+			return object instanceof EveryThirdWayVehicle;
+		}
+
+		@Override
+		public boolean isAllowed(IDataSet map, Node node) {
+			return true;
+		}
+
+		@Override
+		public boolean isAllowed(IDataSet map, Way way) {
+			return way.getId() % 3 == 0;
+		}
+
+		@Override
+		public boolean isOneway(IDataSet map, Way way) {
+			return false;
+		}
+
+		@Override
+		public boolean isReverseOneway(IDataSet map, Way way) {
+			return false;
+		}
+
+		@Override
+		public boolean isAllowed(IDataSet map, Relation relation) {
+			return false;
+		}
+
+		@Override
+		public ConfigurationSection getSettings() {
+			return null;
+		}
+
+	}
+
+
+	private static RoutingSQLiteAdapter openAdapter(String database, Map<Long, Node> streetNodes) {
+		RoutingSQLiteAdapter adapter = new RoutingSQLiteAdapter();
+		adapter.setMaps(new HashMap<Long, Node>(), streetNodes, new HashMap<Long, Way>(),
+				new HashMap<Long, Way>(), new HashMap<Long, Set<Long>>());
+		if (!adapter.open("jdbc:sqlite:" + database)) {
+			throw new RuntimeException("StreetNodeCheck.openAdapter(): could not open " + database);
+		}
+		return adapter;
+	}
+
+
+	private static boolean hasCellIndex(String database) throws Exception {
+		Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database);
+		try {
+			Statement statement = connection.createStatement();
+			ResultSet result = statement.executeQuery("SELECT name FROM sqlite_master WHERE type = 'index' AND name = '"
+					+ MobileTSMDatabaseWriter.STREET_NODES_CELL_INDEX + "';");
+			return result.next();
+		} finally {
+			connection.close();
+		}
+	}
+
+
+	/**
+	 * returns a place at most the given number of degrees from a random street node
+	 */
+	private static Place getRandomPlace(Random random, double degrees) {
+		double[] streetNode = streetNodes.get(random.nextInt(streetNodes.size()));
+		return new Place(streetNode[1] + (2 * random.nextDouble() - 1) * degrees,
+				streetNode[2] + (2 * random.nextDouble() - 1) * degrees);
+	}
+
+
+	private static void copyFile(File source, File target) throws IOException {
+		InputStream in = new FileInputStream(source);
+		try {
+			OutputStream fileOut = new FileOutputStream(target);
+			try {
+				byte[] buffer = new byte[65536];
+				int count;
+				while ((count = in.read(buffer)) != -1) {
+					fileOut.write(buffer, 0, count);
+				}
+			} finally {
+				fileOut.close();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+}
@@ -1,3 +1,6 @@
+import java.util.Collection;
+import java.util.List;
+
 import org.openstreetmap.travelingsalesman.routing.IRouter;
 import org.openstreetmap.travelingsalesman.routing.Route;
 
@@ -9,6 +12,8 @@ import com.mobiletsm.osm.data.searching.POINodeSelector;
 import com.mobiletsm.routing.GeoConstraints;
 import com.mobiletsm.routing.MobileTSMRouteParameter;
 import com.mobiletsm.routing.Place;
+import com.mobiletsm.routing.ReachableSet;
+import com.mobiletsm.routing.RouteMatrix;
 import com.mobiletsm.routing.RouteParameter;
 import com.mobiletsm.routing.RoutingCache;
 import com.mobiletsm.routing.RoutingEngine;
@@ -152,6 +157,32 @@ public class TestRoutingEngine implements RoutingEngine {
 	}
 
 	
+	@Override
+	public RouteMatrix routeMatrix(List<Place> sources, List<Place> targets, Object vehicle) {
+		/* route every pair on its own */
+		RouteMatrix matrix = new RouteMatrix(sources.size(), targets.size());
+		for (int i = 0; i < sources.size(); i++) {
+			for (int j = 0; j < targets.size(); j++) {
+				matrix.setRouteParameter(i, j, routeFromTo(sources.get(i), targets.get(j), vehicle));
+			}
+		}
+		return matrix;
+	}
+
+	
+	@Override
+	public void setActiveDestination(Place destination, Object vehicle) {
+		/* every route is calculated on its own */
+	}
+
+
+	@Override
+	public ReachableSet reachable(Place from, Object vehicle, double maxMinutes) {
+		/* no reachable set is computed, so callers (like the optimizers) do not prune */
+		return null;
+	}
+
+	
 	@Override
 	public Place getNearestPOINode(Place center, Object selector, GeoConstraints limits) {
 		if (!(selector instanceof POINodeSelector)) {
@@ -164,11 +195,54 @@ public class TestRoutingEngine implements RoutingEngine {
 	}
 
 	
+	@Override
+	public RouteParameter routeToNearestPOINode(Place from, Object selector, Object vehicle) {
+		if (!(selector instanceof POINodeSelector)) {
+			throw new RuntimeException("TestRoutingEngine.routeToNearestPOINode(): Not a POINodeSelector");
+		}
+		
+		/* route to the POI node nearest by air */
+		Place poiPlace = provider.getNearestPOINode(from, (POINodeSelector)selector, null);
+		if (poiPlace == null) {
+			return null;
+		}
+		RouteParameter result = routeFromTo(from, poiPlace, vehicle);
+		return result.getNoRouteFound() ? null : result;
+	}
+
+	
+	@Override
+	public RouteParameter[] routeViaPOINode(Place from, Place to, Object selector, Object vehicle) {
+		if (!(selector instanceof POINodeSelector)) {
+			throw new RuntimeException("TestRoutingEngine.routeViaPOINode(): Not a POINodeSelector");
+		}
+		
+		/* route via the POI node with the smallest detour by air */
+		Place poiPlace = provider.getNearestPOINode(from, (POINodeSelector)selector, new GeoConstraints(to));
+		if (poiPlace == null) {
+			return null;
+		}
+		RouteParameter[] result = new RouteParameter[2];
+		result[0] = routeFromTo(from, poiPlace, vehicle);
+		result[1] = routeFromTo(poiPlace, to, vehicle);
+		if (result[0].getNoRouteFound() || result[1].getNoRouteFound()) {
+			return null;
+		}
+		return result;
+	}
+
+	
 	@Override
 	public Place getNearestStreetNode(Place center) {
 		throw new UnsupportedOperationException("getNearestStreetNode() not yet supported by TestRoutingEngine");
 	}
 	
+	
+	@Override
+	public int snapAll(Collection<Place> places) {
+		return provider.snapAll(places);
+	}
+	
 
 	@Override
 	public void shutdown() {